@@ -0,0 +1,141 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of concurrent requests with a limit adapted to the latency (AIMD). The limit
+ * grows by one with every request which completed within the target latency while the limit was
+ * in use, and shrinks by the backoff ratio with every request which was slower or failed. Requests
+ * beyond the limit are rejected, so an overloaded backend sees fewer requests instead of more.
+ * <p>
+ * Every acquired request must be completed with {@link #release(long, boolean)}.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class AdaptiveLimiter {
+    /** The default initial limit. */
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    /** The default minimum limit. */
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    /** The default maximum limit. */
+    public static final int DEFAULT_MAX_LIMIT = 200;
+    /** The default latency in milliseconds above which the limit is decreased. */
+    public static final long DEFAULT_TARGET_LATENCY = 500L;
+    /** The default ratio the limit is decreased with. */
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatency;
+    private final double backoffRatio;
+    private double limit;
+    private int inflight;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructor with the default limits, target latency and backoff ratio.
+     */
+    public AdaptiveLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_TARGET_LATENCY, DEFAULT_BACKOFF_RATIO);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param initialLimit the initial limit
+     * @param minLimit the minimum limit
+     * @param maxLimit the maximum limit
+     * @param targetLatency the latency in milliseconds above which the limit is decreased
+     * @param backoffRatio the ratio the limit is decreased with, between 0 and 1
+     */
+    public AdaptiveLimiter(final int initialLimit, final int minLimit, final int maxLimit, final long targetLatency, final double backoffRatio) {
+        if (minLimit < 1 || maxLimit < minLimit || backoffRatio <= 0.0 || backoffRatio >= 1.0) {
+            throw new IllegalArgumentException("Invalid limits or backoff ratio!");
+        }
+
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatency = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+        this.backoffRatio = backoffRatio;
+        limit = Math.min(Math.max(initialLimit, minLimit), maxLimit);
+    }
+
+
+    /**
+     * Acquires a slot for a request if the limit has not been reached.
+     *
+     * @return true if the request may proceed, false if it must be rejected
+     */
+    public synchronized boolean tryAcquire() {
+        if (inflight >= (int) limit) {
+            rejected.increment();
+            return false;
+        }
+
+        inflight++;
+        return true;
+    }
+
+
+    /**
+     * Releases the slot of a request and adapts the limit to its latency.
+     *
+     * @param latency the latency of the request in nanoseconds
+     * @param dropped true if the request failed, e.g. because the backend timed out
+     */
+    public synchronized void release(final long latency, final boolean dropped) {
+        // the limit is only increased if it was actually needed
+        final boolean saturated = inflight * 2 >= (int) limit;
+        inflight--;
+
+        if (dropped || latency > targetLatency) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (saturated) {
+            limit = Math.min(maxLimit, limit + 1.0);
+        }
+    }
+
+
+    /**
+     * @return the current limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+
+    /**
+     * @return the number of requests in progress
+     */
+    public synchronized int getInflight() {
+        return inflight;
+    }
+
+
+    /**
+     * @return the number of rejected requests
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+
+    @Override
+    public String toString() {
+        return "AdaptiveLimiter [limit=" + getLimit() + ", inflight=" + getInflight() + ", rejected=" + getRejected() + "]";
+    }
+}
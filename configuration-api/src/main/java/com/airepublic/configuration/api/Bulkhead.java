@@ -0,0 +1,103 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+
+/**
+ * Limits the number of concurrent calls to a backend, so a slow backend cannot tie up all threads
+ * of the application. Calls wait a limited time for a free slot and are rejected otherwise.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class Bulkhead {
+    private final int maxConcurrent;
+    private final long maxWait;
+    private final Semaphore permits;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param maxConcurrent the maximum number of concurrent calls
+     * @param maxWait the time in milliseconds a call waits for a free slot
+     */
+    public Bulkhead(final int maxConcurrent, final long maxWait) {
+        this.maxConcurrent = Math.max(maxConcurrent, 1);
+        this.maxWait = Math.max(maxWait, 0L);
+        permits = new Semaphore(this.maxConcurrent, true);
+    }
+
+
+    /**
+     * Waits for a free slot. The slot must be released with {@link #release()}.
+     *
+     * @throws ConfigurationServiceException (with ErrorCode.ERROR_UNAVAILABLE) if there was no
+     *         free slot within the maximum wait time
+     */
+    public void acquire() throws ConfigurationServiceException {
+        try {
+            if (permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        rejected.increment();
+        throw new ConfigurationServiceException(ErrorCode.ERROR_UNAVAILABLE, "Too many concurrent calls, the limit of " + maxConcurrent + " has been reached!");
+    }
+
+
+    /**
+     * Releases a slot acquired with {@link #acquire()}.
+     */
+    public void release() {
+        permits.release();
+    }
+
+
+    /**
+     * @return the maximum number of concurrent calls
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+
+    /**
+     * @return the number of calls currently running
+     */
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+
+    /**
+     * @return the number of rejected calls
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+
+    @Override
+    public String toString() {
+        return "Bulkhead [maxConcurrent=" + maxConcurrent + ", active=" + getActive() + ", rejected=" + getRejected() + "]";
+    }
+}
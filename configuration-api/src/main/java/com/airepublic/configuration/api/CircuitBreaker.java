@@ -0,0 +1,194 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A circuit breaker which stops calls to a failing backend, so the backend can recover instead of
+ * being flooded with calls which time out anyway.
+ * <p>
+ * The circuit opens after a number of consecutive failures. While it is open calls are rejected
+ * immediately. After the open duration the circuit is half-open and lets a limited number of
+ * probes through. A successful probe closes the circuit, a failed one opens it again.
+ * <p>
+ * Every permitted call must be followed by {@link #onSuccess(long)} or {@link #onFailure(long)}
+ * with the permit returned by {@link #acquire()}. Results of calls permitted before the state
+ * changed are ignored, so a slow call which succeeds after the circuit opened does not close it.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class CircuitBreaker {
+    /** The default number of consecutive failures which open the circuit. */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    /** The default time in milliseconds the circuit stays open. */
+    public static final long DEFAULT_OPEN_DURATION = 30000L;
+    /** The default number of probes let through while the circuit is half-open. */
+    public static final int DEFAULT_HALF_OPEN_PROBES = 1;
+    /** The permit of a rejected call. */
+    public static final long REJECTED = -1L;
+    private final int failureThreshold;
+    private final long openDuration;
+    private final int halfOpenProbes;
+    private State state = State.CLOSED;
+    private int failures;
+    private int probes;
+    private long openedAt;
+    // incremented on every change of the state, permits of an earlier state are stale
+    private long permit;
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * The state of the circuit.
+     */
+    public enum State {
+        /** Calls are permitted. */
+        CLOSED,
+        /** Calls are rejected. */
+        OPEN,
+        /** A limited number of probes is permitted. */
+        HALF_OPEN
+    }
+
+    /**
+     * Constructor with the default threshold, open duration and probes.
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION, DEFAULT_HALF_OPEN_PROBES);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param failureThreshold the number of consecutive failures which open the circuit
+     * @param openDuration the time in milliseconds the circuit stays open
+     * @param halfOpenProbes the number of probes let through while the circuit is half-open
+     */
+    public CircuitBreaker(final int failureThreshold, final long openDuration, final int halfOpenProbes) {
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.openDuration = Math.max(openDuration, 0L);
+        this.halfOpenProbes = Math.max(halfOpenProbes, 1);
+    }
+
+
+    /**
+     * Checks whether a call is permitted.
+     *
+     * @return the permit of the call or {@link #REJECTED} if it must be rejected
+     */
+    public synchronized long acquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDuration) {
+                rejected.increment();
+                return REJECTED;
+            }
+
+            transition(State.HALF_OPEN);
+            probes = 0;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (probes >= halfOpenProbes) {
+                rejected.increment();
+                return REJECTED;
+            }
+
+            probes++;
+        }
+
+        return permit;
+    }
+
+
+    /**
+     * Records a successful call, which closes the circuit if it was a probe of the half-open
+     * circuit.
+     *
+     * @param permit the permit of the call
+     */
+    public synchronized void onSuccess(final long permit) {
+        if (permit != this.permit) {
+            return;
+        }
+
+        failures = 0;
+
+        if (state == State.HALF_OPEN) {
+            transition(State.CLOSED);
+        }
+    }
+
+
+    /**
+     * Records a failed call, which opens a half-open circuit or a closed one after the failure
+     * threshold.
+     *
+     * @param permit the permit of the call
+     */
+    public synchronized void onFailure(final long permit) {
+        if (permit != this.permit) {
+            return;
+        }
+
+        if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+            transition(State.OPEN);
+            openedAt = System.currentTimeMillis();
+            failures = 0;
+            opened.increment();
+        }
+    }
+
+
+    private void transition(final State state) {
+        this.state = state;
+        permit++;
+    }
+
+
+    /**
+     * @return the state of the circuit, an open circuit is reported as half-open once the open
+     *         duration has elapsed
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) {
+            return State.HALF_OPEN;
+        }
+
+        return state;
+    }
+
+
+    /**
+     * @return the number of times the circuit opened
+     */
+    public long getOpened() {
+        return opened.sum();
+    }
+
+
+    /**
+     * @return the number of rejected calls
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker [state=" + getState() + ", opened=" + getOpened() + ", rejected=" + getRejected() + "]";
+    }
+}
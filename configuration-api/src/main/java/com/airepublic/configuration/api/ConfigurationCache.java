@@ -0,0 +1,456 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache for configurations supporting stale-while-revalidate and stale-if-error serving.
+ * <p>
+ * Entries are fresh for the time-to-live after they have been loaded. Afterwards they are stale
+ * but still usable for the maximum staleness:
+ * <ul>
+ * <li>if stale-while-revalidate is enabled a usable stale entry is returned immediately while it
+ * is reloaded asynchronously</li>
+ * <li>if loading fails a usable stale entry is returned instead of the error</li>
+ * </ul>
+ * Loaders are not coalesced by the cache itself, so callers should pass loaders which are already
+ * deduplicated, e.g. by a {@link RequestCoalescer}. A loaded value is only stored if the key has
+ * not been put or removed while it was loading, so a slow load cannot overwrite a newer value
+ * with an outdated one. The cache is bounded, if it is full the expired and then arbitrary entries
+ * are evicted.
+ *
+ * @param <V> the type of the cached values
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class ConfigurationCache<V> implements AutoCloseable {
+    /** The default maximum number of cached values. */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    // the number of stripes of the generations of the keys
+    private static final int GENERATIONS = 256;
+    private final long ttl;
+    private final long maxStale;
+    private final boolean staleWhileRevalidate;
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    // incremented when a key of the stripe is put or removed, so loads started before are discarded
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATIONS);
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final ExecutorService refreshExecutor;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleServed = new LongAdder();
+    private final LongAdder staleOnError = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * A cached value and the time it was loaded.
+     *
+     * @param <V> the type of the value
+     */
+    private static class Entry<V> {
+        private final V value;
+        private final long loadedAt;
+
+        private Entry(final V value, final long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * Constructor for a cache which does not store any values.
+     */
+    public ConfigurationCache() {
+        this(0L, 0L, false);
+    }
+
+
+    /**
+     * Constructor with the default maximum size.
+     *
+     * @param ttl the time in milliseconds an entry is fresh after it has been loaded
+     * @param maxStale the time in milliseconds an entry may be served after it has expired
+     * @param staleWhileRevalidate whether expired entries are served while they are reloaded
+     *        asynchronously
+     */
+    public ConfigurationCache(final long ttl, final long maxStale, final boolean staleWhileRevalidate) {
+        this(ttl, maxStale, staleWhileRevalidate, DEFAULT_MAX_SIZE);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param ttl the time in milliseconds an entry is fresh after it has been loaded
+     * @param maxStale the time in milliseconds an entry may be served after it has expired
+     * @param staleWhileRevalidate whether expired entries are served while they are reloaded
+     *        asynchronously
+     * @param maxSize the maximum number of cached values
+     */
+    public ConfigurationCache(final long ttl, final long maxStale, final boolean staleWhileRevalidate, final int maxSize) {
+        this.ttl = Math.max(ttl, 0L);
+        this.maxStale = Math.max(maxStale, 0L);
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.maxSize = Math.max(maxSize, 0);
+        refreshExecutor = Executors.newCachedThreadPool(r -> {
+            final Thread thread = new Thread(r, "configuration-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Gets the value for the key from the cache or the loader.
+     *
+     * @param key the key
+     * @param loader the loader to load the value if not cached or expired, may return null if
+     *        there is no value
+     * @return the value or null if there is none
+     * @throws Exception if the loader failed and there was no usable stale entry
+     */
+    public V get(final String key, final Callable<V> loader) throws Exception {
+        final long now = System.currentTimeMillis();
+        final Entry<V> entry = entries.get(key);
+
+        if (entry != null) {
+            if (isFresh(entry, now)) {
+                hits.increment();
+                return entry.value;
+            }
+
+            if (staleWhileRevalidate && isUsable(entry, now)) {
+                staleServed.increment();
+                refreshAsync(key, loader);
+                return entry.value;
+            }
+        }
+
+        misses.increment();
+
+        try {
+            return load(key, loader);
+        } catch (final Exception e) {
+            if (entry != null && isUsable(entry, now)) {
+                staleOnError.increment();
+                return entry.value;
+            }
+
+            throw e;
+        }
+    }
+
+
+    /**
+     * Gets the value for the key if it is fresh.
+     *
+     * @param key the key
+     * @return the value or null if not cached or expired
+     */
+    public V getFresh(final String key) {
+        final Entry<V> entry = entries.get(key);
+
+        if (entry != null && isFresh(entry, System.currentTimeMillis())) {
+            return entry.value;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Gets the value for the key if it is fresh or still within the maximum staleness.
+     *
+     * @param key the key
+     * @return the value or null if not cached or beyond the maximum staleness
+     */
+    public V getUsable(final String key) {
+        final Entry<V> entry = entries.get(key);
+
+        if (entry != null && isUsable(entry, System.currentTimeMillis())) {
+            return entry.value;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Marks that a stale value was served because loading failed, e.g. if the caller handled the
+     * error itself using {@link #getUsable(String)}.
+     */
+    public void staleServedOnError() {
+        staleOnError.increment();
+    }
+
+
+    /**
+     * Puts the value into the cache.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(final String key, final V value) {
+        final Entry<V> created = createEntry(key, value);
+
+        entries.compute(key, (k, entry) -> {
+            invalidate(k);
+            return created;
+        });
+    }
+
+
+    /**
+     * Puts a value which is already expired into the cache, e.g. a value restored from a snapshot
+     * which should be served within the maximum staleness until it has been reloaded.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void putStale(final String key, final V value) {
+        if (value != null && maxStale > 0L && maxSize > 0) {
+            if (entries.size() >= maxSize) {
+                evict();
+            }
+
+            entries.putIfAbsent(key, new Entry<>(value, System.currentTimeMillis() - ttl));
+        }
+    }
+
+
+    /**
+     * Removes the value for the key.
+     *
+     * @param key the key
+     */
+    public void remove(final String key) {
+        entries.compute(key, (k, entry) -> {
+            invalidate(k);
+            return null;
+        });
+    }
+
+
+    /**
+     * Removes all values.
+     */
+    public void clear() {
+        for (int i = 0; i < GENERATIONS; i++) {
+            generations.incrementAndGet(i);
+        }
+
+        entries.clear();
+    }
+
+
+    /**
+     * Loads the value and stores it, unless the key has been put or removed in the meantime.
+     *
+     * @param key the key
+     * @param loader the loader
+     * @return the loaded value
+     * @throws Exception if the loader failed
+     */
+    private V load(final String key, final Callable<V> loader) throws Exception {
+        final int stripe = stripe(key);
+        final long generation = generations.get(stripe);
+        final V value = loader.call();
+        final Entry<V> created = createEntry(key, value);
+
+        // puts and removes increment the generation within the same compute of the key
+        entries.compute(key, (k, entry) -> {
+            if (generations.get(stripe) != generation) {
+                discarded.increment();
+                return entry;
+            }
+
+            return created;
+        });
+
+        return value;
+    }
+
+
+    /**
+     * Creates the entry for the value and makes room for it if the cache is full.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the entry or null if the value is null or the cache does not store any values
+     */
+    private Entry<V> createEntry(final String key, final V value) {
+        if (value == null || ttl <= 0L && maxStale <= 0L || maxSize <= 0) {
+            return null;
+        }
+
+        if (entries.size() >= maxSize && !entries.containsKey(key)) {
+            evict();
+        }
+
+        return new Entry<>(value, System.currentTimeMillis());
+    }
+
+
+    private void invalidate(final String key) {
+        generations.incrementAndGet(stripe(key));
+    }
+
+
+    private static int stripe(final String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % GENERATIONS;
+    }
+
+
+    /**
+     * Removes all entries beyond the maximum staleness and, if the cache is still full, arbitrary
+     * entries until there is room for a new entry.
+     */
+    private void evict() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<String, Entry<V>>> it = entries.entrySet().iterator();
+
+        while (it.hasNext()) {
+            if (!isUsable(it.next().getValue(), now)) {
+                it.remove();
+                evictions.increment();
+            }
+        }
+
+        final Iterator<String> keys = entries.keySet().iterator();
+
+        while (entries.size() >= maxSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+            evictions.increment();
+        }
+    }
+
+
+    private void refreshAsync(final String key, final Callable<V> loader) {
+        if (refreshing.add(key)) {
+            try {
+                refreshExecutor.execute(() -> {
+                    try {
+                        load(key, loader);
+                    } catch (final Exception e) {
+                        refreshFailures.increment();
+                    } finally {
+                        refreshing.remove(key);
+                    }
+                });
+            } catch (final RuntimeException e) {
+                refreshing.remove(key);
+                refreshFailures.increment();
+            }
+        }
+    }
+
+
+    private boolean isFresh(final Entry<V> entry, final long now) {
+        return now - entry.loadedAt < ttl;
+    }
+
+
+    private boolean isUsable(final Entry<V> entry, final long now) {
+        return now - entry.loadedAt < ttl + maxStale;
+    }
+
+
+    /**
+     * @return the number of cached values
+     */
+    public int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * @return the number of fresh values served
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+
+    /**
+     * @return the number of values which had to be loaded
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+
+    /**
+     * @return the number of stale values served while revalidating
+     */
+    public long getStaleServed() {
+        return staleServed.sum();
+    }
+
+
+    /**
+     * @return the number of stale values served because loading failed
+     */
+    public long getStaleOnError() {
+        return staleOnError.sum();
+    }
+
+
+    /**
+     * @return the number of failed asynchronous reloads
+     */
+    public long getRefreshFailures() {
+        return refreshFailures.sum();
+    }
+
+
+    /**
+     * @return the number of loaded values which were not stored because the key had been put or
+     *         removed while loading
+     */
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+
+
+    /**
+     * @return the number of values evicted because the cache was full
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+
+    @Override
+    public void close() {
+        refreshExecutor.shutdownNow();
+    }
+
+
+    @Override
+    public String toString() {
+        return "ConfigurationCache [size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + ", staleServed=" + getStaleServed() + ", staleOnError=" + getStaleOnError() + ", refreshFailures=" + getRefreshFailures() + ", discarded=" + getDiscarded() + ", evictions=" + getEvictions() + "]";
+    }
+}
@@ -0,0 +1,154 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates the threads the configuration services block on backend I/O with. On Java 21 and later
+ * these are virtual threads, so thousands of blocked operations do not need as many platform
+ * threads. On older runtimes daemon platform threads are used instead.
+ * <p>
+ * The virtual thread API is looked up by reflection, since the services are compiled for Java 11.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class ConfigurationExecutors {
+    private static final Logger LOG = Logger.getLogger(ConfigurationExecutors.class.getName());
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+    private static final Method BUILDER_NAME = findMethod("java.lang.Thread$Builder", "name", String.class, long.class);
+    private static final Method BUILDER_FACTORY = findMethod("java.lang.Thread$Builder", "factory");
+    private static final Method THREAD_PER_TASK_EXECUTOR = findMethod(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private ConfigurationExecutors() {
+    }
+
+
+    private static Method findMethod(final String className, final String name, final Class<?>... parameterTypes) {
+        try {
+            return findMethod(Class.forName(className), name, parameterTypes);
+        } catch (final ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+
+    private static Method findMethod(final Class<?> clazz, final String name, final Class<?>... parameterTypes) {
+        try {
+            return clazz.getMethod(name, parameterTypes);
+        } catch (final NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * @return true if the runtime supports virtual threads
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return OF_VIRTUAL != null && BUILDER_NAME != null && BUILDER_FACTORY != null && THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+
+    /**
+     * Creates a {@link ThreadFactory} for threads named <code>&lt;name&gt;-&lt;n&gt;</code>.
+     * These are virtual threads if supported, otherwise daemon platform threads.
+     *
+     * @param name the prefix of the thread names
+     * @return the {@link ThreadFactory}
+     */
+    public static ThreadFactory newThreadFactory(final String name) {
+        if (isVirtualThreadsAvailable()) {
+            try {
+                return (ThreadFactory) BUILDER_FACTORY.invoke(BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 0L));
+            } catch (final Exception e) {
+                LOG.log(Level.WARNING, "Error creating virtual threads, using platform threads instead!", e);
+            }
+        }
+
+        return newPlatformThreadFactory(name);
+    }
+
+
+    /**
+     * Creates a {@link ThreadFactory} for daemon platform threads named
+     * <code>&lt;name&gt;-&lt;n&gt;</code>.
+     *
+     * @param name the prefix of the thread names
+     * @return the {@link ThreadFactory}
+     */
+    public static ThreadFactory newPlatformThreadFactory(final String name) {
+        final ThreadFactory delegate = Executors.defaultThreadFactory();
+
+        return r -> {
+            final Thread thread = delegate.newThread(r);
+            thread.setName(name + "-" + thread.getName().substring(thread.getName().lastIndexOf('-') + 1));
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+
+    /**
+     * Creates an {@link ExecutorService} which starts a new virtual thread for each task if
+     * supported, otherwise one which reuses idle daemon platform threads.
+     *
+     * @param name the prefix of the thread names
+     * @return the {@link ExecutorService}
+     */
+    public static ExecutorService newExecutor(final String name) {
+        final ThreadFactory factory = newThreadFactory(name);
+
+        if (isVirtualThreadsAvailable()) {
+            try {
+                // virtual threads are cheap to create, so they are not pooled
+                return (ExecutorService) THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+            } catch (final Exception e) {
+                LOG.log(Level.WARNING, "Error creating virtual thread executor, using platform threads instead!", e);
+            }
+        }
+
+        return Executors.newCachedThreadPool(factory);
+    }
+
+
+    /**
+     * Creates an {@link ExecutorService} which starts a new virtual thread for each task if
+     * supported, otherwise one with at most the maximum number of daemon platform threads. Further
+     * tasks wait in the queue instead of starting more platform threads, idle threads are stopped
+     * after a minute.
+     *
+     * @param name the prefix of the thread names
+     * @param maxThreads the maximum number of platform threads
+     * @return the {@link ExecutorService}
+     */
+    public static ExecutorService newExecutor(final String name, final int maxThreads) {
+        if (isVirtualThreadsAvailable()) {
+            return newExecutor(name);
+        }
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), newPlatformThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+}
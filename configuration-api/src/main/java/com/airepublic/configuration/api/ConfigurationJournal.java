@@ -0,0 +1,268 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * An append-only on-disk journal of configurations which have been accepted but not yet written
+ * to the backend, so they survive a crash. Every change is appended as one JSON line and forced to
+ * disk before the call returns. On startup the journal is replayed to restore the pending
+ * configurations. The journal is compacted to the pending configurations once it holds more
+ * records than needed, each compaction replaces the file atomically.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class ConfigurationJournal implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(ConfigurationJournal.class.getName());
+    private final static String KEY = "key";
+    private final static String JSON = "json";
+    // the minimum number of records before the journal is compacted
+    private static final int MIN_COMPACTION = 1000;
+    private final Path file;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private FileChannel channel;
+    private int records;
+
+    /**
+     * Constructor.
+     *
+     * @param file the journal file
+     */
+    public ConfigurationJournal(final Path file) {
+        this.file = file;
+    }
+
+
+    /**
+     * Replays the journal file if it exists and opens it for appending. A record which was only
+     * partially written, e.g. because of a crash, ends the replay.
+     *
+     * @return the pending configurations as JSON by their configuration key in the order they
+     *         were added
+     * @throws IOException if the journal could not be read or opened
+     */
+    public synchronized Map<String, String> load() throws IOException {
+        final Map<String, String> pending = new LinkedHashMap<>();
+
+        if (Files.isRegularFile(file)) {
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+
+                while ((line = in.readLine()) != null) {
+                    final JsonNode record;
+
+                    try {
+                        record = mapper.readTree(line);
+                    } catch (final IOException e) {
+                        LOG.log(Level.WARNING, "Ignoring the incomplete end of the configuration journal " + file + "!", e);
+                        break;
+                    }
+
+                    final String key = record.get(KEY).textValue();
+                    final JsonNode json = record.get(JSON);
+
+                    // re-insert so the configuration keeps the order of its last change
+                    pending.remove(key);
+
+                    if (json != null && !json.isNull()) {
+                        pending.put(key, json.textValue());
+                    }
+                }
+            }
+        }
+
+        rewrite(pending);
+
+        return pending;
+    }
+
+
+    /**
+     * Appends the configuration and forces it to disk.
+     *
+     * @param key the configuration key
+     * @param json the configuration as JSON
+     * @throws IOException if the configuration could not be written
+     */
+    public synchronized void append(final String key, final String json) throws IOException {
+        final ObjectNode record = mapper.createObjectNode();
+        record.put(KEY, key);
+        record.put(JSON, json);
+
+        write(record.toString() + "\n", 1);
+    }
+
+
+    /**
+     * Appends the removal of the configurations which have been written to the backend and forces
+     * it to disk.
+     *
+     * @param keys the configuration keys
+     * @throws IOException if the journal could not be written
+     */
+    public synchronized void remove(final Collection<String> keys) throws IOException {
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        final StringBuilder lines = new StringBuilder();
+
+        for (final String key : keys) {
+            final ObjectNode record = mapper.createObjectNode();
+            record.put(KEY, key);
+            record.putNull(JSON);
+            lines.append(record.toString()).append('\n');
+        }
+
+        write(lines.toString(), keys.size());
+    }
+
+
+    /**
+     * Checks whether the journal holds considerably more records than pending configurations.
+     *
+     * @param pending the number of pending configurations
+     * @return true if the journal should be compacted
+     */
+    public synchronized boolean needsCompaction(final int pending) {
+        return records > Math.max(MIN_COMPACTION, 2 * pending);
+    }
+
+
+    /**
+     * Replaces the journal with the pending configurations.
+     *
+     * @param pending the pending configurations as JSON by their configuration key
+     * @throws IOException if the journal could not be written
+     */
+    public synchronized void compact(final Map<String, String> pending) throws IOException {
+        rewrite(pending);
+    }
+
+
+    private void write(final String lines, final int count) throws IOException {
+        // reopened if a change is written after closing
+        if (channel == null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        channel.force(false);
+        records += count;
+    }
+
+
+    /**
+     * Writes the pending configurations to a temporary file and moves it atomically to the journal
+     * file, which is then opened for appending.
+     *
+     * @param pending the pending configurations as JSON by their configuration key
+     * @throws IOException if the journal could not be written
+     */
+    private void rewrite(final Map<String, String> pending) throws IOException {
+        final Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        final Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                final StringBuilder lines = new StringBuilder();
+
+                for (final Map.Entry<String, String> entry : pending.entrySet()) {
+                    final ObjectNode record = mapper.createObjectNode();
+                    record.put(KEY, entry.getKey());
+                    record.put(JSON, entry.getValue());
+                    lines.append(record.toString()).append('\n');
+                }
+
+                final ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+
+                out.force(false);
+            }
+
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        if (channel != null) {
+            channel.close();
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        records = pending.size();
+    }
+
+
+    /**
+     * @return the journal file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+
+    /**
+     * @return the number of records in the journal file
+     */
+    public synchronized int getRecords() {
+        return records;
+    }
+
+
+    /**
+     * Closes the journal file. The pending configurations remain in it and are replayed by the
+     * next {@link #load()}.
+     */
+    @Override
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (final IOException e) {
+                LOG.log(Level.WARNING, "Error closing configuration journal " + file + "!", e);
+            }
+
+            channel = null;
+        }
+    }
+}
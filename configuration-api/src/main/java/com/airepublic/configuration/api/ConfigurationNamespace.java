@@ -0,0 +1,132 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+/**
+ * Helpers for the namespaces of configurations. A namespace separates the configurations of
+ * tenants, it is a path like <code>acme/eu</code> whose first segment is the tenant. Namespaces are
+ * hierarchical, i.e. <code>acme/eu</code> is a child of <code>acme</code> which is a child of the
+ * root namespace. The root namespace is the empty string and holds the configurations which do not
+ * belong to a tenant.
+ * <p>
+ * The backends store a configuration of a namespace with the qualified id
+ * <code>&lt;namespace&gt;!&lt;id&gt;</code>. The prefix keeps all configurations of a namespace
+ * together under a ranged shard key on the id in mongo and is used by the compositeId router of
+ * solr cloud to place them on the same shard.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class ConfigurationNamespace {
+    /** The separator between the namespace and the id of a qualified id. */
+    public static final char SEPARATOR = '!';
+    /** The separator of the segments of a namespace. */
+    public static final char PATH_SEPARATOR = '/';
+    /** The root namespace. */
+    public static final String ROOT = "";
+
+    private ConfigurationNamespace() {
+    }
+
+
+    /**
+     * Checks that the namespace is valid, i.e. it does not contain the {@link #SEPARATOR} and has no
+     * empty segments.
+     *
+     * @param namespace the namespace
+     * @return the namespace or the root namespace if it was null
+     * @throws IllegalArgumentException if the namespace is not valid
+     */
+    public static String validate(final String namespace) {
+        if (namespace == null || namespace.isEmpty()) {
+            return ROOT;
+        }
+
+        if (namespace.indexOf(SEPARATOR) != -1 || namespace.charAt(0) == PATH_SEPARATOR || namespace.charAt(namespace.length() - 1) == PATH_SEPARATOR || namespace.contains("//")) {
+            throw new IllegalArgumentException("Invalid namespace '" + namespace + "'!");
+        }
+
+        return namespace;
+    }
+
+
+    /**
+     * Qualifies the id with the namespace. An id which is already qualified is moved to the
+     * namespace.
+     *
+     * @param namespace the namespace
+     * @param id the qualified or unqualified id
+     * @return the qualified id or the unqualified id for the root namespace
+     */
+    public static String qualify(final String namespace, final String id) {
+        final String localId = getLocalId(id);
+
+        if (namespace == null || namespace.isEmpty()) {
+            return localId;
+        }
+
+        return namespace + SEPARATOR + localId;
+    }
+
+
+    /**
+     * @param id the qualified or unqualified id
+     * @return the namespace of the id or the root namespace if it is not qualified
+     */
+    public static String getNamespace(final String id) {
+        final int idx = id == null ? -1 : id.indexOf(SEPARATOR);
+
+        return idx == -1 ? ROOT : id.substring(0, idx);
+    }
+
+
+    /**
+     * @param id the qualified or unqualified id
+     * @return the id without the namespace
+     */
+    public static String getLocalId(final String id) {
+        final int idx = id == null ? -1 : id.indexOf(SEPARATOR);
+
+        return idx == -1 ? id : id.substring(idx + 1);
+    }
+
+
+    /**
+     * @param namespace the namespace
+     * @return the parent namespace or null for the root namespace
+     */
+    public static String getParent(final String namespace) {
+        if (namespace == null || namespace.isEmpty()) {
+            return null;
+        }
+
+        final int idx = namespace.lastIndexOf(PATH_SEPARATOR);
+
+        return idx == -1 ? ROOT : namespace.substring(0, idx);
+    }
+
+
+    /**
+     * @param namespace the namespace
+     * @return the tenant, i.e. the first segment of the namespace
+     */
+    public static String getTenant(final String namespace) {
+        if (namespace == null) {
+            return ROOT;
+        }
+
+        final int idx = namespace.indexOf(PATH_SEPARATOR);
+
+        return idx == -1 ? namespace : namespace.substring(0, idx);
+    }
+}
@@ -0,0 +1,293 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads a list of configurations in parallel at startup, so they are in memory before the first
+ * request arrives. Configurations which fail to load are retried until they have been loaded or
+ * the preloader is closed. The preloader is ready once all configurations have been loaded.
+ * <p>
+ * The preload list is a comma-separated list of entries in the form
+ * <code>&lt;class&gt;[:&lt;id&gt;[:&lt;variation&gt;]]</code>. If only the class is specified it
+ * must be annotated with {@link Preload}.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class ConfigurationPreloader implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(ConfigurationPreloader.class.getName());
+    /** The default number of threads loading the configurations. */
+    public static final int DEFAULT_THREADS = 4;
+    /** The default delay in milliseconds before a failed load is retried. */
+    public static final int DEFAULT_RETRY_DELAY = 5000;
+    private final IConfigurationService service;
+    private final int threads;
+    private final long retryDelay;
+    private final List<Entry> entries = new ArrayList<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private ScheduledThreadPoolExecutor executor;
+    private long startedAt;
+    private volatile long duration = -1L;
+
+    /**
+     * A configuration to preload.
+     */
+    private static class Entry {
+        private final String id;
+        private final String variation;
+        private final Class<? extends IConfiguration> clazz;
+
+        private Entry(final String id, final String variation, final Class<? extends IConfiguration> clazz) {
+            this.id = id;
+            this.variation = variation;
+            this.clazz = clazz;
+        }
+
+
+        @Override
+        public String toString() {
+            return clazz.getName() + ":" + id + ":" + variation;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param service the service to load the configurations from
+     * @param threads the number of threads loading the configurations
+     * @param retryDelay the delay in milliseconds before a failed load is retried
+     */
+    public ConfigurationPreloader(final IConfigurationService service, final int threads, final long retryDelay) {
+        this.service = service;
+        this.threads = Math.max(threads, 1);
+        this.retryDelay = retryDelay;
+    }
+
+
+    /**
+     * Adds the configurations of the preload list.
+     *
+     * @param preloadList the comma-separated list of entries in the form
+     *        <code>&lt;class&gt;[:&lt;id&gt;[:&lt;variation&gt;]]</code>
+     * @throws IllegalArgumentException if a class could not be found or is not annotated with
+     *         {@link Preload}
+     */
+    @SuppressWarnings("unchecked")
+    public void addAll(final String preloadList) {
+        if (preloadList == null || preloadList.isBlank()) {
+            return;
+        }
+
+        for (final String entry : preloadList.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+
+            final String[] parts = entry.trim().split(":", 3);
+            final Class<? extends IConfiguration> clazz;
+
+            try {
+                clazz = (Class<? extends IConfiguration>) Class.forName(parts[0], false, getClassLoader());
+            } catch (final ClassNotFoundException e) {
+                throw new IllegalArgumentException("Preload configuration class " + parts[0] + " not found!", e);
+            }
+
+            if (parts.length == 1) {
+                add(clazz);
+            } else {
+                add(parts[1], parts.length > 2 ? parts[2] : "", clazz);
+            }
+        }
+    }
+
+
+    private static ClassLoader getClassLoader() {
+        final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+
+        return cl != null ? cl : ConfigurationPreloader.class.getClassLoader();
+    }
+
+
+    /**
+     * Adds all variations of the configuration class annotated with {@link Preload}.
+     *
+     * @param clazz the configuration class
+     * @throws IllegalArgumentException if the class is not annotated with {@link Preload}
+     */
+    public void add(final Class<? extends IConfiguration> clazz) {
+        final Preload preload = clazz.getAnnotation(Preload.class);
+
+        if (preload == null) {
+            throw new IllegalArgumentException("Configuration class " + clazz.getName() + " is not annotated with @Preload!");
+        }
+
+        for (final String variation : preload.variations()) {
+            add(preload.id(), variation, clazz);
+        }
+    }
+
+
+    /**
+     * Adds a configuration.
+     *
+     * @param id the configuration id
+     * @param variation the variation option
+     * @param clazz the configuration class
+     */
+    public synchronized void add(final String id, final String variation, final Class<? extends IConfiguration> clazz) {
+        entries.add(new Entry(id, variation, clazz));
+    }
+
+
+    /**
+     * Starts loading the configurations in the background.
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+
+        startedAt = System.nanoTime();
+
+        if (entries.isEmpty()) {
+            done();
+            return;
+        }
+
+        executor = new ScheduledThreadPoolExecutor(Math.min(threads, entries.size()), r -> {
+            final Thread thread = new Thread(r, "configuration-preload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        pending.set(entries.size());
+
+        for (final Entry entry : entries) {
+            executor.execute(() -> load(entry));
+        }
+    }
+
+
+    private void load(final Entry entry) {
+        try {
+            service.getConfiguration(entry.id, entry.variation, entry.clazz);
+            loaded.increment();
+
+            if (pending.decrementAndGet() == 0) {
+                done();
+            }
+        } catch (final Exception e) {
+            failures.increment();
+            LOG.log(Level.WARNING, "Error preloading configuration " + entry + ", retrying in " + retryDelay + "ms!", e);
+
+            try {
+                executor.schedule(() -> load(entry), retryDelay, TimeUnit.MILLISECONDS);
+            } catch (final RejectedExecutionException ex) {
+                // preloader has been closed
+            }
+        }
+    }
+
+
+    private void done() {
+        duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        ready.countDown();
+        LOG.info("Preloaded " + loaded.sum() + " configurations in " + duration + "ms");
+
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+
+    /**
+     * Waits until all configurations have been loaded.
+     *
+     * @param timeout the maximum time to wait in milliseconds
+     * @return true if all configurations have been loaded
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean await(final long timeout) throws InterruptedException {
+        return ready.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * @return true if all configurations have been loaded
+     */
+    public boolean isReady() {
+        return ready.getCount() == 0L;
+    }
+
+
+    /**
+     * @return the number of configurations to preload
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * @return the number of loaded configurations
+     */
+    public long getLoaded() {
+        return loaded.sum();
+    }
+
+
+    /**
+     * @return the number of failed loads
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+
+    /**
+     * @return the time in milliseconds it took to load all configurations or -1 if not ready
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "ConfigurationPreloader [size=" + size() + ", loaded=" + getLoaded() + ", failures=" + getFailures() + ", ready=" + isReady() + ", duration=" + getDuration() + "]";
+    }
+}
@@ -25,7 +25,7 @@ public class ConfigurationServiceException extends ErrorCodeException {
 	private static final long serialVersionUID = -7936622314047160092L;
 
 	public enum ErrorCode implements IErrorCode {
-		ERROR_LOADING_DEFAULT("1"), ERROR_SAVE("2"), ERROR_GET("3"), ERROR_REMOVE("4");
+		ERROR_LOADING_DEFAULT("1"), ERROR_SAVE("2"), ERROR_GET("3"), ERROR_REMOVE("4"), ERROR_VERSION_CONFLICT("5"), ERROR_UNAVAILABLE("6"), ERROR_QUOTA_EXCEEDED("7");
 		
 		private String code;
 		
@@ -0,0 +1,266 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A local on-disk snapshot of the configurations used by a node, so the node can serve
+ * configurations after a restart even if the backend is not available. The snapshot is loaded
+ * synchronously on startup and written asynchronously after changes. Each write replaces the file
+ * atomically.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class ConfigurationSnapshot implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(ConfigurationSnapshot.class.getName());
+    /** The default delay in milliseconds after a change before the snapshot is written. */
+    public static final int DEFAULT_WRITE_DELAY = 1000;
+    private final Path file;
+    private final long writeDelay;
+    private final ConcurrentHashMap<String, String> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+    private ScheduledThreadPoolExecutor writer;
+
+    /**
+     * Constructor for a disabled snapshot.
+     */
+    public ConfigurationSnapshot() {
+        this(null, 0L);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param file the snapshot file or null to disable the snapshot
+     * @param writeDelay the delay in milliseconds after a change before the snapshot is written
+     */
+    public ConfigurationSnapshot(final Path file, final long writeDelay) {
+        this.file = file;
+        this.writeDelay = writeDelay;
+    }
+
+
+    /**
+     * Loads the snapshot file if it exists.
+     *
+     * @return the number of loaded configurations
+     */
+    public int load() {
+        if (file == null || !Files.isRegularFile(file)) {
+            return 0;
+        }
+
+        final Properties props = new Properties();
+
+        try (InputStream in = Files.newInputStream(file)) {
+            props.load(in);
+        } catch (final IOException e) {
+            LOG.log(Level.WARNING, "Error reading configuration snapshot " + file + "!", e);
+            return 0;
+        }
+
+        for (final String key : props.stringPropertyNames()) {
+            entries.putIfAbsent(key, props.getProperty(key));
+        }
+
+        return props.size();
+    }
+
+
+    /**
+     * Gets the JSON of a configuration from the snapshot.
+     *
+     * @param key the configuration key
+     * @return the configuration as JSON or null if not in the snapshot
+     */
+    public String get(final String key) {
+        return entries.get(key);
+    }
+
+
+    /**
+     * Performs the action for each configuration in the snapshot.
+     *
+     * @param action the action receiving the configuration key and JSON
+     */
+    public void forEach(final BiConsumer<String, String> action) {
+        entries.forEach(action);
+    }
+
+
+    /**
+     * Puts the JSON of a configuration into the snapshot.
+     *
+     * @param key the configuration key
+     * @param json the configuration as JSON
+     */
+    public void put(final String key, final String json) {
+        if (file == null || json == null) {
+            return;
+        }
+
+        if (!json.equals(entries.put(key, json))) {
+            scheduleWrite();
+        }
+    }
+
+
+    /**
+     * Removes a configuration from the snapshot.
+     *
+     * @param key the configuration key
+     */
+    public void remove(final String key) {
+        if (entries.remove(key) != null) {
+            scheduleWrite();
+        }
+    }
+
+
+    private void scheduleWrite() {
+        if (writeScheduled.compareAndSet(false, true)) {
+            try {
+                getWriter().schedule(this::write, writeDelay, TimeUnit.MILLISECONDS);
+            } catch (final RuntimeException e) {
+                writeScheduled.set(false);
+                writeFailures.increment();
+            }
+        }
+    }
+
+
+    private synchronized ScheduledThreadPoolExecutor getWriter() {
+        if (writer == null) {
+            writer = new ScheduledThreadPoolExecutor(1, r -> {
+                final Thread thread = new Thread(r, "configuration-snapshot-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // pending writes are done synchronously on close
+            writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+
+        return writer;
+    }
+
+
+    /**
+     * Writes the snapshot to a temporary file and moves it atomically to the snapshot file.
+     */
+    protected void write() {
+        writeScheduled.set(false);
+
+        final Properties props = new Properties();
+        props.putAll(entries);
+
+        Path tmp = null;
+
+        try {
+            final Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                props.store(out, "configuration snapshot");
+            }
+
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writes.increment();
+        } catch (final IOException e) {
+            writeFailures.increment();
+            LOG.log(Level.WARNING, "Error writing configuration snapshot " + file + "!", e);
+
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (final IOException ex) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return true if the snapshot is stored in a file
+     */
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+
+    /**
+     * @return the number of configurations in the snapshot
+     */
+    public int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * @return the number of times the snapshot file was written
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+
+    /**
+     * @return the number of failed writes of the snapshot file
+     */
+    public long getWriteFailures() {
+        return writeFailures.sum();
+    }
+
+
+    /**
+     * Writes pending changes and stops the writer.
+     */
+    @Override
+    public synchronized void close() {
+        if (writer != null) {
+            writer.shutdown();
+
+            try {
+                writer.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            writer = null;
+
+            if (writeScheduled.get()) {
+                write();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+
+/**
+ * Thrown by the {@link IConfigurationService} if a configuration could not be saved because it
+ * has been changed since it was read.
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class ConfigurationVersionConflictException extends ConfigurationServiceException {
+	private static final long serialVersionUID = 3815027364419725106L;
+	private final long expectedVersion;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param id the configuration id
+	 * @param expectedVersion the expected version
+	 */
+	public ConfigurationVersionConflictException(final String id, final long expectedVersion) {
+		super(ErrorCode.ERROR_VERSION_CONFLICT, "Configuration '" + id + "' has been changed, expected version " + expectedVersion + "!");
+		this.expectedVersion = expectedVersion;
+	}
+	
+	/**
+	 * @return the version the configuration was expected to have
+	 */
+	public long getExpectedVersion() {
+		return expectedVersion;
+	}
+}
@@ -0,0 +1,319 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An immutable, read-only view of a configuration for callers which only read a few properties
+ * and do not need the configuration class.
+ * <p>
+ * The values are flattened into arrays sorted by their dotted path, e.g.
+ * <code>limits.max</code> or <code>servers.0.host</code> for array elements. Each value is
+ * converted to all types once when the view is created, so a lookup is a binary search followed by
+ * an array read without hashing or boxing. Only leaf values have a path, objects and arrays
+ * themselves do not.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class ConfigurationView {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte NUMBER = 2;
+    private static final byte STRING = 3;
+    private final String[] paths;
+    private final byte[] types;
+    private final long[] longs;
+    private final double[] doubles;
+    private final String[] strings;
+
+    private ConfigurationView(final List<String> paths, final List<JsonNode> values) {
+        final int size = paths.size();
+        final Integer[] order = new Integer[size];
+
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, (a, b) -> paths.get(a).compareTo(paths.get(b)));
+
+        this.paths = new String[size];
+        types = new byte[size];
+        longs = new long[size];
+        doubles = new double[size];
+        strings = new String[size];
+
+        for (int i = 0; i < size; i++) {
+            final JsonNode value = values.get(order[i]);
+            this.paths[i] = paths.get(order[i]);
+
+            if (value.isNull()) {
+                types[i] = NULL;
+            } else if (value.isBoolean()) {
+                types[i] = BOOLEAN;
+                longs[i] = value.booleanValue() ? 1L : 0L;
+                doubles[i] = longs[i];
+                strings[i] = value.asText();
+            } else if (value.isNumber()) {
+                types[i] = NUMBER;
+                longs[i] = value.longValue();
+                doubles[i] = value.doubleValue();
+                strings[i] = value.asText();
+            } else {
+                types[i] = STRING;
+                strings[i] = value.asText();
+                longs[i] = value.asLong();
+                doubles[i] = value.asDouble();
+            }
+        }
+    }
+
+
+    /**
+     * Creates the view of a configuration.
+     *
+     * @param json the configuration as JSON
+     * @return the {@link ConfigurationView} or null if the JSON is null
+     * @throws IOException if the JSON is not valid
+     */
+    public static ConfigurationView parse(final String json) throws IOException {
+        if (json == null) {
+            return null;
+        }
+
+        return of(MAPPER.readTree(json));
+    }
+
+
+    /**
+     * Creates the view of a configuration.
+     *
+     * @param node the configuration as JSON tree
+     * @return the {@link ConfigurationView}
+     */
+    public static ConfigurationView of(final JsonNode node) {
+        final List<String> paths = new ArrayList<>();
+        final List<JsonNode> values = new ArrayList<>();
+        flatten("", node, paths, values);
+
+        return new ConfigurationView(paths, values);
+    }
+
+
+    private static void flatten(final String path, final JsonNode node, final List<String> paths, final List<JsonNode> values) {
+        if (node.isObject()) {
+            final Iterator<Entry<String, JsonNode>> it = node.fields();
+
+            while (it.hasNext()) {
+                final Entry<String, JsonNode> field = it.next();
+                flatten(path.isEmpty() ? field.getKey() : path + "." + field.getKey(), field.getValue(), paths, values);
+            }
+        } else if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++) {
+                flatten(path.isEmpty() ? String.valueOf(i) : path + "." + i, node.get(i), paths, values);
+            }
+        } else if (!path.isEmpty()) {
+            paths.add(path);
+            values.add(node);
+        }
+    }
+
+
+    private int indexOf(final String path) {
+        return Arrays.binarySearch(paths, path);
+    }
+
+
+    private int require(final String path) {
+        final int index = indexOf(path);
+
+        if (index < 0 || types[index] == NULL) {
+            throw new IllegalArgumentException("Configuration has no value at path '" + path + "'!");
+        }
+
+        return index;
+    }
+
+
+    /**
+     * @param path the dotted path
+     * @return true if there is a value, which might be null, at the path
+     */
+    public boolean has(final String path) {
+        return indexOf(path) >= 0;
+    }
+
+
+    /**
+     * @param path the dotted path
+     * @return true if there is no value or a null value at the path
+     */
+    public boolean isNull(final String path) {
+        final int index = indexOf(path);
+
+        return index < 0 || types[index] == NULL;
+    }
+
+
+    /**
+     * @param path the dotted path
+     * @return the value as int, strings which are not numbers are 0 and booleans 0 or 1
+     * @throws IllegalArgumentException if there is no value at the path
+     */
+    public int getInt(final String path) {
+        return (int) longs[require(path)];
+    }
+
+
+    /**
+     * @param path the dotted path
+     * @param defaultValue the value if there is none at the path
+     * @return the value as int or the default value
+     */
+    public int getInt(final String path, final int defaultValue) {
+        final int index = indexOf(path);
+
+        return index < 0 || types[index] == NULL ? defaultValue : (int) longs[index];
+    }
+
+
+    /**
+     * @param path the dotted path
+     * @return the value as long, strings which are not numbers are 0 and booleans 0 or 1
+     * @throws IllegalArgumentException if there is no value at the path
+     */
+    public long getLong(final String path) {
+        return longs[require(path)];
+    }
+
+
+    /**
+     * @param path the dotted path
+     * @param defaultValue the value if there is none at the path
+     * @return the value as long or the default value
+     */
+    public long getLong(final String path, final long defaultValue) {
+        final int index = indexOf(path);
+
+        return index < 0 || types[index] == NULL ? defaultValue : longs[index];
+    }
+
+
+    /**
+     * @param path the dotted path
+     * @return the value as double, strings which are not numbers are 0 and booleans 0 or 1
+     * @throws IllegalArgumentException if there is no value at the path
+     */
+    public double getDouble(final String path) {
+        return doubles[require(path)];
+    }
+
+
+    /**
+     * @param path the dotted path
+     * @param defaultValue the value if there is none at the path
+     * @return the value as double or the default value
+     */
+    public double getDouble(final String path, final double defaultValue) {
+        final int index = indexOf(path);
+
+        return index < 0 || types[index] == NULL ? defaultValue : doubles[index];
+    }
+
+
+    /**
+     * @param path the dotted path
+     * @return the value as boolean, i.e. true, the string "true" or a number other than 0
+     * @throws IllegalArgumentException if there is no value at the path
+     */
+    public boolean getBoolean(final String path) {
+        return toBoolean(require(path));
+    }
+
+
+    /**
+     * @param path the dotted path
+     * @param defaultValue the value if there is none at the path
+     * @return the value as boolean or the default value
+     */
+    public boolean getBoolean(final String path, final boolean defaultValue) {
+        final int index = indexOf(path);
+
+        return index < 0 || types[index] == NULL ? defaultValue : toBoolean(index);
+    }
+
+
+    private boolean toBoolean(final int index) {
+        if (types[index] == STRING) {
+            return Boolean.parseBoolean(strings[index]);
+        }
+
+        return doubles[index] != 0.0;
+    }
+
+
+    /**
+     * @param path the dotted path
+     * @return the value as string or null if there is no value or a null value at the path
+     */
+    public String getString(final String path) {
+        final int index = indexOf(path);
+
+        return index < 0 ? null : strings[index];
+    }
+
+
+    /**
+     * @param path the dotted path
+     * @param defaultValue the value if there is none at the path
+     * @return the value as string or the default value
+     */
+    public String getString(final String path, final String defaultValue) {
+        final String value = getString(path);
+
+        return value != null ? value : defaultValue;
+    }
+
+
+    /**
+     * @return the sorted paths of all values
+     */
+    public List<String> getPaths() {
+        return Collections.unmodifiableList(Arrays.asList(paths));
+    }
+
+
+    /**
+     * @return the number of values
+     */
+    public int size() {
+        return paths.length;
+    }
+
+
+    @Override
+    public String toString() {
+        return "ConfigurationView [paths=" + Arrays.toString(paths) + "]";
+    }
+}
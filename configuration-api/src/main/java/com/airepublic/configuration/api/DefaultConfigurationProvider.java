@@ -0,0 +1,337 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Creates configurations which do not exist yet with their defaults and stores them with the
+ * {@link IConfigurationService}.
+ * <p>
+ * The constructors of the configuration classes and the defaults of each configuration are
+ * cached, so the reflection and the {@link IConfiguration#resetToDefault()} are only done once.
+ * If persisting is asynchronous the defaults are returned immediately and stored in the
+ * background. Defaults created while others are waiting to be stored are stored in the same
+ * batch. Failures are logged and counted instead of being lost.
+ * <p>
+ * If the service supports versions the defaults are only stored if the configuration does not
+ * exist yet, so defaults created concurrently on other nodes never overwrite a configuration
+ * which has been stored in the meantime. If storing synchronously, the stored configuration is
+ * read and returned instead of the defaults. If storing in the background, the defaults have
+ * already been returned, so the service must drop the copies it holds when the save conflicts.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class DefaultConfigurationProvider implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(DefaultConfigurationProvider.class.getName());
+    private static final ClassValue<Constructor<?>> CONSTRUCTORS = new ClassValue<>() {
+        @Override
+        protected Constructor<?> computeValue(final Class<?> type) {
+            try {
+                return type.getDeclaredConstructor();
+            } catch (final NoSuchMethodException e) {
+                throw new IllegalArgumentException("Configuration class " + type.getName() + " has no default constructor!", e);
+            }
+        }
+    };
+    private final IConfigurationService service;
+    private final boolean async;
+    private final boolean versioned;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ConcurrentHashMap<String, String> defaults = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, IConfiguration> pending = new ConcurrentHashMap<>();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private ExecutorService executor;
+
+    /**
+     * Constructor for a service which supports versions.
+     *
+     * @param service the service to store the defaults with
+     * @param async whether the defaults are stored in the background
+     */
+    public DefaultConfigurationProvider(final IConfigurationService service, final boolean async) {
+        this(service, async, true);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param service the service to store the defaults with
+     * @param async whether the defaults are stored in the background
+     * @param versioned whether the service supports versions, i.e. the defaults can be stored
+     *        only if the configuration does not exist yet
+     */
+    public DefaultConfigurationProvider(final IConfigurationService service, final boolean async, final boolean versioned) {
+        this.service = service;
+        this.async = async;
+        this.versioned = versioned;
+        mapper.setSerializationInclusion(Include.ALWAYS);
+
+        if (async) {
+            // one thread stores the batches, virtual if supported since it blocks on the backend
+            executor = Executors.newSingleThreadExecutor(ConfigurationExecutors.newThreadFactory("configuration-defaults"));
+        }
+    }
+
+
+    /**
+     * Creates the configuration with its defaults and stores it.
+     *
+     * @param id the configuration id
+     * @param variation the variation option
+     * @param clazz the configuration class
+     * @return the configuration initialized with its defaults or, if it has been stored in the
+     *         meantime, the stored configuration
+     * @throws ConfigurationServiceException (with ErrorCode.ERROR_LOADING_DEFAULT) if the defaults
+     *         could not be loaded, (with ErrorCode.ERROR_SAVE) if they could not be stored
+     *         synchronously or (with ErrorCode.ERROR_GET) if the stored configuration could not be
+     *         read
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T load(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        final String key = clazz.getName() + ":" + RequestCoalescer.key(id, variation);
+        final IConfiguration t;
+
+        try {
+            final String json = defaults.get(key);
+
+            if (json != null) {
+                hits.increment();
+                t = mapper.readValue(json, clazz);
+            } else {
+                t = (IConfiguration) CONSTRUCTORS.get(clazz).newInstance();
+                t.setId(id);
+                t.setVariation(variation);
+                t.resetToDefault();
+                defaults.put(key, mapper.writeValueAsString(t));
+                created.increment();
+            }
+        } catch (final Exception e) {
+            failures.increment();
+            LOG.log(Level.WARNING, "Error loading default configuration " + key + "!", e);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_LOADING_DEFAULT, "Error loading default configuration for " + clazz.getSimpleName(), e);
+        }
+
+        if (async) {
+            persist(key, t);
+        } else if (!save(t)) {
+            // the configuration has been stored in the meantime, e.g. by another node
+            return reload(id, variation, clazz, t);
+        }
+
+        return (T) t;
+    }
+
+
+    /**
+     * Reads the stored configuration after the defaults could not be stored because it already
+     * existed.
+     *
+     * @param id the configuration id
+     * @param variation the variation option
+     * @param clazz the configuration class
+     * @param defaultConfiguration the defaults, returned if the configuration has been removed
+     *        again in the meantime
+     * @return the stored configuration
+     * @throws ConfigurationServiceException (with ErrorCode.ERROR_GET) if it could not be read
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T reload(final String id, final String variation, final Class<? extends IConfiguration> clazz, final IConfiguration defaultConfiguration) throws ConfigurationServiceException {
+        final String json = service.getConfigurationAsJson(id, variation);
+
+        if (json == null) {
+            return (T) defaultConfiguration;
+        }
+
+        try {
+            return (T) mapper.readValue(json, clazz);
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+        }
+    }
+
+
+    private void persist(final String key, final IConfiguration configuration) {
+        // a new entry needs a new batch, otherwise it is stored with the pending batch
+        if (pending.put(key, configuration) == null) {
+            try {
+                executor.execute(this::flush);
+            } catch (final RejectedExecutionException e) {
+                flush();
+            }
+        }
+    }
+
+
+    /**
+     * Stores all pending defaults.
+     */
+    public void flush() {
+        for (final String key : pending.keySet()) {
+            final IConfiguration configuration = pending.remove(key);
+
+            if (configuration != null) {
+                try {
+                    save(configuration);
+                } catch (final ConfigurationServiceException e) {
+                    // already logged
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Stores the defaults.
+     *
+     * @param configuration the defaults
+     * @return false if the configuration already existed, so the defaults were not stored
+     * @throws ConfigurationServiceException if storing failed
+     */
+    private boolean save(final IConfiguration configuration) throws ConfigurationServiceException {
+        try {
+            if (versioned) {
+                service.saveConfiguration(configuration, 0L);
+            } else {
+                service.saveConfiguration(configuration);
+            }
+
+            persisted.increment();
+            return true;
+        } catch (final ConfigurationVersionConflictException e) {
+            // the configuration has been stored in the meantime, which is kept
+            conflicts.increment();
+            return false;
+        } catch (final ConfigurationServiceException e) {
+            failures.increment();
+            LOG.log(Level.WARNING, "Error storing default configuration " + RequestCoalescer.key(configuration.getId(), configuration.getVariation()) + "!", e);
+            throw e;
+        }
+    }
+
+
+    /**
+     * Removes the cached defaults, e.g. after the default resources have changed.
+     */
+    public void clear() {
+        defaults.clear();
+    }
+
+
+    /**
+     * @return true if the defaults are stored in the background
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+
+    /**
+     * @return the number of defaults waiting to be stored
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+
+    /**
+     * @return the number of configurations created with {@link IConfiguration#resetToDefault()}
+     */
+    public long getCreated() {
+        return created.sum();
+    }
+
+
+    /**
+     * @return the number of configurations created from the cached defaults
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+
+    /**
+     * @return the number of stored defaults
+     */
+    public long getPersisted() {
+        return persisted.sum();
+    }
+
+
+    /**
+     * @return the number of defaults which were not stored because the configuration already
+     *         existed
+     */
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+
+    /**
+     * @return true if the defaults are only stored if the configuration does not exist yet
+     */
+    public boolean isVersioned() {
+        return versioned;
+    }
+
+
+    /**
+     * @return the number of defaults which could not be loaded or stored
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+
+    /**
+     * Stores the pending defaults and stops the background thread.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        flush();
+    }
+
+
+    @Override
+    public String toString() {
+        return "DefaultConfigurationProvider [async=" + async + ", pending=" + getPending() + ", created=" + getCreated() + ", hits=" + getHits() + ", persisted=" + getPersisted() + ", conflicts=" + getConflicts() + ", failures=" + getFailures() + "]";
+    }
+}
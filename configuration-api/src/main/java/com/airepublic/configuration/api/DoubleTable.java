@@ -0,0 +1,109 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.nio.ByteBuffer;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * An immutable table of double values stored off-heap, see {@link NumericTable}.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class DoubleTable extends NumericTable {
+    private DoubleTable(final ByteBuffer buffer) {
+        super(buffer, Double.BYTES);
+    }
+
+
+    /**
+     * Creates a table with a copy of the values.
+     *
+     * @param values the values
+     * @return the {@link DoubleTable}
+     */
+    public static DoubleTable of(final double... values) {
+        final ByteBuffer buffer = allocate(values.length, Double.BYTES);
+
+        for (final double value : values) {
+            buffer.putDouble(value);
+        }
+
+        buffer.flip();
+
+        return new DoubleTable(buffer);
+    }
+
+
+    /**
+     * Creates a table using the buffer without copying it. The values must be in little-endian
+     * order and the buffer must not be modified afterwards.
+     *
+     * @param buffer the buffer
+     * @return the {@link DoubleTable}
+     */
+    public static DoubleTable wrap(final ByteBuffer buffer) {
+        return new DoubleTable(buffer);
+    }
+
+
+    /**
+     * Creates a table from its JSON value.
+     *
+     * @param node the Base64 encoded values or an array of numbers
+     * @return the {@link DoubleTable}
+     */
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static DoubleTable fromJson(final JsonNode node) {
+        if (!isArray(node)) {
+            return new DoubleTable(decode(node.textValue()));
+        }
+
+        final ByteBuffer buffer = allocate(node.size(), Double.BYTES);
+
+        for (final JsonNode value : node) {
+            buffer.putDouble(value.doubleValue());
+        }
+
+        buffer.flip();
+
+        return new DoubleTable(buffer);
+    }
+
+
+    /**
+     * @param index the index of the value
+     * @return the value
+     * @throws IndexOutOfBoundsException if the index is not within the table
+     */
+    public double get(final int index) {
+        return buffer().getDouble(index * Double.BYTES);
+    }
+
+
+    /**
+     * @return a copy of the values
+     */
+    public double[] toArray() {
+        final double[] values = new double[size()];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = get(i);
+        }
+
+        return values;
+    }
+}
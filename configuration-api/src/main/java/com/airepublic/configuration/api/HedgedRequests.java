@@ -0,0 +1,198 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.airepublic.configuration.api.metrics.LatencyHistogram;
+
+/**
+ * Hedges reads against slow replicas: if a read has not completed within a delay, e.g. the 95th
+ * percentile of the latencies so far, a second read is sent to another replica and the first
+ * response wins.
+ * <p>
+ * The extra load is capped by a budget: every read earns a fraction of a hedge, e.g. 0.1 allows
+ * 10% more reads, and hedges are only sent while the budget allows it. The reads run on the
+ * threads of {@link ConfigurationExecutors}.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class HedgedRequests implements AutoCloseable {
+    /** The default percentile of the latencies after which a read is hedged. */
+    public static final double DEFAULT_PERCENTILE = 95.0;
+    /** The default minimum delay in milliseconds before a read is hedged. */
+    public static final long DEFAULT_MIN_DELAY = 10L;
+    /** The default fraction of reads which may be hedged. */
+    public static final double DEFAULT_BUDGET = 0.1;
+    // the budget saved up while there are no slow reads
+    private static final double MAX_TOKENS = 10.0;
+    private final double percentile;
+    private final long minDelay;
+    private final double budget;
+    private final ExecutorService executor = ConfigurationExecutors.newExecutor("configuration-hedge");
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private double tokens;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * Constructor with the default percentile, minimum delay and budget.
+     */
+    public HedgedRequests() {
+        this(DEFAULT_PERCENTILE, DEFAULT_MIN_DELAY, DEFAULT_BUDGET);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param percentile the percentile of the latencies after which a read is hedged
+     * @param minDelay the minimum delay in milliseconds before a read is hedged
+     * @param budget the fraction of reads which may be hedged
+     */
+    public HedgedRequests(final double percentile, final long minDelay, final double budget) {
+        this.percentile = percentile;
+        this.minDelay = TimeUnit.MILLISECONDS.toNanos(minDelay);
+        this.budget = budget;
+    }
+
+
+    /**
+     * Executes the read and hedges it if it is slow.
+     *
+     * @param read the read
+     * @param hedge the same read sent to another replica
+     * @return the result of the read which completed first
+     * @throws Exception the exception of the read or, if it was hedged, of the read which failed
+     *         last
+     */
+    public <T> T execute(final Callable<T> read, final Callable<T> hedge) throws Exception {
+        requests.increment();
+        earn();
+
+        final long start = System.nanoTime();
+        final CompletionService<T> completion = new ExecutorCompletionService<>(executor);
+        final Future<T> first = completion.submit(read);
+        Future<T> done = completion.poll(getDelay(), TimeUnit.NANOSECONDS);
+
+        if (done == null && spend()) {
+            hedged.increment();
+            final Future<T> second = completion.submit(hedge);
+
+            try {
+                done = completion.take();
+
+                try {
+                    return complete(done, start);
+                } catch (final Exception e) {
+                    // the other read might still succeed
+                    done = completion.take();
+                    return complete(done, start);
+                }
+            } finally {
+                if (done == second) {
+                    hedgeWins.increment();
+                }
+
+                first.cancel(true);
+                second.cancel(true);
+            }
+        }
+
+        return complete(done != null ? done : first, start);
+    }
+
+
+    private <T> T complete(final Future<T> future, final long start) throws Exception {
+        try {
+            final T result = future.get();
+            latencies.record(System.nanoTime() - start);
+
+            return result;
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+
+    private synchronized void earn() {
+        tokens = Math.min(MAX_TOKENS, tokens + budget);
+    }
+
+
+    private synchronized boolean spend() {
+        if (tokens < 1.0) {
+            return false;
+        }
+
+        tokens -= 1.0;
+        return true;
+    }
+
+
+    /**
+     * @return the delay in nanoseconds after which a read is hedged
+     */
+    public long getDelay() {
+        return Math.max(minDelay, latencies.getValueAtPercentile(percentile));
+    }
+
+
+    /**
+     * @return the number of reads
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+
+    /**
+     * @return the number of hedged reads
+     */
+    public long getHedged() {
+        return hedged.sum();
+    }
+
+
+    /**
+     * @return the number of hedged reads where the hedge completed first
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+
+    @Override
+    public String toString() {
+        return "HedgedRequests [requests=" + getRequests() + ", hedged=" + getHedged() + ", hedgeWins=" + getHedgeWins() + ", delay=" + TimeUnit.NANOSECONDS.toMillis(getDelay()) + "ms]";
+    }
+}
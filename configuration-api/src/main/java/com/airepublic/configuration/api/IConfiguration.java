@@ -15,6 +15,8 @@ package com.airepublic.configuration.api;
 
 import java.io.Serializable;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
  * The interface for configurations.
  * 
@@ -27,5 +29,14 @@ public interface IConfiguration extends Serializable {
 	String getVariation();
 	void setVariation(String variation);
 	
+	/**
+	 * @return the namespace of the configuration derived from its id, see
+	 *         {@link ConfigurationNamespace}
+	 */
+	@JsonIgnore
+	default String getNamespace() {
+		return ConfigurationNamespace.getNamespace(getId());
+	}
+	
 	void resetToDefault() throws ConfigurationServiceException;
 }
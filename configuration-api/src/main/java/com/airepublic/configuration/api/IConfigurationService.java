@@ -13,6 +13,13 @@
 */
 package com.airepublic.configuration.api;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+
 /**
  * A service interface to manage configurations.
  * 
@@ -45,6 +52,57 @@ public interface IConfigurationService {
 	String getConfigurationAsJson(String id, String variation) throws ConfigurationServiceException;
 
 
+	/**
+	 * Gets only the specified fields of the configuration as Json. The result is a JSON object with
+	 * the requested RFC 6901 JSON pointers as keys and the referenced values as values. Pointers
+	 * which do not reference a value are omitted.
+	 * <p>
+	 * The default implementation reads the whole configuration and projects it in memory.
+	 * 
+	 * @param id the unique identifier
+	 * @param variation the variation option
+	 * @param fields the JSON pointers of the fields or null or empty for the whole configuration
+	 * @return the projected configuration as Json or null if not found
+	 * @throws ConfigurationServiceException (with ErrorCode.ERROR_GET) if an error occurred during
+	 *         reading or a pointer is invalid
+	 */
+	default String getConfigurationAsJson(final String id, final String variation, final List<String> fields) throws ConfigurationServiceException {
+		final String json = getConfigurationAsJson(id, variation);
+		
+		if (json == null || fields == null || fields.isEmpty()) {
+			return json;
+		}
+		
+		try {
+			return JsonProjection.project(json, fields);
+		} catch (final IOException | IllegalArgumentException e) {
+			throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+		}
+	}
+
+
+	/**
+	 * Gets the specified configuration as read-only {@link ConfigurationView} with typed getters
+	 * by path, e.g. for callers which only read a few properties. Views are immutable, so callers
+	 * can keep them for hot lookups.
+	 * <p>
+	 * The default implementation reads the configuration as JSON and creates the view from it.
+	 * 
+	 * @param id the unique identifier
+	 * @param variation the variation option
+	 * @return the {@link ConfigurationView} or null if not found
+	 * @throws ConfigurationServiceException (with ErrorCode.ERROR_GET) if an error occurred during
+	 *         reading
+	 */
+	default ConfigurationView getConfigurationView(final String id, final String variation) throws ConfigurationServiceException {
+		try {
+			return ConfigurationView.parse(getConfigurationAsJson(id, variation));
+		} catch (final IOException e) {
+			throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+		}
+	}
+
+
 	/**
 	 * Saves or updates the specified configuration.
 	 * 
@@ -65,6 +123,74 @@ public interface IConfigurationService {
 	void saveConfigurationAsJson(String configuration) throws ConfigurationServiceException;
 
 
+	/**
+	 * Saves or updates the specified JSON configurations in one batch, e.g. when flushing queued
+	 * writes.
+	 * <p>
+	 * The default implementation saves the configurations one by one.
+	 * 
+	 * @param configurations the configurations as JSON
+	 * @throws ConfigurationServiceException (with ErrorCode.ERROR_SAVE) if an error occurred during
+	 *         saving
+	 */
+	default void saveConfigurationsAsJson(final Collection<String> configurations) throws ConfigurationServiceException {
+		for (final String configuration : configurations) {
+			saveConfigurationAsJson(configuration);
+		}
+	}
+
+
+	/**
+	 * Gets the version of the stored configuration. The version increases with every save of the
+	 * configuration.
+	 * 
+	 * @param id the unique identifier
+	 * @param variation the variation option
+	 * @return the version or 0 if the configuration does not exist
+	 * @throws ConfigurationServiceException (with ErrorCode.ERROR_GET) if an error occurred during
+	 *         reading or the service does not support versions
+	 */
+	default long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+		throw new ConfigurationServiceException(ErrorCode.ERROR_GET, getClass().getSimpleName() + " does not support versions!");
+	}
+
+
+	/**
+	 * Saves or updates the specified configuration if the stored version is still the expected
+	 * version, i.e. it has not been changed since it was read.
+	 * 
+	 * @param configuration the configuration
+	 * @param expectedVersion the version the configuration was read with or 0 if it must not exist
+	 *        yet
+	 * @return the new version of the configuration
+	 * @throws ConfigurationVersionConflictException if the stored version is not the expected
+	 *         version
+	 * @throws ConfigurationServiceException (with ErrorCode.ERROR_SAVE) if an error occurred during
+	 *         saving or the service does not support versions
+	 */
+	default long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+		throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, getClass().getSimpleName() + " does not support versions!");
+	}
+
+
+	/**
+	 * Saves or updates the specified JSON configuration if the stored version is still the
+	 * expected version, i.e. it has not been changed since it was read.
+	 * 
+	 * @param configuration the configuration as JSON
+	 * @param expectedVersion the version the configuration was read with or 0 if it must not exist
+	 *        yet
+	 * @return the new version of the configuration
+	 * @throws ConfigurationVersionConflictException if the stored version is not the expected
+	 *         version
+	 * @throws ConfigurationServiceException (with ErrorCode.ERROR_SAVE) if an error occurred during
+	 *         saving or the service does not support versions
+	 */
+	default long saveConfigurationAsJson(final String configuration, final long expectedVersion) throws ConfigurationServiceException {
+		throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, getClass().getSimpleName() + " does not support versions!");
+	}
+
+
 	/**
 	 * Removes the specified configuration.
 	 * 
@@ -74,4 +200,136 @@ public interface IConfigurationService {
 	 *         during removing
 	 */
 	void removeConfiguration(String id, String variation) throws ConfigurationServiceException;
+
+
+	/**
+	 * Applies a partial update to the specified configuration. A patch which is a JSON object is
+	 * applied as RFC 7396 merge patch, a patch which is a JSON array as RFC 6902 JSON Patch. A
+	 * configuration which does not exist yet is created.
+	 * <p>
+	 * The default implementation reads the configuration, applies the patch in memory and saves the
+	 * whole configuration.
+	 * 
+	 * @param id the unique identifier
+	 * @param variation the variation option
+	 * @param patch the merge patch or JSON Patch
+	 * @throws ConfigurationServiceException (with ErrorCode.ERROR_SAVE) if the patch could not be
+	 *         applied or an error occurred during saving
+	 */
+	default void patchConfigurationAsJson(final String id, final String variation, final String patch) throws ConfigurationServiceException {
+		try {
+			saveConfigurationAsJson(JsonPatches.apply(getConfigurationAsJson(id, variation), patch, id, variation));
+		} catch (final IOException | IllegalArgumentException e) {
+			throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error patching configuration '" + id + "'!", e);
+		}
+	}
+
+
+	/**
+	 * Gets the configuration as it was at the specified version of its history.
+	 * 
+	 * @param id the unique identifier
+	 * @param variation the variation option
+	 * @param clazz the configuration class to return
+	 * @param atVersion the version
+	 * @return the configuration or null if the version does not exist or the configuration was
+	 *         removed at that version
+	 * @throws ConfigurationServiceException (with ErrorCode.ERROR_GET) if an error occurred during
+	 *         reading or the service does not keep a history
+	 */
+	default <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz, final long atVersion) throws ConfigurationServiceException {
+		throw new ConfigurationServiceException(ErrorCode.ERROR_GET, getClass().getSimpleName() + " does not support history!");
+	}
+
+
+	/**
+	 * Gets the configuration as it was at the specified time.
+	 * <p>
+	 * The default implementation looks up the version at the time and reads that version.
+	 * 
+	 * @param id the unique identifier
+	 * @param variation the variation option
+	 * @param clazz the configuration class to return
+	 * @param atTime the time
+	 * @return the configuration or null if it did not exist at that time
+	 * @throws ConfigurationServiceException (with ErrorCode.ERROR_GET) if an error occurred during
+	 *         reading or the service does not keep a history
+	 */
+	default <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz, final Instant atTime) throws ConfigurationServiceException {
+		final long version = getConfigurationVersionAt(id, variation, atTime);
+		
+		return version == 0L ? null : getConfiguration(id, variation, clazz, version);
+	}
+
+
+	/**
+	 * Gets the configuration as Json as it was at the specified version of its history.
+	 * 
+	 * @param id the unique identifier
+	 * @param variation the variation option
+	 * @param atVersion the version
+	 * @return the configuration as Json or null if the version does not exist or the
+	 *         configuration was removed at that version
+	 * @throws ConfigurationServiceException (with ErrorCode.ERROR_GET) if an error occurred during
+	 *         reading or the service does not keep a history
+	 */
+	default String getConfigurationAsJson(final String id, final String variation, final long atVersion) throws ConfigurationServiceException {
+		throw new ConfigurationServiceException(ErrorCode.ERROR_GET, getClass().getSimpleName() + " does not support history!");
+	}
+
+
+	/**
+	 * Gets the version of the configuration which was current at the specified time.
+	 * 
+	 * @param id the unique identifier
+	 * @param variation the variation option
+	 * @param atTime the time
+	 * @return the version or 0 if the configuration had no version at that time
+	 * @throws ConfigurationServiceException (with ErrorCode.ERROR_GET) if an error occurred during
+	 *         reading or the service does not keep a history
+	 */
+	default long getConfigurationVersionAt(final String id, final String variation, final Instant atTime) throws ConfigurationServiceException {
+		throw new ConfigurationServiceException(ErrorCode.ERROR_GET, getClass().getSimpleName() + " does not support history!");
+	}
+
+
+	/**
+	 * Rolls the configuration back to the specified version of its history. The rollback is saved
+	 * as a new version, so it can be rolled back as well.
+	 * 
+	 * @param id the unique identifier
+	 * @param variation the variation option
+	 * @param toVersion the version to roll back to
+	 * @return the new version of the configuration
+	 * @throws ConfigurationServiceException (with ErrorCode.ERROR_SAVE) if the version does not
+	 *         exist, an error occurred during saving or the service does not keep a history
+	 */
+	default long rollbackConfiguration(final String id, final String variation, final long toVersion) throws ConfigurationServiceException {
+		throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, getClass().getSimpleName() + " does not support history!");
+	}
+
+
+	/**
+	 * Gets a service for the configurations of the specified namespace, e.g. of a tenant. The
+	 * configurations are stored with ids qualified by the namespace and inherit from the parent
+	 * namespaces, see {@link NamespacedConfigurationService}.
+	 * 
+	 * @param namespace the namespace, see {@link ConfigurationNamespace}
+	 * @return the service scoped to the namespace
+	 * @throws IllegalArgumentException if the namespace is not valid
+	 */
+	default IConfigurationService forNamespace(final String namespace) {
+		return new NamespacedConfigurationService(this, namespace, true);
+	}
+
+
+	/**
+	 * Checks whether the service is ready to serve requests, i.e. the configurations to preload
+	 * are in memory.
+	 * 
+	 * @return true if the service is ready
+	 */
+	default boolean isReady() {
+		return true;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,109 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.nio.ByteBuffer;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * An immutable table of int values stored off-heap, see {@link NumericTable}.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class IntTable extends NumericTable {
+    private IntTable(final ByteBuffer buffer) {
+        super(buffer, Integer.BYTES);
+    }
+
+
+    /**
+     * Creates a table with a copy of the values.
+     *
+     * @param values the values
+     * @return the {@link IntTable}
+     */
+    public static IntTable of(final int... values) {
+        final ByteBuffer buffer = allocate(values.length, Integer.BYTES);
+
+        for (final int value : values) {
+            buffer.putInt(value);
+        }
+
+        buffer.flip();
+
+        return new IntTable(buffer);
+    }
+
+
+    /**
+     * Creates a table using the buffer without copying it. The values must be in little-endian
+     * order and the buffer must not be modified afterwards.
+     *
+     * @param buffer the buffer
+     * @return the {@link IntTable}
+     */
+    public static IntTable wrap(final ByteBuffer buffer) {
+        return new IntTable(buffer);
+    }
+
+
+    /**
+     * Creates a table from its JSON value.
+     *
+     * @param node the Base64 encoded values or an array of numbers
+     * @return the {@link IntTable}
+     */
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static IntTable fromJson(final JsonNode node) {
+        if (!isArray(node)) {
+            return new IntTable(decode(node.textValue()));
+        }
+
+        final ByteBuffer buffer = allocate(node.size(), Integer.BYTES);
+
+        for (final JsonNode value : node) {
+            buffer.putInt(value.intValue());
+        }
+
+        buffer.flip();
+
+        return new IntTable(buffer);
+    }
+
+
+    /**
+     * @param index the index of the value
+     * @return the value
+     * @throws IndexOutOfBoundsException if the index is not within the table
+     */
+    public int get(final int index) {
+        return buffer().getInt(index * Integer.BYTES);
+    }
+
+
+    /**
+     * @return a copy of the values
+     */
+    public int[] toArray() {
+        final int[] values = new int[size()];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = get(i);
+        }
+
+        return values;
+    }
+}
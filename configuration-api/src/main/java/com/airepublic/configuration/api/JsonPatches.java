@@ -0,0 +1,379 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Applies partial updates to configurations in JSON. A patch which is a JSON object is applied as
+ * RFC 7396 merge patch, a patch which is a JSON array as RFC 6902 JSON Patch.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class JsonPatches {
+    /** The media type of RFC 7396 merge patches. */
+    public static final String MERGE_PATCH_JSON = "application/merge-patch+json";
+    /** The media type of RFC 6902 JSON Patches. */
+    public static final String JSON_PATCH_JSON = "application/json-patch+json";
+    private static final String ID = "id";
+    private static final String VARIATION = "variation";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private JsonPatches() {
+    }
+
+
+    /**
+     * Applies the patch to the configuration. The id and variation of the configuration must not
+     * be changed by the patch.
+     *
+     * @param json the configuration as JSON or null if it does not exist yet
+     * @param patch the merge patch or JSON Patch
+     * @param id the configuration id
+     * @param variation the variation option
+     * @return the patched configuration as JSON
+     * @throws IOException if the configuration or patch is not valid JSON
+     * @throws IllegalArgumentException if the patch could not be applied
+     */
+    public static String apply(final String json, final String patch, final String id, final String variation) throws IOException {
+        final JsonNode target;
+
+        if (json != null) {
+            target = MAPPER.readTree(json);
+        } else {
+            final ObjectNode node = MAPPER.createObjectNode();
+            node.put(ID, id);
+            node.put(VARIATION, variation);
+            target = node;
+        }
+
+        final JsonNode patched = apply(target, MAPPER.readTree(patch));
+
+        checkUnchanged(patched, ID, id);
+        checkUnchanged(patched, VARIATION, variation);
+
+        return patched.toString();
+    }
+
+
+    private static void checkUnchanged(final JsonNode patched, final String field, final String expected) {
+        final JsonNode value = patched.get(field);
+        final String actual = value == null || value.isNull() ? null : value.asText();
+
+        if (!(expected == null || expected.isEmpty() ? actual == null || actual.isEmpty() : expected.equals(actual))) {
+            throw new IllegalArgumentException("The " + field + " of a configuration must not be patched!");
+        }
+    }
+
+
+    /**
+     * Applies the patch to the target.
+     *
+     * @param target the target which is not modified
+     * @param patch the merge patch or JSON Patch
+     * @return the patched copy of the target
+     * @throws IllegalArgumentException if the patch could not be applied
+     */
+    public static JsonNode apply(final JsonNode target, final JsonNode patch) {
+        if (patch.isArray()) {
+            return applyJsonPatch(target, patch);
+        }
+
+        return applyMergePatch(target, patch);
+    }
+
+
+    /**
+     * Applies a RFC 7396 merge patch.
+     *
+     * @param target the target which is not modified
+     * @param patch the merge patch
+     * @return the patched copy of the target
+     */
+    public static JsonNode applyMergePatch(final JsonNode target, final JsonNode patch) {
+        if (!patch.isObject()) {
+            return patch.deepCopy();
+        }
+
+        final ObjectNode result = target != null && target.isObject() ? ((ObjectNode) target).deepCopy() : MAPPER.createObjectNode();
+        final Iterator<Entry<String, JsonNode>> it = patch.fields();
+
+        while (it.hasNext()) {
+            final Entry<String, JsonNode> field = it.next();
+
+            if (field.getValue().isNull()) {
+                result.remove(field.getKey());
+            } else {
+                result.set(field.getKey(), applyMergePatch(result.get(field.getKey()), field.getValue()));
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Applies a RFC 6902 JSON Patch.
+     *
+     * @param target the target which is not modified
+     * @param patch the array of operations
+     * @return the patched copy of the target
+     * @throws IllegalArgumentException if an operation could not be applied or a test failed
+     */
+    public static JsonNode applyJsonPatch(final JsonNode target, final JsonNode patch) {
+        JsonNode doc = target.deepCopy();
+
+        for (final JsonNode operation : patch) {
+            final String op = getText(operation, "op");
+            final String path = getText(operation, "path");
+
+            switch (op) {
+                case "add":
+                    doc = add(doc, path, getValue(operation));
+                    break;
+                case "remove":
+                    doc = remove(doc, path);
+                    break;
+                case "replace":
+                    doc = add(remove(doc, path), path, getValue(operation));
+                    break;
+                case "move": {
+                    final String from = getText(operation, "from");
+
+                    if (path.startsWith(from + "/")) {
+                        throw new IllegalArgumentException("Cannot move " + from + " into one of its children!");
+                    }
+
+                    final JsonNode value = get(doc, parsePointer(from));
+                    doc = add(remove(doc, from), path, value);
+                    break;
+                }
+                case "copy":
+                    doc = add(doc, path, get(doc, parsePointer(getText(operation, "from"))).deepCopy());
+                    break;
+                case "test":
+                    if (!get(doc, parsePointer(path)).equals(getValue(operation))) {
+                        throw new IllegalArgumentException("Test of " + path + " failed!");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown patch operation '" + op + "'!");
+            }
+        }
+
+        return doc;
+    }
+
+
+    /**
+     * Creates the RFC 6902 JSON Patch which transforms the source into the target. Objects and
+     * arrays of the same size are compared recursively, all other changed values are replaced.
+     *
+     * @param source the source
+     * @param target the target
+     * @return the array of operations, empty if source and target are equal
+     */
+    public static ArrayNode diff(final JsonNode source, final JsonNode target) {
+        final ArrayNode patch = MAPPER.createArrayNode();
+        diff(source, target, "", patch);
+
+        return patch;
+    }
+
+
+    private static void diff(final JsonNode source, final JsonNode target, final String path, final ArrayNode patch) {
+        if (source.equals(target)) {
+            return;
+        }
+
+        if (source.isObject() && target.isObject()) {
+            final Iterator<String> names = source.fieldNames();
+
+            while (names.hasNext()) {
+                final String name = names.next();
+
+                if (!target.has(name)) {
+                    patch.addObject().put("op", "remove").put("path", path + "/" + escape(name));
+                }
+            }
+
+            final Iterator<Entry<String, JsonNode>> it = target.fields();
+
+            while (it.hasNext()) {
+                final Entry<String, JsonNode> field = it.next();
+                final JsonNode value = source.get(field.getKey());
+
+                if (value == null) {
+                    patch.addObject().put("op", "add").put("path", path + "/" + escape(field.getKey())).set("value", field.getValue());
+                } else {
+                    diff(value, field.getValue(), path + "/" + escape(field.getKey()), patch);
+                }
+            }
+        } else if (source.isArray() && target.isArray() && source.size() == target.size()) {
+            for (int i = 0; i < source.size(); i++) {
+                diff(source.get(i), target.get(i), path + "/" + i, patch);
+            }
+        } else {
+            // the whole document can only be replaced by adding it
+            patch.addObject().put("op", path.isEmpty() ? "add" : "replace").put("path", path).set("value", target);
+        }
+    }
+
+
+    private static String escape(final String token) {
+        return token.replace("~", "~0").replace("/", "~1");
+    }
+
+
+    private static String getText(final JsonNode operation, final String field) {
+        final JsonNode value = operation.get(field);
+
+        if (value == null || !value.isTextual()) {
+            throw new IllegalArgumentException("Patch operation is missing '" + field + "': " + operation);
+        }
+
+        return value.textValue();
+    }
+
+
+    private static JsonNode getValue(final JsonNode operation) {
+        final JsonNode value = operation.get("value");
+
+        if (value == null) {
+            throw new IllegalArgumentException("Patch operation is missing 'value': " + operation);
+        }
+
+        return value.deepCopy();
+    }
+
+
+    /**
+     * Parses a RFC 6901 JSON pointer into its unescaped reference tokens.
+     *
+     * @param pointer the JSON pointer
+     * @return the reference tokens, empty for the whole document
+     */
+    public static List<String> parsePointer(final String pointer) {
+        final List<String> tokens = new ArrayList<>();
+
+        if (pointer.isEmpty()) {
+            return tokens;
+        }
+
+        if (pointer.charAt(0) != '/') {
+            throw new IllegalArgumentException("Invalid JSON pointer '" + pointer + "'!");
+        }
+
+        for (final String token : pointer.substring(1).split("/", -1)) {
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+
+        return tokens;
+    }
+
+
+    private static JsonNode get(final JsonNode doc, final List<String> tokens) {
+        JsonNode node = doc;
+
+        for (final String token : tokens) {
+            if (node.isObject()) {
+                node = node.get(token);
+            } else if (node.isArray()) {
+                node = node.get(index(token, node.size() - 1));
+            } else {
+                node = null;
+            }
+
+            if (node == null) {
+                throw new IllegalArgumentException("Path " + tokens + " does not exist!");
+            }
+        }
+
+        return node;
+    }
+
+
+    private static int index(final String token, final int max) {
+        try {
+            final int index = Integer.parseInt(token);
+
+            if (index >= 0 && index <= max && (token.equals("0") || token.charAt(0) != '0')) {
+                return index;
+            }
+        } catch (final NumberFormatException e) {
+            // fall through
+        }
+
+        throw new IllegalArgumentException("Invalid array index '" + token + "'!");
+    }
+
+
+    private static JsonNode add(final JsonNode doc, final String path, final JsonNode value) {
+        final List<String> tokens = parsePointer(path);
+
+        if (tokens.isEmpty()) {
+            return value;
+        }
+
+        final String last = tokens.remove(tokens.size() - 1);
+        final JsonNode parent = get(doc, tokens);
+
+        if (parent.isObject()) {
+            ((ObjectNode) parent).set(last, value);
+        } else if (parent.isArray()) {
+            final ArrayNode array = (ArrayNode) parent;
+
+            if (last.equals("-")) {
+                array.add(value);
+            } else {
+                array.insert(index(last, array.size()), value);
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot add to " + path + "!");
+        }
+
+        return doc;
+    }
+
+
+    private static JsonNode remove(final JsonNode doc, final String path) {
+        final List<String> tokens = parsePointer(path);
+
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("Cannot remove the whole document!");
+        }
+
+        final String last = tokens.remove(tokens.size() - 1);
+        final JsonNode parent = get(doc, tokens);
+
+        if (parent.isObject() && parent.has(last)) {
+            ((ObjectNode) parent).remove(last);
+        } else if (parent.isArray()) {
+            ((ArrayNode) parent).remove(index(last, parent.size() - 1));
+        } else {
+            throw new IllegalArgumentException("Path " + path + " does not exist!");
+        }
+
+        return doc;
+    }
+}
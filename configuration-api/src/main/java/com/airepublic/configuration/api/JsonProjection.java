@@ -0,0 +1,172 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Projects configurations in JSON to the values of a list of RFC 6901 JSON pointers. The
+ * projection is a JSON object with the requested pointers as keys and the referenced values as
+ * values. Pointers which do not reference a value are omitted.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class JsonProjection {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private JsonProjection() {
+    }
+
+
+    /**
+     * Projects the configuration to the values of the pointers.
+     *
+     * @param json the configuration as JSON
+     * @param pointers the JSON pointers
+     * @return the projection as JSON
+     * @throws IOException if the configuration is not valid JSON
+     * @throws IllegalArgumentException if a pointer is invalid
+     */
+    public static String project(final String json, final List<String> pointers) throws IOException {
+        return project(MAPPER.readTree(json), pointers).toString();
+    }
+
+
+    /**
+     * Projects the configuration to the values of the pointers.
+     *
+     * @param node the configuration
+     * @param pointers the JSON pointers
+     * @return the projection
+     * @throws IllegalArgumentException if a pointer is invalid
+     */
+    public static ObjectNode project(final JsonNode node, final List<String> pointers) {
+        final ObjectNode result = MAPPER.createObjectNode();
+
+        for (final String pointer : pointers) {
+            final JsonNode value = get(node, JsonPatches.parsePointer(pointer));
+
+            if (value != null) {
+                result.set(pointer, value);
+            }
+        }
+
+        return result;
+    }
+
+
+    private static JsonNode get(final JsonNode doc, final List<String> tokens) {
+        JsonNode node = doc;
+
+        for (final String token : tokens) {
+            if (node == null) {
+                return null;
+            } else if (node.isObject()) {
+                node = node.get(token);
+            } else if (node.isArray() && isIndex(token)) {
+                node = node.get(Integer.parseInt(token));
+            } else {
+                return null;
+            }
+        }
+
+        return node;
+    }
+
+
+    private static boolean isIndex(final String token) {
+        if (token.isEmpty() || token.length() > 9 || token.length() > 1 && token.charAt(0) == '0') {
+            return false;
+        }
+
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isDigit(token.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Converts the pointers to the dotted field paths of a mongo projection. A pointer into an
+     * array is shortened to the array, the exact values are projected afterwards. Paths which are
+     * contained in another path are removed.
+     *
+     * @param pointers the JSON pointers
+     * @return the field paths or null if a pointer cannot be expressed as field path, e.g. because
+     *         it references the whole document or a field name contains a dot
+     * @throws IllegalArgumentException if a pointer is invalid
+     */
+    public static List<String> toFieldPaths(final List<String> pointers) {
+        final TreeSet<String> paths = new TreeSet<>();
+
+        for (final String pointer : pointers) {
+            final StringBuilder path = new StringBuilder();
+
+            for (final String token : JsonPatches.parsePointer(pointer)) {
+                if (isIndex(token) || token.equals("-")) {
+                    break;
+                }
+
+                if (token.isEmpty() || token.indexOf('.') != -1 || token.startsWith("$")) {
+                    return null;
+                }
+
+                if (path.length() > 0) {
+                    path.append('.');
+                }
+
+                path.append(token);
+            }
+
+            if (path.length() == 0) {
+                return null;
+            }
+
+            paths.add(path.toString());
+        }
+
+        // mongo rejects a projection containing a path and one of its parents
+        final List<String> result = new ArrayList<>();
+
+        for (final String path : paths) {
+            if (!hasParent(paths, path)) {
+                result.add(path);
+            }
+        }
+
+        return result;
+    }
+
+
+    private static boolean hasParent(final Set<String> paths, final String path) {
+        for (int idx = path.indexOf('.'); idx != -1; idx = path.indexOf('.', idx + 1)) {
+            if (paths.contains(path.substring(0, idx))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.nio.ByteBuffer;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * An immutable table of long values stored off-heap, see {@link NumericTable}.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class LongTable extends NumericTable {
+    private LongTable(final ByteBuffer buffer) {
+        super(buffer, Long.BYTES);
+    }
+
+
+    /**
+     * Creates a table with a copy of the values.
+     *
+     * @param values the values
+     * @return the {@link LongTable}
+     */
+    public static LongTable of(final long... values) {
+        final ByteBuffer buffer = allocate(values.length, Long.BYTES);
+
+        for (final long value : values) {
+            buffer.putLong(value);
+        }
+
+        buffer.flip();
+
+        return new LongTable(buffer);
+    }
+
+
+    /**
+     * Creates a table using the buffer without copying it. The values must be in little-endian
+     * order and the buffer must not be modified afterwards.
+     *
+     * @param buffer the buffer
+     * @return the {@link LongTable}
+     */
+    public static LongTable wrap(final ByteBuffer buffer) {
+        return new LongTable(buffer);
+    }
+
+
+    /**
+     * Creates a table from its JSON value.
+     *
+     * @param node the Base64 encoded values or an array of numbers
+     * @return the {@link LongTable}
+     */
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static LongTable fromJson(final JsonNode node) {
+        if (!isArray(node)) {
+            return new LongTable(decode(node.textValue()));
+        }
+
+        final ByteBuffer buffer = allocate(node.size(), Long.BYTES);
+
+        for (final JsonNode value : node) {
+            buffer.putLong(value.longValue());
+        }
+
+        buffer.flip();
+
+        return new LongTable(buffer);
+    }
+
+
+    /**
+     * @param index the index of the value
+     * @return the value
+     * @throws IndexOutOfBoundsException if the index is not within the table
+     */
+    public long get(final int index) {
+        return buffer().getLong(index * Long.BYTES);
+    }
+
+
+    /**
+     * @return a copy of the values
+     */
+    public long[] toArray() {
+        final long[] values = new long[size()];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = get(i);
+        }
+
+        return values;
+    }
+}
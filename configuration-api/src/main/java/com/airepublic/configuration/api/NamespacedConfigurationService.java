@@ -0,0 +1,293 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * An {@link IConfigurationService} scoped to a namespace, see {@link ConfigurationNamespace}. The
+ * ids passed to this service are qualified with the namespace before they are passed to the
+ * delegate, so the configurations of different namespaces do not collide.
+ * <p>
+ * If inheritance is enabled a configuration which does not exist in the namespace is read from the
+ * nearest parent namespace, e.g. the configurations of <code>acme/eu</code> fall back to those of
+ * <code>acme</code> and of the root namespace. Writes always go to the namespace itself, so the
+ * first save or patch of an inherited configuration creates an override. Default configurations
+ * are created in the root namespace when inheriting, otherwise in the namespace.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class NamespacedConfigurationService implements IConfigurationService {
+    private final static String ID = "id";
+    private final IConfigurationService delegate;
+    private final String namespace;
+    private final boolean inherit;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Constructor.
+     *
+     * @param delegate the service storing the configurations of all namespaces
+     * @param namespace the namespace
+     * @param inherit true if configurations are inherited from the parent namespaces
+     * @throws IllegalArgumentException if the namespace is not valid
+     */
+    public NamespacedConfigurationService(final IConfigurationService delegate, final String namespace, final boolean inherit) {
+        this.delegate = delegate;
+        this.namespace = ConfigurationNamespace.validate(namespace);
+        this.inherit = inherit;
+        mapper.setSerializationInclusion(Include.ALWAYS);
+    }
+
+
+    /**
+     * @param id the unqualified id
+     * @return the id qualified with the namespace
+     */
+    protected String qualify(final String id) {
+        return ConfigurationNamespace.qualify(namespace, id);
+    }
+
+
+    /**
+     * Gets the configuration as JSON from the namespace or the nearest parent namespace it exists
+     * in.
+     *
+     * @param id the unqualified id
+     * @param variation the variation option
+     * @param fields the JSON pointers of the fields or null for the whole configuration
+     * @return the configuration as JSON or null if not found
+     * @throws ConfigurationServiceException if an error occurred during reading
+     */
+    private String resolve(final String id, final String variation, final List<String> fields) throws ConfigurationServiceException {
+        for (String ns = namespace; ns != null; ns = inherit ? ConfigurationNamespace.getParent(ns) : null) {
+            final String qualifiedId = ConfigurationNamespace.qualify(ns, id);
+            final String json = fields == null ? delegate.getConfigurationAsJson(qualifiedId, variation) : delegate.getConfigurationAsJson(qualifiedId, variation, fields);
+
+            if (json != null) {
+                return json;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Sets the qualified id in the JSON configuration.
+     *
+     * @param json the configuration as JSON
+     * @return the configuration as JSON with the qualified id
+     * @throws IOException if the configuration is not a valid JSON object
+     */
+    private String qualifyJson(final String json) throws IOException {
+        final JsonNode node = mapper.readTree(json);
+        final JsonNode id = node.get(ID);
+
+        if (!node.isObject() || id == null || !id.isTextual()) {
+            throw new IOException("The configuration has no id!");
+        }
+
+        final String qualifiedId = qualify(id.textValue());
+
+        if (qualifiedId.equals(id.textValue())) {
+            return json;
+        }
+
+        ((ObjectNode) node).put(ID, qualifiedId);
+
+        return node.toString();
+    }
+
+
+    /**
+     * Creates a copy of the configuration as JSON with the qualified id, so the id of the caller's
+     * configuration is not changed.
+     *
+     * @param configuration the configuration
+     * @return the configuration as JSON with the qualified id
+     */
+    private String qualifiedCopy(final IConfiguration configuration) {
+        final ObjectNode node = mapper.valueToTree(configuration);
+        node.put(ID, qualify(configuration.getId()));
+
+        return node.toString();
+    }
+
+
+    private String qualifyJsonForSave(final String json) throws ConfigurationServiceException {
+        try {
+            return qualifyJson(json);
+        } catch (final IOException e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration in namespace '" + namespace + "'!", e);
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        if (!inherit) {
+            return delegate.getConfiguration(qualify(id), variation, clazz);
+        }
+
+        final String json = resolve(id, variation, null);
+
+        if (json == null) {
+            // the defaults are shared by all namespaces
+            return delegate.getConfiguration(ConfigurationNamespace.qualify(ConfigurationNamespace.ROOT, id), variation, clazz);
+        }
+
+        try {
+            return (T) mapper.readValue(json, clazz);
+        } catch (final IOException e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "' in namespace '" + namespace + "'!", e);
+        }
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation) throws ConfigurationServiceException {
+        return resolve(id, variation, null);
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation, final List<String> fields) throws ConfigurationServiceException {
+        return resolve(id, variation, fields == null ? List.of() : fields);
+    }
+
+
+    @Override
+    public void saveConfiguration(final IConfiguration configuration) throws ConfigurationServiceException {
+        delegate.saveConfigurationAsJson(qualifiedCopy(configuration));
+    }
+
+
+    @Override
+    public void saveConfigurationAsJson(final String configuration) throws ConfigurationServiceException {
+        delegate.saveConfigurationAsJson(qualifyJsonForSave(configuration));
+    }
+
+
+    @Override
+    public void saveConfigurationsAsJson(final Collection<String> configurations) throws ConfigurationServiceException {
+        final List<String> qualified = new ArrayList<>(configurations.size());
+
+        for (final String configuration : configurations) {
+            qualified.add(qualifyJsonForSave(configuration));
+        }
+
+        delegate.saveConfigurationsAsJson(qualified);
+    }
+
+
+    @Override
+    public long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+        return delegate.getConfigurationVersion(qualify(id), variation);
+    }
+
+
+    @Override
+    public long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+        return delegate.saveConfigurationAsJson(qualifiedCopy(configuration), expectedVersion);
+    }
+
+
+    @Override
+    public long saveConfigurationAsJson(final String configuration, final long expectedVersion) throws ConfigurationServiceException {
+        return delegate.saveConfigurationAsJson(qualifyJsonForSave(configuration), expectedVersion);
+    }
+
+
+    /**
+     * Patches the configuration in the namespace. If it only exists in a parent namespace the
+     * patch is applied to the inherited configuration and the result is saved in the namespace.
+     */
+    @Override
+    public void patchConfigurationAsJson(final String id, final String variation, final String patch) throws ConfigurationServiceException {
+        final String qualifiedId = qualify(id);
+
+        if (!inherit || namespace.isEmpty() || delegate.getConfigurationAsJson(qualifiedId, variation) != null) {
+            delegate.patchConfigurationAsJson(qualifiedId, variation, patch);
+            return;
+        }
+
+        final String inherited = resolve(id, variation, null);
+
+        try {
+            delegate.saveConfigurationAsJson(JsonPatches.apply(inherited == null ? null : qualifyJson(inherited), patch, qualifiedId, variation));
+        } catch (final IOException | IllegalArgumentException e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error patching configuration '" + id + "' in namespace '" + namespace + "'!", e);
+        }
+    }
+
+
+    @Override
+    public void removeConfiguration(final String id, final String variation) throws ConfigurationServiceException {
+        delegate.removeConfiguration(qualify(id), variation);
+    }
+
+
+    /**
+     * Gets a service for a child namespace of this namespace, e.g. <code>eu</code> for
+     * <code>acme/eu</code>. Other namespaces cannot be reached from a scoped service, so a tenant
+     * is confined to its own namespaces.
+     *
+     * @param namespace the namespace relative to this namespace
+     * @return the service scoped to the child namespace or this service for an empty namespace
+     * @throws IllegalArgumentException if the namespace is not valid
+     */
+    @Override
+    public IConfigurationService forNamespace(final String namespace) {
+        final String child = ConfigurationNamespace.validate(namespace);
+
+        if (child.isEmpty()) {
+            return this;
+        }
+
+        return new NamespacedConfigurationService(delegate, this.namespace.isEmpty() ? child : this.namespace + ConfigurationNamespace.PATH_SEPARATOR + child, inherit);
+    }
+
+
+    @Override
+    public boolean isReady() {
+        return delegate.isReady();
+    }
+
+
+    /**
+     * @return the namespace
+     */
+    public String getNamespace() {
+        return namespace;
+    }
+
+
+    /**
+     * @return true if configurations are inherited from the parent namespaces
+     */
+    public boolean isInherit() {
+        return inherit;
+    }
+}
@@ -0,0 +1,250 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache remembering for a short time that a configuration does not exist, so repeated
+ * lookups for unknown configurations are answered locally instead of querying the backend. Entries
+ * must be invalidated when the configuration is saved.
+ * <p>
+ * A read which did not find the configuration passes the generation of the key taken before the
+ * read to {@link #put(String, long)}. If the configuration has been saved in the meantime, the
+ * generation has changed and the outdated miss is discarded.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class NegativeCache {
+    /** The default time in milliseconds a missing configuration is remembered. */
+    public static final int DEFAULT_TTL = 5000;
+    /** The default maximum number of remembered missing configurations. */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    // the number of stripes of the generations of the keys
+    private static final int GENERATIONS = 256;
+    private final long ttl;
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Long> entries = new ConcurrentHashMap<>();
+    // incremented when a key of the stripe is invalidated, so misses read before are discarded
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATIONS);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    /**
+     * Constructor with the default time-to-live and size.
+     */
+    public NegativeCache() {
+        this(DEFAULT_TTL, DEFAULT_MAX_SIZE);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param ttl the time in milliseconds a missing configuration is remembered, 0 disables the
+     *        cache
+     * @param maxSize the maximum number of remembered missing configurations
+     */
+    public NegativeCache(final long ttl, final int maxSize) {
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Checks whether the configuration for the key is known to not exist.
+     *
+     * @param key the configuration key
+     * @return true if the configuration is known to not exist
+     */
+    public boolean contains(final String key) {
+        final Long expiry = entries.get(key);
+
+        if (expiry != null) {
+            if (expiry.longValue() > System.currentTimeMillis()) {
+                hits.increment();
+                return true;
+            }
+
+            entries.remove(key, expiry);
+        }
+
+        misses.increment();
+        return false;
+    }
+
+
+    /**
+     * Gets the generation of the key, which must be taken before reading the configuration.
+     *
+     * @param key the configuration key
+     * @return the generation
+     */
+    public long getGeneration(final String key) {
+        return generations.get(stripe(key));
+    }
+
+
+    /**
+     * Remembers that the configuration for the key does not exist, unless it has been invalidated
+     * since the generation was taken.
+     *
+     * @param key the configuration key
+     * @param generation the generation of the key taken before the configuration was read
+     */
+    public void put(final String key, final long generation) {
+        if (ttl <= 0 || maxSize <= 0) {
+            return;
+        }
+
+        if (entries.size() >= maxSize) {
+            evict();
+        }
+
+        final int stripe = stripe(key);
+        final Long expiry = System.currentTimeMillis() + ttl;
+
+        // invalidations increment the generation within the same compute of the key
+        entries.compute(key, (k, entry) -> {
+            if (generations.get(stripe) != generation) {
+                discarded.increment();
+                return entry;
+            }
+
+            return expiry;
+        });
+    }
+
+
+    /**
+     * Invalidates the entry for the key, e.g. because the configuration has been saved.
+     *
+     * @param key the configuration key
+     */
+    public void invalidate(final String key) {
+        entries.compute(key, (k, entry) -> {
+            generations.incrementAndGet(stripe(k));
+
+            if (entry != null) {
+                invalidations.increment();
+            }
+
+            return null;
+        });
+    }
+
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        for (int i = 0; i < GENERATIONS; i++) {
+            generations.incrementAndGet(i);
+        }
+
+        entries.clear();
+    }
+
+
+    private static int stripe(final String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % GENERATIONS;
+    }
+
+
+    /**
+     * Removes all expired entries and, if the cache is still full, arbitrary entries until there
+     * is room for a new entry.
+     */
+    private void evict() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Entry<String, Long>> it = entries.entrySet().iterator();
+
+        while (it.hasNext()) {
+            if (it.next().getValue().longValue() <= now) {
+                it.remove();
+                evictions.increment();
+            }
+        }
+
+        final Iterator<String> keys = entries.keySet().iterator();
+
+        while (entries.size() >= maxSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+            evictions.increment();
+        }
+    }
+
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+
+    /**
+     * @return the number of lookups not answered from the cache
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+
+    /**
+     * @return the number of entries evicted because the cache was full
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+
+    /**
+     * @return the number of entries invalidated because the configuration was saved
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+
+    /**
+     * @return the number of misses discarded because the configuration was saved while it was
+     *         read
+     */
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+
+
+    @Override
+    public String toString() {
+        return "NegativeCache [size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations() + ", discarded=" + getDiscarded() + "]";
+    }
+}
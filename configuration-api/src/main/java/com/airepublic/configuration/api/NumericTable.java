@@ -0,0 +1,163 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Base of the immutable numeric tables which can be used as fields of an {@link IConfiguration}
+ * to hold large lookup tables without boxing every value. The values are stored off-heap in one
+ * direct {@link ByteBuffer} in little-endian order and are read by index.
+ * <p>
+ * In JSON a table is the Base64 encoded buffer, which is decoded straight into the buffer. For
+ * hand-written configurations a JSON array of numbers is accepted as well. Tables are immutable,
+ * so a refreshed configuration swaps the whole buffer at once.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public abstract class NumericTable {
+    private final ByteBuffer buffer;
+    private final int size;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer the buffer which must not be modified afterwards
+     * @param valueSize the size of a value in bytes
+     */
+    protected NumericTable(final ByteBuffer buffer, final int valueSize) {
+        if (buffer.remaining() % valueSize != 0) {
+            throw new IllegalArgumentException("The buffer size " + buffer.remaining() + " is not a multiple of " + valueSize + "!");
+        }
+
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        size = this.buffer.remaining() / valueSize;
+    }
+
+
+    /**
+     * Allocates a direct buffer for the values.
+     *
+     * @param size the number of values
+     * @param valueSize the size of a value in bytes
+     * @return the buffer in little-endian order
+     */
+    protected static ByteBuffer allocate(final int size, final int valueSize) {
+        return ByteBuffer.allocateDirect(size * valueSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    /**
+     * Decodes a Base64 encoded table into a direct buffer.
+     *
+     * @param base64 the Base64 encoded values
+     * @return the buffer
+     */
+    protected static ByteBuffer decode(final String base64) {
+        final ByteBuffer decoded = Base64.getDecoder().decode(ByteBuffer.wrap(base64.getBytes(StandardCharsets.ISO_8859_1)));
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(decoded.remaining());
+        buffer.put(decoded).flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * Checks whether the JSON value is an array of numbers or a Base64 string.
+     *
+     * @param node the JSON value
+     * @return true if it is an array
+     * @throws IllegalArgumentException if it is neither an array nor a string
+     */
+    protected static boolean isArray(final JsonNode node) {
+        if (node.isArray()) {
+            return true;
+        }
+
+        if (!node.isTextual()) {
+            throw new IllegalArgumentException("A table must be a Base64 string or an array of numbers: " + node);
+        }
+
+        return false;
+    }
+
+
+    /**
+     * @return the buffer for the subclasses to read the values from
+     */
+    protected ByteBuffer buffer() {
+        return buffer;
+    }
+
+
+    /**
+     * @return the number of values
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * @return a read-only view of the buffer in little-endian order
+     */
+    public ByteBuffer asByteBuffer() {
+        return buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    /**
+     * @return the Base64 encoded values as stored in JSON
+     */
+    @JsonValue
+    public String toBase64() {
+        final ByteBuffer encoded = Base64.getEncoder().encode(buffer.duplicate());
+        final byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+
+        return buffer.equals(((NumericTable) obj).buffer);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return buffer.hashCode();
+    }
+
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [size=" + size + "]";
+    }
+}
@@ -0,0 +1,43 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an {@link IConfiguration} class to be loaded at startup by the
+ * {@link ConfigurationPreloader}, so the configuration is in memory before the service reports
+ * to be ready. The class must also be listed in the <code>&lt;backend&gt;.preload</code> property.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Preload {
+    /**
+     * @return the id of the configuration
+     */
+    String id();
+
+
+    /**
+     * @return the variations of the configuration to load
+     */
+    String[] variations() default { "" };
+}
@@ -0,0 +1,113 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deduplicates concurrent loads for the same key (single-flight). The first caller for a key
+ * executes the loader while all other callers arriving during that time wait for and share its
+ * result or exception. Once the load has finished the next caller will execute the loader again.
+ *
+ * @param <V> the type of the loaded value
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class RequestCoalescer<V> {
+    private final ConcurrentHashMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Builds the key for a configuration, i.e. &lt;id&gt;_&lt;variation&gt; where backslashes and
+     * underscores of the id are escaped with a backslash, so that the first unescaped underscore
+     * always separates the id from the variation.
+     *
+     * @param id the configuration id
+     * @param variation the variation option
+     * @return the key
+     */
+    public static String key(final String id, final String variation) {
+        return id.replace("\\", "\\\\").replace("_", "\\_") + "_" + (variation == null ? "" : variation);
+    }
+
+
+    /**
+     * Executes the loader for the key unless a load for the same key is already in flight, in which
+     * case the result of that load is returned.
+     *
+     * @param key the key
+     * @param loader the loader
+     * @return the loaded value
+     * @throws Exception the exception thrown by the loader
+     */
+    public V execute(final String key, final Callable<V> loader) throws Exception {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+
+        if (existing != null) {
+            coalesced.increment();
+            return await(existing);
+        }
+
+        try {
+            final V value = loader.call();
+            future.complete(value);
+            return value;
+        } catch (final Throwable t) {
+            future.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+
+    private V await(final CompletableFuture<V> future) throws Exception {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw e;
+        }
+    }
+
+
+    /**
+     * @return the number of loads currently in flight
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+
+    /**
+     * @return the number of callers which were served by a load of another caller
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+}
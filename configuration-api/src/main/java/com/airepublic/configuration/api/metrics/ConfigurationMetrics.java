@@ -0,0 +1,66 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api.metrics;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * Holds the {@link IConfigurationMetrics} used by the configuration services. The first
+ * implementation found by the {@link ServiceLoader} is used, otherwise the
+ * {@link DefaultConfigurationMetrics}. Implementations that need configuring, like the
+ * {@link MicrometerConfigurationMetrics}, are set with {@link #set(IConfigurationMetrics)}.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class ConfigurationMetrics {
+    private static volatile IConfigurationMetrics metrics;
+
+    private ConfigurationMetrics() {
+    }
+
+
+    /**
+     * Gets the {@link IConfigurationMetrics}.
+     *
+     * @return the {@link IConfigurationMetrics}
+     */
+    public static IConfigurationMetrics get() {
+        IConfigurationMetrics m = metrics;
+
+        if (m == null) {
+            synchronized (ConfigurationMetrics.class) {
+                m = metrics;
+
+                if (m == null) {
+                    final Iterator<IConfigurationMetrics> it = ServiceLoader.load(IConfigurationMetrics.class).iterator();
+                    m = it.hasNext() ? it.next() : new DefaultConfigurationMetrics();
+                    metrics = m;
+                }
+            }
+        }
+
+        return m;
+    }
+
+
+    /**
+     * Sets the {@link IConfigurationMetrics} used by configuration services created afterwards.
+     *
+     * @param metrics the {@link IConfigurationMetrics}
+     */
+    public static void set(final IConfigurationMetrics metrics) {
+        ConfigurationMetrics.metrics = metrics;
+    }
+}
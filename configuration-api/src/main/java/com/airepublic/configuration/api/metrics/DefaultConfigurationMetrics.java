@@ -0,0 +1,127 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Dependency-free {@link IConfigurationMetrics} keeping {@link LatencyHistogram}s, counters and
+ * gauges in memory. The metrics are identified by their labels in the form
+ * &lt;backend&gt;.&lt;operation&gt;.&lt;errorCode&gt; respectively &lt;backend&gt;.&lt;name&gt;.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class DefaultConfigurationMetrics implements IConfigurationMetrics {
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordOperation(final String backend, final String operation, final String errorCode, final long nanos) {
+        histograms.computeIfAbsent(backend + "." + operation + "." + errorCode, k -> new LatencyHistogram()).record(nanos);
+    }
+
+
+    @Override
+    public void increment(final String backend, final String event) {
+        counters.computeIfAbsent(backend + "." + event, k -> new LongAdder()).increment();
+    }
+
+
+    @Override
+    public void gauge(final String backend, final String name, final DoubleSupplier value) {
+        gauges.put(backend + "." + name, value);
+    }
+
+
+    /**
+     * Gets the histogram of an operation.
+     *
+     * @param backend the backend
+     * @param operation the operation
+     * @param errorCode the error code or {@link IConfigurationMetrics#NO_ERROR}
+     * @return the {@link LatencyHistogram} or null if the operation has not been recorded
+     */
+    public LatencyHistogram getHistogram(final String backend, final String operation, final String errorCode) {
+        return histograms.get(backend + "." + operation + "." + errorCode);
+    }
+
+
+    /**
+     * Gets the count of an event.
+     *
+     * @param backend the backend
+     * @param event the event
+     * @return the count
+     */
+    public long getCount(final String backend, final String event) {
+        final LongAdder counter = counters.get(backend + "." + event);
+
+        return counter == null ? 0L : counter.sum();
+    }
+
+
+    /**
+     * Gets the current value of a gauge.
+     *
+     * @param backend the backend
+     * @param name the name of the gauge
+     * @return the value or {@link Double#NaN} if the gauge is not registered
+     */
+    public double getGauge(final String backend, final String name) {
+        final DoubleSupplier gauge = gauges.get(backend + "." + name);
+
+        return gauge == null ? Double.NaN : gauge.getAsDouble();
+    }
+
+
+    /**
+     * @return all histograms by their labels
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+
+    /**
+     * @return all counters by their labels
+     */
+    public Map<String, Long> getCounters() {
+        final Map<String, Long> result = new TreeMap<>();
+        counters.forEach((k, v) -> result.put(k, v.sum()));
+
+        return result;
+    }
+
+
+    /**
+     * @return the current values of all gauges by their labels
+     */
+    public Map<String, Double> getGauges() {
+        final Map<String, Double> result = new TreeMap<>();
+        gauges.forEach((k, v) -> result.put(k, v.getAsDouble()));
+
+        return result;
+    }
+
+
+    @Override
+    public String toString() {
+        return "DefaultConfigurationMetrics [histograms=" + getHistograms() + ", counters=" + getCounters() + ", gauges=" + getGauges() + "]";
+    }
+}
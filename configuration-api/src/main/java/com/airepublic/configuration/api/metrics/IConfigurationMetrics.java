@@ -0,0 +1,92 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * SPI to record metrics of the configuration services. Implementations must be thread-safe and
+ * cheap to call since they are invoked on every operation.
+ * <p>
+ * Implementations can be registered via the {@link java.util.ServiceLoader} or set with
+ * {@link ConfigurationMetrics#set(IConfigurationMetrics)}.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public interface IConfigurationMetrics {
+    /** The operation reading a configuration. */
+    String OPERATION_GET = "get";
+    /** The operation reading a configuration as JSON. */
+    String OPERATION_GET_JSON = "getAsJson";
+    /** The operation saving a configuration. */
+    String OPERATION_SAVE = "save";
+    /** The operation saving a configuration as JSON. */
+    String OPERATION_SAVE_JSON = "saveAsJson";
+    /** The operation saving several configurations as JSON in one batch. */
+    String OPERATION_SAVE_ALL_JSON = "saveAllAsJson";
+    /** The operation patching a configuration. */
+    String OPERATION_PATCH = "patch";
+    /** The operation removing a configuration. */
+    String OPERATION_REMOVE = "remove";
+    /** The operation reading the version of a configuration. */
+    String OPERATION_GET_VERSION = "getVersion";
+    /** The error code label of successful operations. */
+    String NO_ERROR = "none";
+    /** The event of a configuration initialized with its defaults. */
+    String EVENT_DEFAULTS_LOADED = "defaults.loaded";
+    /** The event of a configuration restored from the local snapshot. */
+    String EVENT_SNAPSHOT_RESTORED = "snapshot.restored";
+
+    /**
+     * Records the latency of an operation.
+     *
+     * @param backend the backend, e.g. mongo or solr
+     * @param operation the operation
+     * @param errorCode the error code or {@link #NO_ERROR}
+     * @param nanos the duration in nanoseconds
+     */
+    void recordOperation(String backend, String operation, String errorCode, long nanos);
+
+
+    /**
+     * Counts an event.
+     *
+     * @param backend the backend, e.g. mongo or solr
+     * @param event the event
+     */
+    void increment(String backend, String event);
+
+
+    /**
+     * Registers a gauge which is read when the metrics are published, e.g. for cache statistics
+     * which are already counted by the caches.
+     *
+     * @param backend the backend, e.g. mongo or solr
+     * @param name the name of the gauge
+     * @param value the supplier of the current value
+     */
+    void gauge(String backend, String name, DoubleSupplier value);
+
+
+    /**
+     * Starts timing an operation which is recorded when the returned {@link Operation} is closed.
+     *
+     * @param backend the backend, e.g. mongo or solr
+     * @param operation the operation
+     * @return the {@link Operation}
+     */
+    default Operation start(final String backend, final String operation) {
+        return new Operation(this, backend, operation);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * {@link IConfigurationMetrics} publishing to a Micrometer {@link MeterRegistry}, which in turn can
+ * be backed by Dropwizard, Prometheus etc. Operations are recorded as timers named
+ * <code>configuration.operation</code> with percentile histograms and the tags
+ * <code>backend</code>, <code>operation</code> and <code>error</code>.
+ * <p>
+ * Micrometer is an optional dependency, so this class can only be used if micrometer-core is on
+ * the classpath. For the same reason it is not registered for the {@link java.util.ServiceLoader}
+ * and needs the registry to publish to, so it must be set before the configuration services are
+ * created:
+ *
+ * <pre>
+ * ConfigurationMetrics.set(new MicrometerConfigurationMetrics(registry));
+ * </pre>
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class MicrometerConfigurationMetrics implements IConfigurationMetrics {
+    private final MeterRegistry registry;
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param registry the registry to publish to
+     */
+    public MicrometerConfigurationMetrics(final MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+
+    @Override
+    public void recordOperation(final String backend, final String operation, final String errorCode, final long nanos) {
+        timers.computeIfAbsent(backend + "." + operation + "." + errorCode, k -> Timer.builder("configuration.operation")
+                .tag("backend", backend)
+                .tag("operation", operation)
+                .tag("error", errorCode)
+                .publishPercentileHistogram()
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    @Override
+    public void increment(final String backend, final String event) {
+        counters.computeIfAbsent(backend + "." + event, k -> Counter.builder("configuration.events")
+                .tag("backend", backend)
+                .tag("event", event)
+                .register(registry))
+                .increment();
+    }
+
+
+    @Override
+    public void gauge(final String backend, final String name, final DoubleSupplier value) {
+        Gauge.builder("configuration." + name, () -> value.getAsDouble())
+                .tag("backend", backend)
+                .register(registry);
+    }
+}
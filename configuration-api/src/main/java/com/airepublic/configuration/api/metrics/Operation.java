@@ -0,0 +1,103 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api.metrics;
+
+import com.airepublic.configuration.api.tracing.ConfigurationOperationEvent;
+import com.airepublic.configuration.api.tracing.ConfigurationTracing;
+import com.airepublic.configuration.api.tracing.IConfigurationTracer;
+import com.airepublic.configuration.api.tracing.ISpan;
+import com.airepublic.exception.IErrorCode;
+
+/**
+ * A timed operation which records its latency and error code when it is closed. The operation is
+ * also traced as a span named &lt;backend&gt;.&lt;operation&gt; and emitted as
+ * {@link ConfigurationOperationEvent} to the Java Flight Recorder.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class Operation implements AutoCloseable {
+    private final IConfigurationMetrics metrics;
+    private final String backend;
+    private final String name;
+    private final ISpan span;
+    private final ConfigurationOperationEvent event = new ConfigurationOperationEvent();
+    private final long start;
+    private String errorCode = IConfigurationMetrics.NO_ERROR;
+    private boolean closed = false;
+
+    /**
+     * Constructor using the tracer of {@link ConfigurationTracing}.
+     *
+     * @param metrics the metrics to record to
+     * @param backend the backend
+     * @param name the name of the operation
+     */
+    public Operation(final IConfigurationMetrics metrics, final String backend, final String name) {
+        this(metrics, ConfigurationTracing.get(), backend, name);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param metrics the metrics to record to
+     * @param tracer the tracer to trace the operation with
+     * @param backend the backend
+     * @param name the name of the operation
+     */
+    public Operation(final IConfigurationMetrics metrics, final IConfigurationTracer tracer, final String backend, final String name) {
+        this.metrics = metrics;
+        this.backend = backend;
+        this.name = name;
+        span = tracer.startSpan(backend + "." + name);
+        event.begin();
+        start = System.nanoTime();
+    }
+
+
+    /**
+     * Marks the operation as failed with the error code.
+     *
+     * @param errorCode the error code
+     */
+    public void failed(final IErrorCode errorCode) {
+        this.errorCode = errorCode.toString();
+        span.setError(this.errorCode);
+    }
+
+
+    /**
+     * Marks the operation as failed with an exception which has no error code.
+     *
+     * @param t the exception
+     */
+    public void failed(final Throwable t) {
+        errorCode = t.getClass().getSimpleName();
+        span.setError(errorCode);
+    }
+
+
+    /**
+     * Records the operation.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            metrics.recordOperation(backend, name, errorCode, System.nanoTime() - start);
+            event.complete(backend, name, errorCode);
+            span.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event for an operation of a configuration service. The event costs next to
+ * nothing unless a recording with this event enabled is running.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+@Name("com.airepublic.configuration.Operation")
+@Label("Configuration Operation")
+@Category("Configuration")
+@Description("An operation or backend call of a configuration service")
+@StackTrace(false)
+public class ConfigurationOperationEvent extends Event {
+    @Label("Backend")
+    String backend;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Error Code")
+    String errorCode;
+
+    /**
+     * Ends the event and commits it if it is recorded.
+     *
+     * @param backend the backend
+     * @param operation the operation
+     * @param errorCode the error code
+     */
+    public void complete(final String backend, final String operation, final String errorCode) {
+        end();
+
+        if (shouldCommit()) {
+            this.backend = backend;
+            this.operation = operation;
+            this.errorCode = errorCode;
+            commit();
+        }
+    }
+}
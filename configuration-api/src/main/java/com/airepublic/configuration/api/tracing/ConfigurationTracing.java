@@ -0,0 +1,65 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api.tracing;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * Holds the {@link IConfigurationTracer} used by the configuration services. The first
+ * implementation found by the {@link ServiceLoader} is used, otherwise
+ * {@link IConfigurationTracer#NOOP}.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class ConfigurationTracing {
+    private static volatile IConfigurationTracer tracer;
+
+    private ConfigurationTracing() {
+    }
+
+
+    /**
+     * Gets the {@link IConfigurationTracer}.
+     *
+     * @return the {@link IConfigurationTracer}
+     */
+    public static IConfigurationTracer get() {
+        IConfigurationTracer t = tracer;
+
+        if (t == null) {
+            synchronized (ConfigurationTracing.class) {
+                t = tracer;
+
+                if (t == null) {
+                    final Iterator<IConfigurationTracer> it = ServiceLoader.load(IConfigurationTracer.class).iterator();
+                    t = it.hasNext() ? it.next() : IConfigurationTracer.NOOP;
+                    tracer = t;
+                }
+            }
+        }
+
+        return t;
+    }
+
+
+    /**
+     * Sets the {@link IConfigurationTracer} used by configuration services created afterwards.
+     *
+     * @param tracer the {@link IConfigurationTracer}
+     */
+    public static void set(final IConfigurationTracer tracer) {
+        ConfigurationTracing.tracer = tracer;
+    }
+}
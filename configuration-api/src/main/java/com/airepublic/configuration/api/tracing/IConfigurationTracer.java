@@ -0,0 +1,38 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api.tracing;
+
+/**
+ * SPI to trace the phases of the configuration services, e.g. backend calls, JSON mapping and
+ * default initialization. Spans started while another span of the same thread is open are nested
+ * into it.
+ * <p>
+ * Implementations can be registered via the {@link java.util.ServiceLoader} or set with
+ * {@link ConfigurationTracing#set(IConfigurationTracer)}. By default tracing is disabled.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+@FunctionalInterface
+public interface IConfigurationTracer {
+    /** The tracer which does nothing. */
+    IConfigurationTracer NOOP = name -> ISpan.NOOP;
+
+    /**
+     * Starts a span.
+     *
+     * @param name the name of the span, e.g. mongo.find
+     * @return the {@link ISpan} which must be closed
+     */
+    ISpan startSpan(String name);
+}
@@ -0,0 +1,61 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api.tracing;
+
+/**
+ * A traced phase of a configuration operation. The span ends when it is closed.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public interface ISpan extends AutoCloseable {
+    /** The span which does nothing. */
+    ISpan NOOP = new ISpan() {
+        @Override
+        public void setAttribute(final String key, final String value) {
+        }
+
+
+        @Override
+        public void setError(final String errorCode) {
+        }
+
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * Sets an attribute of the span.
+     *
+     * @param key the attribute key
+     * @param value the attribute value
+     */
+    void setAttribute(String key, String value);
+
+
+    /**
+     * Marks the span as failed.
+     *
+     * @param errorCode the error code or the name of the exception
+     */
+    void setError(String errorCode);
+
+
+    /**
+     * Ends the span.
+     */
+    @Override
+    void close();
+}
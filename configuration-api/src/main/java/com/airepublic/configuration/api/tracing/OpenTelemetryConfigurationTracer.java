@@ -0,0 +1,79 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api.tracing;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+
+/**
+ * {@link IConfigurationTracer} creating OpenTelemetry spans. Each span is made current while it
+ * is open, so spans of nested phases become its children.
+ * <p>
+ * OpenTelemetry is an optional dependency, so this class can only be used if opentelemetry-api is
+ * on the classpath.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class OpenTelemetryConfigurationTracer implements IConfigurationTracer {
+    private final Tracer tracer;
+
+    /**
+     * An {@link ISpan} wrapping an OpenTelemetry {@link Span}.
+     */
+    private static class OpenTelemetrySpan implements ISpan {
+        private final Span span;
+        private final Scope scope;
+
+        private OpenTelemetrySpan(final Span span) {
+            this.span = span;
+            scope = span.makeCurrent();
+        }
+
+
+        @Override
+        public void setAttribute(final String key, final String value) {
+            span.setAttribute(key, value);
+        }
+
+
+        @Override
+        public void setError(final String errorCode) {
+            span.setStatus(StatusCode.ERROR, errorCode);
+        }
+
+
+        @Override
+        public void close() {
+            scope.close();
+            span.end();
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tracer the OpenTelemetry {@link Tracer}
+     */
+    public OpenTelemetryConfigurationTracer(final Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+
+    @Override
+    public ISpan startSpan(final String name) {
+        return new OpenTelemetrySpan(tracer.spanBuilder(name).startSpan());
+    }
+}
@@ -0,0 +1,336 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.airepublic.configuration.api.ConfigurationExecutors;
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.airepublic.configuration.api.IConfiguration;
+import com.airepublic.configuration.api.IConfigurationService;
+
+/**
+ * An {@link IConfigurationService} which runs the operations of the delegate, e.g. a backend
+ * blocking on network I/O, on the threads of {@link ConfigurationExecutors}. On Java 21 and later
+ * these are virtual threads, so many concurrent operations do not need a large pool of platform
+ * threads.
+ * <p>
+ * The number of operations running concurrently on the delegate is bounded, further operations
+ * wait for a permit. This applies to the asynchronous operations as well as to the synchronous
+ * ones which run on the calling thread. Without virtual threads the executor has at most as many
+ * platform threads as operations may run concurrently, so asynchronous operations waiting for a
+ * permit wait in its queue instead of each blocking a thread.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class AsyncConfigurationService implements IConfigurationService, AutoCloseable {
+    /** The default maximum number of concurrent operations on the delegate. */
+    public static final int DEFAULT_MAX_CONCURRENCY = 64;
+    private final IConfigurationService delegate;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * An operation on the delegate.
+     */
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws ConfigurationServiceException;
+    }
+
+    /**
+     * Constructor with the {@link #DEFAULT_MAX_CONCURRENCY}.
+     *
+     * @param delegate the service the operations are run on
+     */
+    public AsyncConfigurationService(final IConfigurationService delegate) {
+        this(delegate, DEFAULT_MAX_CONCURRENCY);
+    }
+
+
+    /**
+     * Constructor using an executor of {@link ConfigurationExecutors} bounded to the maximum
+     * concurrency.
+     *
+     * @param delegate the service the operations are run on
+     * @param maxConcurrency the maximum number of concurrent operations on the delegate
+     */
+    public AsyncConfigurationService(final IConfigurationService delegate, final int maxConcurrency) {
+        this(delegate, maxConcurrency, ConfigurationExecutors.newExecutor("configuration-io", Math.max(maxConcurrency, 1)), true);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param delegate the service the operations are run on
+     * @param maxConcurrency the maximum number of concurrent operations on the delegate
+     * @param executor the executor the asynchronous operations are run on, it is not shut down on
+     *        close
+     */
+    public AsyncConfigurationService(final IConfigurationService delegate, final int maxConcurrency, final ExecutorService executor) {
+        this(delegate, maxConcurrency, executor, false);
+    }
+
+
+    private AsyncConfigurationService(final IConfigurationService delegate, final int maxConcurrency, final ExecutorService executor, final boolean ownsExecutor) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("The maximum concurrency must be at least 1!");
+        }
+
+        this.delegate = delegate;
+        this.maxConcurrency = maxConcurrency;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        permits = new Semaphore(maxConcurrency, true);
+    }
+
+
+    /**
+     * Runs the operation once a permit is available.
+     *
+     * @param call the operation
+     * @return the result of the operation
+     * @throws ConfigurationServiceException if the operation failed or the thread was interrupted
+     *         while waiting for a permit
+     */
+    private <T> T limit(final Call<T> call) throws ConfigurationServiceException {
+        try {
+            permits.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Interrupted while waiting for the configuration service!", e);
+        }
+
+        try {
+            return call.call();
+        } finally {
+            permits.release();
+        }
+    }
+
+
+    /**
+     * Runs the operation on the executor.
+     *
+     * @param call the operation
+     * @return the {@link CompletableFuture} completed with the result or the
+     *         {@link ConfigurationServiceException}
+     */
+    private <T> CompletableFuture<T> async(final Call<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return limit(call);
+            } catch (final ConfigurationServiceException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+
+    @Override
+    public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        return limit(() -> delegate.getConfiguration(id, variation, clazz));
+    }
+
+
+    /**
+     * Reads the configuration in the background.
+     *
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param clazz the configuration class
+     * @return the {@link CompletableFuture} of the configuration
+     */
+    public <T> CompletableFuture<T> getConfigurationAsync(final String id, final String variation, final Class<? extends IConfiguration> clazz) {
+        return async(() -> delegate.getConfiguration(id, variation, clazz));
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation) throws ConfigurationServiceException {
+        return limit(() -> delegate.getConfigurationAsJson(id, variation));
+    }
+
+
+    /**
+     * Reads the configuration as JSON in the background.
+     *
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @return the {@link CompletableFuture} of the configuration as JSON
+     */
+    public CompletableFuture<String> getConfigurationAsJsonAsync(final String id, final String variation) {
+        return async(() -> delegate.getConfigurationAsJson(id, variation));
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation, final List<String> fields) throws ConfigurationServiceException {
+        return limit(() -> delegate.getConfigurationAsJson(id, variation, fields));
+    }
+
+
+    @Override
+    public void saveConfiguration(final IConfiguration configuration) throws ConfigurationServiceException {
+        limit(() -> {
+            delegate.saveConfiguration(configuration);
+            return null;
+        });
+    }
+
+
+    /**
+     * Saves the configuration in the background.
+     *
+     * @param configuration the configuration
+     * @return the {@link CompletableFuture} completed when the configuration has been saved
+     */
+    public CompletableFuture<Void> saveConfigurationAsync(final IConfiguration configuration) {
+        return async(() -> {
+            delegate.saveConfiguration(configuration);
+            return null;
+        });
+    }
+
+
+    @Override
+    public void saveConfigurationAsJson(final String configuration) throws ConfigurationServiceException {
+        limit(() -> {
+            delegate.saveConfigurationAsJson(configuration);
+            return null;
+        });
+    }
+
+
+    /**
+     * Saves the configuration as JSON in the background.
+     *
+     * @param configuration the configuration as JSON
+     * @return the {@link CompletableFuture} completed when the configuration has been saved
+     */
+    public CompletableFuture<Void> saveConfigurationAsJsonAsync(final String configuration) {
+        return async(() -> {
+            delegate.saveConfigurationAsJson(configuration);
+            return null;
+        });
+    }
+
+
+    @Override
+    public long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+        return limit(() -> delegate.saveConfiguration(configuration, expectedVersion));
+    }
+
+
+    @Override
+    public long saveConfigurationAsJson(final String configuration, final long expectedVersion) throws ConfigurationServiceException {
+        return limit(() -> delegate.saveConfigurationAsJson(configuration, expectedVersion));
+    }
+
+
+    @Override
+    public long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+        return limit(() -> delegate.getConfigurationVersion(id, variation));
+    }
+
+
+    @Override
+    public void patchConfigurationAsJson(final String id, final String variation, final String patch) throws ConfigurationServiceException {
+        limit(() -> {
+            delegate.patchConfigurationAsJson(id, variation, patch);
+            return null;
+        });
+    }
+
+
+    @Override
+    public void removeConfiguration(final String id, final String variation) throws ConfigurationServiceException {
+        limit(() -> {
+            delegate.removeConfiguration(id, variation);
+            return null;
+        });
+    }
+
+
+    /**
+     * Removes the configuration in the background.
+     *
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @return the {@link CompletableFuture} completed when the configuration has been removed
+     */
+    public CompletableFuture<Void> removeConfigurationAsync(final String id, final String variation) {
+        return async(() -> {
+            delegate.removeConfiguration(id, variation);
+            return null;
+        });
+    }
+
+
+    @Override
+    public boolean isReady() {
+        return delegate.isReady();
+    }
+
+
+    /**
+     * @return the maximum number of concurrent operations on the delegate
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+
+    /**
+     * @return the number of operations currently running on the delegate
+     */
+    public int getActive() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+
+    /**
+     * @return the estimated number of operations waiting for a permit
+     */
+    public int getWaiting() {
+        return permits.getQueueLength();
+    }
+
+
+    /**
+     * Shuts down the executor if it was created by this service and waits for the running
+     * operations to finish.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+
+import javax.inject.Singleton;
+
+import com.airepublic.configuration.api.AdaptiveLimiter;
+import com.airepublic.configuration.api.metrics.ConfigurationMetrics;
+import com.airepublic.configuration.api.metrics.IConfigurationMetrics;
+
+/**
+ * The {@link AdaptiveLimiter}s of the {@link ConfigurationServiceResource}. Reads and writes have
+ * separate limits, so a burst of saves cannot starve the reads and vice versa. The limits are
+ * registered as gauges of the <code>resource</code> backend.
+ * <p>
+ * The limiters are configured in the optional <code>resource.properties</code>:
+ * <ul>
+ * <li><code>resource.limit.&lt;read|write&gt;.initial</code> - the initial limit</li>
+ * <li><code>resource.limit.&lt;read|write&gt;.min</code> - the minimum limit</li>
+ * <li><code>resource.limit.&lt;read|write&gt;.max</code> - the maximum limit</li>
+ * <li><code>resource.limit.&lt;read|write&gt;.targetLatency</code> - the latency in milliseconds
+ * above which the limit is decreased</li>
+ * <li><code>resource.limit.&lt;read|write&gt;.backoffRatio</code> - the ratio the limit is
+ * decreased with</li>
+ * <li><code>resource.retryAfter</code> - the seconds a rejected client should wait</li>
+ * </ul>
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+@Singleton
+public class ConfigurationRequestLimiter {
+    private final static String BACKEND = "resource";
+    /** The default number of seconds a rejected client should wait before retrying. */
+    public static final int DEFAULT_RETRY_AFTER = 1;
+    private final AdaptiveLimiter readLimiter;
+    private final AdaptiveLimiter writeLimiter;
+    private final int retryAfter;
+
+    /**
+     * Constructor with the limiters configured in the <code>resource.properties</code> or the
+     * default limiters if there are none.
+     */
+    public ConfigurationRequestLimiter() {
+        this(getProperties());
+    }
+
+
+    private ConfigurationRequestLimiter(final ResourceBundle props) {
+        this(createLimiter(props, "read"), createLimiter(props, "write"), getIntProperty(props, "resource.retryAfter", DEFAULT_RETRY_AFTER));
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param readLimiter the limiter of the reads
+     * @param writeLimiter the limiter of the writes
+     * @param retryAfter the number of seconds a rejected client should wait before retrying
+     */
+    public ConfigurationRequestLimiter(final AdaptiveLimiter readLimiter, final AdaptiveLimiter writeLimiter, final int retryAfter) {
+        this.readLimiter = readLimiter;
+        this.writeLimiter = writeLimiter;
+        this.retryAfter = retryAfter;
+
+        final IConfigurationMetrics metrics = ConfigurationMetrics.get();
+        metrics.gauge(BACKEND, "limit.read", () -> readLimiter.getLimit());
+        metrics.gauge(BACKEND, "inflight.read", () -> readLimiter.getInflight());
+        metrics.gauge(BACKEND, "rejected.read", () -> readLimiter.getRejected());
+        metrics.gauge(BACKEND, "limit.write", () -> writeLimiter.getLimit());
+        metrics.gauge(BACKEND, "inflight.write", () -> writeLimiter.getInflight());
+        metrics.gauge(BACKEND, "rejected.write", () -> writeLimiter.getRejected());
+    }
+
+
+    private static ResourceBundle getProperties() {
+        try {
+            return ResourceBundle.getBundle("resource");
+        } catch (final MissingResourceException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Creates the limiter of the reads or writes from the properties.
+     *
+     * @param props the properties or null for the defaults
+     * @param type read or write
+     * @return the {@link AdaptiveLimiter}
+     * @throws IllegalArgumentException if the limits or the backoff ratio are invalid
+     */
+    private static AdaptiveLimiter createLimiter(final ResourceBundle props, final String type) {
+        final String prefix = "resource.limit." + type + ".";
+
+        return new AdaptiveLimiter(getIntProperty(props, prefix + "initial", AdaptiveLimiter.DEFAULT_INITIAL_LIMIT), getIntProperty(props, prefix + "min", AdaptiveLimiter.DEFAULT_MIN_LIMIT), getIntProperty(props, prefix + "max", AdaptiveLimiter.DEFAULT_MAX_LIMIT), getIntProperty(props, prefix + "targetLatency", (int) AdaptiveLimiter.DEFAULT_TARGET_LATENCY), Double.parseDouble(getProperty(props, prefix + "backoffRatio", String.valueOf(AdaptiveLimiter.DEFAULT_BACKOFF_RATIO))));
+    }
+
+
+    private static String getProperty(final ResourceBundle props, final String key, final String defaultValue) {
+        if (props != null && props.containsKey(key)) {
+            return props.getString(key).trim();
+        }
+
+        return defaultValue;
+    }
+
+
+    private static int getIntProperty(final ResourceBundle props, final String key, final int defaultValue) {
+        return Integer.parseInt(getProperty(props, key, String.valueOf(defaultValue)));
+    }
+
+
+    /**
+     * @return the limiter of the reads
+     */
+    public AdaptiveLimiter getReadLimiter() {
+        return readLimiter;
+    }
+
+
+    /**
+     * @return the limiter of the writes
+     */
+    public AdaptiveLimiter getWriteLimiter() {
+        return writeLimiter;
+    }
+
+
+    /**
+     * @return the number of seconds a rejected client should wait before retrying
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -13,14 +13,17 @@
 */
 package com.airepublic.configuration.service;
 
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.interceptor.Interceptors;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.PATCH;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
@@ -31,7 +34,10 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.SecurityContext;
 
+import com.airepublic.configuration.api.AdaptiveLimiter;
+import com.airepublic.configuration.api.ConfigurationVersionConflictException;
 import com.airepublic.configuration.api.IConfigurationService;
+import com.airepublic.configuration.api.JsonPatches;
 import com.airepublic.exception.ExceptionInterceptor;
 import com.airepublic.logging.java.LogLevel;
 import com.airepublic.logging.java.LoggerConfig;
@@ -52,6 +58,9 @@ public class ConfigurationServiceResource {
     @Inject
     private IConfigurationService service;
 
+    @Inject
+    private ConfigurationRequestLimiter limiter;
+
     @Context
     private SecurityContext securityContext;
 
@@ -60,12 +69,14 @@ public class ConfigurationServiceResource {
      * 
      * @param id the configuration id
      * @param variation the variation option
-     * @return the configuration as a pretty-printed JSON or an empty JSON if not loaded
+     * @param fields the JSON pointers of the fields to return or none for the whole configuration
+     * @return the configuration as a pretty-printed JSON or an empty JSON if not loaded,
+     *         TOO_MANY_REQUESTS if the limit of concurrent reads has been reached
      */
     @GET
     @Path("/view")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getConfiguration(@QueryParam("id") final String id, @QueryParam("variation") String variation) {
+    public Response getConfiguration(@QueryParam("id") final String id, @QueryParam("variation") String variation, @QueryParam("fields") final List<String> fields) {
         if (securityContext == null || securityContext.getUserPrincipal() == null) {
             // throw new SecurityException("Access denied!");
         }
@@ -74,12 +85,65 @@ public class ConfigurationServiceResource {
             variation = null;
         }
 
+        final AdaptiveLimiter readLimiter = limiter.getReadLimiter();
+
+        if (!readLimiter.tryAcquire()) {
+            return tooManyRequests();
+        }
+
+        final long start = System.nanoTime();
+        boolean dropped = false;
+
         try {
-            final String json = service.getConfigurationAsJson(id, variation);
+            final String json = service.getConfigurationAsJson(id, variation, fields);
             final Response response = Response.ok().entity(json).build();
             return response;
         } catch (final Exception e) {
+            dropped = true;
             logger.log(Level.SEVERE, "Error reading configuration '" + id + "'!", e);
+        } finally {
+            readLimiter.release(System.nanoTime() - start, dropped);
+        }
+
+        return Response.status(Status.BAD_REQUEST).build();
+    }
+
+
+    /**
+     * Gets the version of the configuration to save it with an expected version.
+     * 
+     * @param id the configuration id
+     * @param variation the variation option
+     * @return the version or 0 if the configuration does not exist
+     */
+    @GET
+    @Path("/version")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response getConfigurationVersion(@QueryParam("id") final String id, @QueryParam("variation") String variation) {
+        if (securityContext == null || securityContext.getUserPrincipal() == null) {
+            // throw new SecurityException("Access denied!");
+        }
+
+        if (variation != null && variation.equals("null")) {
+            variation = null;
+        }
+
+        final AdaptiveLimiter readLimiter = limiter.getReadLimiter();
+
+        if (!readLimiter.tryAcquire()) {
+            return tooManyRequests();
+        }
+
+        final long start = System.nanoTime();
+        boolean dropped = false;
+
+        try {
+            return Response.ok().entity(String.valueOf(service.getConfigurationVersion(id, variation))).build();
+        } catch (final Exception e) {
+            dropped = true;
+            logger.log(Level.SEVERE, "Error reading version of configuration '" + id + "'!", e);
+        } finally {
+            readLimiter.release(System.nanoTime() - start, dropped);
         }
 
         return Response.status(Status.BAD_REQUEST).build();
@@ -89,23 +153,87 @@ public class ConfigurationServiceResource {
     /**
      * Saves the specified configuration provided as JSON for the specified id.
      * 
-     * @param id the the configuration id
-     * @param configJson the configuration as JSON
-     * @param className the qualified class name of the configuration class
-     * @return true if saved successfully, otherwise false
+     * @param expectedVersion the version the configuration was read with, 0 if it must not exist
+     *        yet or null to save it regardless of its version
+     * @param json the configuration as JSON
+     * @return OK with the new version if saved with an expected version, CONFLICT if the
+     *         configuration has been changed in the meantime, TOO_MANY_REQUESTS if the limit of
+     *         concurrent writes has been reached, otherwise BAD_REQUEST
      */
     @POST
     @Path("/save")
-    public Response saveConfiguration(final String json) {
+    public Response saveConfiguration(@QueryParam("expectedVersion") final Long expectedVersion, final String json) {
         if (securityContext == null || securityContext.getUserPrincipal() == null) {
             // throw new SecurityException("Access denied!");
         }
 
+        final AdaptiveLimiter writeLimiter = limiter.getWriteLimiter();
+
+        if (!writeLimiter.tryAcquire()) {
+            return tooManyRequests();
+        }
+
+        final long start = System.nanoTime();
+        boolean dropped = false;
+
         try {
+            if (expectedVersion != null) {
+                return Response.ok().entity(String.valueOf(service.saveConfigurationAsJson(json, expectedVersion))).build();
+            }
+
             service.saveConfigurationAsJson(json);
+        } catch (final ConfigurationVersionConflictException e) {
+            logger.log(Level.INFO, e.getMessage());
+            return Response.status(Status.CONFLICT).build();
         } catch (final Exception e) {
+            dropped = true;
             logger.log(Level.SEVERE, "Error saving configuration '" + json + "'!", e);
             return Response.status(Status.BAD_REQUEST).build();
+        } finally {
+            writeLimiter.release(System.nanoTime() - start, dropped);
+        }
+
+        return Response.ok().build();
+    }
+
+
+    /**
+     * Applies a partial update to the configuration for the specified id, either as RFC 7396 merge
+     * patch (JSON object) or RFC 6902 JSON Patch (JSON array).
+     * 
+     * @param id the the configuration id
+     * @param variation the variation option
+     * @param patch the merge patch or JSON Patch
+     * @return OK if patched successfully, otherwise BAD_REQUEST
+     */
+    @PATCH
+    @Consumes({ JsonPatches.MERGE_PATCH_JSON, JsonPatches.JSON_PATCH_JSON, MediaType.APPLICATION_JSON })
+    public Response patchConfiguration(@QueryParam("id") final String id, @QueryParam("variation") String variation, final String patch) {
+        if (securityContext == null || securityContext.getUserPrincipal() == null) {
+            // throw new SecurityException("Access denied!");
+        }
+
+        if (variation != null && variation.equals("null")) {
+            variation = null;
+        }
+
+        final AdaptiveLimiter writeLimiter = limiter.getWriteLimiter();
+
+        if (!writeLimiter.tryAcquire()) {
+            return tooManyRequests();
+        }
+
+        final long start = System.nanoTime();
+        boolean dropped = false;
+
+        try {
+            service.patchConfigurationAsJson(id, variation, patch);
+        } catch (final Exception e) {
+            dropped = true;
+            logger.log(Level.SEVERE, "Error patching configuration '" + id + "'!", e);
+            return Response.status(Status.BAD_REQUEST).build();
+        } finally {
+            writeLimiter.release(System.nanoTime() - start, dropped);
         }
 
         return Response.ok().build();
@@ -130,13 +258,51 @@ public class ConfigurationServiceResource {
             variation = null;
         }
 
+        final AdaptiveLimiter writeLimiter = limiter.getWriteLimiter();
+
+        if (!writeLimiter.tryAcquire()) {
+            return tooManyRequests();
+        }
+
+        final long start = System.nanoTime();
+        boolean dropped = false;
+
         try {
             service.removeConfiguration(id, variation);
         } catch (final Exception e) {
+            dropped = true;
             logger.log(Level.SEVERE, "Error removing configuration '" + id + "'!", e);
             return Response.status(Status.BAD_REQUEST).build();
+        } finally {
+            writeLimiter.release(System.nanoTime() - start, dropped);
         }
 
         return Response.ok().build();
     }
+
+
+    /**
+     * Creates the response for a request rejected by the {@link ConfigurationRequestLimiter}.
+     * 
+     * @return TOO_MANY_REQUESTS with the seconds to wait in the Retry-After header
+     */
+    private Response tooManyRequests() {
+        return Response.status(Status.TOO_MANY_REQUESTS).header("Retry-After", limiter.getRetryAfter()).build();
+    }
+
+
+    /**
+     * Readiness check, e.g. for a load balancer or Kubernetes readiness probe.
+     * 
+     * @return OK if the configurations to preload are in memory, otherwise SERVICE_UNAVAILABLE
+     */
+    @GET
+    @Path("/ready")
+    public Response ready() {
+        if (service.isReady()) {
+            return Response.ok().build();
+        }
+
+        return Response.status(Status.SERVICE_UNAVAILABLE).build();
+    }
 }
@@ -0,0 +1,575 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.airepublic.configuration.api.ConfigurationVersionConflictException;
+import com.airepublic.configuration.api.IConfiguration;
+import com.airepublic.configuration.api.IConfigurationService;
+import com.airepublic.configuration.api.JsonPatches;
+import com.airepublic.configuration.api.RequestCoalescer;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * An {@link IConfigurationService} keeping the history of the configurations, so they can be read
+ * as they were at a past version or time and be rolled back. Reads of the current configuration go
+ * straight to the delegate.
+ * <p>
+ * Every change appends a version to the history store. A version only stores the RFC 6902 JSON
+ * Patch from the previous version, except every n-th version and the first version after a removal
+ * which store the whole configuration as checkpoint. So the history grows with the size of the
+ * changes and reading a past version applies at most n-1 patches to a checkpoint. Saves which do
+ * not change the configuration do not create a version. The history of a configuration starts
+ * with its first change through this service.
+ * <p>
+ * The versions are stored as configurations with the id <code>&lt;id&gt;@&lt;version&gt;</code>
+ * and the latest version as <code>&lt;id&gt;@head</code>, so the history store can be any
+ * {@link IConfigurationService} supporting versions, e.g. one using another collection, or the
+ * delegate itself. The versions of this service are the versions of the history, also for saves
+ * with an expected version.
+ * <p>
+ * Changes of a configuration are serialized on this node. Across nodes the version entry is only
+ * created if it does not exist yet and the head is only moved from the version it was read at, so
+ * a change which lost the race against a change on another node is retried on the new head. An
+ * entry whose change failed without removing it is taken over after the orphan timeout. The
+ * changes of the delegate itself are not part of this, so changes of the same configuration on
+ * several nodes at the same time should still be prevented by the caller.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class HistoryConfigurationService implements IConfigurationService {
+    /** The default number of versions from one checkpoint to the next. */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 10;
+    /** The default maximum number of configurations whose latest version is kept in memory. */
+    public static final int DEFAULT_MAX_LATEST = 10000;
+    /** The time in milliseconds after which a version entry without head is taken over. */
+    public static final long ORPHAN_TIMEOUT = 60000L;
+    // the number of attempts to record a change while another node records one
+    private final static int MAX_ATTEMPTS = 10;
+    private final static String ID = "id";
+    private final static String VARIATION = "variation";
+    private final static String VERSION = "version";
+    private final static String TIME = "time";
+    private final static String TYPE = "type";
+    private final static String DATA = "data";
+    private final static String CHECKPOINT = "checkpoint";
+    private final static String DELTA = "delta";
+    private final static String REMOVED = "removed";
+    private final static String HEAD = "head";
+    private final static char VERSION_SEPARATOR = '@';
+    private final static int LOCKS = 64;
+    private final IConfigurationService delegate;
+    private final IConfigurationService history;
+    private final int checkpointInterval;
+    private final int maxLatest;
+    private final ConcurrentHashMap<String, Latest> latest = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCKS];
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * The latest version of a configuration, so the next patch can be created without reading
+     * the history.
+     */
+    private static class Latest {
+        private final long version;
+        private final JsonNode configuration;
+
+        private Latest(final long version, final JsonNode configuration) {
+            this.version = version;
+            this.configuration = configuration;
+        }
+    }
+
+    /**
+     * A change on the delegate.
+     */
+    @FunctionalInterface
+    private interface Change {
+        void apply() throws ConfigurationServiceException;
+    }
+
+    /**
+     * Constructor storing the history in the delegate with the default checkpoint interval.
+     *
+     * @param delegate the service storing the current configurations and their history
+     */
+    public HistoryConfigurationService(final IConfigurationService delegate) {
+        this(delegate, delegate, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param delegate the service storing the current configurations
+     * @param history the service storing the history
+     * @param checkpointInterval the number of versions from one checkpoint to the next
+     */
+    public HistoryConfigurationService(final IConfigurationService delegate, final IConfigurationService history, final int checkpointInterval) {
+        this(delegate, history, checkpointInterval, DEFAULT_MAX_LATEST);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param delegate the service storing the current configurations
+     * @param history the service storing the history
+     * @param checkpointInterval the number of versions from one checkpoint to the next
+     * @param maxLatest the maximum number of configurations whose latest version is kept in memory
+     */
+    public HistoryConfigurationService(final IConfigurationService delegate, final IConfigurationService history, final int checkpointInterval, final int maxLatest) {
+        this.delegate = delegate;
+        this.history = history;
+        this.checkpointInterval = Math.max(checkpointInterval, 1);
+        this.maxLatest = Math.max(maxLatest, 0);
+        mapper.setSerializationInclusion(Include.ALWAYS);
+
+        for (int i = 0; i < LOCKS; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+
+    private static String variationOf(final String variation) {
+        return variation == null ? "" : variation;
+    }
+
+
+    private JsonNode read(final String id, final String variation, final String suffix) throws ConfigurationServiceException {
+        final String json = history.getConfigurationAsJson(id + VERSION_SEPARATOR + suffix, variation);
+
+        try {
+            return json == null ? null : mapper.readTree(json);
+        } catch (final IOException e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading history of configuration '" + id + "'!", e);
+        }
+    }
+
+
+    private long getHead(final String id, final String variation) throws ConfigurationServiceException {
+        final JsonNode head = read(id, variation, HEAD);
+
+        return head == null ? 0L : head.path(VERSION).asLong();
+    }
+
+
+    private JsonNode readVersion(final String id, final String variation, final long version) throws ConfigurationServiceException {
+        final JsonNode entry = read(id, variation, String.valueOf(version));
+
+        if (entry == null) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Version " + version + " of configuration '" + id + "' is missing in the history!");
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * Restores a version by applying the patches since the last checkpoint.
+     *
+     * @param id the configuration id
+     * @param variation the variation option
+     * @param version the version
+     * @return the configuration or null if it was removed at that version
+     * @throws ConfigurationServiceException if a version could not be read
+     */
+    private JsonNode restore(final String id, final String variation, final long version) throws ConfigurationServiceException {
+        final Deque<JsonNode> patches = new ArrayDeque<>();
+        JsonNode configuration = null;
+
+        for (long v = version; v > 0L && configuration == null; v--) {
+            final JsonNode entry = readVersion(id, variation, v);
+            final String type = entry.path(TYPE).asText();
+
+            if (REMOVED.equals(type)) {
+                return null;
+            } else if (CHECKPOINT.equals(type)) {
+                configuration = entry.get(DATA);
+            } else {
+                patches.push(entry.get(DATA));
+            }
+        }
+
+        if (configuration == null) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "No checkpoint found for version " + version + " of configuration '" + id + "'!");
+        }
+
+        for (final JsonNode patch : patches) {
+            configuration = JsonPatches.applyJsonPatch(configuration, patch);
+        }
+
+        return configuration;
+    }
+
+
+    /**
+     * Appends a version to the history and applies the change to the delegate. The head is only
+     * moved after the delegate has applied the change. If the change fails its version is removed
+     * again.
+     *
+     * @param id the configuration id
+     * @param variation the variation option
+     * @param configuration the new configuration or null if it is removed
+     * @param expectedVersion the expected version or -1 for any version
+     * @param change the change on the delegate
+     * @return the new version or the current version if nothing changed
+     * @throws ConfigurationVersionConflictException if the version is not the expected version or
+     *         another node kept recording the same version
+     * @throws ConfigurationServiceException if the history could not be read or written or the
+     *         change failed
+     */
+    private long record(final String id, final String variation, final JsonNode configuration, final long expectedVersion, final Change change) throws ConfigurationServiceException {
+        final String key = RequestCoalescer.key(id, variation);
+
+        synchronized (locks[(key.hashCode() & Integer.MAX_VALUE) % LOCKS]) {
+            for (int attempt = 1;; attempt++) {
+                // read the stored version of the head before the head, so a later move fails
+                final long headVersion = history.getConfigurationVersion(id + VERSION_SEPARATOR + HEAD, variation);
+                final long head = getHead(id, variation);
+
+                if (expectedVersion >= 0L && expectedVersion != head) {
+                    throw new ConfigurationVersionConflictException(id, expectedVersion);
+                }
+
+                Latest previous = latest.get(key);
+
+                if (previous == null || previous.version != head) {
+                    previous = new Latest(head, head == 0L ? null : restore(id, variation, head));
+                }
+
+                final long version = head + 1L;
+                final ObjectNode entry = mapper.createObjectNode();
+                entry.put(ID, id + VERSION_SEPARATOR + version);
+                entry.put(VARIATION, variation);
+                entry.put(VERSION, version);
+                entry.put(TIME, System.currentTimeMillis());
+
+                if (configuration == null) {
+                    if (previous.configuration == null) {
+                        change.apply();
+                        return head;
+                    }
+
+                    entry.put(TYPE, REMOVED);
+                } else if (previous.configuration == null || (version - 1L) % checkpointInterval == 0L) {
+                    entry.put(TYPE, CHECKPOINT);
+                    entry.set(DATA, configuration);
+                } else {
+                    final ArrayNode patch = JsonPatches.diff(previous.configuration, configuration);
+
+                    if (patch.size() == 0) {
+                        change.apply();
+                        return head;
+                    }
+
+                    entry.put(TYPE, DELTA);
+                    entry.set(DATA, patch);
+                }
+
+                if (!append(id, variation, version, entry)) {
+                    if (attempt >= MAX_ATTEMPTS) {
+                        throw new ConfigurationVersionConflictException(id, head);
+                    }
+
+                    pause(attempt);
+                    continue;
+                }
+
+                try {
+                    change.apply();
+                } catch (final ConfigurationServiceException | RuntimeException e) {
+                    removeQuietly(id, variation, version);
+                    throw e;
+                }
+
+                final ObjectNode headEntry = mapper.createObjectNode();
+                headEntry.put(ID, id + VERSION_SEPARATOR + HEAD);
+                headEntry.put(VARIATION, variation);
+                headEntry.put(VERSION, version);
+                history.saveConfigurationAsJson(headEntry.toString(), headVersion);
+                remember(key, new Latest(version, configuration));
+
+                return version;
+            }
+        }
+    }
+
+
+    /**
+     * Creates the entry of the version if it does not exist yet. An existing entry which is older
+     * than the {@link #ORPHAN_TIMEOUT} belongs to a change which failed without removing it and is
+     * replaced.
+     *
+     * @param id the configuration id
+     * @param variation the variation option
+     * @param version the version
+     * @param entry the entry
+     * @return true if the entry was written, false if another change records the version
+     * @throws ConfigurationServiceException if the history could not be read or written
+     */
+    private boolean append(final String id, final String variation, final long version, final ObjectNode entry) throws ConfigurationServiceException {
+        try {
+            history.saveConfigurationAsJson(entry.toString(), 0L);
+            return true;
+        } catch (final ConfigurationVersionConflictException e) {
+            final long stored = history.getConfigurationVersion(id + VERSION_SEPARATOR + version, variation);
+            final JsonNode orphan = read(id, variation, String.valueOf(version));
+
+            if (orphan == null || System.currentTimeMillis() - orphan.path(TIME).asLong() < ORPHAN_TIMEOUT) {
+                return false;
+            }
+
+            try {
+                history.saveConfigurationAsJson(entry.toString(), stored);
+                return true;
+            } catch (final ConfigurationVersionConflictException ex) {
+                return false;
+            }
+        }
+    }
+
+
+    private void removeQuietly(final String id, final String variation, final long version) {
+        try {
+            history.removeConfiguration(id + VERSION_SEPARATOR + version, variation);
+        } catch (final ConfigurationServiceException e) {
+            // taken over after the orphan timeout
+        }
+    }
+
+
+    private static void pause(final int attempt) throws ConfigurationServiceException {
+        try {
+            Thread.sleep(10L * attempt);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Interrupted while waiting to record the change!", e);
+        }
+    }
+
+
+    /**
+     * Keeps the latest version of the configuration, removing others if the maximum is reached.
+     *
+     * @param key the key of the configuration
+     * @param previous the latest version
+     */
+    private void remember(final String key, final Latest previous) {
+        if (maxLatest == 0) {
+            return;
+        }
+
+        if (latest.size() >= maxLatest && !latest.containsKey(key)) {
+            final Iterator<String> it = latest.keySet().iterator();
+
+            while (latest.size() >= maxLatest && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+
+        latest.put(key, previous);
+    }
+
+
+    private JsonNode parse(final String configuration) throws ConfigurationServiceException {
+        try {
+            final JsonNode node = mapper.readTree(configuration);
+
+            if (node == null || !node.path(ID).isTextual()) {
+                throw new IOException("The configuration has no id!");
+            }
+
+            return node;
+        } catch (final IOException e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration!", e);
+        }
+    }
+
+
+    @Override
+    public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        return delegate.getConfiguration(id, variation, clazz);
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation) throws ConfigurationServiceException {
+        return delegate.getConfigurationAsJson(id, variation);
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation, final List<String> fields) throws ConfigurationServiceException {
+        return delegate.getConfigurationAsJson(id, variation, fields);
+    }
+
+
+    @Override
+    public void saveConfiguration(final IConfiguration configuration) throws ConfigurationServiceException {
+        record(configuration.getId(), variationOf(configuration.getVariation()), mapper.valueToTree(configuration), -1L, () -> delegate.saveConfiguration(configuration));
+    }
+
+
+    @Override
+    public void saveConfigurationAsJson(final String configuration) throws ConfigurationServiceException {
+        final JsonNode node = parse(configuration);
+
+        record(node.get(ID).textValue(), node.path(VARIATION).asText(""), node, -1L, () -> delegate.saveConfigurationAsJson(configuration));
+    }
+
+
+    /**
+     * Gets the version of the history of the configuration.
+     */
+    @Override
+    public long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+        return getHead(id, variationOf(variation));
+    }
+
+
+    /**
+     * Saves the configuration if the version of its history is the expected version.
+     */
+    @Override
+    public long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+        return record(configuration.getId(), variationOf(configuration.getVariation()), mapper.valueToTree(configuration), expectedVersion, () -> delegate.saveConfiguration(configuration));
+    }
+
+
+    /**
+     * Saves the configuration if the version of its history is the expected version.
+     */
+    @Override
+    public long saveConfigurationAsJson(final String configuration, final long expectedVersion) throws ConfigurationServiceException {
+        final JsonNode node = parse(configuration);
+
+        return record(node.get(ID).textValue(), node.path(VARIATION).asText(""), node, expectedVersion, () -> delegate.saveConfigurationAsJson(configuration));
+    }
+
+
+    @Override
+    public void removeConfiguration(final String id, final String variation) throws ConfigurationServiceException {
+        record(id, variationOf(variation), null, -1L, () -> delegate.removeConfiguration(id, variation));
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz, final long atVersion) throws ConfigurationServiceException {
+        final String json = getConfigurationAsJson(id, variation, atVersion);
+
+        try {
+            return json == null ? null : (T) mapper.readValue(json, clazz);
+        } catch (final IOException e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+        }
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation, final long atVersion) throws ConfigurationServiceException {
+        final String v = variationOf(variation);
+
+        if (atVersion < 1L || atVersion > getHead(id, v)) {
+            return null;
+        }
+
+        final JsonNode configuration = restore(id, v, atVersion);
+
+        return configuration == null ? null : configuration.toString();
+    }
+
+
+    /**
+     * Finds the version by a binary search over the times of the versions.
+     */
+    @Override
+    public long getConfigurationVersionAt(final String id, final String variation, final Instant atTime) throws ConfigurationServiceException {
+        final String v = variationOf(variation);
+        final long time = atTime.toEpochMilli();
+        long low = 1L;
+        long high = getHead(id, v);
+        long version = 0L;
+
+        while (low <= high) {
+            final long mid = (low + high) >>> 1;
+
+            if (readVersion(id, v, mid).path(TIME).asLong() <= time) {
+                version = mid;
+                low = mid + 1L;
+            } else {
+                high = mid - 1L;
+            }
+        }
+
+        return version;
+    }
+
+
+    @Override
+    public long rollbackConfiguration(final String id, final String variation, final long toVersion) throws ConfigurationServiceException {
+        final String v = variationOf(variation);
+
+        if (toVersion < 1L || toVersion > getHead(id, v)) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Version " + toVersion + " of configuration '" + id + "' does not exist!");
+        }
+
+        final JsonNode configuration = restore(id, v, toVersion);
+
+        if (configuration == null) {
+            return record(id, v, null, -1L, () -> delegate.removeConfiguration(id, variation));
+        }
+
+        final String json = configuration.toString();
+
+        return record(id, v, configuration, -1L, () -> delegate.saveConfigurationAsJson(json));
+    }
+
+
+    @Override
+    public boolean isReady() {
+        return delegate.isReady() && history.isReady();
+    }
+
+
+    /**
+     * @return the number of versions from one checkpoint to the next
+     */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+
+    /**
+     * @return the maximum number of configurations whose latest version is kept in memory
+     */
+    public int getMaxLatest() {
+        return maxLatest;
+    }
+}
@@ -0,0 +1,199 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.airepublic.configuration.api.ConfigurationVersionConflictException;
+import com.airepublic.configuration.api.IConfiguration;
+import com.airepublic.configuration.api.IConfigurationService;
+import com.airepublic.configuration.api.RequestCoalescer;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * An {@link IConfigurationService} storing the configurations as JSON in memory, e.g. as
+ * in-process tier of a {@link TieredConfigurationService}. Configurations which do not exist are
+ * not initialized with their defaults.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class InMemoryConfigurationService implements IConfigurationService {
+    private final static String ID = "id";
+    private final static String VARIATION = "variation";
+    private final ConcurrentHashMap<String, Entry> configurations = new ConcurrentHashMap<>();
+    private final AtomicLong lastVersion = new AtomicLong();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * A stored configuration and its version.
+     */
+    private static class Entry {
+        private final String json;
+        private final long version;
+
+        private Entry(final String json, final long version) {
+            this.json = json;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Constructor.
+     */
+    public InMemoryConfigurationService() {
+        mapper.setSerializationInclusion(Include.ALWAYS);
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        final Entry entry = configurations.get(RequestCoalescer.key(id, variation));
+
+        if (entry == null) {
+            return null;
+        }
+
+        try {
+            return (T) mapper.readValue(entry.json, clazz);
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+        }
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation) throws ConfigurationServiceException {
+        final Entry entry = configurations.get(RequestCoalescer.key(id, variation));
+
+        return entry == null ? null : entry.json;
+    }
+
+
+    @Override
+    public void saveConfiguration(final IConfiguration configuration) throws ConfigurationServiceException {
+        saveConfiguration(configuration, -1L);
+    }
+
+
+    @Override
+    public void saveConfigurationAsJson(final String configuration) throws ConfigurationServiceException {
+        saveConfigurationAsJson(configuration, -1L);
+    }
+
+
+    @Override
+    public long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+        try {
+            return save(configuration.getId(), configuration.getVariation(), mapper.writeValueAsString(configuration), expectedVersion);
+        } catch (final ConfigurationServiceException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + configuration.getId() + "'!", e);
+        }
+    }
+
+
+    @Override
+    public long saveConfigurationAsJson(final String configuration, final long expectedVersion) throws ConfigurationServiceException {
+        try {
+            final JsonNode node = mapper.readTree(configuration);
+
+            if (!node.isObject() || !node.hasNonNull(ID)) {
+                throw new IllegalArgumentException("Configuration has no id!");
+            }
+
+            final JsonNode variation = node.get(VARIATION);
+
+            if (variation == null || variation.isNull()) {
+                ((ObjectNode) node).put(VARIATION, "");
+            }
+
+            return save(node.get(ID).asText(), node.get(VARIATION).asText(), node.toString(), expectedVersion);
+        } catch (final ConfigurationServiceException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + configuration + "'!", e);
+        }
+    }
+
+
+    /**
+     * Stores the configuration if the stored version is the expected version.
+     *
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param json the configuration as JSON
+     * @param expectedVersion the expected version, 0 if it must not exist yet or -1 to store it
+     *        regardless of its version
+     * @return the new version
+     * @throws ConfigurationVersionConflictException if the stored version is not the expected
+     *         version
+     */
+    private long save(final String id, final String variation, final String json, final long expectedVersion) throws ConfigurationVersionConflictException {
+        final long version = lastVersion.incrementAndGet();
+        final boolean[] conflict = new boolean[1];
+
+        configurations.compute(RequestCoalescer.key(id, variation), (key, entry) -> {
+            if (expectedVersion >= 0L && (entry == null ? 0L : entry.version) != expectedVersion) {
+                conflict[0] = true;
+                return entry;
+            }
+
+            return new Entry(json, version);
+        });
+
+        if (conflict[0]) {
+            throw new ConfigurationVersionConflictException(id, expectedVersion);
+        }
+
+        return version;
+    }
+
+
+    @Override
+    public void removeConfiguration(final String id, final String variation) throws ConfigurationServiceException {
+        configurations.remove(RequestCoalescer.key(id, variation));
+    }
+
+
+    @Override
+    public long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+        final Entry entry = configurations.get(RequestCoalescer.key(id, variation));
+
+        return entry == null ? 0L : entry.version;
+    }
+
+
+    /**
+     * @return the number of stored configurations
+     */
+    public int size() {
+        return configurations.size();
+    }
+
+
+    /**
+     * Removes all configurations.
+     */
+    public void clear() {
+        configurations.clear();
+    }
+}
@@ -0,0 +1,379 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.airepublic.configuration.api.ConfigurationCache;
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.airepublic.configuration.api.IConfiguration;
+import com.airepublic.configuration.api.IConfigurationService;
+import com.airepublic.configuration.api.RequestCoalescer;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * An {@link IConfigurationService} resolving variations as layers over their base configuration.
+ * A variation only needs to store the fields it overrides, all other fields fall back to the base
+ * configuration with the empty variation. With a separator variations are hierarchical, e.g. with
+ * <code>-</code> the variation <code>prod-eu</code> overlays <code>prod</code> which overlays the
+ * base configuration.
+ * <p>
+ * The merged views are cached, so resolving a variation costs nothing at read time. Typed reads
+ * are mapped from the cached tree, so callers do not share the returned configurations. Saving or
+ * removing a layer through this service only invalidates the views which contain that layer.
+ * Changes made by other nodes are picked up when the views expire.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class OverlayConfigurationService implements IConfigurationService, AutoCloseable {
+    private final static String ID = "id";
+    private final static String VARIATION = "variation";
+    private final IConfigurationService delegate;
+    private final String separator;
+    private final ConfigurationCache<View> views;
+    private final ConcurrentHashMap<String, Set<String>> viewsById = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final RequestCoalescer<View> viewLoader = new RequestCoalescer<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * A merged view of all layers of a variation. The tree is shared by all readers, so it must not
+     * be modified.
+     */
+    private static class View {
+        private final JsonNode tree;
+        private final String json;
+        private final boolean complete;
+
+        private View(final JsonNode tree, final boolean complete) {
+            this.tree = tree;
+            json = tree.toString();
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Constructor for variations which only overlay the base configuration.
+     *
+     * @param delegate the service storing the layers
+     * @param ttl the time in milliseconds a merged view is cached
+     */
+    public OverlayConfigurationService(final IConfigurationService delegate, final long ttl) {
+        this(delegate, null, ttl);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param delegate the service storing the layers
+     * @param separator the separator of hierarchical variations or null if variations only overlay
+     *        the base configuration
+     * @param ttl the time in milliseconds a merged view is cached
+     */
+    public OverlayConfigurationService(final IConfigurationService delegate, final String separator, final long ttl) {
+        this.delegate = delegate;
+        this.separator = separator == null || separator.isEmpty() ? null : separator;
+        views = new ConfigurationCache<>(ttl, 0L, false);
+        mapper.setSerializationInclusion(Include.ALWAYS);
+    }
+
+
+    /**
+     * Gets the layers of the variation starting with the base configuration.
+     *
+     * @param variation the variation option
+     * @return the variations of the layers
+     */
+    protected List<String> getLayers(final String variation) {
+        final List<String> layers = new ArrayList<>();
+        layers.add("");
+
+        if (variation.isEmpty()) {
+            return layers;
+        }
+
+        if (separator != null) {
+            for (int idx = variation.indexOf(separator); idx != -1; idx = variation.indexOf(separator, idx + separator.length())) {
+                if (idx > 0) {
+                    layers.add(variation.substring(0, idx));
+                }
+            }
+        }
+
+        layers.add(variation);
+
+        return layers;
+    }
+
+
+    /**
+     * Gets the merged view from the cache or merges the layers.
+     *
+     * @param id the configuration id
+     * @param variation the variation option
+     * @param clazz the configuration class to initialize the base configuration with its defaults
+     *        or null if only stored layers are merged
+     * @return the view or null if no layer exists
+     * @throws Exception if a layer could not be read
+     */
+    private View getView(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws Exception {
+        final String key = RequestCoalescer.key(id, variation);
+        final View view = views.getFresh(key);
+
+        if (view != null && (view.complete || clazz == null)) {
+            return view;
+        }
+
+        return viewLoader.execute(key, () -> {
+            final long generation = invalidations.get();
+            final View merged = merge(id, variation, clazz);
+
+            // do not cache a view which has been invalidated while it was merged
+            if (merged != null && generation == invalidations.get()) {
+                viewsById.computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet()).add(variation);
+                views.put(key, merged);
+            }
+
+            return merged;
+        });
+    }
+
+
+    private View merge(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws Exception {
+        JsonNode merged = null;
+        boolean complete = false;
+
+        for (final String layer : getLayers(variation)) {
+            final JsonNode node;
+
+            if (layer.isEmpty() && clazz != null) {
+                // the base configuration is initialized with its defaults if it does not exist
+                final Object base = delegate.getConfiguration(id, layer, clazz);
+                node = base == null ? null : mapper.valueToTree(base);
+            } else {
+                final String json = delegate.getConfigurationAsJson(id, layer);
+                node = json == null ? null : mapper.readTree(json);
+            }
+
+            if (node != null) {
+                complete |= layer.isEmpty();
+                merged = merged == null ? node : merge(merged, node);
+            }
+        }
+
+        if (merged == null || !merged.isObject()) {
+            return null;
+        }
+
+        ((ObjectNode) merged).put(ID, id);
+        ((ObjectNode) merged).put(VARIATION, variation);
+
+        return new View(merged, complete);
+    }
+
+
+    /**
+     * Merges the overlay into the base. Objects are merged recursively, fields which are missing or
+     * null in the overlay keep the value of the base.
+     *
+     * @param base the base which is modified
+     * @param overlay the overlay
+     * @return the merged node
+     */
+    protected static JsonNode merge(final JsonNode base, final JsonNode overlay) {
+        if (!base.isObject() || !overlay.isObject()) {
+            return overlay.isNull() ? base : overlay;
+        }
+
+        final ObjectNode result = (ObjectNode) base;
+        final Iterator<Entry<String, JsonNode>> it = overlay.fields();
+
+        while (it.hasNext()) {
+            final Entry<String, JsonNode> field = it.next();
+            final JsonNode value = field.getValue();
+
+            if (!value.isNull()) {
+                final JsonNode existing = result.get(field.getKey());
+                result.set(field.getKey(), existing == null ? value : merge(existing, value));
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Invalidates the merged views containing the layer, i.e. the views of the layer itself and of
+     * all variations below it.
+     *
+     * @param id the configuration id
+     * @param layer the variation of the changed layer
+     */
+    protected void invalidate(final String id, final String layer) {
+        invalidations.incrementAndGet();
+
+        final Set<String> variations = viewsById.get(id);
+
+        if (variations == null) {
+            return;
+        }
+
+        variations.removeIf(variation -> {
+            if (getLayers(variation).contains(layer)) {
+                views.remove(RequestCoalescer.key(id, variation));
+                return true;
+            }
+
+            return false;
+        });
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        try {
+            final View view = getView(id, variation == null ? "" : variation, clazz);
+
+            if (view == null) {
+                return null;
+            }
+
+            // every caller gets its own instance, as configurations are mutable
+            return (T) mapper.treeToValue(view.tree, clazz);
+        } catch (final ConfigurationServiceException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+        }
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation) throws ConfigurationServiceException {
+        try {
+            final View view = getView(id, variation == null ? "" : variation, null);
+
+            return view == null ? null : view.json;
+        } catch (final ConfigurationServiceException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+        }
+    }
+
+
+    @Override
+    public void saveConfiguration(final IConfiguration configuration) throws ConfigurationServiceException {
+        delegate.saveConfiguration(configuration);
+        invalidate(configuration.getId(), configuration.getVariation() == null ? "" : configuration.getVariation());
+    }
+
+
+    @Override
+    public void saveConfigurationAsJson(final String configuration) throws ConfigurationServiceException {
+        delegate.saveConfigurationAsJson(configuration);
+        invalidateLayerOf(configuration);
+    }
+
+
+    @Override
+    public long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+        final long version = delegate.saveConfiguration(configuration, expectedVersion);
+        invalidate(configuration.getId(), configuration.getVariation() == null ? "" : configuration.getVariation());
+
+        return version;
+    }
+
+
+    @Override
+    public long saveConfigurationAsJson(final String configuration, final long expectedVersion) throws ConfigurationServiceException {
+        final long version = delegate.saveConfigurationAsJson(configuration, expectedVersion);
+        invalidateLayerOf(configuration);
+
+        return version;
+    }
+
+
+    private void invalidateLayerOf(final String configuration) throws ConfigurationServiceException {
+        try {
+            final JsonNode node = mapper.readTree(configuration);
+            final JsonNode variation = node.get(VARIATION);
+
+            invalidate(node.get(ID).asText(), variation == null || variation.isNull() ? "" : variation.asText());
+        } catch (final Exception e) {
+            // the layer is unknown, so all views are invalidated
+            invalidations.incrementAndGet();
+            viewsById.clear();
+            views.clear();
+        }
+    }
+
+
+    /**
+     * Patches the layer of the variation, not the merged view.
+     */
+    @Override
+    public void patchConfigurationAsJson(final String id, final String variation, final String patch) throws ConfigurationServiceException {
+        delegate.patchConfigurationAsJson(id, variation, patch);
+        invalidate(id, variation == null ? "" : variation);
+    }
+
+
+    @Override
+    public void removeConfiguration(final String id, final String variation) throws ConfigurationServiceException {
+        delegate.removeConfiguration(id, variation);
+        invalidate(id, variation == null ? "" : variation);
+    }
+
+
+    /**
+     * Gets the version of the layer of the variation.
+     */
+    @Override
+    public long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+        return delegate.getConfigurationVersion(id, variation);
+    }
+
+
+    @Override
+    public boolean isReady() {
+        return delegate.isReady();
+    }
+
+
+    /**
+     * @return the cache of the merged views
+     */
+    public ConfigurationCache<?> getViews() {
+        return views;
+    }
+
+
+    @Override
+    public void close() {
+        views.close();
+    }
+}
@@ -0,0 +1,347 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.airepublic.configuration.api.Bulkhead;
+import com.airepublic.configuration.api.CircuitBreaker;
+import com.airepublic.configuration.api.ConfigurationCache;
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.airepublic.configuration.api.ConfigurationVersionConflictException;
+import com.airepublic.configuration.api.IConfiguration;
+import com.airepublic.configuration.api.IConfigurationService;
+import com.airepublic.configuration.api.RequestCoalescer;
+import com.airepublic.configuration.api.metrics.ConfigurationMetrics;
+import com.airepublic.configuration.api.metrics.IConfigurationMetrics;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An {@link IConfigurationService} which protects the delegate with a {@link CircuitBreaker} and a
+ * {@link Bulkhead} per operation, so an overloaded backend fails fast instead of tying up the
+ * callers and being flooded with further calls.
+ * <p>
+ * Calls which are rejected by the circuit breaker or a bulkhead fail with
+ * <code>ErrorCode.ERROR_UNAVAILABLE</code>. Reads which fail are served with the last
+ * configuration read within the maximum staleness instead. Successful writes discard the last
+ * read configuration, so a failing read never serves a configuration older than a write.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class ResilientConfigurationService implements IConfigurationService, AutoCloseable {
+    /** The default maximum number of concurrent calls per operation. */
+    public static final int DEFAULT_MAX_CONCURRENT = 32;
+    /** The default time in milliseconds a call waits for a free slot. */
+    public static final long DEFAULT_MAX_WAIT = 100L;
+    /** The default time in milliseconds the last read configuration is served on errors. */
+    public static final long DEFAULT_MAX_STALE = 86400000L;
+    private final static String ID = "id";
+    private final static String VARIATION = "variation";
+    private final IConfigurationService delegate;
+    private final CircuitBreaker circuitBreaker;
+    private final int maxConcurrent;
+    private final long maxWait;
+    private final ConcurrentHashMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+    private final ConfigurationCache<String> lastRead;
+    // the classes the configurations were read as, prefixes of the keys in the last reads
+    private final Set<String> classes = ConcurrentHashMap.newKeySet();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String name;
+    private IConfigurationMetrics metrics = ConfigurationMetrics.get();
+
+    /**
+     * An operation on the delegate.
+     */
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws ConfigurationServiceException;
+    }
+
+    /**
+     * Constructor with the default circuit breaker, bulkheads and maximum staleness.
+     *
+     * @param name the name of the backend the gauges are registered with, e.g. mongo or solr
+     * @param delegate the service to protect
+     */
+    public ResilientConfigurationService(final String name, final IConfigurationService delegate) {
+        this(name, delegate, new CircuitBreaker(), DEFAULT_MAX_CONCURRENT, DEFAULT_MAX_WAIT, DEFAULT_MAX_STALE);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param name the name of the backend the gauges are registered with, e.g. mongo or solr
+     * @param delegate the service to protect
+     * @param circuitBreaker the {@link CircuitBreaker}
+     * @param maxConcurrent the maximum number of concurrent calls per operation
+     * @param maxWait the time in milliseconds a call waits for a free slot
+     * @param maxStale the time in milliseconds the last read configuration is served on errors
+     */
+    public ResilientConfigurationService(final String name, final IConfigurationService delegate, final CircuitBreaker circuitBreaker, final int maxConcurrent, final long maxWait, final long maxStale) {
+        this.name = name;
+        this.delegate = delegate;
+        this.circuitBreaker = circuitBreaker;
+        this.maxConcurrent = maxConcurrent;
+        this.maxWait = maxWait;
+        lastRead = new ConfigurationCache<>(0L, maxStale, false);
+        mapper.setSerializationInclusion(Include.ALWAYS);
+
+        registerMetrics();
+    }
+
+
+    /**
+     * Registers the state of the circuit breaker and the fallbacks as gauges.
+     */
+    protected void registerMetrics() {
+        metrics.gauge(name, "circuit.state", () -> circuitBreaker.getState().ordinal());
+        metrics.gauge(name, "circuit.opened", () -> circuitBreaker.getOpened());
+        metrics.gauge(name, "circuit.rejected", () -> circuitBreaker.getRejected());
+        metrics.gauge(name, "bulkhead.rejected", () -> bulkheads.values().stream().mapToLong(Bulkhead::getRejected).sum());
+        metrics.gauge(name, "fallback.served", () -> lastRead.getStaleOnError());
+    }
+
+
+    /**
+     * Sets the limit of concurrent calls of an operation.
+     *
+     * @param operation the operation, one of the <code>OPERATION_*</code> constants of
+     *        {@link IConfigurationMetrics}
+     * @param maxConcurrent the maximum number of concurrent calls
+     */
+    public void setBulkhead(final String operation, final int maxConcurrent) {
+        bulkheads.put(operation, new Bulkhead(maxConcurrent, maxWait));
+    }
+
+
+    /**
+     * @param operation the operation
+     * @return the {@link Bulkhead} of the operation
+     */
+    public Bulkhead getBulkhead(final String operation) {
+        return bulkheads.computeIfAbsent(operation, op -> new Bulkhead(maxConcurrent, maxWait));
+    }
+
+
+    /**
+     * Calls the delegate if the circuit and the bulkhead of the operation permit it. Version
+     * conflicts are not counted as failures of the backend.
+     *
+     * @param operation the operation
+     * @param call the call
+     * @return the result of the call
+     * @throws ConfigurationServiceException (with ErrorCode.ERROR_UNAVAILABLE) if the call was
+     *         rejected or the exception of the call
+     */
+    private <T> T execute(final String operation, final Call<T> call) throws ConfigurationServiceException {
+        final Bulkhead bulkhead = getBulkhead(operation);
+        bulkhead.acquire();
+
+        try {
+            final long permit = circuitBreaker.acquire();
+
+            if (permit == CircuitBreaker.REJECTED) {
+                throw new ConfigurationServiceException(ErrorCode.ERROR_UNAVAILABLE, "The configuration backend " + name + " is unavailable, the circuit is open!");
+            }
+
+            try {
+                final T result = call.call();
+                circuitBreaker.onSuccess(permit);
+
+                return result;
+            } catch (final ConfigurationVersionConflictException e) {
+                circuitBreaker.onSuccess(permit);
+                throw e;
+            } catch (final ConfigurationServiceException | RuntimeException e) {
+                circuitBreaker.onFailure(permit);
+                throw e;
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        classes.add(clazz.getName());
+        final String key = clazz.getName() + ":" + RequestCoalescer.key(id, variation);
+        final IConfiguration[] read = new IConfiguration[1];
+
+        try {
+            // the last read is only replaced if no write discarded it meanwhile
+            final String json = lastRead.get(key, () -> {
+                read[0] = execute(IConfigurationMetrics.OPERATION_GET, () -> delegate.getConfiguration(id, variation, clazz));
+
+                return read[0] != null ? mapper.writeValueAsString(read[0]) : null;
+            });
+
+            if (read[0] != null || json == null) {
+                return (T) read[0];
+            }
+
+            return (T) mapper.readValue(json, clazz);
+        } catch (final ConfigurationServiceException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+        }
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation) throws ConfigurationServiceException {
+        try {
+            return lastRead.get(RequestCoalescer.key(id, variation), () -> execute(IConfigurationMetrics.OPERATION_GET_JSON, () -> delegate.getConfigurationAsJson(id, variation)));
+        } catch (final ConfigurationServiceException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+        }
+    }
+
+
+    /**
+     * Discards the last read configuration after it has been written.
+     *
+     * @param id the unique identifier
+     * @param variation the variation option
+     */
+    private void written(final String id, final String variation) {
+        final String key = RequestCoalescer.key(id, variation);
+        lastRead.remove(key);
+
+        for (final String clazz : classes) {
+            lastRead.remove(clazz + ":" + key);
+        }
+    }
+
+
+    private void written(final String configuration) {
+        try {
+            final JsonNode node = mapper.readTree(configuration);
+            written(node.get(ID).asText(), node.hasNonNull(VARIATION) ? node.get(VARIATION).asText() : null);
+        } catch (final Exception e) {
+            lastRead.clear();
+        }
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation, final List<String> fields) throws ConfigurationServiceException {
+        return execute(IConfigurationMetrics.OPERATION_GET_JSON, () -> delegate.getConfigurationAsJson(id, variation, fields));
+    }
+
+
+    @Override
+    public void saveConfiguration(final IConfiguration configuration) throws ConfigurationServiceException {
+        execute(IConfigurationMetrics.OPERATION_SAVE, () -> {
+            delegate.saveConfiguration(configuration);
+            return null;
+        });
+        written(configuration.getId(), configuration.getVariation());
+    }
+
+
+    @Override
+    public void saveConfigurationAsJson(final String configuration) throws ConfigurationServiceException {
+        execute(IConfigurationMetrics.OPERATION_SAVE_JSON, () -> {
+            delegate.saveConfigurationAsJson(configuration);
+            return null;
+        });
+        written(configuration);
+    }
+
+
+    @Override
+    public long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+        final long version = execute(IConfigurationMetrics.OPERATION_SAVE, () -> delegate.saveConfiguration(configuration, expectedVersion));
+        written(configuration.getId(), configuration.getVariation());
+
+        return version;
+    }
+
+
+    @Override
+    public long saveConfigurationAsJson(final String configuration, final long expectedVersion) throws ConfigurationServiceException {
+        final long version = execute(IConfigurationMetrics.OPERATION_SAVE_JSON, () -> delegate.saveConfigurationAsJson(configuration, expectedVersion));
+        written(configuration);
+
+        return version;
+    }
+
+
+    @Override
+    public long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+        return execute(IConfigurationMetrics.OPERATION_GET_VERSION, () -> delegate.getConfigurationVersion(id, variation));
+    }
+
+
+    @Override
+    public void patchConfigurationAsJson(final String id, final String variation, final String patch) throws ConfigurationServiceException {
+        execute(IConfigurationMetrics.OPERATION_PATCH, () -> {
+            delegate.patchConfigurationAsJson(id, variation, patch);
+            return null;
+        });
+        written(id, variation);
+    }
+
+
+    @Override
+    public void removeConfiguration(final String id, final String variation) throws ConfigurationServiceException {
+        execute(IConfigurationMetrics.OPERATION_REMOVE, () -> {
+            delegate.removeConfiguration(id, variation);
+            return null;
+        });
+        written(id, variation);
+    }
+
+
+    @Override
+    public boolean isReady() {
+        return delegate.isReady();
+    }
+
+
+    /**
+     * @return the {@link CircuitBreaker}
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+
+    /**
+     * Sets the metrics the gauges are registered with.
+     *
+     * @param metrics the {@link IConfigurationMetrics}
+     */
+    public void setMetrics(final IConfigurationMetrics metrics) {
+        this.metrics = metrics;
+        registerMetrics();
+    }
+
+
+    @Override
+    public void close() {
+        lastRead.close();
+    }
+}
@@ -0,0 +1,434 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.airepublic.configuration.api.ConfigurationNamespace;
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.airepublic.configuration.api.IConfiguration;
+import com.airepublic.configuration.api.IConfigurationService;
+import com.airepublic.configuration.api.NamespacedConfigurationService;
+import com.airepublic.configuration.api.metrics.ConfigurationMetrics;
+import com.airepublic.configuration.api.metrics.IConfigurationMetrics;
+import com.airepublic.configuration.api.metrics.Operation;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An {@link IConfigurationService} for multiple tenants. The configurations of a tenant live in
+ * its namespaces, see {@link ConfigurationNamespace}, which are accessed through
+ * {@link #forNamespace(String)}. Calls on this service itself access the root namespace.
+ * <p>
+ * Every tenant has a {@link TenantQuota} limiting its reads and writes per second and the size of
+ * its configurations. Calls exceeding the quota fail with
+ * <code>ErrorCode.ERROR_QUOTA_EXCEEDED</code>. The operations of a tenant are recorded to the
+ * metrics with the backend &lt;name&gt;.&lt;tenant&gt;, so the load of each tenant is visible.
+ * <p>
+ * How the configurations of the tenants are distributed is up to the delegate, e.g. a collection
+ * per namespace in mongo or routing by namespace in solr cloud.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class TenantConfigurationService implements IConfigurationService {
+    private final String name;
+    private final IConfigurationService delegate;
+    private final boolean inherit;
+    private volatile TenantQuota defaultQuota;
+    private final ConcurrentHashMap<String, TenantQuota> quotas = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, IConfigurationService> namespaces = new ConcurrentHashMap<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private IConfigurationMetrics metrics = ConfigurationMetrics.get();
+
+    /**
+     * An operation on the delegate.
+     */
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws ConfigurationServiceException;
+    }
+
+    /**
+     * A token bucket allowing a number of calls per second.
+     */
+    private static class RateLimit {
+        private double tokens = Double.MAX_VALUE;
+        private long refilledAt = System.nanoTime();
+
+        private synchronized boolean tryAcquire(final int perSecond) {
+            if (perSecond <= 0) {
+                return true;
+            }
+
+            final long now = System.nanoTime();
+            tokens = Math.min(perSecond, tokens + (now - refilledAt) * perSecond / 1_000_000_000.0);
+            refilledAt = now;
+
+            if (tokens < 1.0) {
+                return false;
+            }
+
+            tokens -= 1.0;
+            return true;
+        }
+    }
+
+    /**
+     * The calls of a tenant to the delegate which are checked against its quota and recorded to
+     * the metrics.
+     */
+    private class Tenant implements IConfigurationService {
+        private final String tenant;
+        private final String backend;
+        private final RateLimit reads = new RateLimit();
+        private final RateLimit writes = new RateLimit();
+        private final LongAdder rejected = new LongAdder();
+
+        private Tenant(final String tenant) {
+            this.tenant = tenant;
+            backend = name + "." + tenant;
+            metrics.gauge(backend, "quota.rejected", () -> rejected.sum());
+        }
+
+
+        private <T> T execute(final String operation, final boolean write, final Call<T> call) throws ConfigurationServiceException {
+            final Operation op = new Operation(metrics, backend, operation);
+
+            try {
+                final TenantQuota quota = getQuota(tenant);
+
+                if (!(write ? writes.tryAcquire(quota.getWritesPerSecond()) : reads.tryAcquire(quota.getReadsPerSecond()))) {
+                    rejected.increment();
+                    op.failed(ErrorCode.ERROR_QUOTA_EXCEEDED);
+                    throw new ConfigurationServiceException(ErrorCode.ERROR_QUOTA_EXCEEDED, "The " + (write ? "write" : "read") + " quota of tenant '" + tenant + "' is exceeded!");
+                }
+
+                try {
+                    return call.call();
+                } catch (final ConfigurationServiceException | RuntimeException e) {
+                    op.failed(e);
+                    throw e;
+                }
+            } finally {
+                op.close();
+            }
+        }
+
+
+        private void checkSize(final int size) throws ConfigurationServiceException {
+            final int maxSize = getQuota(tenant).getMaxSize();
+
+            if (maxSize > 0 && size > maxSize) {
+                rejected.increment();
+                throw new ConfigurationServiceException(ErrorCode.ERROR_QUOTA_EXCEEDED, "A configuration of tenant '" + tenant + "' exceeds the maximum size of " + maxSize + "!");
+            }
+        }
+
+
+        private void checkSize(final IConfiguration configuration) throws ConfigurationServiceException {
+            if (getQuota(tenant).getMaxSize() <= 0) {
+                return;
+            }
+
+            try {
+                checkSize(mapper.writeValueAsString(configuration).length());
+            } catch (final ConfigurationServiceException e) {
+                throw e;
+            } catch (final Exception e) {
+                throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + configuration.getId() + "'!", e);
+            }
+        }
+
+
+        @Override
+        public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+            return execute(IConfigurationMetrics.OPERATION_GET, false, () -> delegate.getConfiguration(id, variation, clazz));
+        }
+
+
+        @Override
+        public String getConfigurationAsJson(final String id, final String variation) throws ConfigurationServiceException {
+            return execute(IConfigurationMetrics.OPERATION_GET_JSON, false, () -> delegate.getConfigurationAsJson(id, variation));
+        }
+
+
+        @Override
+        public String getConfigurationAsJson(final String id, final String variation, final List<String> fields) throws ConfigurationServiceException {
+            return execute(IConfigurationMetrics.OPERATION_GET_JSON, false, () -> delegate.getConfigurationAsJson(id, variation, fields));
+        }
+
+
+        @Override
+        public void saveConfiguration(final IConfiguration configuration) throws ConfigurationServiceException {
+            checkSize(configuration);
+            execute(IConfigurationMetrics.OPERATION_SAVE, true, () -> {
+                delegate.saveConfiguration(configuration);
+                return null;
+            });
+        }
+
+
+        @Override
+        public void saveConfigurationAsJson(final String configuration) throws ConfigurationServiceException {
+            checkSize(configuration.length());
+            execute(IConfigurationMetrics.OPERATION_SAVE_JSON, true, () -> {
+                delegate.saveConfigurationAsJson(configuration);
+                return null;
+            });
+        }
+
+
+        @Override
+        public void saveConfigurationsAsJson(final Collection<String> configurations) throws ConfigurationServiceException {
+            for (final String configuration : configurations) {
+                checkSize(configuration.length());
+            }
+
+            execute(IConfigurationMetrics.OPERATION_SAVE_ALL_JSON, true, () -> {
+                delegate.saveConfigurationsAsJson(configurations);
+                return null;
+            });
+        }
+
+
+        @Override
+        public long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+            return execute(IConfigurationMetrics.OPERATION_GET_VERSION, false, () -> delegate.getConfigurationVersion(id, variation));
+        }
+
+
+        @Override
+        public long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+            checkSize(configuration);
+            return execute(IConfigurationMetrics.OPERATION_SAVE, true, () -> delegate.saveConfiguration(configuration, expectedVersion));
+        }
+
+
+        @Override
+        public long saveConfigurationAsJson(final String configuration, final long expectedVersion) throws ConfigurationServiceException {
+            checkSize(configuration.length());
+            return execute(IConfigurationMetrics.OPERATION_SAVE_JSON, true, () -> delegate.saveConfigurationAsJson(configuration, expectedVersion));
+        }
+
+
+        @Override
+        public void patchConfigurationAsJson(final String id, final String variation, final String patch) throws ConfigurationServiceException {
+            checkSize(patch.length());
+            execute(IConfigurationMetrics.OPERATION_PATCH, true, () -> {
+                delegate.patchConfigurationAsJson(id, variation, patch);
+                return null;
+            });
+        }
+
+
+        @Override
+        public void removeConfiguration(final String id, final String variation) throws ConfigurationServiceException {
+            execute(IConfigurationMetrics.OPERATION_REMOVE, true, () -> {
+                delegate.removeConfiguration(id, variation);
+                return null;
+            });
+        }
+
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+    }
+
+    /**
+     * Constructor for tenants without quota which inherit the configurations of the parent
+     * namespaces.
+     *
+     * @param name the name the metrics of the tenants are prefixed with, e.g. mongo or solr
+     * @param delegate the service storing the configurations of all namespaces
+     */
+    public TenantConfigurationService(final String name, final IConfigurationService delegate) {
+        this(name, delegate, TenantQuota.UNLIMITED, true);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param name the name the metrics of the tenants are prefixed with, e.g. mongo or solr
+     * @param delegate the service storing the configurations of all namespaces
+     * @param defaultQuota the quota of tenants without their own quota
+     * @param inherit true if configurations are inherited from the parent namespaces
+     */
+    public TenantConfigurationService(final String name, final IConfigurationService delegate, final TenantQuota defaultQuota, final boolean inherit) {
+        this.name = name;
+        this.delegate = delegate;
+        this.defaultQuota = defaultQuota;
+        this.inherit = inherit;
+        mapper.setSerializationInclusion(Include.ALWAYS);
+    }
+
+
+    /**
+     * Gets the service for the namespace. The calls of the service count against the quota of the
+     * tenant of the namespace.
+     */
+    @Override
+    public IConfigurationService forNamespace(final String namespace) {
+        final String validated = ConfigurationNamespace.validate(namespace);
+
+        if (validated.isEmpty()) {
+            return this;
+        }
+
+        return namespaces.computeIfAbsent(validated, ns -> new NamespacedConfigurationService(tenants.computeIfAbsent(ConfigurationNamespace.getTenant(ns), Tenant::new), ns, inherit));
+    }
+
+
+    /**
+     * @param tenant the tenant
+     * @return the quota of the tenant
+     */
+    public TenantQuota getQuota(final String tenant) {
+        return quotas.getOrDefault(tenant, defaultQuota);
+    }
+
+
+    /**
+     * Sets the quota of a tenant.
+     *
+     * @param tenant the tenant
+     * @param quota the quota or null to use the default quota
+     */
+    public void setQuota(final String tenant, final TenantQuota quota) {
+        if (quota == null) {
+            quotas.remove(tenant);
+        } else {
+            quotas.put(tenant, quota);
+        }
+    }
+
+
+    /**
+     * Sets the quota of tenants without their own quota.
+     *
+     * @param defaultQuota the quota
+     */
+    public void setDefaultQuota(final TenantQuota defaultQuota) {
+        this.defaultQuota = defaultQuota;
+    }
+
+
+    /**
+     * @return the tenants which have accessed their configurations
+     */
+    public Set<String> getTenants() {
+        return tenants.keySet();
+    }
+
+
+    /**
+     * @param tenant the tenant
+     * @return the number of calls of the tenant which were rejected by its quota
+     */
+    public long getRejected(final String tenant) {
+        final Tenant t = tenants.get(tenant);
+
+        return t == null ? 0L : t.rejected.sum();
+    }
+
+
+    @Override
+    public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        return delegate.getConfiguration(id, variation, clazz);
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation) throws ConfigurationServiceException {
+        return delegate.getConfigurationAsJson(id, variation);
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation, final List<String> fields) throws ConfigurationServiceException {
+        return delegate.getConfigurationAsJson(id, variation, fields);
+    }
+
+
+    @Override
+    public void saveConfiguration(final IConfiguration configuration) throws ConfigurationServiceException {
+        delegate.saveConfiguration(configuration);
+    }
+
+
+    @Override
+    public void saveConfigurationAsJson(final String configuration) throws ConfigurationServiceException {
+        delegate.saveConfigurationAsJson(configuration);
+    }
+
+
+    @Override
+    public void saveConfigurationsAsJson(final Collection<String> configurations) throws ConfigurationServiceException {
+        delegate.saveConfigurationsAsJson(configurations);
+    }
+
+
+    @Override
+    public long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+        return delegate.getConfigurationVersion(id, variation);
+    }
+
+
+    @Override
+    public long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+        return delegate.saveConfiguration(configuration, expectedVersion);
+    }
+
+
+    @Override
+    public long saveConfigurationAsJson(final String configuration, final long expectedVersion) throws ConfigurationServiceException {
+        return delegate.saveConfigurationAsJson(configuration, expectedVersion);
+    }
+
+
+    @Override
+    public void patchConfigurationAsJson(final String id, final String variation, final String patch) throws ConfigurationServiceException {
+        delegate.patchConfigurationAsJson(id, variation, patch);
+    }
+
+
+    @Override
+    public void removeConfiguration(final String id, final String variation) throws ConfigurationServiceException {
+        delegate.removeConfiguration(id, variation);
+    }
+
+
+    @Override
+    public boolean isReady() {
+        return delegate.isReady();
+    }
+
+
+    /**
+     * Sets the metrics the operations of the tenants are recorded to.
+     *
+     * @param metrics the {@link IConfigurationMetrics}
+     */
+    public void setMetrics(final IConfigurationMetrics metrics) {
+        this.metrics = metrics;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+/**
+ * The quota of a tenant of the {@link TenantConfigurationService}. A limit of 0 means unlimited.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public final class TenantQuota {
+    /** A quota without limits. */
+    public static final TenantQuota UNLIMITED = new TenantQuota(0, 0, 0);
+    private final int readsPerSecond;
+    private final int writesPerSecond;
+    private final int maxSize;
+
+    /**
+     * Constructor.
+     *
+     * @param readsPerSecond the maximum number of reads per second
+     * @param writesPerSecond the maximum number of saves, patches and removes per second
+     * @param maxSize the maximum size of a configuration as JSON in characters
+     */
+    public TenantQuota(final int readsPerSecond, final int writesPerSecond, final int maxSize) {
+        this.readsPerSecond = readsPerSecond;
+        this.writesPerSecond = writesPerSecond;
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * @return the maximum number of reads per second
+     */
+    public int getReadsPerSecond() {
+        return readsPerSecond;
+    }
+
+
+    /**
+     * @return the maximum number of saves, patches and removes per second
+     */
+    public int getWritesPerSecond() {
+        return writesPerSecond;
+    }
+
+
+    /**
+     * @return the maximum size of a configuration as JSON in characters
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+
+    @Override
+    public String toString() {
+        return "TenantQuota [readsPerSecond=" + readsPerSecond + ", writesPerSecond=" + writesPerSecond + ", maxSize=" + maxSize + "]";
+    }
+}
@@ -0,0 +1,736 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.airepublic.configuration.api.IConfiguration;
+import com.airepublic.configuration.api.IConfigurationService;
+import com.airepublic.configuration.api.RequestCoalescer;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An {@link IConfigurationService} composed of tiers, e.g. an {@link InMemoryConfigurationService}
+ * in front of solr in front of mongo. The first tier is the fastest, the last tier is the primary
+ * store of record.
+ * <p>
+ * Reads go through the tiers in order until the configuration is found and populate the tiers
+ * above with it, unless the configuration was written while it was read, so a read cannot put an
+ * older configuration above a newer one. Only the primary store initializes missing
+ * configurations with their defaults. A tier which fails to read is skipped, unless it is the
+ * primary store.
+ * <p>
+ * Writes depend on the {@link WriteMode}. With {@link WriteMode#WRITE_BEHIND} at most
+ * {@link #DEFAULT_WRITE_BEHIND_CAPACITY} writes wait in the background by default, if there are
+ * more the writers block until there is room, so the writes stay in order and do not exhaust the
+ * heap if the tiers below are slow.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class TieredConfigurationService implements IConfigurationService, AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(TieredConfigurationService.class.getName());
+    private final static String ID = "id";
+    private final static String VARIATION = "variation";
+    // the number of stripes of the write counters of the keys
+    private static final int STRIPES = 256;
+    /** The default maximum number of writes waiting in the background. */
+    public static final int DEFAULT_WRITE_BEHIND_CAPACITY = 10000;
+    private final List<IConfigurationService> tiers;
+    private final IConfigurationService primary;
+    private final WriteMode writeMode;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final LongAdder[] hits;
+    private final LongAdder populateFailures = new LongAdder();
+    private final LongAdder populateSkipped = new LongAdder();
+    private final LongAdder writeBehindFailures = new LongAdder();
+    private final LongAdder writeBehindBlocked = new LongAdder();
+    private ExecutorService writeBehindExecutor;
+    // incremented when a write of a key of the stripe starts and ends
+    private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+    // the number of writes of keys of the stripe in progress
+    private final AtomicIntegerArray writes = new AtomicIntegerArray(STRIPES);
+
+    /**
+     * How writes reach the tiers.
+     */
+    public enum WriteMode {
+        /**
+         * Writes go to the primary store first and then to the tiers above, so a successful write
+         * is durable.
+         */
+        WRITE_THROUGH,
+        /**
+         * Writes go to the first tier and the tiers below are written in the background in order.
+         * Failures in the background are logged and counted. Versioned writes and patches wait for
+         * the writes in the background, go to the primary store and invalidate the tiers above.
+         */
+        WRITE_BEHIND
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param writeMode how writes reach the tiers
+     * @param tiers the tiers starting with the fastest, the last tier is the primary store
+     */
+    public TieredConfigurationService(final WriteMode writeMode, final IConfigurationService... tiers) {
+        this(writeMode, List.of(tiers));
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param writeMode how writes reach the tiers
+     * @param tiers the tiers starting with the fastest, the last tier is the primary store
+     */
+    public TieredConfigurationService(final WriteMode writeMode, final List<IConfigurationService> tiers) {
+        this(writeMode, DEFAULT_WRITE_BEHIND_CAPACITY, tiers);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param writeMode how writes reach the tiers
+     * @param writeBehindCapacity the maximum number of writes waiting in the background with
+     *        {@link WriteMode#WRITE_BEHIND}
+     * @param tiers the tiers starting with the fastest, the last tier is the primary store
+     */
+    public TieredConfigurationService(final WriteMode writeMode, final int writeBehindCapacity, final List<IConfigurationService> tiers) {
+        if (tiers.isEmpty()) {
+            throw new IllegalArgumentException("At least one tier is required!");
+        }
+
+        this.tiers = new ArrayList<>(tiers);
+        this.writeMode = writeMode;
+        primary = this.tiers.get(this.tiers.size() - 1);
+        hits = new LongAdder[this.tiers.size()];
+
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new LongAdder();
+        }
+
+        mapper.setSerializationInclusion(Include.ALWAYS);
+
+        if (writeMode == WriteMode.WRITE_BEHIND) {
+            // one thread keeps the writes in order
+            writeBehindExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(writeBehindCapacity), r -> {
+                final Thread thread = new Thread(r, "configuration-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            }, this::awaitRoom);
+        }
+    }
+
+
+    /**
+     * Blocks the writer until there is room for the write in the full queue of the writes in the
+     * background. Running the write in the calling thread instead would overtake the queued
+     * writes.
+     *
+     * @param task the write
+     * @param executor the executor of the writes in the background
+     * @throws RejectedExecutionException if the executor is closed or the writer is interrupted,
+     *         so the write is done synchronously
+     */
+    private void awaitRoom(final Runnable task, final ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("The writes in the background are closed!");
+        }
+
+        writeBehindBlocked.increment();
+
+        try {
+            executor.getQueue().put(task);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted waiting for room for the write in the background!", e);
+        }
+
+        // closed meanwhile, the queued write might not be run anymore
+        if (executor.isShutdown() && executor.getQueue().remove(task)) {
+            throw new RejectedExecutionException("The writes in the background are closed!");
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        final int stripe = stripe(id, variation);
+        final long generation = generations.get(stripe);
+
+        try {
+            for (int i = 0; i < tiers.size() - 1; i++) {
+                final String json = read(i, id, variation);
+
+                if (json != null) {
+                    hits[i].increment();
+                    populate(i, id, variation, json, stripe, generation);
+
+                    return (T) mapper.readValue(json, clazz);
+                }
+            }
+
+            final IConfiguration configuration = primary.getConfiguration(id, variation, clazz);
+
+            if (configuration != null) {
+                hits[tiers.size() - 1].increment();
+                populate(tiers.size() - 1, id, variation, mapper.writeValueAsString(configuration), stripe, generation);
+            }
+
+            return (T) configuration;
+        } catch (final ConfigurationServiceException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+        }
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation) throws ConfigurationServiceException {
+        final int stripe = stripe(id, variation);
+        final long generation = generations.get(stripe);
+
+        for (int i = 0; i < tiers.size() - 1; i++) {
+            final String json = read(i, id, variation);
+
+            if (json != null) {
+                hits[i].increment();
+                populate(i, id, variation, json, stripe, generation);
+
+                return json;
+            }
+        }
+
+        final String json = primary.getConfigurationAsJson(id, variation);
+
+        if (json != null) {
+            hits[tiers.size() - 1].increment();
+            populate(tiers.size() - 1, id, variation, json, stripe, generation);
+        }
+
+        return json;
+    }
+
+
+    /**
+     * Reads the configuration from a tier above the primary store.
+     *
+     * @param tier the index of the tier
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @return the configuration as JSON or null if not found or the tier failed
+     */
+    private String read(final int tier, final String id, final String variation) {
+        try {
+            return tiers.get(tier).getConfigurationAsJson(id, variation);
+        } catch (final ConfigurationServiceException e) {
+            LOG.log(Level.FINE, "Error reading configuration '" + id + "' from tier " + tier + ", skipping it!", e);
+            return null;
+        }
+    }
+
+
+    /**
+     * Populates the tiers above the tier the configuration was read from, unless a write of the
+     * configuration is in progress or started after the read. A tier which was populated while a
+     * write started is invalidated again, as the read configuration may be older.
+     *
+     * @param tier the index of the tier the configuration was read from
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param json the configuration as JSON
+     * @param stripe the stripe of the configuration
+     * @param generation the generation of the stripe before the read
+     */
+    private void populate(final int tier, final String id, final String variation, final String json, final int stripe, final long generation) {
+        for (int i = tier - 1; i >= 0; i--) {
+            if (writes.get(stripe) > 0 || generations.get(stripe) != generation) {
+                // the write updates the tiers
+                populateSkipped.increment();
+                return;
+            }
+
+            try {
+                tiers.get(i).saveConfigurationAsJson(json);
+            } catch (final ConfigurationServiceException e) {
+                populateFailures.increment();
+                LOG.log(Level.WARNING, "Error populating tier " + i + " with configuration!", e);
+            }
+
+            if (generations.get(stripe) != generation) {
+                populateSkipped.increment();
+                invalidate(i, id, variation);
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Writes the configuration to the tiers above the tier it was written to.
+     *
+     * @param tier the index of the tier the configuration was written to
+     * @param json the configuration as JSON
+     */
+    private void populate(final int tier, final String json) {
+        for (int i = tier - 1; i >= 0; i--) {
+            try {
+                tiers.get(i).saveConfigurationAsJson(json);
+            } catch (final ConfigurationServiceException e) {
+                populateFailures.increment();
+                LOG.log(Level.WARNING, "Error populating tier " + i + " with configuration!", e);
+            }
+        }
+    }
+
+
+    @Override
+    public void saveConfiguration(final IConfiguration configuration) throws ConfigurationServiceException {
+        final String json;
+
+        try {
+            json = mapper.writeValueAsString(configuration);
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + configuration.getId() + "'!", e);
+        }
+
+        saveConfigurationAsJson(json);
+    }
+
+
+    @Override
+    public void saveConfigurationAsJson(final String configuration) throws ConfigurationServiceException {
+        final JsonNode node = readTree(configuration);
+        final int stripe = stripe(node.get(ID).asText(), variation(node));
+
+        if (writeMode == WriteMode.WRITE_THROUGH) {
+            begin(stripe);
+
+            try {
+                primary.saveConfigurationAsJson(configuration);
+                populate(tiers.size() - 1, configuration);
+            } finally {
+                end(stripe);
+            }
+
+            return;
+        }
+
+        begin(stripe);
+
+        try {
+            tiers.get(0).saveConfigurationAsJson(configuration);
+        } catch (final ConfigurationServiceException | RuntimeException e) {
+            end(stripe);
+            throw e;
+        }
+
+        for (int i = 1; i < tiers.size(); i++) {
+            final IConfigurationService tier = tiers.get(i);
+            writeBehind(i, () -> tier.saveConfigurationAsJson(configuration));
+        }
+
+        writeBehind(() -> end(stripe));
+    }
+
+
+    @Override
+    public long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+        final String id = configuration.getId();
+        final String variation = configuration.getVariation();
+        final int stripe = stripe(id, variation);
+
+        return inOrder(ErrorCode.ERROR_SAVE, () -> {
+            begin(stripe);
+
+            try {
+                final long version = primary.saveConfiguration(configuration, expectedVersion);
+                String json = null;
+
+                try {
+                    json = mapper.writeValueAsString(configuration);
+                } catch (final Exception e) {
+                    // the tiers are invalidated instead
+                }
+
+                written(id, variation, json);
+
+                return version;
+            } finally {
+                end(stripe);
+            }
+        });
+    }
+
+
+    @Override
+    public long saveConfigurationAsJson(final String configuration, final long expectedVersion) throws ConfigurationServiceException {
+        final JsonNode node = readTree(configuration);
+        final String id = node.get(ID).asText();
+        final String variation = variation(node);
+        final int stripe = stripe(id, variation);
+
+        return inOrder(ErrorCode.ERROR_SAVE, () -> {
+            begin(stripe);
+
+            try {
+                final long version = primary.saveConfigurationAsJson(configuration, expectedVersion);
+                written(id, variation, configuration);
+
+                return version;
+            } finally {
+                end(stripe);
+            }
+        });
+    }
+
+
+    /**
+     * Updates the tiers above the primary store after a versioned write. With
+     * {@link WriteMode#WRITE_BEHIND} the tiers are invalidated, as the first tier may already hold
+     * a save whose write to the primary store is queued after this one.
+     *
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param json the written configuration as JSON or null to invalidate the tiers
+     */
+    private void written(final String id, final String variation, final String json) {
+        if (writeMode == WriteMode.WRITE_THROUGH && json != null) {
+            populate(tiers.size() - 1, json);
+        } else {
+            invalidate(id, variation);
+        }
+    }
+
+
+    /**
+     * Patches the primary store and removes the configuration from the tiers above, so it is
+     * reloaded with the patch applied.
+     */
+    @Override
+    public void patchConfigurationAsJson(final String id, final String variation, final String patch) throws ConfigurationServiceException {
+        final int stripe = stripe(id, variation);
+
+        inOrder(ErrorCode.ERROR_SAVE, () -> {
+            begin(stripe);
+
+            try {
+                primary.patchConfigurationAsJson(id, variation, patch);
+                invalidate(id, variation);
+            } finally {
+                end(stripe);
+            }
+
+            return null;
+        });
+    }
+
+
+    @Override
+    public void removeConfiguration(final String id, final String variation) throws ConfigurationServiceException {
+        final int stripe = stripe(id, variation);
+
+        if (writeMode == WriteMode.WRITE_THROUGH) {
+            begin(stripe);
+
+            try {
+                primary.removeConfiguration(id, variation);
+                invalidate(id, variation);
+            } finally {
+                end(stripe);
+            }
+
+            return;
+        }
+
+        begin(stripe);
+
+        try {
+            tiers.get(0).removeConfiguration(id, variation);
+        } catch (final ConfigurationServiceException | RuntimeException e) {
+            end(stripe);
+            throw e;
+        }
+
+        for (int i = 1; i < tiers.size(); i++) {
+            final IConfigurationService tier = tiers.get(i);
+            writeBehind(i, () -> tier.removeConfiguration(id, variation));
+        }
+
+        writeBehind(() -> end(stripe));
+    }
+
+
+    /**
+     * Removes the configuration from the tiers above the primary store.
+     *
+     * @param id the unique identifier
+     * @param variation the variation option
+     */
+    private void invalidate(final String id, final String variation) {
+        for (int i = tiers.size() - 2; i >= 0; i--) {
+            invalidate(i, id, variation);
+        }
+    }
+
+
+    private void invalidate(final int tier, final String id, final String variation) {
+        try {
+            tiers.get(tier).removeConfiguration(id, variation);
+        } catch (final ConfigurationServiceException e) {
+            populateFailures.increment();
+            LOG.log(Level.WARNING, "Error removing configuration '" + id + "' from tier " + tier + "!", e);
+        }
+    }
+
+
+    /**
+     * Marks the start of a write of a configuration of the stripe, reads do not populate the tiers
+     * with configurations of the stripe until it has ended.
+     *
+     * @param stripe the stripe
+     */
+    private void begin(final int stripe) {
+        writes.incrementAndGet(stripe);
+        generations.incrementAndGet(stripe);
+    }
+
+
+    /**
+     * Marks the end of a write of a configuration of the stripe.
+     *
+     * @param stripe the stripe
+     */
+    private void end(final int stripe) {
+        generations.incrementAndGet(stripe);
+        writes.decrementAndGet(stripe);
+    }
+
+
+    private static int stripe(final String id, final String variation) {
+        return (RequestCoalescer.key(id, variation).hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+
+    private JsonNode readTree(final String configuration) throws ConfigurationServiceException {
+        final JsonNode node;
+
+        try {
+            node = mapper.readTree(configuration);
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + configuration + "'!", e);
+        }
+
+        if (node == null || !node.hasNonNull(ID)) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + configuration + "', it has no id!");
+        }
+
+        return node;
+    }
+
+
+    private static String variation(final JsonNode node) {
+        return node.hasNonNull(VARIATION) ? node.get(VARIATION).asText() : null;
+    }
+
+
+    /**
+     * A write to a tier.
+     */
+    @FunctionalInterface
+    private interface TierWrite {
+        void run() throws ConfigurationServiceException;
+    }
+
+
+    /**
+     * A call to the primary store.
+     */
+    @FunctionalInterface
+    private interface TierCall<T> {
+        T call() throws ConfigurationServiceException;
+    }
+
+
+    private void writeBehind(final int tier, final TierWrite write) {
+        writeBehind(() -> {
+            try {
+                write.run();
+            } catch (final Exception e) {
+                writeBehindFailures.increment();
+                LOG.log(Level.WARNING, "Error writing behind to tier " + tier + "!", e);
+            }
+        });
+    }
+
+
+    private void writeBehind(final Runnable task) {
+        try {
+            writeBehindExecutor.execute(task);
+        } catch (final RejectedExecutionException e) {
+            // closed or interrupted, so write synchronously
+            task.run();
+        }
+    }
+
+
+    /**
+     * Calls the primary store after the writes in the background with {@link WriteMode#WRITE_BEHIND}
+     * and waits for the result, so the call sees them and they cannot overwrite it.
+     *
+     * @param errorCode the error code if the wait was interrupted
+     * @param call the call
+     * @return the result of the call
+     * @throws ConfigurationServiceException if the call failed
+     */
+    private <T> T inOrder(final ErrorCode errorCode, final TierCall<T> call) throws ConfigurationServiceException {
+        if (writeBehindExecutor == null) {
+            return call.call();
+        }
+
+        final Future<T> future;
+
+        try {
+            future = writeBehindExecutor.submit(() -> call.call());
+        } catch (final RejectedExecutionException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new ConfigurationServiceException(errorCode, "Interrupted waiting for the writes in the background!", e);
+            }
+
+            // closed, the writes in the background are done
+            return call.call();
+        }
+
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationServiceException(errorCode, "Interrupted waiting for the writes in the background!", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof ConfigurationServiceException) {
+                throw (ConfigurationServiceException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw new ConfigurationServiceException(errorCode, "Error calling the primary store!", e.getCause());
+        }
+    }
+
+
+    /**
+     * Gets the version from the primary store after the writes in the background.
+     */
+    @Override
+    public long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+        return inOrder(ErrorCode.ERROR_GET, () -> primary.getConfigurationVersion(id, variation));
+    }
+
+
+    @Override
+    public boolean isReady() {
+        return primary.isReady();
+    }
+
+
+    /**
+     * @return the write mode
+     */
+    public WriteMode getWriteMode() {
+        return writeMode;
+    }
+
+
+    /**
+     * @param tier the index of the tier
+     * @return the number of reads served by the tier
+     */
+    public long getHits(final int tier) {
+        return hits[tier].sum();
+    }
+
+
+    /**
+     * @return the number of tiers which could not be populated or invalidated
+     */
+    public long getPopulateFailures() {
+        return populateFailures.sum();
+    }
+
+
+    /**
+     * @return the number of reads which did not populate the tiers because the configuration was
+     *         written meanwhile
+     */
+    public long getPopulateSkipped() {
+        return populateSkipped.sum();
+    }
+
+
+    /**
+     * @return the number of failed writes in the background
+     */
+    public long getWriteBehindFailures() {
+        return writeBehindFailures.sum();
+    }
+
+
+    /**
+     * @return the number of writes which waited for room because too many writes were waiting in
+     *         the background
+     */
+    public long getWriteBehindBlocked() {
+        return writeBehindBlocked.sum();
+    }
+
+
+    /**
+     * Waits for the writes in the background to finish.
+     */
+    @Override
+    public void close() {
+        if (writeBehindExecutor != null) {
+            writeBehindExecutor.shutdown();
+
+            try {
+                writeBehindExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,730 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.airepublic.configuration.api.ConfigurationJournal;
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.airepublic.configuration.api.IConfiguration;
+import com.airepublic.configuration.api.IConfigurationService;
+import com.airepublic.configuration.api.RequestCoalescer;
+import com.airepublic.configuration.api.metrics.ConfigurationMetrics;
+import com.airepublic.configuration.api.metrics.IConfigurationMetrics;
+import com.airepublic.configuration.api.metrics.Operation;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An {@link IConfigurationService} which queues saves and writes them to the delegate in batches,
+ * so frequent saves do not each pay a round trip to the backend (and in solr a commit).
+ * <p>
+ * Saves of the same configuration are coalesced in the queue, the last write wins. The queue is
+ * flushed with {@link IConfigurationService#saveConfigurationsAsJson(java.util.Collection)} when it
+ * holds a batch or after the flush interval. Queued configurations are removed only after the
+ * delegate has saved them, so a failed flush is retried with the next one and reads always see the
+ * last save. If the queue is full, saves block until a flush made room or fail after the offer
+ * timeout.
+ * <p>
+ * A failing batch is split to find the configurations the delegate rejects, so they do not block
+ * the others. A configuration which failed in the maximum number of flushes in which other
+ * configurations were saved is dropped from the queue and logged as dead letter. If nothing could
+ * be saved the delegate is considered unavailable and the flush is retried without counting.
+ * <p>
+ * Versioned saves, patches and removes flush the queue and go to the delegate directly.
+ * <p>
+ * Without a {@link ConfigurationJournal} the queue is only held in memory, so saves which have
+ * been acknowledged but not yet flushed are lost if the process crashes. With a journal every
+ * queued save is forced to disk before it is acknowledged and the journal is replayed when the
+ * service is created, so the handoff survives a crash.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class WriteBehindConfigurationService implements IConfigurationService, AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(WriteBehindConfigurationService.class.getName());
+    private final static String BACKEND = "writeBehind";
+    private final static String ID = "id";
+    private final static String VARIATION = "variation";
+    /** The default maximum number of queued configurations. */
+    public static final int DEFAULT_CAPACITY = 10000;
+    /** The default number of queued configurations which triggers a flush. */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    /** The default interval in milliseconds between flushes. */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+    /** The default time in milliseconds a save waits for room in a full queue. */
+    public static final long DEFAULT_OFFER_TIMEOUT = 5000L;
+    /** The default number of flushes a configuration may fail before it is dropped. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private final IConfigurationService delegate;
+    private final int capacity;
+    private final int batchSize;
+    private final long offerTimeout;
+    private final int maxAttempts;
+    private final ConfigurationJournal journal;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Pending> queue = new LinkedHashMap<>();
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService executor;
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private IConfigurationMetrics metrics = ConfigurationMetrics.get();
+    // guarded by the queue
+    private boolean closed = false;
+
+    /**
+     * A queued save.
+     */
+    private static class Pending {
+        private final String json;
+        // guarded by the flush lock
+        private int attempts = 0;
+
+        private Pending(final String json) {
+            this.json = json;
+        }
+    }
+
+    /**
+     * Constructor with the default capacity, batch size, flush interval and offer timeout.
+     *
+     * @param delegate the service the configurations are written to
+     */
+    public WriteBehindConfigurationService(final IConfigurationService delegate) {
+        this(delegate, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL, DEFAULT_OFFER_TIMEOUT);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param delegate the service the configurations are written to
+     * @param capacity the maximum number of queued configurations
+     * @param batchSize the number of queued configurations which triggers a flush
+     * @param flushInterval the interval in milliseconds between flushes
+     * @param offerTimeout the time in milliseconds a save waits for room in a full queue
+     */
+    public WriteBehindConfigurationService(final IConfigurationService delegate, final int capacity, final int batchSize, final long flushInterval, final long offerTimeout) {
+        this(delegate, capacity, batchSize, flushInterval, offerTimeout, DEFAULT_MAX_ATTEMPTS);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param delegate the service the configurations are written to
+     * @param capacity the maximum number of queued configurations
+     * @param batchSize the number of queued configurations which triggers a flush
+     * @param flushInterval the interval in milliseconds between flushes
+     * @param offerTimeout the time in milliseconds a save waits for room in a full queue
+     * @param maxAttempts the number of flushes a configuration may fail before it is dropped
+     */
+    public WriteBehindConfigurationService(final IConfigurationService delegate, final int capacity, final int batchSize, final long flushInterval, final long offerTimeout, final int maxAttempts) {
+        this(delegate, capacity, batchSize, flushInterval, offerTimeout, maxAttempts, null);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param delegate the service the configurations are written to
+     * @param capacity the maximum number of queued configurations
+     * @param batchSize the number of queued configurations which triggers a flush
+     * @param flushInterval the interval in milliseconds between flushes
+     * @param offerTimeout the time in milliseconds a save waits for room in a full queue
+     * @param maxAttempts the number of flushes a configuration may fail before it is dropped
+     * @param journal the journal the queue is persisted to or null to hold it only in memory
+     * @throws IllegalStateException if the journal could not be replayed
+     */
+    public WriteBehindConfigurationService(final IConfigurationService delegate, final int capacity, final int batchSize, final long flushInterval, final long offerTimeout, final int maxAttempts, final ConfigurationJournal journal) {
+        this.delegate = delegate;
+        this.capacity = Math.max(capacity, 1);
+        this.batchSize = Math.max(Math.min(batchSize, this.capacity), 1);
+        this.offerTimeout = offerTimeout;
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.journal = journal;
+
+        if (journal != null) {
+            try {
+                // the saves which were acknowledged but not flushed before the last shutdown
+                journal.load().forEach((key, json) -> queue.put(key, new Pending(json)));
+            } catch (final IOException e) {
+                throw new IllegalStateException("Error loading the write-behind journal " + journal.getFile() + "!", e);
+            }
+        }
+
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "configuration-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        this.executor = executor;
+
+        registerMetrics();
+    }
+
+
+    /**
+     * Registers the queue statistics as gauges.
+     */
+    protected void registerMetrics() {
+        metrics.gauge(BACKEND, "queue.depth", () -> getDepth());
+        metrics.gauge(BACKEND, "coalesced", () -> getCoalesced());
+        metrics.gauge(BACKEND, "flushed", () -> getFlushed());
+        metrics.gauge(BACKEND, "failures", () -> getFailures());
+        metrics.gauge(BACKEND, "rejected", () -> getRejected());
+        metrics.gauge(BACKEND, "deadLettered", () -> getDeadLettered());
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        final String json = getPending(id, variation);
+
+        if (json == null) {
+            return delegate.getConfiguration(id, variation, clazz);
+        }
+
+        try {
+            return (T) mapper.readValue(json, clazz);
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+        }
+    }
+
+
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation) throws ConfigurationServiceException {
+        final String json = getPending(id, variation);
+
+        return json != null ? json : delegate.getConfigurationAsJson(id, variation);
+    }
+
+
+    private String getPending(final String id, final String variation) {
+        synchronized (queue) {
+            final Pending pending = queue.get(RequestCoalescer.key(id, variation));
+
+            return pending != null ? pending.json : null;
+        }
+    }
+
+
+    @Override
+    public void saveConfiguration(final IConfiguration configuration) throws ConfigurationServiceException {
+        if (configuration.getVariation() == null) {
+            configuration.setVariation("");
+        }
+
+        final String json;
+
+        try {
+            json = mapper.writeValueAsString(configuration);
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + configuration.getId() + "'!", e);
+        }
+
+        enqueue(configuration.getId(), configuration.getVariation(), json);
+    }
+
+
+    @Override
+    public void saveConfigurationAsJson(final String configuration) throws ConfigurationServiceException {
+        final String id;
+        final String variation;
+
+        try {
+            final JsonNode node = mapper.readTree(configuration);
+            id = node.get(ID).textValue();
+            variation = node.get(VARIATION) != null ? node.get(VARIATION).textValue() : null;
+        } catch (final Exception e) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + configuration + "'!", e);
+        }
+
+        enqueue(id, variation, configuration);
+    }
+
+
+    /**
+     * Queues the configuration, replacing a queued save of the same configuration. Waits for room
+     * if the queue is full. After closing the configuration is saved directly.
+     *
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param json the configuration as JSON
+     * @throws ConfigurationServiceException if the queue is still full after the offer timeout or
+     *         the configuration could not be saved directly
+     */
+    private void enqueue(final String id, final String variation, final String json) throws ConfigurationServiceException {
+        final String key = RequestCoalescer.key(id, variation);
+        final int depth;
+
+        synchronized (queue) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeout);
+
+            while (!closed && queue.size() >= capacity && !queue.containsKey(key)) {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+                if (remaining <= 0L) {
+                    rejected.increment();
+                    throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + id + "', the write-behind queue is full!");
+                }
+
+                triggerFlush();
+
+                try {
+                    queue.wait(remaining);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + id + "'!", e);
+                }
+            }
+
+            if (!closed) {
+                if (journal != null) {
+                    try {
+                        journal.append(key, json);
+                    } catch (final IOException e) {
+                        throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + id + "' to the write-behind journal!", e);
+                    }
+                }
+
+                // re-insert so the configuration is flushed in the order of its last save
+                if (queue.remove(key) != null) {
+                    coalesced.increment();
+                }
+
+                queue.put(key, new Pending(json));
+                depth = queue.size();
+            } else {
+                depth = -1;
+            }
+        }
+
+        if (depth < 0) {
+            saveDirectly(key, json);
+        } else if (depth >= batchSize) {
+            triggerFlush();
+        }
+    }
+
+
+    /**
+     * Saves the configuration to the delegate after the service was closed. A queued save of the
+     * configuration which the last flush could not write is dropped, so it cannot overwrite this
+     * one later.
+     *
+     * @param key the queue key
+     * @param json the configuration as JSON
+     * @throws ConfigurationServiceException if the configuration could not be saved
+     */
+    private void saveDirectly(final String key, final String json) throws ConfigurationServiceException {
+        synchronized (flushLock) {
+            synchronized (queue) {
+                if (queue.remove(key) != null) {
+                    unjournal(Collections.singleton(key));
+                }
+            }
+
+            delegate.saveConfigurationAsJson(json);
+        }
+    }
+
+
+    private void triggerFlush() {
+        try {
+            executor.execute(this::flushQuietly);
+        } catch (final RejectedExecutionException e) {
+            // closed, the last flush happens on close
+        }
+    }
+
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (final ConfigurationServiceException e) {
+            LOG.log(Level.WARNING, "Error flushing the write-behind queue, retrying with the next flush!", e);
+        }
+    }
+
+
+    /**
+     * Writes the configurations queued when the flush started to the delegate in batches, saves
+     * queued in the meantime are written by the next flush. A configuration is removed from the
+     * queue once it has been saved, unless it was saved again in the meantime. A failing batch is
+     * split until the failing configurations are found, the others are saved.
+     *
+     * @throws ConfigurationServiceException if a configuration could not be saved, it remains in
+     *         the queue until it failed in the maximum number of flushes
+     */
+    public void flush() throws ConfigurationServiceException {
+        synchronized (flushLock) {
+            final List<Map.Entry<String, Pending>> pending = new ArrayList<>();
+            final Set<Map.Entry<String, Pending>> failed = new HashSet<>();
+            Exception error = null;
+            boolean saved = false;
+
+            // a steady stream of saves must not keep the flush and the callers waiting for it busy
+            synchronized (queue) {
+                for (final Map.Entry<String, Pending> entry : queue.entrySet()) {
+                    pending.add(Map.entry(entry.getKey(), entry.getValue()));
+                }
+            }
+
+            for (int from = 0; from < pending.size(); from += batchSize) {
+                final List<Map.Entry<String, Pending>> batch = pending.subList(from, Math.min(from + batchSize, pending.size()));
+                final int failedBefore = failed.size();
+                final Exception e = write(batch, failed);
+
+                if (e != null) {
+                    error = e;
+                }
+
+                if (failed.size() - failedBefore < batch.size()) {
+                    saved = true;
+                } else if (!saved) {
+                    // nothing could be saved, the delegate is unavailable
+                    break;
+                }
+            }
+
+            if (error == null) {
+                return;
+            }
+
+            if (saved) {
+                deadLetter(failed);
+            }
+
+            if (error instanceof ConfigurationServiceException) {
+                throw (ConfigurationServiceException) error;
+            }
+
+            throw (RuntimeException) error;
+        }
+    }
+
+
+    /**
+     * Writes the batch to the delegate. If it fails the batch is split and the halves are written
+     * separately.
+     *
+     * @param batch the queued configurations
+     * @param failed the configurations which could not be saved
+     * @return the last error or null if the batch was saved
+     */
+    private Exception write(final List<Map.Entry<String, Pending>> batch, final Set<Map.Entry<String, Pending>> failed) {
+        final List<String> configurations = new ArrayList<>(batch.size());
+
+        for (final Map.Entry<String, Pending> entry : batch) {
+            configurations.add(entry.getValue().json);
+        }
+
+        final Operation op = metrics.start(BACKEND, "flush");
+
+        try {
+            delegate.saveConfigurationsAsJson(configurations);
+        } catch (final ConfigurationServiceException | RuntimeException e) {
+            op.failed(e);
+            failures.increment();
+
+            if (batch.size() == 1) {
+                failed.add(batch.get(0));
+                return e;
+            }
+
+            final int half = batch.size() / 2;
+            final Exception first = write(batch.subList(0, half), failed);
+            final Exception second = write(batch.subList(half, batch.size()), failed);
+
+            return second != null ? second : first;
+        } finally {
+            op.close();
+        }
+
+        flushes.increment();
+        flushed.add(batch.size());
+
+        synchronized (queue) {
+            final List<String> removed = new ArrayList<>(batch.size());
+
+            for (final Map.Entry<String, Pending> entry : batch) {
+                // keep saves which replaced the flushed one
+                if (queue.remove(entry.getKey(), entry.getValue())) {
+                    removed.add(entry.getKey());
+                }
+            }
+
+            unjournal(removed);
+            queue.notifyAll();
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Counts the failed attempt of the configurations and drops those which failed in the maximum
+     * number of flushes from the queue.
+     *
+     * @param failed the configurations which could not be saved while others were
+     */
+    private void deadLetter(final Set<Map.Entry<String, Pending>> failed) {
+        for (final Map.Entry<String, Pending> entry : failed) {
+            final Pending pending = entry.getValue();
+
+            if (++pending.attempts < maxAttempts) {
+                continue;
+            }
+
+            final boolean removed;
+
+            synchronized (queue) {
+                removed = queue.remove(entry.getKey(), pending);
+
+                if (removed) {
+                    unjournal(Collections.singleton(entry.getKey()));
+                }
+
+                queue.notifyAll();
+            }
+
+            if (removed) {
+                deadLettered.increment();
+                LOG.severe("Dropping configuration from the write-behind queue after " + pending.attempts + " failed flushes: " + pending.json);
+            }
+        }
+    }
+
+
+    /**
+     * Records in the journal that the configurations have left the queue and compacts it if it
+     * holds considerably more records than queued configurations. Must be called while holding the
+     * queue, so the journal has the order of the queue.
+     *
+     * @param keys the keys of the configurations removed from the queue
+     */
+    private void unjournal(final Collection<String> keys) {
+        if (journal == null || keys.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (journal.needsCompaction(queue.size())) {
+                final Map<String, String> pending = new LinkedHashMap<>();
+                queue.forEach((key, value) -> pending.put(key, value.json));
+                journal.compact(pending);
+            } else {
+                journal.remove(keys);
+            }
+        } catch (final IOException e) {
+            // the configurations are saved again if the journal is replayed
+            LOG.log(Level.WARNING, "Error removing configurations from the write-behind journal " + journal.getFile() + "!", e);
+        }
+    }
+
+
+    @Override
+    public long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+        synchronized (flushLock) {
+            flush();
+            return delegate.saveConfiguration(configuration, expectedVersion);
+        }
+    }
+
+
+    @Override
+    public long saveConfigurationAsJson(final String configuration, final long expectedVersion) throws ConfigurationServiceException {
+        synchronized (flushLock) {
+            flush();
+            return delegate.saveConfigurationAsJson(configuration, expectedVersion);
+        }
+    }
+
+
+    @Override
+    public long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+        synchronized (flushLock) {
+            flush();
+            return delegate.getConfigurationVersion(id, variation);
+        }
+    }
+
+
+    @Override
+    public void patchConfigurationAsJson(final String id, final String variation, final String patch) throws ConfigurationServiceException {
+        synchronized (flushLock) {
+            flush();
+            delegate.patchConfigurationAsJson(id, variation, patch);
+        }
+    }
+
+
+    @Override
+    public void removeConfiguration(final String id, final String variation) throws ConfigurationServiceException {
+        synchronized (flushLock) {
+            synchronized (queue) {
+                final String key = RequestCoalescer.key(id, variation);
+
+                if (queue.remove(key) != null) {
+                    unjournal(Collections.singleton(key));
+                }
+
+                queue.notifyAll();
+            }
+
+            delegate.removeConfiguration(id, variation);
+        }
+    }
+
+
+    @Override
+    public boolean isReady() {
+        return delegate.isReady();
+    }
+
+
+    /**
+     * @return the number of queued configurations
+     */
+    public int getDepth() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+
+    /**
+     * @return the number of saves which replaced a queued save
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+
+    /**
+     * @return the number of configurations written to the delegate
+     */
+    public long getFlushed() {
+        return flushed.sum();
+    }
+
+
+    /**
+     * @return the number of batches written to the delegate
+     */
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+
+    /**
+     * @return the number of failed batch writes
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+
+    /**
+     * @return the number of saves rejected because the queue was full
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+
+    /**
+     * @return the number of configurations dropped from the queue after failing the maximum
+     *         number of flushes
+     */
+    public long getDeadLettered() {
+        return deadLettered.sum();
+    }
+
+
+    /**
+     * @return the metrics the flushes are recorded to
+     */
+    public IConfigurationMetrics getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Sets the metrics the flushes are recorded to and registers the gauges.
+     *
+     * @param metrics the {@link IConfigurationMetrics}
+     */
+    public void setMetrics(final IConfigurationMetrics metrics) {
+        this.metrics = metrics;
+        registerMetrics();
+    }
+
+
+    /**
+     * Stops the background flushes and writes the queued configurations. Saves after closing go
+     * to the delegate directly.
+     */
+    @Override
+    public void close() {
+        synchronized (queue) {
+            closed = true;
+            queue.notifyAll();
+        }
+
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            // saves after closing drop their queued save first, so this flush cannot overwrite them
+            flush();
+        } catch (final ConfigurationServiceException e) {
+            LOG.log(Level.SEVERE, "Error flushing the write-behind queue on close, " + getDepth() + " configurations were not saved!", e);
+        }
+
+        if (journal != null) {
+            // the configurations which were not saved are replayed on the next start
+            journal.close();
+        }
+    }
+}
@@ -8,11 +8,21 @@
 module configuration.api {
     exports com.airepublic.configuration.service;
     exports com.airepublic.configuration.api;
+    exports com.airepublic.configuration.api.metrics;
+    exports com.airepublic.configuration.api.tracing;
 
     requires com.airepublic.logging.java;
+    requires com.fasterxml.jackson.databind;
     requires exception;
     requires jakarta.enterprise.cdi.api;
     requires jakarta.inject;
     requires transitive jakarta.interceptor.api;
     requires transitive java.ws.rs;
+    requires jdk.jfr;
+    requires static micrometer.core;
+    requires static io.opentelemetry.api;
+    requires static io.opentelemetry.context;
+
+    uses com.airepublic.configuration.api.metrics.IConfigurationMetrics;
+    uses com.airepublic.configuration.api.tracing.IConfigurationTracer;
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unittest for {@link AdaptiveLimiter}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class AdaptiveLimiterTest {
+	private AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 8, 100L, 0.5);
+	
+	@Test
+	public void rejectTest() throws Exception {
+		for (int i = 0; i < 4; i++) {
+			Assert.assertTrue(limiter.tryAcquire());
+		}
+		
+		Assert.assertFalse(limiter.tryAcquire());
+		Assert.assertEquals(1, limiter.getRejected());
+		Assert.assertEquals(4, limiter.getInflight());
+	}
+	
+	
+	@Test
+	public void decreaseTest() throws Exception {
+		limiter.tryAcquire();
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(10L), true);
+		Assert.assertEquals(2, limiter.getLimit());
+		
+		limiter.tryAcquire();
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(200L), false);
+		Assert.assertEquals(1, limiter.getLimit());
+		
+		// not below the minimum
+		limiter.tryAcquire();
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(200L), false);
+		Assert.assertEquals(1, limiter.getLimit());
+		Assert.assertEquals(0, limiter.getInflight());
+	}
+	
+	
+	@Test
+	public void increaseTest() throws Exception {
+		// the limit is not increased if it was not needed
+		limiter.tryAcquire();
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(10L), false);
+		Assert.assertEquals(4, limiter.getLimit());
+		
+		limiter.tryAcquire();
+		limiter.tryAcquire();
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(10L), false);
+		Assert.assertEquals(5, limiter.getLimit());
+	}
+	
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidTest() throws Exception {
+		new AdaptiveLimiter(4, 0, 8, 100L, 0.5);
+	}
+}
@@ -0,0 +1,99 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.airepublic.configuration.api.CircuitBreaker.State;
+
+/**
+ * Unittest for {@link CircuitBreaker}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class CircuitBreakerTest {
+	
+	@Test
+	public void openTest() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(2, 60000L, 1);
+		
+		breaker.onFailure(breaker.acquire());
+		Assert.assertEquals(State.CLOSED, breaker.getState());
+		breaker.onFailure(breaker.acquire());
+		
+		Assert.assertEquals(State.OPEN, breaker.getState());
+		Assert.assertEquals(CircuitBreaker.REJECTED, breaker.acquire());
+		Assert.assertEquals(1, breaker.getOpened());
+		Assert.assertEquals(1, breaker.getRejected());
+	}
+	
+	
+	@Test
+	public void halfOpenTest() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(1, 0L, 1);
+		
+		breaker.onFailure(breaker.acquire());
+		Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+		
+		// only one probe is let through
+		long probe = breaker.acquire();
+		Assert.assertNotEquals(CircuitBreaker.REJECTED, probe);
+		Assert.assertEquals(CircuitBreaker.REJECTED, breaker.acquire());
+		
+		breaker.onSuccess(probe);
+		Assert.assertEquals(State.CLOSED, breaker.getState());
+	}
+	
+	
+	@Test
+	public void failedProbeTest() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(1, 0L, 1);
+		
+		breaker.onFailure(breaker.acquire());
+		breaker.onFailure(breaker.acquire());
+		
+		// the failed probe opened the circuit again
+		Assert.assertEquals(2, breaker.getOpened());
+	}
+	
+	
+	@Test
+	public void staleSuccessTest() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(1, 60000L, 1);
+		long slow = breaker.acquire();
+		
+		breaker.onFailure(breaker.acquire());
+		// a call permitted before the circuit opened does not close it
+		breaker.onSuccess(slow);
+		
+		Assert.assertEquals(State.OPEN, breaker.getState());
+	}
+	
+	
+	@Test
+	public void staleSuccessWhileHalfOpenTest() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(1, 0L, 1);
+		long slow = breaker.acquire();
+		
+		breaker.onFailure(breaker.acquire());
+		long probe = breaker.acquire();
+		breaker.onSuccess(slow);
+		
+		Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+		
+		breaker.onFailure(probe);
+		Assert.assertEquals(2, breaker.getOpened());
+	}
+}
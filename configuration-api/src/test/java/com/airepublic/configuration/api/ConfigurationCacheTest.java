@@ -0,0 +1,118 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unittest for {@link ConfigurationCache}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class ConfigurationCacheTest {
+	
+	@Test
+	public void getTest() throws Exception {
+		ConfigurationCache<String> cache = new ConfigurationCache<>(60000, 0, false);
+		
+		Assert.assertEquals("loaded", cache.get("key", () -> "loaded"));
+		Assert.assertEquals("loaded", cache.get("key", () -> "reloaded"));
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+		cache.close();
+	}
+	
+	@Test
+	public void putWhileLoadingTest() throws Exception {
+		ConfigurationCache<String> cache = new ConfigurationCache<>(60000, 0, false);
+		
+		// the configuration is saved while the outdated value is loading
+		String loaded = cache.get("key", () -> {
+			cache.put("key", "saved");
+			return "outdated";
+		});
+		
+		Assert.assertEquals("outdated", loaded);
+		Assert.assertEquals("saved", cache.getFresh("key"));
+		Assert.assertEquals(1, cache.getDiscarded());
+		cache.close();
+	}
+	
+	@Test
+	public void removeWhileLoadingTest() throws Exception {
+		ConfigurationCache<String> cache = new ConfigurationCache<>(60000, 0, false);
+		
+		cache.get("key", () -> {
+			cache.remove("key");
+			return "outdated";
+		});
+		
+		Assert.assertNull(cache.getFresh("key"));
+		Assert.assertEquals("loaded", cache.get("key", () -> "loaded"));
+		Assert.assertEquals("loaded", cache.getFresh("key"));
+		cache.close();
+	}
+	
+	@Test
+	public void removeWhileRefreshingTest() throws Exception {
+		ConfigurationCache<String> cache = new ConfigurationCache<>(1, 60000, true);
+		cache.put("key", "stale");
+		Thread.sleep(10);
+		
+		Assert.assertEquals("stale", cache.get("key", () -> {
+			cache.remove("key");
+			return "outdated";
+		}));
+		
+		for (int i = 0; i < 100 && cache.getDiscarded() == 0; i++) {
+			Thread.sleep(10);
+		}
+		
+		Assert.assertEquals(1, cache.getDiscarded());
+		Assert.assertNull(cache.getUsable("key"));
+		cache.close();
+	}
+	
+	@Test
+	public void maxSizeTest() throws Exception {
+		ConfigurationCache<String> cache = new ConfigurationCache<>(60000, 0, false, 2);
+		
+		cache.put("a", "1");
+		cache.put("b", "2");
+		cache.put("b", "3");
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(0, cache.getEvictions());
+		
+		cache.put("c", "4");
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(1, cache.getEvictions());
+		Assert.assertEquals("4", cache.getFresh("c"));
+		cache.close();
+	}
+	
+	@Test
+	public void expiredEntriesAreEvictedFirstTest() throws Exception {
+		ConfigurationCache<String> cache = new ConfigurationCache<>(1, 0, false, 2);
+		
+		cache.put("a", "1");
+		Thread.sleep(10);
+		cache.put("b", "2");
+		cache.put("c", "3");
+		
+		Assert.assertNull(cache.getUsable("a"));
+		Assert.assertEquals(2, cache.size());
+		cache.close();
+	}
+}
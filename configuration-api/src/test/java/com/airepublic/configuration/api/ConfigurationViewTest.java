@@ -0,0 +1,45 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.airepublic.configuration.service.InMemoryConfigurationService;
+
+/**
+ * Unittest for {@link ConfigurationView}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class ConfigurationViewTest {
+	
+	@Test
+	public void viewTest() throws Exception {
+		InMemoryConfigurationService service = new InMemoryConfigurationService();
+		service.saveConfigurationAsJson("{\"id\":\"testConfiguration\", \"variation\":\"\", \"limits\":{\"max\":12, \"ratio\":0.5, \"enabled\":true}, \"hosts\":[\"a\", \"b\"]}");
+		
+		ConfigurationView view = service.getConfigurationView("testConfiguration", "");
+		
+		Assert.assertEquals(12, view.getInt("limits.max"));
+		Assert.assertEquals(0.5, view.getDouble("limits.ratio"), 0.0);
+		Assert.assertTrue(view.getBoolean("limits.enabled"));
+		Assert.assertEquals("b", view.getString("hosts.1"));
+		Assert.assertEquals(5, view.getInt("limits.min", 5));
+		Assert.assertFalse(view.has("limits"));
+		Assert.assertEquals(Arrays.asList("hosts.0", "hosts.1", "id", "limits.enabled", "limits.max", "limits.ratio", "variation"), view.getPaths());
+	}
+}
@@ -0,0 +1,68 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.airepublic.configuration.service.InMemoryConfigurationService;
+import com.airepublic.configuration.service.TestConfiguration;
+
+/**
+ * Unittest for {@link DefaultConfigurationProvider}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class DefaultConfigurationProviderTest {
+	private InMemoryConfigurationService store = new InMemoryConfigurationService();
+	
+	@Test
+	public void loadTest() throws Exception {
+		DefaultConfigurationProvider defaults = new DefaultConfigurationProvider(store, false);
+		
+		TestConfiguration config = defaults.load("testConfiguration", null, TestConfiguration.class);
+		
+		Assert.assertEquals("Hello world", config.getTest());
+		Assert.assertEquals("Hello world", store.<TestConfiguration> getConfiguration("testConfiguration", null, TestConfiguration.class).getTest());
+		Assert.assertEquals(1, defaults.getCreated());
+		Assert.assertEquals(1, defaults.getPersisted());
+	}
+	
+	@Test
+	public void concurrentlyStoredConfigurationIsKeptTest() throws Exception {
+		DefaultConfigurationProvider defaults = new DefaultConfigurationProvider(store, false);
+		
+		// another node stored the configuration after it has not been found
+		store.saveConfiguration(new TestConfiguration("testConfiguration", null, "stored"));
+		TestConfiguration config = defaults.load("testConfiguration", null, TestConfiguration.class);
+		
+		// the stored configuration is returned instead of the defaults
+		Assert.assertEquals("stored", config.getTest());
+		Assert.assertEquals("stored", store.<TestConfiguration> getConfiguration("testConfiguration", null, TestConfiguration.class).getTest());
+		Assert.assertEquals(0, defaults.getPersisted());
+		Assert.assertEquals(1, defaults.getConflicts());
+		Assert.assertEquals(0, defaults.getFailures());
+	}
+	
+	@Test
+	public void unversionedTest() throws Exception {
+		DefaultConfigurationProvider defaults = new DefaultConfigurationProvider(store, false, false);
+		
+		store.saveConfiguration(new TestConfiguration("testConfiguration", null, "stored"));
+		defaults.load("testConfiguration", null, TestConfiguration.class);
+		
+		Assert.assertEquals("Hello world", store.<TestConfiguration> getConfiguration("testConfiguration", null, TestConfiguration.class).getTest());
+		Assert.assertEquals(1, defaults.getPersisted());
+	}
+}
@@ -0,0 +1,102 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unittest for {@link HedgedRequests}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class HedgedRequestsTest {
+	private HedgedRequests hedging;
+	
+	private static Callable<String> slow(final String result) {
+		return () -> {
+			Thread.sleep(2000L);
+			return result;
+		};
+	}
+	
+	
+	@After
+	public void tearDown() {
+		hedging.close();
+	}
+	
+	
+	@Test
+	public void fastReadTest() throws Exception {
+		hedging = new HedgedRequests(95.0, 1000L, 1.0);
+		
+		Assert.assertEquals("read", hedging.execute(() -> "read", () -> "hedge"));
+		Assert.assertEquals(1, hedging.getRequests());
+		Assert.assertEquals(0, hedging.getHedged());
+	}
+	
+	
+	@Test
+	public void hedgeTest() throws Exception {
+		hedging = new HedgedRequests(95.0, 10L, 1.0);
+		long start = System.currentTimeMillis();
+		
+		Assert.assertEquals("hedge", hedging.execute(slow("read"), () -> "hedge"));
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000L);
+		Assert.assertEquals(1, hedging.getHedged());
+		Assert.assertEquals(1, hedging.getHedgeWins());
+	}
+	
+	
+	@Test
+	public void failedHedgeTest() throws Exception {
+		hedging = new HedgedRequests(95.0, 10L, 1.0);
+		
+		Assert.assertEquals("read", hedging.execute(() -> {
+			Thread.sleep(200L);
+			return "read";
+		}, () -> {
+			throw new IllegalStateException("replica down");
+		}));
+		Assert.assertEquals(1, hedging.getHedged());
+		Assert.assertEquals(0, hedging.getHedgeWins());
+	}
+	
+	
+	@Test
+	public void budgetTest() throws Exception {
+		// every read earns half a hedge
+		hedging = new HedgedRequests(95.0, 10L, 0.5);
+		
+		Assert.assertEquals("read", hedging.execute(() -> {
+			Thread.sleep(100L);
+			return "read";
+		}, () -> "hedge"));
+		Assert.assertEquals(0, hedging.getHedged());
+		
+		Assert.assertEquals("hedge", hedging.execute(slow("read"), () -> "hedge"));
+		Assert.assertEquals(1, hedging.getHedged());
+		
+		Assert.assertEquals("read", hedging.execute(() -> {
+			Thread.sleep(100L);
+			return "read";
+		}, () -> "hedge"));
+		Assert.assertEquals(3, hedging.getRequests());
+		Assert.assertEquals(1, hedging.getHedged());
+	}
+}
@@ -0,0 +1,41 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Unittest for {@link IntTable} and {@link DoubleTable}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class IntTableTest {
+	
+	@Test
+	public void tableTest() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		IntTable table = IntTable.of(1, -2, 300000);
+		
+		String json = mapper.writeValueAsString(table);
+		IntTable decoded = mapper.readValue(json, IntTable.class);
+		
+		Assert.assertEquals(table, decoded);
+		Assert.assertTrue(decoded.asByteBuffer().isDirect());
+		Assert.assertEquals(300000, decoded.get(2));
+		Assert.assertArrayEquals(new double[] { 0.5, 2.0 }, mapper.readValue("[0.5, 2]", DoubleTable.class).toArray(), 0.0);
+	}
+}
@@ -0,0 +1,55 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Unittest for {@link JsonPatches}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class JsonPatchesTest {
+	private ObjectMapper mapper = new ObjectMapper();
+	
+	private void assertDiff(String source, String target) throws Exception {
+		JsonNode from = mapper.readTree(source);
+		JsonNode to = mapper.readTree(target);
+		
+		Assert.assertEquals(to, JsonPatches.applyJsonPatch(from, JsonPatches.diff(from, to)));
+	}
+	
+	
+	@Test
+	public void diffTest() throws Exception {
+		assertDiff("{\"a\":1,\"b\":{\"c\":\"x\",\"d\":[1,2]}}", "{\"a\":2,\"b\":{\"c\":\"x\",\"d\":[1,3]},\"e\":null}");
+		assertDiff("{\"a\":1,\"b\":{\"c\":\"x\"}}", "{\"b\":{}}");
+		assertDiff("{\"a\":[1,2,3]}", "{\"a\":[3]}");
+		assertDiff("{\"a/b\":1,\"c~d\":2}", "{\"a/b\":2,\"c~d\":3}");
+		assertDiff("{\"a\":{\"b\":1}}", "{\"a\":\"b\"}");
+		assertDiff("[1,2]", "{\"a\":1}");
+	}
+	
+	
+	@Test
+	public void diffOfEqualTest() throws Exception {
+		JsonNode node = mapper.readTree("{\"a\":1,\"b\":[{\"c\":true}]}");
+		
+		Assert.assertEquals(0, JsonPatches.diff(node, node.deepCopy()).size());
+	}
+}
@@ -0,0 +1,52 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.airepublic.configuration.service.InMemoryConfigurationService;
+import com.airepublic.configuration.service.TestConfiguration;
+
+/**
+ * Unittest for {@link NamespacedConfigurationService}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class NamespacedConfigurationServiceTest {
+	private InMemoryConfigurationService store = new InMemoryConfigurationService();
+	
+	@Test
+	public void namespaceTest() throws Exception {
+		store.saveConfigurationAsJson("{\"id\":\"testConfiguration\",\"variation\":\"\",\"test\":\"global\"}");
+		
+		IConfigurationService tenant = store.forNamespace("acme/eu");
+		TestConfiguration chk = tenant.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		
+		// the configuration is inherited from the root namespace
+		Assert.assertEquals("global", chk.getTest());
+		Assert.assertEquals("", chk.getNamespace());
+		
+		chk.setTest("tenant");
+		tenant.saveConfiguration(chk);
+		Assert.assertEquals("", chk.getNamespace());
+		
+		// the save creates an override in the namespace
+		Assert.assertTrue(store.getConfigurationAsJson("acme/eu!testConfiguration", "").contains("\"test\":\"tenant\""));
+		Assert.assertTrue(store.getConfigurationAsJson("testConfiguration", "").contains("\"test\":\"global\""));
+		chk = tenant.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		Assert.assertEquals("tenant", chk.getTest());
+		Assert.assertEquals("acme/eu", chk.getNamespace());
+	}
+}
@@ -0,0 +1,63 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unittest for {@link NegativeCache}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class NegativeCacheTest {
+	private NegativeCache cache = new NegativeCache(60000, 10);
+	
+	@Test
+	public void putTest() {
+		cache.put("a_", cache.getGeneration("a_"));
+		
+		Assert.assertTrue(cache.contains("a_"));
+		Assert.assertFalse(cache.contains("b_"));
+		
+		cache.invalidate("a_");
+		Assert.assertFalse(cache.contains("a_"));
+		Assert.assertEquals(1, cache.getInvalidations());
+	}
+	
+	
+	@Test
+	public void staleMissTest() {
+		// the read missed, but the configuration was saved before the miss is remembered
+		long generation = cache.getGeneration("a_");
+		cache.invalidate("a_");
+		cache.put("a_", generation);
+		
+		Assert.assertFalse(cache.contains("a_"));
+		Assert.assertEquals(1, cache.getDiscarded());
+		
+		cache.put("a_", cache.getGeneration("a_"));
+		Assert.assertTrue(cache.contains("a_"));
+	}
+	
+	
+	@Test
+	public void clearTest() {
+		long generation = cache.getGeneration("a_");
+		cache.clear();
+		cache.put("a_", generation);
+		
+		Assert.assertFalse(cache.contains("a_"));
+	}
+}
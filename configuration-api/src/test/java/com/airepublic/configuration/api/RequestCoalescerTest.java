@@ -0,0 +1,34 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unittest for {@link RequestCoalescer}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class RequestCoalescerTest {
+
+	@Test
+	public void keyTest() {
+		Assert.assertEquals("test_var", RequestCoalescer.key("test", "var"));
+		Assert.assertEquals("test_", RequestCoalescer.key("test", null));
+		Assert.assertNotEquals(RequestCoalescer.key("a_b", "c"), RequestCoalescer.key("a", "b_c"));
+		Assert.assertNotEquals(RequestCoalescer.key("a\\", "_b"), RequestCoalescer.key("a\\_", "b"));
+		Assert.assertEquals("ns!a\\_b_c", RequestCoalescer.key("ns!a_b", "c"));
+	}
+}
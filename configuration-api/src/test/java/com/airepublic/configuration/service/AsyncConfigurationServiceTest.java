@@ -0,0 +1,115 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.airepublic.configuration.api.ConfigurationExecutors;
+import com.airepublic.configuration.api.ConfigurationServiceException;
+
+/**
+ * Unittest for {@link AsyncConfigurationService}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class AsyncConfigurationServiceTest {
+	private BlockingConfigurationService store = new BlockingConfigurationService();
+	private AsyncConfigurationService service = new AsyncConfigurationService(store, 2);
+	
+	/**
+	 * An in-memory store whose reads block until released.
+	 */
+	private static class BlockingConfigurationService extends InMemoryConfigurationService {
+		private final CountDownLatch released = new CountDownLatch(1);
+		private final AtomicInteger running = new AtomicInteger();
+		private final AtomicInteger maxRunning = new AtomicInteger();
+		private final Set<String> threads = ConcurrentHashMap.newKeySet();
+		
+		@Override
+		public String getConfigurationAsJson(String id, String variation) throws ConfigurationServiceException {
+			threads.add(Thread.currentThread().getName());
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			
+			try {
+				released.await(10, TimeUnit.SECONDS);
+				return super.getConfigurationAsJson(id, variation);
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			} finally {
+				running.decrementAndGet();
+			}
+		}
+	}
+	
+	
+	@After
+	public void tearDown() {
+		service.close();
+	}
+	
+	
+	@Test
+	public void permitTest() throws Exception {
+		store.saveConfiguration(new TestConfiguration("a", "", "1"));
+		List<CompletableFuture<String>> futures = new ArrayList<>();
+		
+		for (int i = 0; i < 6; i++) {
+			futures.add(service.getConfigurationAsJsonAsync("a", ""));
+		}
+		
+		long deadline = System.currentTimeMillis() + 5000L;
+		
+		while (store.running.get() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5L);
+		}
+		
+		Thread.sleep(50L);
+		Assert.assertEquals(2, service.getActive());
+		Assert.assertEquals(2, store.running.get());
+		
+		store.released.countDown();
+		
+		for (CompletableFuture<String> future : futures) {
+			Assert.assertTrue(future.get(5, TimeUnit.SECONDS).contains("\"test\":\"1\""));
+		}
+		
+		Assert.assertEquals(2, store.maxRunning.get());
+		
+		if (!ConfigurationExecutors.isVirtualThreadsAvailable()) {
+			// the waiting operations did not start more platform threads
+			Assert.assertTrue(store.threads.size() <= 2);
+		}
+	}
+	
+	
+	@Test
+	public void syncTest() throws Exception {
+		store.released.countDown();
+		store.saveConfiguration(new TestConfiguration("a", "", "1"));
+		
+		Assert.assertTrue(service.getConfigurationAsJson("a", "").contains("\"test\":\"1\""));
+		Assert.assertEquals(0, service.getActive());
+	}
+}
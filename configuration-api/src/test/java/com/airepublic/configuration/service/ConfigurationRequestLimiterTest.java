@@ -0,0 +1,55 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.airepublic.configuration.api.AdaptiveLimiter;
+
+/**
+ * Unittest for {@link ConfigurationRequestLimiter}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class ConfigurationRequestLimiterTest {
+	
+	@Test
+	public void propertiesTest() throws Exception {
+		ConfigurationRequestLimiter limiter = new ConfigurationRequestLimiter();
+		
+		Assert.assertEquals(10, limiter.getReadLimiter().getLimit());
+		Assert.assertEquals(5, limiter.getWriteLimiter().getLimit());
+		Assert.assertEquals(3, limiter.getRetryAfter());
+		
+		// the read limit backs off to the minimum of 2 by half
+		limiter.getReadLimiter().tryAcquire();
+		limiter.getReadLimiter().release(0L, true);
+		Assert.assertEquals(5, limiter.getReadLimiter().getLimit());
+		limiter.getReadLimiter().tryAcquire();
+		limiter.getReadLimiter().release(0L, true);
+		limiter.getReadLimiter().tryAcquire();
+		limiter.getReadLimiter().release(0L, true);
+		Assert.assertEquals(2, limiter.getReadLimiter().getLimit());
+	}
+	
+	
+	@Test
+	public void defaultsTest() throws Exception {
+		ConfigurationRequestLimiter limiter = new ConfigurationRequestLimiter(new AdaptiveLimiter(), new AdaptiveLimiter(), ConfigurationRequestLimiter.DEFAULT_RETRY_AFTER);
+		
+		Assert.assertEquals(AdaptiveLimiter.DEFAULT_INITIAL_LIMIT, limiter.getWriteLimiter().getLimit());
+		Assert.assertEquals(ConfigurationRequestLimiter.DEFAULT_RETRY_AFTER, limiter.getRetryAfter());
+	}
+}
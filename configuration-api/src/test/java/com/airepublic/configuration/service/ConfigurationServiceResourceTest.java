@@ -0,0 +1,91 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.lang.reflect.Field;
+import java.util.logging.Logger;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.airepublic.configuration.api.AdaptiveLimiter;
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+
+/**
+ * Unittest for {@link ConfigurationServiceResource}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class ConfigurationServiceResourceTest {
+	private ConfigurationServiceResource resource = new ConfigurationServiceResource();
+	private ConfigurationRequestLimiter limiter = new ConfigurationRequestLimiter(new AdaptiveLimiter(2, 1, 4, 1000L, 0.5), new AdaptiveLimiter(2, 1, 4, 1000L, 0.5), 7);
+	private InMemoryConfigurationService store = new InMemoryConfigurationService() {
+		@Override
+		public void removeConfiguration(String id, String variation) throws ConfigurationServiceException {
+			throw new ConfigurationServiceException(ErrorCode.ERROR_REMOVE, "down");
+		}
+	};
+	
+	@Before
+	public void setUp() throws Exception {
+		inject("service", store);
+		inject("limiter", limiter);
+		inject("logger", Logger.getLogger(ConfigurationServiceResource.class.getName()));
+	}
+	
+	
+	private void inject(String name, Object value) throws Exception {
+		Field field = ConfigurationServiceResource.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(resource, value);
+	}
+	
+	
+	@Test
+	public void tooManyRequestsTest() throws Exception {
+		limiter.getWriteLimiter().tryAcquire();
+		limiter.getWriteLimiter().tryAcquire();
+		
+		Response response = resource.saveConfiguration(null, "{\"id\":\"a\",\"variation\":\"\",\"test\":\"1\"}");
+		
+		Assert.assertEquals(429, response.getStatus());
+		Assert.assertEquals("7", response.getHeaderString("Retry-After"));
+		Assert.assertNull(store.getConfigurationAsJson("a", ""));
+	}
+	
+	
+	@Test
+	public void failedRequestDecreasesLimitTest() throws Exception {
+		Assert.assertEquals(200, resource.saveConfiguration(null, "{\"id\":\"a\",\"variation\":\"\",\"test\":\"1\"}").getStatus());
+		Assert.assertEquals(2, limiter.getWriteLimiter().getLimit());
+		
+		Assert.assertEquals(400, resource.removeConfiguration("a", "").getStatus());
+		Assert.assertEquals(1, limiter.getWriteLimiter().getLimit());
+		Assert.assertEquals(0, limiter.getWriteLimiter().getInflight());
+	}
+	
+	
+	@Test
+	public void conflictTest() throws Exception {
+		Assert.assertEquals(200, resource.saveConfiguration(0L, "{\"id\":\"a\",\"variation\":\"\",\"test\":\"1\"}").getStatus());
+		Assert.assertEquals(409, resource.saveConfiguration(0L, "{\"id\":\"a\",\"variation\":\"\",\"test\":\"2\"}").getStatus());
+		
+		// a conflict is no failure of the backend
+		Assert.assertEquals(2, limiter.getWriteLimiter().getLimit());
+	}
+}
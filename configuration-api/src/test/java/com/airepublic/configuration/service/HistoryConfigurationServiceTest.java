@@ -0,0 +1,174 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.time.Instant;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationVersionConflictException;
+import com.airepublic.configuration.api.IConfiguration;
+
+/**
+ * Unittest for {@link HistoryConfigurationService}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class HistoryConfigurationServiceTest {
+	private InMemoryConfigurationService store = new InMemoryConfigurationService();
+	private InMemoryConfigurationService history = new InMemoryConfigurationService();
+	private HistoryConfigurationService service = new HistoryConfigurationService(store, history, 3);
+	
+	@Test
+	public void restoreTest() throws Exception {
+		// checkpoints at version 1, 4 and 7
+		for (int i = 1; i <= 8; i++) {
+			Assert.assertEquals(i, service.saveConfiguration(new TestConfiguration("a", "", String.valueOf(i)), i - 1));
+		}
+		
+		for (int i = 1; i <= 8; i++) {
+			Assert.assertEquals(String.valueOf(i), service.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class, i).getTest());
+		}
+		
+		Assert.assertNull(service.getConfigurationAsJson("a", "", 9));
+		Assert.assertTrue(history.getConfigurationAsJson("a@7", "").contains("checkpoint"));
+		Assert.assertTrue(history.getConfigurationAsJson("a@8", "").contains("delta"));
+	}
+	
+	
+	@Test
+	public void unchangedTest() throws Exception {
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		
+		Assert.assertEquals(1, service.getConfigurationVersion("a", ""));
+	}
+	
+	
+	@Test
+	public void removeTest() throws Exception {
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		service.saveConfiguration(new TestConfiguration("a", "", "2"));
+		service.removeConfiguration("a", "");
+		service.saveConfiguration(new TestConfiguration("a", "", "4"));
+		service.saveConfiguration(new TestConfiguration("a", "", "5"));
+		
+		Assert.assertNull(service.getConfigurationAsJson("a", "", 3));
+		// the first version after the removal is a checkpoint
+		Assert.assertTrue(history.getConfigurationAsJson("a@4", "").contains("checkpoint"));
+		Assert.assertEquals("5", service.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class, 5).getTest());
+		Assert.assertEquals("2", service.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class, 2).getTest());
+	}
+	
+	
+	@Test
+	public void rollbackTest() throws Exception {
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		service.saveConfiguration(new TestConfiguration("a", "", "2"));
+		
+		Assert.assertEquals(3, service.rollbackConfiguration("a", "", 1));
+		Assert.assertEquals("1", store.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+		
+		service.removeConfiguration("a", "");
+		Assert.assertEquals(5, service.rollbackConfiguration("a", "", 2));
+		Assert.assertEquals("2", store.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+		
+		// rolling back to a removal removes the configuration
+		Assert.assertEquals(6, service.rollbackConfiguration("a", "", 4));
+		Assert.assertNull(store.getConfigurationAsJson("a", ""));
+	}
+	
+	
+	@Test(expected = ConfigurationServiceException.class)
+	public void rollbackToMissingVersionTest() throws Exception {
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		service.rollbackConfiguration("a", "", 2);
+	}
+	
+	
+	@Test
+	public void versionAtTest() throws Exception {
+		Instant before = Instant.now().minusSeconds(1);
+		
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		Thread.sleep(5);
+		Instant first = Instant.now();
+		Thread.sleep(5);
+		service.saveConfiguration(new TestConfiguration("a", "", "2"));
+		service.saveConfiguration(new TestConfiguration("a", "", "3"));
+		
+		Assert.assertEquals(0, service.getConfigurationVersionAt("a", "", before));
+		Assert.assertEquals(1, service.getConfigurationVersionAt("a", "", first));
+		Assert.assertEquals(3, service.getConfigurationVersionAt("a", "", Instant.now()));
+		Assert.assertEquals("1", service.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class, first).getTest());
+	}
+	
+	
+	@Test
+	public void otherNodeTest() throws Exception {
+		HistoryConfigurationService other = new HistoryConfigurationService(store, history, 3);
+		
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		other.saveConfiguration(new TestConfiguration("a", "", "2"));
+		// the latest version kept by this node is outdated
+		Assert.assertEquals(3, service.saveConfiguration(new TestConfiguration("a", "", "3"), 2));
+		
+		Assert.assertEquals("2", service.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class, 2).getTest());
+		Assert.assertEquals("3", other.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class, 3).getTest());
+	}
+	
+	
+	@Test
+	public void orphanTest() throws Exception {
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		// a node failed after writing version 2 long ago
+		history.saveConfigurationAsJson("{\"id\":\"a@2\",\"variation\":\"\",\"version\":2,\"time\":0,\"type\":\"checkpoint\",\"data\":{\"id\":\"a\",\"variation\":\"\",\"test\":\"lost\"}}");
+		
+		Assert.assertEquals(2, service.saveConfiguration(new TestConfiguration("a", "", "2"), 1));
+		Assert.assertEquals("2", service.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class, 2).getTest());
+	}
+	
+	
+	@Test(expected = ConfigurationVersionConflictException.class)
+	public void concurrentChangeTest() throws Exception {
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		// another node is recording version 2
+		history.saveConfigurationAsJson("{\"id\":\"a@2\",\"variation\":\"\",\"version\":2,\"time\":" + System.currentTimeMillis() + ",\"type\":\"checkpoint\",\"data\":{\"id\":\"a\",\"variation\":\"\",\"test\":\"other\"}}");
+		
+		service.saveConfiguration(new TestConfiguration("a", "", "2"));
+	}
+	
+	
+	@Test
+	public void failedChangeTest() throws Exception {
+		HistoryConfigurationService failing = new HistoryConfigurationService(new InMemoryConfigurationService() {
+			@Override
+			public void saveConfiguration(IConfiguration configuration) throws ConfigurationServiceException {
+				throw new IllegalStateException("down");
+			}
+		}, history, 3);
+		
+		try {
+			failing.saveConfiguration(new TestConfiguration("a", "", "1"));
+			Assert.fail("The store is down!");
+		} catch (IllegalStateException e) {
+			// the version of the failed change is removed again
+			Assert.assertNull(history.getConfigurationAsJson("a@1", ""));
+		}
+		
+		Assert.assertEquals(1, service.saveConfiguration(new TestConfiguration("a", "", "1"), 0));
+	}
+}
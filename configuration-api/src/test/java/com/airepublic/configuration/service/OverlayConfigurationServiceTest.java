@@ -0,0 +1,92 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.IConfiguration;
+
+/**
+ * Unittest for {@link OverlayConfigurationService}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class OverlayConfigurationServiceTest {
+	private CountingConfigurationService store = new CountingConfigurationService();
+	private OverlayConfigurationService overlay = new OverlayConfigurationService(store, 60000);
+	
+	/**
+	 * An in-memory store counting the reads of the layers.
+	 */
+	private static class CountingConfigurationService extends InMemoryConfigurationService {
+		private final AtomicInteger reads = new AtomicInteger();
+		
+		@Override
+		public <T> T getConfiguration(String id, String variation, Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+			reads.incrementAndGet();
+			return super.getConfiguration(id, variation, clazz);
+		}
+		
+		@Override
+		public String getConfigurationAsJson(String id, String variation) throws ConfigurationServiceException {
+			reads.incrementAndGet();
+			return super.getConfigurationAsJson(id, variation);
+		}
+	}
+	
+	
+	@After
+	public void tearDown() {
+		overlay.close();
+	}
+	
+	
+	@Test
+	public void overlayTest() throws Exception {
+		store.saveConfigurationAsJson("{\"id\":\"testConfiguration\",\"variation\":\"\",\"test\":\"base\"}");
+		store.saveConfigurationAsJson("{\"id\":\"testConfiguration\",\"variation\":\"A\",\"test\":null}");
+		store.saveConfigurationAsJson("{\"id\":\"testConfiguration\",\"variation\":\"B\",\"test\":\"overridden\"}");
+		
+		String chk = overlay.getConfigurationAsJson("testConfiguration", "A");
+		Assert.assertEquals("{\"id\":\"testConfiguration\",\"variation\":\"A\",\"test\":\"base\"}", chk);
+		Assert.assertEquals(2, store.reads.get());
+		
+		Assert.assertSame(chk, overlay.getConfigurationAsJson("testConfiguration", "A"));
+		Assert.assertEquals(2, store.reads.get());
+		
+		// changing the base layer invalidates the view of the variation
+		overlay.saveConfigurationAsJson("{ \"id\" : \"testConfiguration\" , \"variation\" : \"\" , \"test\" : \"changed\" }");
+		Assert.assertEquals("{\"id\":\"testConfiguration\",\"variation\":\"A\",\"test\":\"changed\"}", overlay.getConfigurationAsJson("testConfiguration", "A"));
+		Assert.assertEquals(4, store.reads.get());
+		
+		TestConfiguration config = overlay.getConfiguration("testConfiguration", "A", TestConfiguration.class);
+		Assert.assertEquals("changed", config.getTest());
+		Assert.assertEquals("A", config.getVariation());
+		
+		// callers do not share the cached configuration
+		config.setTest("modified");
+		TestConfiguration other = overlay.getConfiguration("testConfiguration", "A", TestConfiguration.class);
+		Assert.assertNotSame(config, other);
+		Assert.assertEquals("changed", other.getTest());
+		Assert.assertEquals(4, store.reads.get());
+		
+		config = overlay.getConfiguration("testConfiguration", "B", TestConfiguration.class);
+		Assert.assertEquals("overridden", config.getTest());
+	}
+}
@@ -0,0 +1,119 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.airepublic.configuration.api.CircuitBreaker;
+import com.airepublic.configuration.api.CircuitBreaker.State;
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.airepublic.configuration.api.IConfiguration;
+
+/**
+ * Unittest for {@link ResilientConfigurationService}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class ResilientConfigurationServiceTest {
+	private FailingConfigurationService store = new FailingConfigurationService();
+	private ResilientConfigurationService service = new ResilientConfigurationService("test", store, new CircuitBreaker(2, 60000L, 1), 4, 100L, 60000L);
+	
+	/**
+	 * An in-memory store which can be made to fail reads.
+	 */
+	private static class FailingConfigurationService extends InMemoryConfigurationService {
+		private boolean down = false;
+		
+		@Override
+		public String getConfigurationAsJson(String id, String variation) throws ConfigurationServiceException {
+			if (down) {
+				throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "down");
+			}
+			
+			return super.getConfigurationAsJson(id, variation);
+		}
+		
+		
+		@Override
+		public <T> T getConfiguration(String id, String variation, Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+			if (down) {
+				throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "down");
+			}
+			
+			return super.getConfiguration(id, variation, clazz);
+		}
+	}
+	
+	
+	@Test
+	public void fallbackTest() throws Exception {
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		service.getConfiguration("a", "", TestConfiguration.class);
+		store.down = true;
+		
+		Assert.assertEquals("1", service.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+	}
+	
+	
+	@Test
+	public void circuitTest() throws Exception {
+		store.down = true;
+		
+		for (int i = 0; i < 2; i++) {
+			try {
+				service.getConfigurationAsJson("a", "");
+				Assert.fail("The store is down!");
+			} catch (ConfigurationServiceException e) {
+				Assert.assertEquals("down", e.getMessage());
+			}
+		}
+		
+		Assert.assertEquals(State.OPEN, service.getCircuitBreaker().getState());
+		
+		try {
+			service.getConfigurationAsJson("a", "");
+			Assert.fail("The circuit is open!");
+		} catch (ConfigurationServiceException e) {
+			Assert.assertTrue(e.getMessage().contains("circuit is open"));
+		}
+	}
+	
+	
+	@Test
+	public void writeDiscardsLastReadTest() throws Exception {
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		service.getConfiguration("a", "", TestConfiguration.class);
+		service.getConfigurationAsJson("a", "");
+		
+		service.saveConfiguration(new TestConfiguration("a", "", "2"), 1);
+		store.down = true;
+		
+		// the configuration read before the save is not served
+		try {
+			service.getConfiguration("a", "", TestConfiguration.class);
+			Assert.fail("The last read is older than the save!");
+		} catch (ConfigurationServiceException e) {
+			Assert.assertEquals("down", e.getMessage());
+		}
+		
+		try {
+			service.getConfigurationAsJson("a", "");
+			Assert.fail("The last read is older than the save!");
+		} catch (ConfigurationServiceException e) {
+			Assert.assertEquals("down", e.getMessage());
+		}
+	}
+}
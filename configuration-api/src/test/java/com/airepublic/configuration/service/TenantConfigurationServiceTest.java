@@ -0,0 +1,64 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.airepublic.configuration.api.IConfigurationService;
+
+/**
+ * Unittest for {@link TenantConfigurationService}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class TenantConfigurationServiceTest {
+	private InMemoryConfigurationService store = new InMemoryConfigurationService();
+	private TenantConfigurationService service = new TenantConfigurationService("test", store);
+	
+	@Test
+	public void siblingNamespaceTest() throws Exception {
+		service.forNamespace("globex").saveConfigurationAsJson("{\"id\":\"db\",\"variation\":\"\",\"password\":\"secret\"}");
+		
+		IConfigurationService acme = service.forNamespace("acme");
+		IConfigurationService other = acme.forNamespace("globex");
+		
+		// a tenant only reaches its own child namespaces
+		Assert.assertNull(other.getConfigurationAsJson("db", ""));
+		
+		other.saveConfigurationAsJson("{\"id\":\"db\",\"variation\":\"\",\"password\":\"changed\"}");
+		
+		Assert.assertNotNull(store.getConfigurationAsJson("acme/globex!db", ""));
+		Assert.assertTrue(store.getConfigurationAsJson("globex!db", "").contains("secret"));
+	}
+	
+	
+	@Test
+	public void saveCopyTest() throws Exception {
+		TestConfiguration config = new TestConfiguration("testConfiguration", "", "tenant");
+		
+		service.forNamespace("acme").saveConfiguration(config);
+		
+		Assert.assertEquals("testConfiguration", config.getId());
+		Assert.assertEquals("", config.getNamespace());
+		TestConfiguration stored = store.getConfiguration("acme!testConfiguration", "", TestConfiguration.class);
+		Assert.assertEquals("tenant", stored.getTest());
+	}
+	
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidNamespaceTest() throws Exception {
+		service.forNamespace("acme").forNamespace("../globex!x");
+	}
+}
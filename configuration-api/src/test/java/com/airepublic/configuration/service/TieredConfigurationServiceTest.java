@@ -0,0 +1,157 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.service.TieredConfigurationService.WriteMode;
+
+/**
+ * Unittest for {@link TieredConfigurationService}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class TieredConfigurationServiceTest {
+	private InMemoryConfigurationService cache = new InMemoryConfigurationService();
+	
+	/**
+	 * A store which saves a new configuration through the service after the configuration has
+	 * been read, like another thread would.
+	 */
+	private static class SavingConfigurationService extends InMemoryConfigurationService {
+		private TieredConfigurationService service;
+		
+		@Override
+		public String getConfigurationAsJson(String id, String variation) throws ConfigurationServiceException {
+			String json = super.getConfigurationAsJson(id, variation);
+			
+			if (service != null) {
+				TieredConfigurationService saving = service;
+				service = null;
+				saving.saveConfiguration(new TestConfiguration(id, variation, "new"));
+			}
+			
+			return json;
+		}
+	}
+	
+	
+	@Test
+	public void readThroughTest() throws Exception {
+		InMemoryConfigurationService store = new InMemoryConfigurationService();
+		TieredConfigurationService service = new TieredConfigurationService(WriteMode.WRITE_THROUGH, cache, store);
+		store.saveConfiguration(new TestConfiguration("a", "", "stored"));
+		
+		Assert.assertEquals("stored", service.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+		Assert.assertEquals(1, service.getHits(1));
+		// the read populated the first tier
+		Assert.assertNotNull(cache.getConfigurationAsJson("a", ""));
+		
+		Assert.assertEquals("stored", service.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+		Assert.assertEquals(1, service.getHits(0));
+	}
+	
+	
+	@Test
+	public void writeDuringReadTest() throws Exception {
+		SavingConfigurationService store = new SavingConfigurationService();
+		TieredConfigurationService service = new TieredConfigurationService(WriteMode.WRITE_THROUGH, cache, store);
+		store.saveConfiguration(new TestConfiguration("a", "", "old"));
+		store.service = service;
+		
+		Assert.assertTrue(service.getConfigurationAsJson("a", "").contains("old"));
+		
+		// the older read did not overwrite the save
+		Assert.assertEquals("new", cache.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+		Assert.assertEquals(1, service.getPopulateSkipped());
+	}
+	
+	
+	@Test
+	public void writeBehindOrderTest() throws Exception {
+		InMemoryConfigurationService store = new InMemoryConfigurationService();
+		TieredConfigurationService service = new TieredConfigurationService(WriteMode.WRITE_BEHIND, cache, store);
+		
+		try {
+			service.saveConfiguration(new TestConfiguration("a", "", "1"));
+			
+			// the versioned save sees the save written in the background
+			Assert.assertEquals(1, service.getConfigurationVersion("a", ""));
+			Assert.assertEquals(2, service.saveConfiguration(new TestConfiguration("a", "", "2"), 1));
+			
+			service.patchConfigurationAsJson("a", "", "{\"test\":\"3\"}");
+			service.saveConfiguration(new TestConfiguration("b", "", "1"));
+			service.close();
+			
+			Assert.assertEquals("3", store.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+			Assert.assertEquals("3", service.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+			Assert.assertNotNull(store.getConfigurationAsJson("b", ""));
+		} finally {
+			service.close();
+		}
+	}
+	
+	
+	@Test
+	public void writeBehindCapacityTest() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		InMemoryConfigurationService store = new InMemoryConfigurationService() {
+			@Override
+			public void saveConfigurationAsJson(String configuration) throws ConfigurationServiceException {
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				
+				super.saveConfigurationAsJson(configuration);
+			}
+		};
+		TieredConfigurationService service = new TieredConfigurationService(WriteMode.WRITE_BEHIND, 2, List.of(cache, store));
+		
+		try {
+			Thread writer = new Thread(() -> {
+				try {
+					for (int i = 1; i <= 5; i++) {
+						service.saveConfiguration(new TestConfiguration("a", "", String.valueOf(i)));
+					}
+				} catch (ConfigurationServiceException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			writer.start();
+			
+			// the slow store fills the queue, so the writer waits for room
+			writer.join(200);
+			Assert.assertTrue(writer.isAlive());
+			Assert.assertTrue(service.getWriteBehindBlocked() > 0);
+			
+			release.countDown();
+			writer.join(10000);
+			Assert.assertFalse(writer.isAlive());
+			
+			// the writes in the background stay in order
+			Assert.assertEquals(5, service.getConfigurationVersion("a", ""));
+			Assert.assertEquals("5", store.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+		} finally {
+			service.close();
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.airepublic.configuration.api.ConfigurationJournal;
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+
+/**
+ * Unittest for {@link WriteBehindConfigurationService}
+ * 
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class WriteBehindConfigurationServiceTest {
+	private FailingConfigurationService store = new FailingConfigurationService();
+	private WriteBehindConfigurationService service = new WriteBehindConfigurationService(store, 100, 10, 60000L, 0L);
+	
+	/**
+	 * An in-memory store which can be made to fail saves.
+	 */
+	private static class FailingConfigurationService extends InMemoryConfigurationService {
+		private volatile boolean down = false;
+		private volatile String poison = null;
+		private int batches = 0;
+		private Runnable onBatch = null;
+		
+		@Override
+		public void saveConfigurationAsJson(String configuration) throws ConfigurationServiceException {
+			if (down || poison != null && configuration.contains("\"id\":\"" + poison + "\"")) {
+				throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "down");
+			}
+			
+			super.saveConfigurationAsJson(configuration);
+		}
+		
+		
+		@Override
+		public void saveConfigurationsAsJson(Collection<String> configurations) throws ConfigurationServiceException {
+			// batches are saved completely or not at all
+			if (down || poison != null && configurations.stream().anyMatch(c -> c.contains("\"id\":\"" + poison + "\""))) {
+				throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "down");
+			}
+			
+			batches++;
+			super.saveConfigurationsAsJson(configurations);
+			
+			if (onBatch != null) {
+				onBatch.run();
+			}
+		}
+	}
+	
+	
+	@After
+	public void tearDown() {
+		store.down = false;
+		service.close();
+	}
+	
+	
+	@Test
+	public void coalesceTest() throws Exception {
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		service.saveConfiguration(new TestConfiguration("a", "", "2"));
+		service.saveConfiguration(new TestConfiguration("b", "", "1"));
+		
+		// reads see the queued save
+		Assert.assertEquals("2", service.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+		Assert.assertNull(store.getConfigurationAsJson("a", ""));
+		Assert.assertEquals(2, service.getDepth());
+		Assert.assertEquals(1, service.getCoalesced());
+		
+		service.flush();
+		
+		Assert.assertEquals("2", store.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+		Assert.assertEquals(0, service.getDepth());
+		Assert.assertEquals(1, store.batches);
+		Assert.assertEquals(2, service.getFlushed());
+	}
+	
+	
+	@Test
+	public void fullQueueTest() throws Exception {
+		WriteBehindConfigurationService small = new WriteBehindConfigurationService(store, 1, 1, 60000L, 0L);
+		
+		try {
+			store.down = true;
+			small.saveConfiguration(new TestConfiguration("a", "", "1"));
+			// replacing the queued save needs no room
+			small.saveConfiguration(new TestConfiguration("a", "", "2"));
+			
+			try {
+				small.saveConfiguration(new TestConfiguration("b", "", "1"));
+				Assert.fail("The queue is full!");
+			} catch (ConfigurationServiceException e) {
+				Assert.assertEquals(1, small.getRejected());
+			}
+		} finally {
+			store.down = false;
+			small.close();
+		}
+		
+		Assert.assertEquals("2", store.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+	}
+	
+	
+	@Test
+	public void retryTest() throws Exception {
+		service.saveConfiguration(new TestConfiguration("a", "", "1"));
+		store.down = true;
+		
+		try {
+			service.flush();
+			Assert.fail("The store is down!");
+		} catch (ConfigurationServiceException e) {
+			Assert.assertEquals(1, service.getDepth());
+		}
+		
+		store.down = false;
+		service.flush();
+		
+		Assert.assertEquals("1", store.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+		Assert.assertEquals(0, service.getDepth());
+	}
+	
+	
+	@Test
+	public void poisonTest() throws Exception {
+		WriteBehindConfigurationService poisoned = new WriteBehindConfigurationService(store, 100, 10, 60000L, 0L, 2);
+		
+		try {
+			store.poison = "poison";
+			poisoned.saveConfiguration(new TestConfiguration("a", "", "1"));
+			poisoned.saveConfiguration(new TestConfiguration("poison", "", "1"));
+			poisoned.saveConfiguration(new TestConfiguration("b", "", "1"));
+			
+			try {
+				poisoned.flush();
+				Assert.fail("The configuration is poisoned!");
+			} catch (ConfigurationServiceException e) {
+				// the other configurations of the batch are saved
+				Assert.assertNotNull(store.getConfigurationAsJson("a", ""));
+				Assert.assertNotNull(store.getConfigurationAsJson("b", ""));
+				Assert.assertEquals(1, poisoned.getDepth());
+			}
+			
+			// an outage does not count as attempt
+			store.down = true;
+			poisoned.saveConfiguration(new TestConfiguration("c", "", "1"));
+			
+			try {
+				poisoned.flush();
+				Assert.fail("The store is down!");
+			} catch (ConfigurationServiceException e) {
+				Assert.assertEquals(2, poisoned.getDepth());
+			}
+			
+			store.down = false;
+			
+			try {
+				poisoned.flush();
+				Assert.fail("The configuration is poisoned!");
+			} catch (ConfigurationServiceException e) {
+				Assert.assertNotNull(store.getConfigurationAsJson("c", ""));
+				Assert.assertEquals(0, poisoned.getDepth());
+				Assert.assertEquals(1, poisoned.getDeadLettered());
+			}
+		} finally {
+			poisoned.close();
+		}
+	}
+	
+	
+	@Test
+	public void saveAfterCloseTest() throws Exception {
+		service.saveConfiguration(new TestConfiguration("a", "", "old"));
+		store.down = true;
+		// the flush on close fails and leaves the save queued
+		service.close();
+		Assert.assertEquals(1, service.getDepth());
+		
+		store.down = false;
+		service.saveConfiguration(new TestConfiguration("a", "", "new"));
+		service.flush();
+		
+		Assert.assertEquals("new", store.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+	}
+	
+	
+	@Test
+	public void steadySavesTest() throws Exception {
+		final int[] saves = { 0 };
+		service.saveConfiguration(new TestConfiguration("a", "", "0"));
+		// every flushed batch is followed by another save
+		store.onBatch = () -> {
+			try {
+				service.saveConfiguration(new TestConfiguration("a", "", String.valueOf(++saves[0])));
+			} catch (ConfigurationServiceException e) {
+				throw new IllegalStateException(e);
+			}
+		};
+		
+		service.flush();
+		store.onBatch = null;
+		
+		// the flush only wrote the save which was queued when it started
+		Assert.assertEquals(1, store.batches);
+		Assert.assertEquals(1, service.getDepth());
+		Assert.assertEquals("1", service.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+	}
+	
+	
+	@Test
+	public void journalTest() throws Exception {
+		Path file = Files.createTempDirectory("journal").resolve("write-behind.journal");
+		WriteBehindConfigurationService journaled = new WriteBehindConfigurationService(store, 100, 10, 60000L, 0L, 5, new ConfigurationJournal(file));
+		
+		journaled.saveConfiguration(new TestConfiguration("a", "", "1"));
+		journaled.saveConfiguration(new TestConfiguration("b", "", "1"));
+		journaled.saveConfiguration(new TestConfiguration("a", "", "2"));
+		journaled.flush();
+		journaled.saveConfiguration(new TestConfiguration("c", "", "1"));
+		
+		// the process crashes before the next flush, the new service replays the journal
+		WriteBehindConfigurationService restarted = new WriteBehindConfigurationService(store, 100, 10, 60000L, 0L, 5, new ConfigurationJournal(file));
+		
+		try {
+			Assert.assertEquals(1, restarted.getDepth());
+			Assert.assertNull(store.getConfigurationAsJson("c", ""));
+			
+			restarted.flush();
+			
+			Assert.assertEquals("1", store.<TestConfiguration> getConfiguration("c", "", TestConfiguration.class).getTest());
+			Assert.assertEquals("2", store.<TestConfiguration> getConfiguration("a", "", TestConfiguration.class).getTest());
+		} finally {
+			restarted.close();
+			journaled.close();
+		}
+		
+		
+		// all saves were flushed, so nothing is replayed
+		ConfigurationJournal journal = new ConfigurationJournal(file);
+		Assert.assertEquals(0, journal.load().size());
+		journal.close();
+	}
+}
@@ -14,27 +14,57 @@
 package com.airepublic.configuration.service.mongo;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.enterprise.inject.Default;
 import javax.inject.Singleton;
 
+import com.airepublic.configuration.api.ConfigurationCache;
+import com.airepublic.configuration.api.ConfigurationNamespace;
+import com.airepublic.configuration.api.ConfigurationPreloader;
+import com.airepublic.configuration.api.ConfigurationSnapshot;
 import com.airepublic.configuration.api.ConfigurationServiceException;
 import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.airepublic.configuration.api.ConfigurationVersionConflictException;
+import com.airepublic.configuration.api.DefaultConfigurationProvider;
+import com.airepublic.configuration.api.HedgedRequests;
 import com.airepublic.configuration.api.IConfiguration;
 import com.airepublic.configuration.api.IConfigurationService;
+import com.airepublic.configuration.api.JsonPatches;
+import com.airepublic.configuration.api.JsonProjection;
+import com.airepublic.configuration.api.NegativeCache;
+import com.airepublic.configuration.api.RequestCoalescer;
+import com.airepublic.configuration.api.metrics.ConfigurationMetrics;
+import com.airepublic.configuration.api.metrics.IConfigurationMetrics;
+import com.airepublic.configuration.api.metrics.Operation;
+import com.airepublic.configuration.api.tracing.ConfigurationTracing;
+import com.airepublic.configuration.api.tracing.IConfigurationTracer;
+import com.airepublic.configuration.api.tracing.ISpan;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
+import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoClientURI;
+import com.mongodb.MongoException;
+import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
+import com.mongodb.WriteResult;
 import com.mongodb.util.JSON;
 
 /**
@@ -48,10 +78,32 @@ import com.mongodb.util.JSON;
 public class ConfigurationServiceMongo implements IConfigurationService, AutoCloseable {
     private final static String ID = "id";
     private final static String VARIATION = "variation";
+    private final static String VERSION = "_version";
+    private final static String BACKEND = "mongo";
+    /** The version of configurations stored before versioning was introduced. */
+    private final static long UNVERSIONED = 1L;
+    /** The maximum attempts to replace a configuration which is changed concurrently. */
+    private final static int MAX_REPLACE_ATTEMPTS = 10;
     private MongoClient mongoClient;
     private DB db;
     private String configurationCollectionName;
+    private boolean collectionPerNamespace = false;
+    private MongoPoolStatistics poolStatistics = new MongoPoolStatistics();
+    private NegativeCache negativeCache = new NegativeCache();
+    private ConfigurationCache<String> cache = new ConfigurationCache<>();
+    private ConfigurationSnapshot snapshot = new ConfigurationSnapshot();
+    private IConfigurationMetrics metrics = ConfigurationMetrics.get();
+    private IConfigurationTracer tracer = ConfigurationTracing.get();
+    private ConfigurationPreloader preloader;
+    private DefaultConfigurationProvider defaults = new DefaultConfigurationProvider(this, false);
+    private HedgedRequests hedging;
+    private ReadPreference hedgeReadPreference = ReadPreference.secondaryPreferred();
     private final ObjectMapper mapper = new ObjectMapper();
+    private final RequestCoalescer<String> configurationLoader = new RequestCoalescer<>();
+    private final RequestCoalescer<String> jsonLoader = new RequestCoalescer<>();
+    // the configurations written by this node which have not been read from the primary since
+    private final ConcurrentHashMap<String, Long> unconfirmedWrites = new ConcurrentHashMap<>();
+    private final AtomicLong writes = new AtomicLong();
 
     /**
      * Constructor.
@@ -66,9 +118,140 @@ public class ConfigurationServiceMongo implements IConfigurationService, AutoClo
         // read mongo configuration
         final ResourceBundle props = ResourceBundle.getBundle("mongo");
 
-        // initialize mongo client
-        String serverStringList = props.getString("mongo.servers");
+        // load the local snapshot first, so configurations can be served without mongo
+        final String snapshotFile = getProperty(props, "mongo.snapshot.file", null);
 
+        if (snapshotFile != null && !snapshotFile.isBlank()) {
+            snapshot = new ConfigurationSnapshot(Paths.get(snapshotFile), getIntProperty(props, "mongo.snapshot.writeDelay", ConfigurationSnapshot.DEFAULT_WRITE_DELAY));
+            snapshot.load();
+        }
+
+        // initialize mongo client either from a connection string or from the single properties
+        final String uri = getProperty(props, "mongo.uri", null);
+
+        if (uri != null && !uri.isBlank()) {
+            mongoClient = new MongoClient(new MongoClientURI(uri));
+        } else {
+            mongoClient = new MongoClient(parseServers(getProperty(props, "mongo.servers", "localhost")), createClientOptions(props));
+        }
+
+        poolStatistics = new MongoPoolStatistics(mongoClient.getMongoClientOptions());
+
+        final String configurationDbName = props.getString("mongo.db.configurations");
+        db = mongoClient.getDB(configurationDbName);
+
+        configurationCollectionName = props.getString("mongo.collection.configurations");
+        collectionPerNamespace = Boolean.parseBoolean(getProperty(props, "mongo.namespace.collections", "false"));
+
+        negativeCache = new NegativeCache(getIntProperty(props, "mongo.negativeCache.ttl", NegativeCache.DEFAULT_TTL), getIntProperty(props, "mongo.negativeCache.maxSize", NegativeCache.DEFAULT_MAX_SIZE));
+
+        // by default every read goes to mongo, a max. staleness allows to serve the last known
+        // configuration if mongo is not available
+        cache.close();
+        cache = new ConfigurationCache<>(getIntProperty(props, "mongo.cache.ttl", 0), getIntProperty(props, "mongo.cache.maxStale", 0), Boolean.parseBoolean(getProperty(props, "mongo.cache.staleWhileRevalidate", "false")), getIntProperty(props, "mongo.cache.maxSize", ConfigurationCache.DEFAULT_MAX_SIZE));
+
+        // snapshot entries are served as stale until they have been reloaded from mongo
+        snapshot.forEach(cache::putStale);
+
+        // by default the defaults are stored before the configuration is returned
+        if (Boolean.parseBoolean(getProperty(props, "mongo.defaults.async", "false"))) {
+            defaults = new DefaultConfigurationProvider(this, true);
+        }
+
+        // slow reads are sent again to another member of the replica set
+        if (Boolean.parseBoolean(getProperty(props, "mongo.hedge", "false"))) {
+            hedgeReadPreference = ReadPreference.valueOf(getProperty(props, "mongo.hedge.readPreference", "secondaryPreferred"));
+            hedging = new HedgedRequests(Double.parseDouble(getProperty(props, "mongo.hedge.percentile", String.valueOf(HedgedRequests.DEFAULT_PERCENTILE))), getIntProperty(props, "mongo.hedge.minDelay", (int) HedgedRequests.DEFAULT_MIN_DELAY), Double.parseDouble(getProperty(props, "mongo.hedge.budget", String.valueOf(HedgedRequests.DEFAULT_BUDGET))));
+        }
+
+        registerMetrics();
+        preload(props);
+    }
+
+
+    /**
+     * Loads the configurations listed in <code>mongo.preload</code> in parallel. Unless
+     * <code>mongo.preload.background</code> is set, this waits until they are loaded or
+     * <code>mongo.preload.timeout</code> has elapsed. The service is not ready until all
+     * configurations have been loaded. The preloaded configurations are kept in the cache, so
+     * <code>mongo.cache.ttl</code> must be set if configurations are preloaded.
+     * 
+     * @param props the mongo properties
+     * @throws IllegalArgumentException if configurations are preloaded without a cache TTL
+     */
+    protected void preload(final ResourceBundle props) {
+        preloader = new ConfigurationPreloader(this, getIntProperty(props, "mongo.preload.threads", ConfigurationPreloader.DEFAULT_THREADS), getIntProperty(props, "mongo.preload.retryDelay", ConfigurationPreloader.DEFAULT_RETRY_DELAY));
+        preloader.addAll(getProperty(props, "mongo.preload", null));
+
+        // without a TTL the cache does not keep the preloaded configurations
+        if (preloader.size() > 0 && getIntProperty(props, "mongo.cache.ttl", 0) <= 0) {
+            throw new IllegalArgumentException("mongo.preload requires a mongo.cache.ttl greater than 0!");
+        }
+
+        preloader.start();
+
+        metrics.gauge(BACKEND, "preload.duration", () -> preloader.getDuration());
+        metrics.gauge(BACKEND, "preload.loaded", () -> preloader.getLoaded());
+        metrics.gauge(BACKEND, "preload.failures", () -> preloader.getFailures());
+
+        if (!Boolean.parseBoolean(getProperty(props, "mongo.preload.background", "false"))) {
+            try {
+                preloader.await(getIntProperty(props, "mongo.preload.timeout", 30000));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    @Override
+    public boolean isReady() {
+        return preloader == null || preloader.isReady();
+    }
+
+
+    /**
+     * Starts an operation which is recorded to the metrics, traced and emitted as JFR event.
+     * 
+     * @param operation the operation
+     * @return the {@link Operation} which must be closed
+     */
+    private Operation start(final String operation) {
+        return new Operation(metrics, tracer, BACKEND, operation);
+    }
+
+
+    /**
+     * Registers the statistics of the caches and the connection pool as gauges.
+     */
+    protected void registerMetrics() {
+        metrics.gauge(BACKEND, "cache.hits", () -> cache.getHits());
+        metrics.gauge(BACKEND, "cache.misses", () -> cache.getMisses());
+        metrics.gauge(BACKEND, "cache.staleServed", () -> cache.getStaleServed());
+        metrics.gauge(BACKEND, "cache.staleOnError", () -> cache.getStaleOnError());
+        metrics.gauge(BACKEND, "negativeCache.hits", () -> negativeCache.getHits());
+        metrics.gauge(BACKEND, "negativeCache.misses", () -> negativeCache.getMisses());
+        metrics.gauge(BACKEND, "coalesced", () -> configurationLoader.getCoalesced() + jsonLoader.getCoalesced());
+        metrics.gauge(BACKEND, "defaults.pending", () -> defaults.getPending());
+        metrics.gauge(BACKEND, "defaults.failures", () -> defaults.getFailures());
+
+        if (hedging != null) {
+            metrics.gauge(BACKEND, "hedge.hedged", () -> hedging.getHedged());
+            metrics.gauge(BACKEND, "hedge.wins", () -> hedging.getHedgeWins());
+        }
+        metrics.gauge(BACKEND, "pool.inUse", () -> poolStatistics.getInUse());
+        metrics.gauge(BACKEND, "pool.peakInUse", () -> poolStatistics.getPeakInUse());
+    }
+
+
+    /**
+     * Parses the comma-separated list of servers in the form &lt;host&gt;[:&lt;port&gt;].
+     * 
+     * @param serverStringList the list of servers
+     * @return the list of {@link ServerAddress}es
+     * @throws IOException if a host could not be resolved
+     */
+    protected List<ServerAddress> parseServers(String serverStringList) throws IOException {
         if (serverStringList == null || serverStringList.isBlank()) {
             serverStringList = "localhost";
         }
@@ -76,7 +259,8 @@ public class ConfigurationServiceMongo implements IConfigurationService, AutoClo
         final List<String> servers = Arrays.asList(serverStringList.split(","));
         final List<ServerAddress> seeds = new ArrayList<>();
 
-        for (final String server : servers) {
+        for (String server : servers) {
+            server = server.trim();
             final int idx = server.indexOf(":");
 
             if (idx != -1) {
@@ -88,151 +272,1101 @@ public class ConfigurationServiceMongo implements IConfigurationService, AutoClo
             }
         }
 
-        mongoClient = new MongoClient(seeds);
+        return seeds;
+    }
 
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-            @Override
-            public void run() {
-                try {
-                    mongoClient.close();
-                } catch (final Exception e) {
-                }
-            }
-        });
 
-        final String configurationDbName = props.getString("mongo.db.configurations");
-        db = mongoClient.getDB(configurationDbName);
+    /**
+     * Creates the {@link MongoClientOptions} for the connection pool, timeouts and read
+     * preference. Properties which are not set will use the driver defaults.
+     * 
+     * @param props the mongo properties
+     * @return the {@link MongoClientOptions}
+     */
+    protected MongoClientOptions createClientOptions(final ResourceBundle props) {
+        final MongoClientOptions.Builder builder = MongoClientOptions.builder();
+        builder.description("configuration-mongo");
 
-        configurationCollectionName = props.getString("mongo.collection.configurations");
+        if (props.containsKey("mongo.pool.connectionsPerHost")) {
+            builder.connectionsPerHost(getIntProperty(props, "mongo.pool.connectionsPerHost"));
+        }
+
+        if (props.containsKey("mongo.pool.threadsAllowedToBlockMultiplier")) {
+            builder.threadsAllowedToBlockForConnectionMultiplier(getIntProperty(props, "mongo.pool.threadsAllowedToBlockMultiplier"));
+        }
+
+        if (props.containsKey("mongo.pool.maxWaitTime")) {
+            builder.maxWaitTime(getIntProperty(props, "mongo.pool.maxWaitTime"));
+        }
+
+        if (props.containsKey("mongo.connectTimeout")) {
+            builder.connectTimeout(getIntProperty(props, "mongo.connectTimeout"));
+        }
+
+        if (props.containsKey("mongo.socketTimeout")) {
+            builder.socketTimeout(getIntProperty(props, "mongo.socketTimeout"));
+        }
+
+        if (props.containsKey("mongo.socketKeepAlive")) {
+            builder.socketKeepAlive(Boolean.parseBoolean(props.getString("mongo.socketKeepAlive").trim()));
+        }
+
+        if (props.containsKey("mongo.readPreference")) {
+            builder.readPreference(ReadPreference.valueOf(props.getString("mongo.readPreference").trim()));
+        }
+
+        return builder.build();
+    }
+
+
+    private static String getProperty(final ResourceBundle props, final String key, final String defaultValue) {
+        if (props.containsKey(key)) {
+            return props.getString(key).trim();
+        }
+
+        return defaultValue;
+    }
+
+
+    private static int getIntProperty(final ResourceBundle props, final String key) {
+        return Integer.parseInt(props.getString(key).trim());
+    }
+
+
+    private static int getIntProperty(final ResourceBundle props, final String key, final int defaultValue) {
+        if (props.containsKey(key)) {
+            return getIntProperty(props, key);
+        }
+
+        return defaultValue;
     }
 
 
     @SuppressWarnings("unchecked")
     @Override
-    public <T> T getConfiguration(final String id, String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+    public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_GET);
+
         try {
-            if (variation == null) {
-                variation = "";
+            final String v = variation == null ? "" : variation;
+
+            // concurrent misses for the same configuration share one read and default initialization
+            final String key = RequestCoalescer.key(id, v);
+            final String json = getOrRestore(key, () -> configurationLoader.execute(key, () -> {
+                // a save during the read discards the miss
+                final long generation = negativeCache.getGeneration(key);
+                // skip the read for configurations known to not exist
+                final String found = negativeCache.contains(key) ? null : readConfigurationAsJson(id, v, true);
+
+                if (found != null) {
+                    return found;
+                }
+
+                final IConfiguration t = tryAndLoadProperties(id, v, clazz);
+
+                if (t == null) {
+                    negativeCache.put(key, generation);
+                    return null;
+                }
+
+                return mapper.writeValueAsString(t);
+            }));
+
+            if (json != null) {
+                try (ISpan span = tracer.startSpan(BACKEND + ".json.map")) {
+                    return (T) mapper.readValue(json, clazz);
+                }
             }
 
-            final BasicDBObject ref = new BasicDBObject(ID, id);
-            ref.put(VARIATION, variation);
+            return null;
+        } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_GET);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+        } finally {
+            op.close();
+        }
+    }
 
-            final DBObject obj = db.getCollection(configurationCollectionName).findOne(ref);
 
-            if (obj != null) {
-                obj.removeField("_id");
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_GET_JSON);
 
-                return (T) mapper.readValue(obj.toString(), clazz);
+        try {
+            final String v = variation == null ? "" : variation;
+
+            final String key = RequestCoalescer.key(id, v);
+
+            if (negativeCache.contains(key)) {
+                return null;
             }
 
-            return tryAndLoadProperties(id, variation, clazz);
+            return loadConfigurationAsJson(key, id, v);
         } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_GET);
             throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+        } finally {
+            op.close();
         }
     }
 
 
+    /**
+     * The fields are pushed down as projection of the query, so mongo only sends the requested
+     * fields. If the whole configuration is cached the fields are projected in memory instead.
+     */
     @Override
-    public String getConfigurationAsJson(final String id, String variation) throws ConfigurationServiceException {
+    public String getConfigurationAsJson(final String id, final String variation, final List<String> fields) throws ConfigurationServiceException {
+        if (fields == null || fields.isEmpty()) {
+            return getConfigurationAsJson(id, variation);
+        }
+
+        final Operation op = start(IConfigurationMetrics.OPERATION_GET_JSON);
+
         try {
-            if (variation == null) {
-                variation = "";
+            final String v = variation == null ? "" : variation;
+            final String key = RequestCoalescer.key(id, v);
+            String json = cache.getFresh(key);
+
+            if (json == null) {
+                if (negativeCache.contains(key)) {
+                    return null;
+                }
+
+                final List<String> paths = JsonProjection.toFieldPaths(fields);
+
+                if (paths != null) {
+                    json = readProjectionAsJson(key, id, v, paths);
+                } else {
+                    json = loadConfigurationAsJson(key, id, v);
+                }
+
+                if (json == null) {
+                    return null;
+                }
             }
 
-            final BasicDBObject ref = new BasicDBObject(ID, id);
-            ref.put(VARIATION, variation);
+            return JsonProjection.project(json, fields);
+        } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_GET);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+        } finally {
+            op.close();
+        }
+    }
 
-            final DBObject obj = db.getCollection(configurationCollectionName).findOne(ref);
 
-            if (obj != null) {
-                obj.removeField("_id");
+    /**
+     * Loads the whole configuration, concurrent loads of the same configuration share one read.
+     * 
+     * @param key the configuration key
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @return the configuration as JSON or null if not found
+     * @throws Exception if loading failed and the configuration is not in the snapshot
+     */
+    private String loadConfigurationAsJson(final String key, final String id, final String variation) throws Exception {
+        return getOrRestore(key, () -> jsonLoader.execute(key, () -> {
+            final long generation = negativeCache.getGeneration(key);
+            final String json = readConfigurationAsJson(id, variation, true);
 
-                return obj.toString();
+            if (json == null) {
+                negativeCache.put(key, generation);
             }
 
+            return json;
+        }));
+    }
+
+
+    /**
+     * Reads only the specified fields of the configuration document. If mongo is not available the
+     * last known configuration is used.
+     * 
+     * @param key the configuration key
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param paths the dotted paths of the fields
+     * @return the document with the fields as JSON or null if not found
+     * @throws MongoException if reading failed and the configuration is not in the snapshot
+     */
+    private String readProjectionAsJson(final String key, final String id, final String variation, final List<String> paths) {
+        final BasicDBObject ref = new BasicDBObject(ID, id);
+        ref.put(VARIATION, variation);
+
+        final BasicDBObject projection = new BasicDBObject("_id", 0);
+
+        for (final String path : paths) {
+            projection.put(path, 1);
+        }
+
+        final long generation = negativeCache.getGeneration(key);
+        final DBObject obj;
+
+        try {
+            obj = findOneHedged(ref, projection);
+        } catch (final MongoException e) {
+            final String stale = cache.getUsable(key);
+
+            if (stale != null) {
+                cache.staleServedOnError();
+                return stale;
+            }
+
+            final String restored = snapshot.get(key);
+
+            if (restored == null) {
+                throw e;
+            }
+
+            metrics.increment(BACKEND, IConfigurationMetrics.EVENT_SNAPSHOT_RESTORED);
+            return restored;
+        }
+
+        if (obj == null) {
+            negativeCache.put(key, generation);
             return null;
+        }
+
+        obj.removeField(VERSION);
+
+        return obj.toString();
+    }
+
+
+    /**
+     * Gets the configuration from the cache or the loader and keeps the local snapshot up to date.
+     * If mongo is not available the configuration is restored from the snapshot.
+     * 
+     * @param key the configuration key
+     * @param loader the loader
+     * @return the configuration as JSON or null if not found
+     * @throws Exception if loading failed and the configuration is not in the snapshot
+     */
+    private String getOrRestore(final String key, final Callable<String> loader) throws Exception {
+        final String json;
+
+        try {
+            json = cache.get(key, loader);
         } catch (final Exception e) {
-            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration '" + id + "'!", e);
+            final String restored = snapshot.get(key);
+
+            if (restored == null) {
+                throw e;
+            }
+
+            cache.putStale(key, restored);
+            metrics.increment(BACKEND, IConfigurationMetrics.EVENT_SNAPSHOT_RESTORED);
+            return restored;
         }
+
+        if (json != null) {
+            snapshot.put(key, json);
+        } else {
+            snapshot.remove(key);
+        }
+
+        return json;
+    }
+
+
+    /**
+     * Reads the configuration document from the collection.
+     * 
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param hedge whether a slow read may be hedged, i.e. the result may come from a secondary
+     * @return the configuration as JSON or null if not found
+     */
+    private String readConfigurationAsJson(final String id, final String variation, final boolean hedge) {
+        final BasicDBObject ref = new BasicDBObject(ID, id);
+        ref.put(VARIATION, variation);
+
+        final DBObject obj = hedge ? findOneHedged(ref, null) : findOne(ref);
+
+        if (obj != null) {
+            obj.removeField("_id");
+            obj.removeField(VERSION);
+
+            return obj.toString();
+        }
+
+        return null;
     }
 
 
     @Override
     public void saveConfiguration(final IConfiguration configuration) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_SAVE);
+
         try {
             final String json = mapper.writeValueAsString(configuration);
             final DBObject obj = (DBObject) JSON.parse(json);
-
             final BasicDBObject query = new BasicDBObject(ID, configuration.getId());
 
             if (configuration.getVariation() != null) {
                 query.put(VARIATION, configuration.getVariation());
             }
 
-            db.getCollection(configurationCollectionName).update(query, obj, true, false);
+            replace(query, obj);
+
+            final String key = RequestCoalescer.key(configuration.getId(), configuration.getVariation());
+            written(key);
+            cache.remove(key);
+            negativeCache.invalidate(key);
+            snapshot.put(key, json);
         } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_SAVE);
             throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + configuration.getId() + "'!", e);
+        } finally {
+            op.close();
         }
     }
 
 
     @Override
     public void saveConfigurationAsJson(final String configurationJson) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_SAVE_JSON);
+
         try {
             final DBObject obj = (DBObject) JSON.parse(configurationJson);
             final String id = (String) obj.get(ID);
             final String variation = (String) obj.get(VARIATION);
-
             final BasicDBObject query = new BasicDBObject(ID, id);
 
             if (variation != null) {
                 query.put(VARIATION, variation);
             }
 
-            db.getCollection(configurationCollectionName).update(query, obj, true, false);
+            replace(query, obj);
+
+            final String key = RequestCoalescer.key(id, variation);
+            written(key);
+            cache.remove(key);
+            negativeCache.invalidate(key);
+            snapshot.put(key, configurationJson);
         } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_SAVE);
             throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + configurationJson + "'!", e);
+        } finally {
+            op.close();
         }
     }
 
 
+    @Override
+    public long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_GET_VERSION);
+
+        try {
+            final BasicDBObject ref = new BasicDBObject(ID, id);
+            ref.put(VARIATION, variation == null ? "" : variation);
+
+            final DBObject obj = findOne(ref, new BasicDBObject(VERSION, 1));
+
+            return obj == null ? 0L : getVersion(obj);
+        } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_GET);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading version of configuration '" + id + "'!", e);
+        } finally {
+            op.close();
+        }
+    }
+
+
+    @Override
+    public long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_SAVE);
+
+        try {
+            final String json = mapper.writeValueAsString(configuration);
+            final long version = saveVersioned(configuration.getId(), configuration.getVariation(), (DBObject) JSON.parse(json), expectedVersion);
+
+            final String key = RequestCoalescer.key(configuration.getId(), configuration.getVariation());
+            written(key);
+            cache.remove(key);
+            negativeCache.invalidate(key);
+            snapshot.put(key, json);
+
+            return version;
+        } catch (final ConfigurationVersionConflictException e) {
+            op.failed(ErrorCode.ERROR_VERSION_CONFLICT);
+            throw e;
+        } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_SAVE);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + configuration.getId() + "'!", e);
+        } finally {
+            op.close();
+        }
+    }
+
+
+    @Override
+    public long saveConfigurationAsJson(final String configurationJson, final long expectedVersion) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_SAVE_JSON);
+
+        try {
+            final DBObject obj = (DBObject) JSON.parse(configurationJson);
+            final String id = (String) obj.get(ID);
+            final String variation = (String) obj.get(VARIATION);
+            final long version = saveVersioned(id, variation, obj, expectedVersion);
+
+            final String key = RequestCoalescer.key(id, variation);
+            written(key);
+            cache.remove(key);
+            negativeCache.invalidate(key);
+            snapshot.put(key, configurationJson);
+
+            return version;
+        } catch (final ConfigurationVersionConflictException e) {
+            op.failed(ErrorCode.ERROR_VERSION_CONFLICT);
+            throw e;
+        } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_SAVE);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration '" + configurationJson + "'!", e);
+        } finally {
+            op.close();
+        }
+    }
+
+
+    /**
+     * Saves the configuration with a conditional update which only matches the expected version,
+     * so concurrent saves do not need to be locked.
+     * 
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param obj the configuration document
+     * @param expectedVersion the expected version or 0 if the configuration must not exist yet
+     * @return the new version
+     * @throws ConfigurationVersionConflictException if the stored version is not the expected
+     *         version
+     */
+    private long saveVersioned(final String id, final String variation, final DBObject obj, final long expectedVersion) throws ConfigurationVersionConflictException {
+        final BasicDBObject query = new BasicDBObject(ID, id);
+        query.put(VARIATION, variation == null ? "" : variation);
+
+        if (!replace(query, obj, expectedVersion)) {
+            conflicted(RequestCoalescer.key(id, variation == null ? "" : variation));
+            throw new ConfigurationVersionConflictException(id, expectedVersion);
+        }
+
+        return expectedVersion + 1L;
+    }
+
+
+    /**
+     * Replaces the configuration document without an expected version. The version is read from
+     * the primary and the document is replaced with a conditional update on that version, which
+     * is retried if a concurrent write changed the version in between. So the version is always
+     * incremented from the stored version, like the <code>$inc</code> of patches, and does not
+     * depend on the clocks of the nodes. The retries back off and are limited to
+     * {@value #MAX_REPLACE_ATTEMPTS} attempts.
+     * 
+     * @param query the query of the configuration
+     * @param obj the configuration document
+     * @throws ConfigurationServiceException if the configuration could not be replaced within the
+     *         maximum attempts
+     */
+    private void replace(final BasicDBObject query, final DBObject obj) throws ConfigurationServiceException {
+        for (int attempt = 1;; attempt++) {
+            final DBObject current = findOne(query, new BasicDBObject(VERSION, 1), ReadPreference.primary(), "find");
+
+            if (replace(query, obj, current == null ? 0L : getVersion(current))) {
+                return;
+            }
+
+            retry(query, attempt);
+        }
+    }
+
+
+    /**
+     * Waits before the next attempt to replace a configuration which has been changed
+     * concurrently.
+     * 
+     * @param query the query of the configuration
+     * @param attempt the failed attempt
+     * @throws ConfigurationServiceException if the maximum attempts are reached or the thread is
+     *         interrupted
+     */
+    private static void retry(final BasicDBObject query, final int attempt) throws ConfigurationServiceException {
+        if (attempt >= MAX_REPLACE_ATTEMPTS) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Configuration " + query + " could not be replaced after " + attempt + " attempts!");
+        }
+
+        try {
+            Thread.sleep(10L * attempt);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Interrupted while waiting to replace configuration " + query + "!", e);
+        }
+    }
+
+
+    /**
+     * Replaces the configuration document if the stored version is the expected version and
+     * increments the version. If the configuration must not exist yet it is only inserted by an
+     * upsert with <code>$setOnInsert</code>.
+     * 
+     * @param query the query of the configuration
+     * @param obj the configuration document
+     * @param expectedVersion the expected version or 0 if the configuration must not exist yet
+     * @return false if the stored version is not the expected version
+     */
+    private boolean replace(final BasicDBObject query, final DBObject obj, final long expectedVersion) {
+        obj.put(VERSION, expectedVersion + 1L);
+
+        if (expectedVersion == 0L) {
+            // the fields of the query are taken from the query when inserting
+            final BasicDBObject insert = new BasicDBObject(obj.toMap());
+
+            for (final String field : query.keySet()) {
+                insert.removeField(field);
+            }
+
+            final WriteResult result = update(query, new BasicDBObject("$setOnInsert", insert), true);
+            return !Boolean.TRUE.equals(result.getField("updatedExisting"));
+        }
+
+        // configurations stored before versioning have no version field
+        final BasicDBObject condition = new BasicDBObject(query);
+        condition.put(VERSION, expectedVersion == UNVERSIONED ? new BasicDBObject("$in", Arrays.asList(null, UNVERSIONED)) : expectedVersion);
+
+        return update(condition, obj, false).getN() > 0;
+    }
+
+
+    /**
+     * Gets the version of the configuration document.
+     * 
+     * @param obj the configuration document
+     * @return the version
+     */
+    private static long getVersion(final DBObject obj) {
+        final Object version = obj.get(VERSION);
+
+        return version instanceof Number ? ((Number) version).longValue() : UNVERSIONED;
+    }
+
+
+    /**
+     * Applies a merge patch as <code>$set</code> and <code>$unset</code> of the changed fields, so
+     * only the changes are sent to mongo. JSON Patches and merge patches which cannot be expressed
+     * as field updates, e.g. because of field names containing dots, are applied to the stored
+     * configuration in memory.
+     */
+    @Override
+    public void patchConfigurationAsJson(final String id, final String variation, final String patch) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_PATCH);
+
+        try {
+            final String v = variation == null ? "" : variation;
+            final JsonNode patchNode = mapper.readTree(patch);
+
+            final BasicDBObject query = new BasicDBObject(ID, id);
+            query.put(VARIATION, v);
+
+            final BasicDBObject set = new BasicDBObject();
+            final BasicDBObject unset = new BasicDBObject();
+
+            if (patchNode.isObject() && toUpdateOperations(null, patchNode, set, unset, id, v)) {
+                if (!set.isEmpty() || !unset.isEmpty()) {
+                    final BasicDBObject update = new BasicDBObject();
+                    update.put("$inc", new BasicDBObject(VERSION, 1L));
+
+                    if (!set.isEmpty()) {
+                        update.put("$set", set);
+                    }
+
+                    if (!unset.isEmpty()) {
+                        update.put("$unset", unset);
+                    }
+
+                    try {
+                        update(query, update);
+                    } catch (final MongoException e) {
+                        // e.g. a patched object replaces a field which is not an object
+                        patchInMemory(query, id, v, patch);
+                    }
+                }
+            } else {
+                patchInMemory(query, id, v, patch);
+            }
+
+            final String key = RequestCoalescer.key(id, v);
+            written(key);
+            cache.remove(key);
+            negativeCache.invalidate(key);
+            // the patched document is not read back, so the snapshot is refreshed by the next read
+            snapshot.remove(key);
+        } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_SAVE);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error patching configuration '" + id + "'!", e);
+        } finally {
+            op.close();
+        }
+    }
+
+
+    /**
+     * Applies the patch to the configuration read from the primary and replaces it, if it has not
+     * been changed concurrently, otherwise the patch is applied again after a back off.
+     */
+    private void patchInMemory(final BasicDBObject query, final String id, final String variation, final String patch) throws IOException, ConfigurationServiceException {
+        for (int attempt = 1;; attempt++) {
+            final DBObject current = findOne(query, null, ReadPreference.primary(), "find");
+            final long version = current == null ? 0L : getVersion(current);
+            String json = null;
+
+            if (current != null) {
+                current.removeField("_id");
+                current.removeField(VERSION);
+                json = current.toString();
+            }
+
+            if (replace(query, (DBObject) JSON.parse(JsonPatches.apply(json, patch, id, variation)), version)) {
+                return;
+            }
+
+            retry(query, attempt);
+        }
+    }
+
+
+    /**
+     * Translates a merge patch into the fields to set and unset. Objects are merged field by
+     * field, so an empty object leaves the patched object unchanged.
+     * 
+     * @param path the dotted path of the patched object or null for the document
+     * @param patch the merge patch of the object
+     * @param set the fields to set
+     * @param unset the fields to unset
+     * @param id the configuration id
+     * @param variation the variation option
+     * @return false if the patch cannot be expressed as field updates
+     */
+    private boolean toUpdateOperations(final String path, final JsonNode patch, final BasicDBObject set, final BasicDBObject unset, final String id, final String variation) {
+        final Iterator<Entry<String, JsonNode>> it = patch.fields();
+
+        while (it.hasNext()) {
+            final Entry<String, JsonNode> field = it.next();
+            final String name = field.getKey();
+            final JsonNode value = field.getValue();
+
+            if (name.isEmpty() || name.indexOf('.') != -1 || name.startsWith("$") || name.equals("_id") || name.equals(VERSION)) {
+                return false;
+            }
+
+            if (path == null && (name.equals(ID) || name.equals(VARIATION))) {
+                if (!value.asText().equals(name.equals(ID) ? id : variation)) {
+                    throw new IllegalArgumentException("The " + name + " of a configuration must not be patched!");
+                }
+
+                continue;
+            }
+
+            final String fieldPath = path == null ? name : path + "." + name;
+
+            if (value.isNull()) {
+                unset.put(fieldPath, "");
+            } else if (value.isObject()) {
+                if (!toUpdateOperations(fieldPath, value, set, unset, id, variation)) {
+                    return false;
+                }
+            } else {
+                set.put(fieldPath, JSON.parse(value.toString()));
+            }
+        }
+
+        return true;
+    }
+
+
     @Override
     public void removeConfiguration(final String id, final String variation) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_REMOVE);
+
         try {
             final BasicDBObject ref = new BasicDBObject(ID, id);
             ref.put(VARIATION, variation);
 
-            db.getCollection(configurationCollectionName).remove(ref);
+            remove(ref);
+            written(RequestCoalescer.key(id, variation));
+            cache.remove(RequestCoalescer.key(id, variation));
+            snapshot.remove(RequestCoalescer.key(id, variation));
         } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_GET);
             throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error removing configuration '" + id + "'!", e);
-
+        } finally {
+            op.close();
         }
     }
 
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Creates the configuration with its defaults and stores it using the
+     * {@link DefaultConfigurationProvider}.
+     * 
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param clazz the configuration class
+     * @return the configuration or null if the defaults could not be loaded
+     */
     protected <T> T tryAndLoadProperties(final String id, final String variation, final Class<? extends IConfiguration> clazz) {
+        try (ISpan span = tracer.startSpan(BACKEND + ".defaults.load")) {
+            final T t = defaults.load(id, variation, clazz);
+            metrics.increment(BACKEND, IConfigurationMetrics.EVENT_DEFAULTS_LOADED);
+
+            return t;
+        } catch (final Exception e) {
+            metrics.increment(BACKEND, "defaults.failed");
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Gets the collection of the configuration. With a collection per namespace the
+     * configurations of a namespace are stored in the collection
+     * &lt;configurations&gt;.&lt;namespace&gt;, where the segments of the namespace are separated
+     * by dots, otherwise all configurations are stored in one collection.
+     * 
+     * @param ref the query containing the id of the configuration
+     * @return the {@link DBCollection}
+     */
+    protected DBCollection getCollection(final DBObject ref) {
+        if (collectionPerNamespace) {
+            final String namespace = ConfigurationNamespace.getNamespace((String) ref.get(ID));
+
+            if (!namespace.isEmpty()) {
+                return db.getCollection(configurationCollectionName + "." + namespace.replace(ConfigurationNamespace.PATH_SEPARATOR, '.'));
+            }
+        }
+
+        return db.getCollection(configurationCollectionName);
+    }
+
+
+    private DBObject findOne(final DBObject ref) {
+        return findOne(ref, null);
+    }
+
+
+    private DBObject findOne(final DBObject ref, final DBObject fields) {
+        final Operation op = start("find");
+        poolStatistics.acquired();
+
         try {
-            final IConfiguration t = clazz.getDeclaredConstructor().newInstance();
-            t.setId(id);
-            t.setVariation(variation);
+            if (fields != null) {
+                return getCollection(ref).findOne(ref, fields);
+            }
+
+            return getCollection(ref).findOne(ref);
+        } catch (final RuntimeException e) {
+            op.failed(e);
+            throw e;
+        } finally {
+            poolStatistics.released();
+            op.close();
+        }
+    }
+
+
+    /**
+     * Reads the document and hedges the read if enabled, i.e. sends it again with the hedge read
+     * preference if it is slow.
+     * <p>
+     * A secondary might not have replicated the latest writes yet, so a document which is not
+     * found by the hedge is read again from the primary before it is treated as not existing,
+     * e.g. before the defaults are stored. Documents written by this node are read again from
+     * the primary as well until a read from the primary has returned them, so an outdated
+     * document of a secondary is not cached over a newer local write.
+     * 
+     * @param ref the query
+     * @param fields the projection or null for all fields
+     * @return the document or null if not found
+     */
+    private DBObject findOneHedged(final DBObject ref, final DBObject fields) {
+        if (hedging == null) {
+            return findOne(ref, fields);
+        }
 
-            t.resetToDefault();
+        final String key = RequestCoalescer.key((String) ref.get(ID), (String) ref.get(VARIATION));
+        final Long write = unconfirmedWrites.get(key);
 
-            saveConfiguration(t);
+        try {
+            return hedging.execute(() -> {
+                final DBObject obj = findOne(ref, fields);
+                confirmed(key, write);
+                return obj;
+            }, () -> {
+                final DBObject obj = findOne(ref, fields, hedgeReadPreference, "find.hedge");
+
+                if (obj != null && write == null) {
+                    return obj;
+                }
 
-            return (T) t;
+                final DBObject primary = findOne(ref, fields, ReadPreference.primary(), "find");
+                confirmed(key, write);
+                return primary;
+            });
+        } catch (final RuntimeException e) {
+            throw e;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MongoException("Interrupted while reading configuration!", e);
         } catch (final Exception e) {
+            throw new MongoException("Error reading configuration!", e);
+        }
+    }
+
+
+    /**
+     * Remembers that the configuration has been written by this node, so hedged reads do not
+     * trust the secondaries for it until it has been read from the primary.
+     * 
+     * @param key the configuration key
+     */
+    /**
+     * Drops the copies of a configuration which has been changed by someone else, e.g. defaults
+     * which were cached while they were stored in the background and conflicted with a
+     * configuration stored by another node.
+     * 
+     * @param key the configuration key
+     */
+    private void conflicted(final String key) {
+        cache.remove(key);
+        negativeCache.invalidate(key);
+        snapshot.remove(key);
+    }
+
+
+    private void written(final String key) {
+        if (hedging != null) {
+            unconfirmedWrites.put(key, writes.incrementAndGet());
+        }
+    }
+
+
+    /**
+     * Forgets the write of the configuration after it has been read from the primary, unless it
+     * has been written again since the read started.
+     * 
+     * @param key the configuration key
+     * @param write the write which was unconfirmed when the read started or null
+     */
+    private void confirmed(final String key, final Long write) {
+        if (write != null) {
+            unconfirmedWrites.remove(key, write);
+        }
+    }
+
+
+    private DBObject findOne(final DBObject ref, final DBObject fields, final ReadPreference readPreference, final String operation) {
+        final Operation op = start(operation);
+        poolStatistics.acquired();
+
+        try {
+            return getCollection(ref).findOne(ref, fields, readPreference);
+        } catch (final RuntimeException e) {
+            op.failed(e);
+            throw e;
+        } finally {
+            poolStatistics.released();
+            op.close();
+        }
+    }
+
+
+    private void update(final DBObject query, final DBObject obj) {
+        update(query, obj, true);
+    }
+
+
+    private WriteResult update(final DBObject query, final DBObject obj, final boolean upsert) {
+        final Operation op = start("update");
+        poolStatistics.acquired();
+
+        try {
+            return getCollection(query).update(query, obj, upsert, false);
+        } catch (final RuntimeException e) {
+            op.failed(e);
+            throw e;
+        } finally {
+            poolStatistics.released();
+            op.close();
+        }
+    }
+
+
+    private void remove(final DBObject ref) {
+        final Operation op = start("delete");
+        poolStatistics.acquired();
+
+        try {
+            getCollection(ref).remove(ref);
+        } catch (final RuntimeException e) {
+            op.failed(e);
+            throw e;
+        } finally {
+            poolStatistics.released();
+            op.close();
         }
-        return null;
     }
 
 
     @Override
     @PreDestroy
     public void close() {
-        mongoClient.close();
+        if (preloader != null) {
+            preloader.close();
+        }
+
+        defaults.close();
+        cache.close();
+        snapshot.close();
+
+        if (hedging != null) {
+            hedging.close();
+        }
+
+        if (mongoClient != null) {
+            mongoClient.close();
+            mongoClient = null;
+        }
+    }
+
+
+    /**
+     * Gets the statistics of the connection pool usage to size the pool for the number of
+     * concurrent threads.
+     * 
+     * @return the {@link MongoPoolStatistics}
+     */
+    public MongoPoolStatistics getPoolStatistics() {
+        return poolStatistics;
+    }
+
+
+    /**
+     * Gets the cache of configurations known to not exist.
+     * 
+     * @return the {@link NegativeCache}
+     */
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+
+    /**
+     * Gets the cache of the configurations read from mongo.
+     * 
+     * @return the {@link ConfigurationCache}
+     */
+    public ConfigurationCache<String> getCache() {
+        return cache;
+    }
+
+
+    /**
+     * @param cache the cache to set
+     */
+    protected void setCache(final ConfigurationCache<String> cache) {
+        this.cache = cache;
+    }
+
+
+    /**
+     * Gets the hedging of slow reads.
+     * 
+     * @return the {@link HedgedRequests} or null if reads are not hedged
+     */
+    public HedgedRequests getHedging() {
+        return hedging;
+    }
+
+
+    /**
+     * @param hedging the hedging of slow reads to set or null to not hedge reads
+     */
+    protected void setHedging(final HedgedRequests hedging) {
+        this.hedging = hedging;
+    }
+
+
+    /**
+     * Gets the local snapshot of the configurations used to serve configurations if mongo is not
+     * available.
+     * 
+     * @return the {@link ConfigurationSnapshot}
+     */
+    public ConfigurationSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+
+    /**
+     * @param snapshot the snapshot to set
+     */
+    protected void setSnapshot(final ConfigurationSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+
+    /**
+     * @return the metrics the operations are recorded to
+     */
+    public IConfigurationMetrics getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Sets the metrics the operations are recorded to and registers the gauges.
+     * 
+     * @param metrics the metrics to set
+     */
+    public void setMetrics(final IConfigurationMetrics metrics) {
+        this.metrics = metrics;
+        registerMetrics();
+    }
+
+
+    /**
+     * Gets the provider creating configurations with their defaults.
+     * 
+     * @return the {@link DefaultConfigurationProvider}
+     */
+    public DefaultConfigurationProvider getDefaults() {
+        return defaults;
+    }
+
+
+    /**
+     * Gets the preloader of the configurations which are loaded at startup.
+     * 
+     * @return the {@link ConfigurationPreloader} or null if not initialized
+     */
+    public ConfigurationPreloader getPreloader() {
+        return preloader;
+    }
+
+
+    /**
+     * @return the tracer the phases of the operations are traced with
+     */
+    public IConfigurationTracer getTracer() {
+        return tracer;
+    }
+
+
+    /**
+     * @param tracer the tracer to set
+     */
+    public void setTracer(final IConfigurationTracer tracer) {
+        this.tracer = tracer;
     }
 
 
@@ -282,4 +1416,21 @@ public class ConfigurationServiceMongo implements IConfigurationService, AutoClo
     protected void setConfigurationCollectionName(final String configurationCollectionName) {
         this.configurationCollectionName = configurationCollectionName;
     }
+
+
+    /**
+     * @return true if the configurations of each namespace are stored in their own collection
+     */
+    protected boolean isCollectionPerNamespace() {
+        return collectionPerNamespace;
+    }
+
+
+    /**
+     * @param collectionPerNamespace true to store the configurations of each namespace in their
+     *        own collection
+     */
+    protected void setCollectionPerNamespace(final boolean collectionPerNamespace) {
+        this.collectionPerNamespace = collectionPerNamespace;
+    }
 }
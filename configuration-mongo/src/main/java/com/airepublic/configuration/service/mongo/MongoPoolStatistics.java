@@ -0,0 +1,139 @@
+/**
+      Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.airepublic.configuration.service.mongo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.MongoClientOptions;
+
+/**
+ * Statistics about the usage of the mongo connection pool by the {@link ConfigurationServiceMongo}.
+ * Each backend call holds a connection of the pool while it is in flight, so comparing the peak of
+ * concurrent calls with the configured pool size shows whether the pool is sized for the number of
+ * threads accessing the configurations.
+ *
+ * @author Torsten.Oltmanns@ai-republic.com
+ */
+public class MongoPoolStatistics {
+    private final int connectionsPerHost;
+    private final int maxWaitingThreads;
+    private final int maxWaitTime;
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final LongAdder operations = new LongAdder();
+
+    /**
+     * Constructor for an unconfigured pool.
+     */
+    public MongoPoolStatistics() {
+        this(0, 0, 0);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param options the options the mongo client was created with
+     */
+    public MongoPoolStatistics(final MongoClientOptions options) {
+        this(options.getConnectionsPerHost(), options.getConnectionsPerHost() * options.getThreadsAllowedToBlockForConnectionMultiplier(), options.getMaxWaitTime());
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param connectionsPerHost the maximum number of connections per host
+     * @param maxWaitingThreads the maximum number of threads waiting for a connection
+     * @param maxWaitTime the maximum time in milliseconds to wait for a connection
+     */
+    public MongoPoolStatistics(final int connectionsPerHost, final int maxWaitingThreads, final int maxWaitTime) {
+        this.connectionsPerHost = connectionsPerHost;
+        this.maxWaitingThreads = maxWaitingThreads;
+        this.maxWaitTime = maxWaitTime;
+    }
+
+
+    /**
+     * Marks that a backend call has started.
+     */
+    void acquired() {
+        operations.increment();
+        final int current = inUse.incrementAndGet();
+        peakInUse.accumulateAndGet(current, Math::max);
+    }
+
+
+    /**
+     * Marks that a backend call has finished.
+     */
+    void released() {
+        inUse.decrementAndGet();
+    }
+
+
+    /**
+     * @return the maximum number of connections per host
+     */
+    public int getConnectionsPerHost() {
+        return connectionsPerHost;
+    }
+
+
+    /**
+     * @return the maximum number of threads that may wait for a connection
+     */
+    public int getMaxWaitingThreads() {
+        return maxWaitingThreads;
+    }
+
+
+    /**
+     * @return the maximum time in milliseconds a thread waits for a connection
+     */
+    public int getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+
+    /**
+     * @return the number of backend calls currently in flight
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+
+    /**
+     * @return the highest number of concurrent backend calls seen so far
+     */
+    public int getPeakInUse() {
+        return peakInUse.get();
+    }
+
+
+    /**
+     * @return the total number of backend calls
+     */
+    public long getOperations() {
+        return operations.sum();
+    }
+
+
+    @Override
+    public String toString() {
+        return "MongoPoolStatistics [connectionsPerHost=" + connectionsPerHost + ", maxWaitingThreads=" + maxWaitingThreads + ", maxWaitTime=" + maxWaitTime + ", inUse=" + getInUse() + ", peakInUse=" + getPeakInUse() + ", operations=" + getOperations() + "]";
+    }
+}
@@ -14,20 +14,54 @@
 package com.airepublic.configuration.service.mongo;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PropertyResourceBundle;
+import java.util.ResourceBundle;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import com.airepublic.configuration.api.ConfigurationCache;
+import com.airepublic.configuration.api.ConfigurationPreloader;
+import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationSnapshot;
+import com.airepublic.configuration.api.ConfigurationVersionConflictException;
+import com.airepublic.configuration.api.DefaultConfigurationProvider;
+import com.airepublic.configuration.api.HedgedRequests;
+import com.airepublic.configuration.api.RequestCoalescer;
+import com.airepublic.configuration.api.metrics.DefaultConfigurationMetrics;
+import com.airepublic.configuration.api.metrics.IConfigurationMetrics;
+import com.airepublic.configuration.api.tracing.ISpan;
 import com.airepublic.configuration.service.mongo.TestConfiguration;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoException;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteResult;
 import com.mongodb.util.JSON;
 
 /**
@@ -39,6 +73,7 @@ public class ConfigurationServiceTest {
 	private ConfigurationServiceMongo service = new ConfigurationServiceMongo();
 	private DBCollection mockCol = mock(DBCollection.class);
 	private DB mockDB = mock(DB.class); 
+	private WriteResult written = mock(WriteResult.class);
 	
 	@Before
 	public void setUp() {
@@ -46,19 +81,25 @@ public class ConfigurationServiceTest {
 		service.setMongoClient(mock(MongoClient.class));
 		service.setDb(mockDB);
 		when(mockDB.getCollection(any(String.class))).thenReturn(mockCol);
+		when(written.getN()).thenReturn(1);
+		when(mockCol.update(any(DBObject.class), any(DBObject.class), any(Boolean.class), any(Boolean.class))).thenReturn(written);
 	}
 	
 	@Test
 	public void saveConfigurationTest() throws Exception {
 		TestConfiguration config = new TestConfiguration("testConfiguration", null, "hello");
-		when(mockCol.update(any(DBObject.class), any(DBObject.class), any(Boolean.class), any(Boolean.class))).then(new Answer<DBObject>() {
+		when(mockCol.findOne(any(DBObject.class), any(DBObject.class), any(ReadPreference.class))).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\", _version:41}"));
+		when(mockCol.update(any(DBObject.class), any(DBObject.class), any(Boolean.class), any(Boolean.class))).then(new Answer<WriteResult>() {
 			@Override
-			public DBObject answer(InvocationOnMock invocation) throws Throwable {
+			public WriteResult answer(InvocationOnMock invocation) throws Throwable {
+				DBObject query = (DBObject)invocation.getArguments()[0];
 				DBObject value = (DBObject)invocation.getArguments()[1];
+				Assert.assertEquals(41L, query.get("_version"));
+				Assert.assertEquals(42L, value.get("_version"));
 				Assert.assertEquals("testConfiguration", value.get("id"));
 				Assert.assertEquals("", value.get("variation"));
 				Assert.assertEquals("hello", value.get("test"));
-				return null;
+				return written;
 			}
 		});
 		service.saveConfiguration(config);
@@ -66,19 +107,39 @@ public class ConfigurationServiceTest {
 
 	@Test
 	public void saveConfigurationAsJsonTest() throws Exception {
-		when(mockCol.update(any(DBObject.class), any(DBObject.class), any(Boolean.class), any(Boolean.class))).then(new Answer<DBObject>() {
+		when(mockCol.findOne(any(DBObject.class), any(DBObject.class), any(ReadPreference.class))).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\", _version:41}"));
+		when(mockCol.update(any(DBObject.class), any(DBObject.class), any(Boolean.class), any(Boolean.class))).then(new Answer<WriteResult>() {
 			@Override
-			public DBObject answer(InvocationOnMock invocation) throws Throwable {
+			public WriteResult answer(InvocationOnMock invocation) throws Throwable {
 				DBObject value = (DBObject)invocation.getArguments()[1];
+				Assert.assertEquals(42L, value.get("_version"));
 				Assert.assertEquals("testConfiguration", value.get("id"));
 				Assert.assertEquals(null, value.get("variation"));
 				Assert.assertEquals("helloAgain", value.get("test"));
-				return null;
+				return written;
 			}
 		});
 		service.saveConfigurationAsJson("{ id : \"testConfiguration\" , variation : null , test : \"helloAgain\" }");
 	}
 
+	
+	@Test
+	public void replaceRetriesTest() throws Exception {
+		final WriteResult notUpdated = mock(WriteResult.class);
+		when(notUpdated.getN()).thenReturn(0);
+		// a version which is not a number never matches the conditional update
+		when(mockCol.findOne(any(DBObject.class), any(DBObject.class), any(ReadPreference.class))).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\", _version:\"broken\"}"));
+		when(mockCol.update(any(DBObject.class), any(DBObject.class), any(Boolean.class), any(Boolean.class))).thenReturn(notUpdated);
+		
+		try {
+			service.saveConfigurationAsJson("{ id : \"testConfiguration\" , variation : null , test : \"helloAgain\" }");
+			Assert.fail("Expected exception");
+		} catch (final ConfigurationServiceException e) {
+		}
+		
+		verify(mockCol, times(10)).update(any(DBObject.class), any(DBObject.class), eq(false), eq(false));
+	}
+
 	@Test
 	public void getConfigurationTest() throws Exception {
 		when(mockCol.findOne(any(DBObject.class))).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\", id:\"testConfiguration\", variation:null, test:\"helloAgain\"}"));
@@ -142,4 +203,432 @@ public class ConfigurationServiceTest {
 		
 		Assert.assertEquals("Hello world A", config.getTest());
 	}
+	
+	@Test
+	public void createClientOptionsTest() throws Exception {
+		ResourceBundle props = new PropertyResourceBundle(new StringReader("mongo.pool.connectionsPerHost=20\nmongo.pool.threadsAllowedToBlockMultiplier=3\nmongo.pool.maxWaitTime=1500\nmongo.connectTimeout=1000\nmongo.readPreference=secondaryPreferred"));
+		MongoClientOptions options = service.createClientOptions(props);
+		
+		Assert.assertEquals(20, options.getConnectionsPerHost());
+		Assert.assertEquals(3, options.getThreadsAllowedToBlockForConnectionMultiplier());
+		Assert.assertEquals(1500, options.getMaxWaitTime());
+		Assert.assertEquals(1000, options.getConnectTimeout());
+		Assert.assertEquals("secondaryPreferred", options.getReadPreference().getName());
+		
+		MongoPoolStatistics statistics = new MongoPoolStatistics(options);
+		Assert.assertEquals(20, statistics.getConnectionsPerHost());
+		Assert.assertEquals(60, statistics.getMaxWaitingThreads());
+	}
+	
+	@Test
+	public void poolStatisticsTest() throws Exception {
+		when(mockCol.findOne(any(DBObject.class))).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\", id:\"testConfiguration\", variation:null, test:\"helloAgain\"}"));
+		
+		service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		service.getConfigurationAsJson("testConfiguration", null);
+		
+		Assert.assertEquals(2, service.getPoolStatistics().getOperations());
+		Assert.assertEquals(0, service.getPoolStatistics().getInUse());
+		Assert.assertEquals(1, service.getPoolStatistics().getPeakInUse());
+	}
+	
+	@Test
+	public void concurrentMissesAreCoalescedTest() throws Exception {
+		final AtomicInteger reads = new AtomicInteger();
+		final AtomicInteger writes = new AtomicInteger();
+		when(mockCol.findOne(any(DBObject.class))).then(new Answer<DBObject>() {
+			@Override
+			public DBObject answer(InvocationOnMock invocation) throws Throwable {
+				reads.incrementAndGet();
+				Thread.sleep(300);
+				return null;
+			}
+		});
+		when(mockCol.update(any(DBObject.class), any(DBObject.class), any(Boolean.class), any(Boolean.class))).then(new Answer<WriteResult>() {
+			@Override
+			public WriteResult answer(InvocationOnMock invocation) throws Throwable {
+				writes.incrementAndGet();
+				return written;
+			}
+		});
+		
+		final int threads = 10;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<TestConfiguration>> results = new ArrayList<>();
+		
+		for (int i = 0; i < threads; i++) {
+			results.add(executor.submit(() -> {
+				start.await();
+				return service.<TestConfiguration> getConfiguration("testConfiguration", "A", TestConfiguration.class);
+			}));
+		}
+		
+		start.countDown();
+		
+		for (Future<TestConfiguration> result : results) {
+			Assert.assertEquals("Hello world A", result.get().getTest());
+		}
+		
+		executor.shutdown();
+		
+		Assert.assertEquals(1, reads.get());
+		Assert.assertEquals(1, writes.get());
+	}
+	
+	@Test
+	public void hedgedReadTest() throws Exception {
+		final String[] secondary = { null };
+		service.setHedging(new HedgedRequests(95.0, 0L, 1.0));
+		when(mockCol.findOne(any(DBObject.class))).then(new Answer<DBObject>() {
+			@Override
+			public DBObject answer(InvocationOnMock invocation) throws Throwable {
+				Thread.sleep(1000);
+				return (DBObject)JSON.parse("{id:\"testConfiguration\", variation:\"\", test:\"slow\"}");
+			}
+		});
+		when(mockCol.findOne(any(DBObject.class), any(DBObject.class), any(ReadPreference.class))).then(new Answer<DBObject>() {
+			@Override
+			public DBObject answer(InvocationOnMock invocation) throws Throwable {
+				if (ReadPreference.primary().equals(invocation.getArguments()[2])) {
+					return (DBObject)JSON.parse("{id:\"testConfiguration\", variation:\"\", test:\"primary\"}");
+				}
+				
+				return secondary[0] == null ? null : (DBObject)JSON.parse(secondary[0]);
+			}
+		});
+		
+		// not found on the secondary is read again from the primary instead of creating the defaults
+		Assert.assertTrue(service.getConfigurationAsJson("testConfiguration", null).contains("primary"));
+		Assert.assertEquals(0, service.getDefaults().getCreated());
+		Assert.assertEquals(1, service.getHedging().getHedgeWins());
+		
+		// the secondary is not trusted after this node has written the configuration
+		service.saveConfigurationAsJson("{ id : \"testConfiguration\" , variation : \"\" , test : \"primary\" }");
+		secondary[0] = "{id:\"testConfiguration\", variation:\"\", test:\"old\"}";
+		Assert.assertTrue(service.getConfigurationAsJson("testConfiguration", null).contains("primary"));
+		
+		// until it has been read from the primary
+		service.getCache().remove(RequestCoalescer.key("testConfiguration", ""));
+		Assert.assertTrue(service.getConfigurationAsJson("testConfiguration", null).contains("old"));
+		service.getHedging().close();
+	}
+	
+	@Test
+	public void negativeCachingTest() throws Exception {
+		final AtomicInteger reads = new AtomicInteger();
+		when(mockCol.findOne(any(DBObject.class))).then(new Answer<DBObject>() {
+			@Override
+			public DBObject answer(InvocationOnMock invocation) throws Throwable {
+				reads.incrementAndGet();
+				return null;
+			}
+		});
+		
+		for (int i = 0; i < 100; i++) {
+			Assert.assertNull(service.getConfigurationAsJson("unknownConfiguration", null));
+		}
+		
+		Assert.assertEquals(1, reads.get());
+		Assert.assertEquals(99, service.getNegativeCache().getHits());
+		
+		service.saveConfigurationAsJson("{ id : \"unknownConfiguration\" , variation : \"\" , test : \"hello\" }");
+		
+		Assert.assertEquals(1, service.getNegativeCache().getInvalidations());
+		service.getConfigurationAsJson("unknownConfiguration", null);
+		Assert.assertEquals(2, reads.get());
+	}
+	
+	@Test
+	public void staleIfErrorTest() throws Exception {
+		service.setCache(new ConfigurationCache<String>(0, 60000, false));
+		when(mockCol.findOne(any(DBObject.class))).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\", id:\"testConfiguration\", variation:null, test:\"helloAgain\"}")).thenThrow(new MongoException("Mongo is down"));
+		
+		TestConfiguration chk = service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		Assert.assertEquals("helloAgain", chk.getTest());
+		
+		chk = service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		Assert.assertEquals("helloAgain", chk.getTest());
+		Assert.assertEquals(1, service.getCache().getStaleOnError());
+	}
+	
+	
+	@Test
+	public void snapshotFallbackTest() throws Exception {
+		final Path file = Files.createTempDirectory("snapshot").resolve("configurations.properties");
+		ConfigurationSnapshot snapshot = new ConfigurationSnapshot(file, 0);
+		service.setSnapshot(snapshot);
+		when(mockCol.findOne(any(DBObject.class))).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\", id:\"testConfiguration\", variation:null, test:\"helloAgain\"}")).thenThrow(new MongoException("Mongo is down"));
+		
+		TestConfiguration chk = service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		Assert.assertEquals("helloAgain", chk.getTest());
+		snapshot.close();
+		Assert.assertTrue(Files.exists(file));
+		
+		// simulate a restart while mongo is down
+		snapshot = new ConfigurationSnapshot(file, 0);
+		Assert.assertEquals(1, snapshot.load());
+		service.setSnapshot(snapshot);
+		
+		chk = service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		Assert.assertEquals("helloAgain", chk.getTest());
+		
+		try {
+			service.getConfiguration("unknownConfiguration", null, TestConfiguration.class);
+			Assert.fail("Expected exception");
+		} catch (final Exception e) {
+		}
+	}
+	
+	
+	@Test
+	public void metricsTest() throws Exception {
+		final DefaultConfigurationMetrics metrics = new DefaultConfigurationMetrics();
+		service.setMetrics(metrics);
+		when(mockCol.findOne(any(DBObject.class))).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\", id:\"testConfiguration\", variation:null, test:\"helloAgain\"}")).thenThrow(new MongoException("Mongo is down"));
+		
+		service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		
+		try {
+			service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+			Assert.fail("Expected exception");
+		} catch (final Exception e) {
+		}
+		
+		Assert.assertEquals(1, metrics.getHistogram("mongo", IConfigurationMetrics.OPERATION_GET, IConfigurationMetrics.NO_ERROR).getCount());
+		Assert.assertEquals(1, metrics.getHistogram("mongo", IConfigurationMetrics.OPERATION_GET, "ERROR_GET").getCount());
+		Assert.assertEquals(1, metrics.getHistogram("mongo", "find", IConfigurationMetrics.NO_ERROR).getCount());
+		Assert.assertEquals(1, metrics.getHistogram("mongo", "find", "MongoException").getCount());
+		Assert.assertEquals(2.0, metrics.getGauge("mongo", "cache.misses"), 0.0);
+	}
+	
+	
+	@Test
+	public void tracingTest() throws Exception {
+		final List<String> spans = new ArrayList<>();
+		service.setTracer(name -> {
+			spans.add(name);
+			return ISpan.NOOP;
+		});
+		when(mockCol.findOne(any(DBObject.class))).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\", id:\"testConfiguration\", variation:null, test:\"helloAgain\"}"));
+		
+		service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		
+		Assert.assertEquals("mongo.get", spans.get(0));
+		Assert.assertTrue(spans.contains("mongo.find"));
+		Assert.assertTrue(spans.contains("mongo.json.map"));
+	}
+	
+	
+	@Test
+	public void preloadTest() throws Exception {
+		when(mockCol.findOne(any(DBObject.class))).thenThrow(new MongoException("Mongo is down")).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\", id:\"testConfiguration\", variation:null, test:\"helloAgain\"}"));
+		
+		final ConfigurationPreloader preloader = new ConfigurationPreloader(service, 2, 10);
+		preloader.addAll(TestConfiguration.class.getName() + ":testConfiguration, " + TestConfiguration.class.getName() + ":testConfiguration:variation");
+		Assert.assertFalse(preloader.isReady());
+		
+		preloader.start();
+		Assert.assertTrue(preloader.await(5000));
+		Assert.assertEquals(2, preloader.getLoaded());
+		Assert.assertEquals(1, preloader.getFailures());
+		Assert.assertTrue(preloader.getDuration() >= 0);
+		preloader.close();
+	}
+	
+	
+	@Test
+	public void mergePatchTest() throws Exception {
+		final ArgumentCaptor<DBObject> captor = ArgumentCaptor.forClass(DBObject.class);
+		
+		service.patchConfigurationAsJson("testConfiguration", null, "{\"id\":\"testConfiguration\", \"test\":\"patched\", \"obsolete\":null, \"nested\":{\"value\":1}}");
+		
+		verify(mockCol).update(any(DBObject.class), captor.capture(), eq(true), eq(false));
+		final DBObject set = (DBObject) captor.getValue().get("$set");
+		final DBObject unset = (DBObject) captor.getValue().get("$unset");
+		final DBObject inc = (DBObject) captor.getValue().get("$inc");
+		Assert.assertEquals(1L, inc.get("_version"));
+		Assert.assertFalse(set.containsField("_version"));
+		Assert.assertEquals("patched", set.get("test"));
+		Assert.assertEquals(1, set.get("nested.value"));
+		Assert.assertFalse(set.containsField("id"));
+		Assert.assertTrue(unset.containsField("obsolete"));
+	}
+	
+	
+	@Test
+	public void patchSnapshotTest() throws Exception {
+		final ConfigurationSnapshot snapshot = new ConfigurationSnapshot(Files.createTempDirectory("snapshot").resolve("configurations.properties"), 0);
+		service.setSnapshot(snapshot);
+		snapshot.put("testConfiguration_", "{\"id\":\"testConfiguration\", \"variation\":\"\", \"test\":\"hello\"}");
+		
+		service.patchConfigurationAsJson("testConfiguration", null, "{\"test\":\"patched\"}");
+		
+		// the pre-patch configuration must not be served if mongo is down
+		Assert.assertNull(snapshot.get("testConfiguration_"));
+	}
+	
+	
+	@Test
+	public void emptyObjectMergePatchTest() throws Exception {
+		final ArgumentCaptor<DBObject> captor = ArgumentCaptor.forClass(DBObject.class);
+		
+		service.patchConfigurationAsJson("testConfiguration", null, "{\"nested\":{}, \"other\":{\"empty\":{}}, \"obsolete\":null}");
+		
+		verify(mockCol).update(any(DBObject.class), captor.capture(), eq(true), eq(false));
+		// the empty objects leave the stored objects unchanged
+		Assert.assertNull(captor.getValue().get("$set"));
+		Assert.assertTrue(((DBObject) captor.getValue().get("$unset")).containsField("obsolete"));
+		
+		service.patchConfigurationAsJson("testConfiguration", null, "{\"nested\":{}}");
+		
+		verify(mockCol, times(1)).update(any(DBObject.class), any(DBObject.class), eq(true), eq(false));
+	}
+	
+	
+	@Test
+	public void jsonPatchTest() throws Exception {
+		final ArgumentCaptor<DBObject> captor = ArgumentCaptor.forClass(DBObject.class);
+		when(mockCol.findOne(any(DBObject.class), any(DBObject.class), any(ReadPreference.class))).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\", id:\"testConfiguration\", variation:\"\", test:\"helloAgain\", _version:3}"));
+		
+		service.patchConfigurationAsJson("testConfiguration", null, "[{\"op\":\"test\", \"path\":\"/test\", \"value\":\"helloAgain\"}, {\"op\":\"replace\", \"path\":\"/test\", \"value\":\"patched\"}]");
+		
+		verify(mockCol).update(any(DBObject.class), captor.capture(), eq(false), eq(false));
+		Assert.assertEquals(4L, captor.getValue().get("_version"));
+		Assert.assertEquals("patched", captor.getValue().get("test"));
+		Assert.assertEquals("testConfiguration", captor.getValue().get("id"));
+		
+		try {
+			service.patchConfigurationAsJson("testConfiguration", null, "[{\"op\":\"replace\", \"path\":\"/id\", \"value\":\"other\"}]");
+			Assert.fail("Expected exception");
+		} catch (final ConfigurationServiceException e) {
+		}
+	}
+	
+	
+	@Test
+	public void versionTest() throws Exception {
+		final ArgumentCaptor<DBObject> captor = ArgumentCaptor.forClass(DBObject.class);
+		final WriteResult updated = mock(WriteResult.class);
+		final WriteResult notUpdated = mock(WriteResult.class);
+		when(updated.getN()).thenReturn(1);
+		when(notUpdated.getN()).thenReturn(0);
+		when(mockCol.update(any(DBObject.class), any(DBObject.class), eq(false), eq(false))).thenReturn(updated).thenReturn(notUpdated);
+		when(mockCol.findOne(any(DBObject.class), any(DBObject.class))).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\", _version:42}")).thenReturn((DBObject)JSON.parse("{_id:\"asdfasdf\"}")).thenReturn(null);
+		
+		Assert.assertEquals(42L, service.getConfigurationVersion("testConfiguration", null));
+		Assert.assertEquals(1L, service.getConfigurationVersion("testConfiguration", null));
+		Assert.assertEquals(0L, service.getConfigurationVersion("testConfiguration", null));
+		
+		final long version = service.saveConfigurationAsJson("{ id : \"testConfiguration\" , variation : \"\" , test : \"hello\" }", 42L);
+		Assert.assertTrue(version > 42L);
+		
+		verify(mockCol).update(captor.capture(), any(DBObject.class), eq(false), eq(false));
+		Assert.assertEquals(42L, captor.getValue().get("_version"));
+		
+		try {
+			service.saveConfiguration(new TestConfiguration("testConfiguration", null, "hello"), 42L);
+			Assert.fail("Expected exception");
+		} catch (final ConfigurationVersionConflictException e) {
+			Assert.assertEquals(42L, e.getExpectedVersion());
+		}
+	}
+	
+	
+	@Test
+	public void createOnlyIfNotExistsTest() throws Exception {
+		final ArgumentCaptor<DBObject> captor = ArgumentCaptor.forClass(DBObject.class);
+		final WriteResult inserted = mock(WriteResult.class);
+		final WriteResult existing = mock(WriteResult.class);
+		when(inserted.getField("updatedExisting")).thenReturn(Boolean.FALSE);
+		when(existing.getField("updatedExisting")).thenReturn(Boolean.TRUE);
+		when(mockCol.update(any(DBObject.class), any(DBObject.class), eq(true), eq(false))).thenReturn(inserted).thenReturn(existing);
+		
+		service.saveConfiguration(new TestConfiguration("testConfiguration", null, "hello"), 0L);
+		
+		verify(mockCol).update(any(DBObject.class), captor.capture(), eq(true), eq(false));
+		final DBObject setOnInsert = (DBObject) captor.getValue().get("$setOnInsert");
+		Assert.assertEquals("hello", setOnInsert.get("test"));
+		Assert.assertTrue(setOnInsert.containsField("_version"));
+		
+		try {
+			service.saveConfiguration(new TestConfiguration("testConfiguration", null, "hello"), 0L);
+			Assert.fail("Expected exception");
+		} catch (final ConfigurationVersionConflictException e) {
+		}
+	}
+	
+	
+	@Test
+	public void projectionTest() throws Exception {
+		final ArgumentCaptor<DBObject> captor = ArgumentCaptor.forClass(DBObject.class);
+		when(mockCol.findOne(any(DBObject.class), any(DBObject.class))).thenReturn((DBObject)JSON.parse("{nested:{value:1, list:[\"a\", \"b\"]}}")).thenReturn(null);
+		
+		String chk = service.getConfigurationAsJson("testConfiguration", null, Arrays.asList("/nested/value", "/nested/list/1", "/nested", "/missing"));
+		
+		verify(mockCol).findOne(any(DBObject.class), captor.capture());
+		Assert.assertEquals(0, captor.getValue().get("_id"));
+		Assert.assertEquals(1, captor.getValue().get("nested"));
+		Assert.assertEquals(1, captor.getValue().get("missing"));
+		Assert.assertFalse(captor.getValue().containsField("nested.value"));
+		Assert.assertEquals("{\"/nested/value\":1,\"/nested/list/1\":\"b\",\"/nested\":{\"value\":1,\"list\":[\"a\",\"b\"]}}", chk);
+		
+		Assert.assertNull(service.getConfigurationAsJson("unknownConfiguration", null, Arrays.asList("/test")));
+		Assert.assertNull(service.getConfigurationAsJson("unknownConfiguration", null, Arrays.asList("/test")));
+		Assert.assertEquals(1, service.getNegativeCache().getHits());
+	}
+	
+	
+	@Test
+	public void defaultsTest() throws Exception {
+		final AtomicInteger writes = new AtomicInteger();
+		when(mockCol.update(any(DBObject.class), any(DBObject.class), any(Boolean.class), any(Boolean.class))).then(new Answer<WriteResult>() {
+			@Override
+			public WriteResult answer(InvocationOnMock invocation) throws Throwable {
+				writes.incrementAndGet();
+				return written;
+			}
+		});
+		DefaultConfigurationProvider defaults = new DefaultConfigurationProvider(service, false);
+		
+		TestConfiguration config = defaults.load("testConfiguration", "A", TestConfiguration.class);
+		Assert.assertEquals("Hello world A", config.getTest());
+		config = defaults.load("testConfiguration", "A", TestConfiguration.class);
+		Assert.assertEquals("Hello world A", config.getTest());
+		Assert.assertEquals(1, defaults.getCreated());
+		Assert.assertEquals(1, defaults.getHits());
+		Assert.assertEquals(2, writes.get());
+		
+		try {
+			defaults.load("unknownConfiguration", null, TestConfiguration.class);
+			Assert.fail("Expected exception");
+		} catch (final ConfigurationServiceException e) {
+			Assert.assertEquals(1, defaults.getFailures());
+		}
+		
+		defaults = new DefaultConfigurationProvider(service, true);
+		config = defaults.load("testConfiguration", "B", TestConfiguration.class);
+		Assert.assertEquals("Hello world B", config.getTest());
+		defaults.close();
+		Assert.assertEquals(0, defaults.getPending());
+		Assert.assertEquals(1, defaults.getPersisted());
+		Assert.assertEquals(3, writes.get());
+	}
+	
+	
+	@Test
+	public void namespaceCollectionTest() throws Exception {
+		DBCollection tenantCol = mock(DBCollection.class);
+		when(mockDB.getCollection("configurationCollection.acme.eu")).thenReturn(tenantCol);
+		when(tenantCol.update(any(DBObject.class), any(DBObject.class), any(Boolean.class), any(Boolean.class))).thenReturn(written);
+		service.setCollectionPerNamespace(true);
+		
+		service.forNamespace("acme/eu").saveConfiguration(new TestConfiguration("testConfiguration", null, "tenant"));
+		
+		// the configurations of a namespace are stored in its own collection
+		ArgumentCaptor<DBObject> captor = ArgumentCaptor.forClass(DBObject.class);
+		verify(tenantCol).update(captor.capture(), any(DBObject.class), eq(true), eq(false));
+		Assert.assertEquals("acme/eu!testConfiguration", captor.getValue().get("id"));
+		verify(mockCol, never()).update(any(DBObject.class), any(DBObject.class), any(Boolean.class), any(Boolean.class));
+	}
 }
@@ -14,24 +14,66 @@
 package com.airepublic.configuration.service.solr;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Singleton;
 
+import org.apache.http.client.HttpClient;
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.CloudSolrServer;
+import org.apache.solr.client.solrj.impl.HttpClientUtil;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.impl.LBHttpSolrServer;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.cloud.ClusterState;
+import org.apache.solr.common.cloud.Replica;
+import org.apache.solr.common.cloud.Slice;
+import org.apache.solr.common.cloud.ZkCoreNodeProps;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
 
+import com.airepublic.configuration.api.ConfigurationCache;
+import com.airepublic.configuration.api.ConfigurationNamespace;
+import com.airepublic.configuration.api.ConfigurationPreloader;
 import com.airepublic.configuration.api.ConfigurationServiceException;
+import com.airepublic.configuration.api.ConfigurationSnapshot;
 import com.airepublic.configuration.api.ConfigurationServiceException.ErrorCode;
+import com.airepublic.configuration.api.ConfigurationVersionConflictException;
+import com.airepublic.configuration.api.DefaultConfigurationProvider;
+import com.airepublic.configuration.api.HedgedRequests;
 import com.airepublic.configuration.api.IConfiguration;
 import com.airepublic.configuration.api.IConfigurationService;
+import com.airepublic.configuration.api.JsonPatches;
+import com.airepublic.configuration.api.JsonProjection;
+import com.airepublic.configuration.api.NegativeCache;
+import com.airepublic.configuration.api.RequestCoalescer;
+import com.airepublic.configuration.api.metrics.ConfigurationMetrics;
+import com.airepublic.configuration.api.metrics.IConfigurationMetrics;
+import com.airepublic.configuration.api.metrics.Operation;
+import com.airepublic.configuration.api.tracing.ConfigurationTracing;
+import com.airepublic.configuration.api.tracing.IConfigurationTracer;
+import com.airepublic.configuration.api.tracing.ISpan;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -44,15 +86,100 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
  */
 @Singleton
 @ConfigurationSolrQualifier
-public class ConfigurationServiceSolr implements IConfigurationService {
+public class ConfigurationServiceSolr implements IConfigurationService, AutoCloseable {
     private final static String ID = "id";
     private final static String VARIATION = "variation";
     private final static String CONFIGURATION = "configuration";
-    private final static long CACHE_REFRESH_INTERVAL = 3600000L; // one hour
-    private HttpSolrServer solrServer;
+    private final static String KEY = "key";
+    private final static String ROUTE = "_route_";
+    private final static String VERSION = "_version_";
+    private final static int CONFLICT = 409;
+    private final static String BACKEND = "solr";
+    private final static int CACHE_REFRESH_INTERVAL = 3600000; // one hour
+    /** The default time in ms within which solr commits a change with {@link CommitStrategy#COMMIT_WITHIN}. */
+    public final static int DEFAULT_COMMIT_WITHIN = 1000;
+    // the max. time in ms a change is read from memory if solr does not return it, e.g. because another node overwrote it
+    private final static long MAX_UNCONFIRMED = 60000L;
+    // the max. attempts to patch a configuration which is changed concurrently
+    private final static int MAX_PATCH_ATTEMPTS = 10;
+    private SolrServer solrServer;
+    private HttpClient httpClient;
+    private boolean versioning;
+    private boolean routing = false;
+    private CommitStrategy commitStrategy = CommitStrategy.EXPLICIT;
+    private int commitWithin = DEFAULT_COMMIT_WITHIN;
     private final ObjectMapper mapper = new ObjectMapper();
-    private long currentTime = System.currentTimeMillis();
-    private final Map<String, IConfiguration> cache = new HashMap<>();
+    private ConfigurationCache<IConfiguration> cache = new ConfigurationCache<>(CACHE_REFRESH_INTERVAL, 0L, false);
+    private NegativeCache negativeCache = new NegativeCache();
+    private ConfigurationSnapshot snapshot = new ConfigurationSnapshot();
+    private IConfigurationMetrics metrics = ConfigurationMetrics.get();
+    private IConfigurationTracer tracer = ConfigurationTracing.get();
+    private ConfigurationPreloader preloader;
+    private DefaultConfigurationProvider defaults = new DefaultConfigurationProvider(this, false, false);
+    private HedgedRequests hedging;
+    private List<String> baseUrls = Collections.emptyList();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final RequestCoalescer<IConfiguration> configurationLoader = new RequestCoalescer<>();
+    private final RequestCoalescer<String> jsonLoader = new RequestCoalescer<>();
+    private final ConcurrentHashMap<String, RecentWrite> recentWrites = new ConcurrentHashMap<>();
+
+    /**
+     * How changes are committed to solr.
+     */
+    public enum CommitStrategy {
+        /**
+         * Solr commits the changes within <code>solr.commitWithin</code> ms, so several changes
+         * share one commit. Until then the changes of this node are read from memory.
+         */
+        COMMIT_WITHIN,
+        /**
+         * Every change is soft committed, i.e. it is visible without flushing the segments to
+         * disk.
+         */
+        SOFT,
+        /**
+         * Every change is hard committed, i.e. the segments are flushed and a new searcher is
+         * opened.
+         */
+        EXPLICIT;
+
+        /**
+         * Parses the value of the <code>solr.commit</code> property.
+         * 
+         * @param value commitWithin, soft or explicit
+         * @return the {@link CommitStrategy}
+         * @throws IllegalArgumentException if the value is unknown
+         */
+        public static CommitStrategy parse(final String value) {
+            switch (value.trim().toLowerCase()) {
+                case "commitwithin":
+                    return COMMIT_WITHIN;
+                case "soft":
+                    return SOFT;
+                case "explicit":
+                    return EXPLICIT;
+                default:
+                    throw new IllegalArgumentException("Unknown solr.commit strategy '" + value + "'!");
+            }
+        }
+    }
+
+    /**
+     * A change which might not be committed yet.
+     */
+    private static class RecentWrite {
+        private final String json;
+        private final long version;
+        private final long committedAt;
+        private final long expiresAt;
+
+        private RecentWrite(final String json, final long version, final long committedAt, final long expiresAt) {
+            this.json = json;
+            this.version = version;
+            this.committedAt = committedAt;
+            this.expiresAt = expiresAt;
+        }
+    }
 
 
     /**
@@ -67,100 +194,450 @@ public class ConfigurationServiceSolr implements IConfigurationService {
     public void initialize() throws IOException {
         // read solr configuration
         final ResourceBundle props = ResourceBundle.getBundle("solr");
-        final String baseUrl = props.getString("solr.base.url.configuration");
 
-        solrServer = new HttpSolrServer(baseUrl);
+        // load the local snapshot first, so configurations can be served without solr
+        final String snapshotFile = getProperty(props, "solr.snapshot.file", null);
+
+        if (snapshotFile != null && !snapshotFile.isBlank()) {
+            snapshot = new ConfigurationSnapshot(Paths.get(snapshotFile), getIntProperty(props, "solr.snapshot.writeDelay", ConfigurationSnapshot.DEFAULT_WRITE_DELAY));
+            snapshot.load();
+        }
+
+        solrServer = createSolrServer(props);
+        versioning = Boolean.parseBoolean(getProperty(props, "solr.versioning", "false"));
+        routing = Boolean.parseBoolean(getProperty(props, "solr.route", "false"));
+
+        // the compositeId router routes by the prefix of the uniqueKey, which is only the
+        // namespaced key with versioning
+        if (routing && !versioning) {
+            throw new IllegalArgumentException("solr.route requires solr.versioning and the uniqueKey 'key' in the schema!");
+        }
+
+        commitStrategy = CommitStrategy.parse(getProperty(props, "solr.commit", "commitWithin"));
+        commitWithin = getIntProperty(props, "solr.commitWithin", DEFAULT_COMMIT_WITHIN);
+        negativeCache = new NegativeCache(getIntProperty(props, "solr.negativeCache.ttl", NegativeCache.DEFAULT_TTL), getIntProperty(props, "solr.negativeCache.maxSize", NegativeCache.DEFAULT_MAX_SIZE));
+
+        cache.close();
+        cache = new ConfigurationCache<>(getIntProperty(props, "solr.cache.ttl", CACHE_REFRESH_INTERVAL), getIntProperty(props, "solr.cache.maxStale", 0), Boolean.parseBoolean(getProperty(props, "solr.cache.staleWhileRevalidate", "false")), getIntProperty(props, "solr.cache.maxSize", ConfigurationCache.DEFAULT_MAX_SIZE));
+
+        // by default the defaults are stored before the configuration is returned and only if
+        // the configuration does not exist yet if versioning is enabled
+        defaults = new DefaultConfigurationProvider(this, Boolean.parseBoolean(getProperty(props, "solr.defaults.async", "false")), versioning);
+
+        // slow queries are sent again to another replica, which requires several replicas
+        if (Boolean.parseBoolean(getProperty(props, "solr.hedge", "false"))) {
+            if (!(solrServer instanceof LBHttpSolrServer) && !(solrServer instanceof CloudSolrServer)) {
+                throw new IllegalArgumentException("solr.hedge requires the lb or cloud client!");
+            }
+
+            hedging = new HedgedRequests(Double.parseDouble(getProperty(props, "solr.hedge.percentile", String.valueOf(HedgedRequests.DEFAULT_PERCENTILE))), getIntProperty(props, "solr.hedge.minDelay", (int) HedgedRequests.DEFAULT_MIN_DELAY), Double.parseDouble(getProperty(props, "solr.hedge.budget", String.valueOf(HedgedRequests.DEFAULT_BUDGET))));
+        }
+
+        registerMetrics();
+        preload(props);
+    }
+
+
+    /**
+     * Loads the configurations listed in <code>solr.preload</code> in parallel. Unless
+     * <code>solr.preload.background</code> is set, this waits until they are loaded or
+     * <code>solr.preload.timeout</code> has elapsed. The service is not ready until all
+     * configurations have been loaded. The preloaded configurations are kept in the cache, so
+     * <code>solr.cache.ttl</code> must be set if configurations are preloaded.
+     * 
+     * @param props the solr properties
+     * @throws IllegalArgumentException if configurations are preloaded without a cache TTL
+     */
+    protected void preload(final ResourceBundle props) {
+        preloader = new ConfigurationPreloader(this, getIntProperty(props, "solr.preload.threads", ConfigurationPreloader.DEFAULT_THREADS), getIntProperty(props, "solr.preload.retryDelay", ConfigurationPreloader.DEFAULT_RETRY_DELAY));
+        preloader.addAll(getProperty(props, "solr.preload", null));
+
+        // without a TTL the cache does not keep the preloaded configurations
+        if (preloader.size() > 0 && getIntProperty(props, "solr.cache.ttl", CACHE_REFRESH_INTERVAL) <= 0) {
+            throw new IllegalArgumentException("solr.preload requires a solr.cache.ttl greater than 0!");
+        }
+
+        preloader.start();
+
+        metrics.gauge(BACKEND, "preload.duration", () -> preloader.getDuration());
+        metrics.gauge(BACKEND, "preload.loaded", () -> preloader.getLoaded());
+        metrics.gauge(BACKEND, "preload.failures", () -> preloader.getFailures());
+
+        if (!Boolean.parseBoolean(getProperty(props, "solr.preload.background", "false"))) {
+            try {
+                preloader.await(getIntProperty(props, "solr.preload.timeout", 30000));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    @Override
+    public boolean isReady() {
+        return preloader == null || preloader.isReady();
+    }
+
+
+    /**
+     * Starts an operation which is recorded to the metrics, traced and emitted as JFR event.
+     * 
+     * @param operation the operation
+     * @return the {@link Operation} which must be closed
+     */
+    private Operation start(final String operation) {
+        return new Operation(metrics, tracer, BACKEND, operation);
+    }
+
+
+    /**
+     * Registers the statistics of the caches as gauges.
+     */
+    protected void registerMetrics() {
+        metrics.gauge(BACKEND, "cache.hits", () -> cache.getHits());
+        metrics.gauge(BACKEND, "cache.misses", () -> cache.getMisses());
+        metrics.gauge(BACKEND, "cache.staleServed", () -> cache.getStaleServed());
+        metrics.gauge(BACKEND, "cache.staleOnError", () -> cache.getStaleOnError());
+        metrics.gauge(BACKEND, "negativeCache.hits", () -> negativeCache.getHits());
+        metrics.gauge(BACKEND, "negativeCache.misses", () -> negativeCache.getMisses());
+        metrics.gauge(BACKEND, "coalesced", () -> configurationLoader.getCoalesced() + jsonLoader.getCoalesced());
+        metrics.gauge(BACKEND, "defaults.pending", () -> defaults.getPending());
+        metrics.gauge(BACKEND, "defaults.failures", () -> defaults.getFailures());
+
+        if (hedging != null) {
+            metrics.gauge(BACKEND, "hedge.hedged", () -> hedging.getHedged());
+            metrics.gauge(BACKEND, "hedge.wins", () -> hedging.getHedgeWins());
+        }
+    }
+
+
+    /**
+     * Creates the {@link SolrServer} specified by the property <code>solr.client</code>:
+     * <ul>
+     * <li><code>http</code> (default) - a single server for <code>solr.base.url.configuration</code>
+     * or a load balancing client if multiple comma-separated URLs are specified</li>
+     * <li><code>lb</code> - a load balancing client over all URLs in
+     * <code>solr.base.url.configuration</code></li>
+     * <li><code>cloud</code> - a SolrCloud aware client using the ZooKeeper ensemble in
+     * <code>solr.zk.host</code> and the collection <code>solr.collection.configuration</code></li>
+     * </ul>
+     * All clients share one pooled HTTP client which keeps connections alive.
+     * 
+     * @param props the solr properties
+     * @return the {@link SolrServer}
+     * @throws IOException if the client could not be created
+     */
+    protected SolrServer createSolrServer(final ResourceBundle props) throws IOException {
+        final String clientType = getProperty(props, "solr.client", "http");
+        final int connectionTimeout = getIntProperty(props, "solr.connectionTimeout", 5000);
+        final int soTimeout = getIntProperty(props, "solr.soTimeout", 30000);
+
+        final ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(HttpClientUtil.PROP_MAX_CONNECTIONS, getIntProperty(props, "solr.pool.maxConnections", 128));
+        params.set(HttpClientUtil.PROP_MAX_CONNECTIONS_PER_HOST, getIntProperty(props, "solr.pool.maxConnectionsPerHost", 32));
+        params.set(HttpClientUtil.PROP_CONNECTION_TIMEOUT, connectionTimeout);
+        params.set(HttpClientUtil.PROP_SO_TIMEOUT, soTimeout);
+        params.set(HttpClientUtil.PROP_ALLOW_COMPRESSION, Boolean.parseBoolean(getProperty(props, "solr.allowCompression", "false")));
+        params.set(HttpClientUtil.PROP_FOLLOW_REDIRECTS, false);
+        httpClient = HttpClientUtil.createClient(params);
+
+        if (clientType.equalsIgnoreCase("cloud")) {
+            final CloudSolrServer server = new CloudSolrServer(props.getString("solr.zk.host"), new LBHttpSolrServer(httpClient));
+            server.setDefaultCollection(getProperty(props, "solr.collection.configuration", CONFIGURATION));
+            server.setZkConnectTimeout(getIntProperty(props, "solr.zk.connectTimeout", 10000));
+            server.setZkClientTimeout(getIntProperty(props, "solr.zk.clientTimeout", 15000));
+
+            return server;
+        }
+
+        final String[] baseUrls = props.getString("solr.base.url.configuration").split(",");
+
+        for (int i = 0; i < baseUrls.length; i++) {
+            baseUrls[i] = baseUrls[i].trim();
+        }
+
+        if (clientType.equalsIgnoreCase("lb") || baseUrls.length > 1) {
+            this.baseUrls = List.of(baseUrls);
+
+            final LBHttpSolrServer server = new LBHttpSolrServer(httpClient, baseUrls);
+            server.setConnectionTimeout(connectionTimeout);
+            server.setSoTimeout(soTimeout);
+            server.setAliveCheckInterval(getIntProperty(props, "solr.lb.aliveCheckInterval", 60000));
+
+            return server;
+        }
+
+        return new HttpSolrServer(baseUrls[0], httpClient);
+    }
+
+
+    private static String getProperty(final ResourceBundle props, final String key, final String defaultValue) {
+        if (props.containsKey(key)) {
+            return props.getString(key).trim();
+        }
+
+        return defaultValue;
+    }
+
+
+    private static int getIntProperty(final ResourceBundle props, final String key, final int defaultValue) {
+        if (props.containsKey(key)) {
+            return Integer.parseInt(props.getString(key).trim());
+        }
+
+        return defaultValue;
     }
 
 
     @SuppressWarnings("unchecked")
     @Override
-    public <T> T getConfiguration(final String id, String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
-        IConfiguration c;
+    public <T> T getConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        final String v = variation == null ? "" : variation;
+        final String key = RequestCoalescer.key(id, v);
+        final Operation op = start(IConfigurationMetrics.OPERATION_GET);
 
         try {
-            if (variation == null) {
-                variation = "";
+            // concurrent misses for the same configuration share one query and default
+            // initialization
+            return (T) cache.get(key, () -> configurationLoader.execute(key, () -> loadConfiguration(id, v, clazz)));
+        } catch (final ConfigurationServiceException e) {
+            final IConfiguration restored = restoreFromSnapshot(key, clazz);
+
+            if (restored != null) {
+                return (T) restored;
             }
 
-            if (System.currentTimeMillis() - currentTime > CACHE_REFRESH_INTERVAL) {
-                currentTime = System.currentTimeMillis();
-                cache.clear();
+            op.failed(ErrorCode.ERROR_GET);
+            throw e;
+        } catch (final Exception e) {
+            final IConfiguration restored = restoreFromSnapshot(key, clazz);
+
+            if (restored != null) {
+                return (T) restored;
             }
 
-            c = cache.get(id + "_" + variation);
+            op.failed(ErrorCode.ERROR_GET);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration \"" + id + "\"!", e);
+        } finally {
+            op.close();
+        }
+    }
 
-            if (c == null) {
-                final SolrQuery query = new SolrQuery();
-                query.setQuery(ID + ":\"" + id + "\" AND " + VARIATION + ":\"" + variation + "\"");
 
-                final QueryResponse response = solrServer.query(query);
-                final SolrDocumentList list = response.getResults();
+    /**
+     * Restores the configuration from the local snapshot if solr is not available. The restored
+     * configuration is cached as stale, so it is reloaded from solr as soon as it is available
+     * again.
+     * 
+     * @param key the configuration key
+     * @param clazz the configuration class
+     * @return the configuration or null if it is not in the snapshot
+     */
+    private IConfiguration restoreFromSnapshot(final String key, final Class<? extends IConfiguration> clazz) {
+        final String json = snapshot.get(key);
 
-                if (list.size() > 0) {
-                    final SolrDocument doc = list.get(0);
+        if (json == null) {
+            return null;
+        }
 
-                    final String json = (String) doc.getFieldValue("configuration");
-                    c = mapper.readValue(json, clazz);
+        try {
+            final IConfiguration c = mapper.readValue(json, clazz);
+            cache.putStale(key, c);
+            metrics.increment(BACKEND, IConfigurationMetrics.EVENT_SNAPSHOT_RESTORED);
 
-                    cache.put(id + "_" + variation, c);
-                } else {
-                    c = tryAndLoadProperties(id, variation, clazz);
-                    cache.put(id + "_" + variation, c);
-                }
-            }
-        } catch (final Exception e) {
-            try {
-                c = tryAndLoadProperties(id, variation, clazz);
-                cache.put(id + "_" + variation, c);
-            } catch (final Exception e1) {
-                throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration \"" + id + "\"!", e);
+            return c;
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Loads the configuration from solr or initializes it with its defaults if it does not exist.
+     * If solr is not available the exception is thrown instead of overwriting the configuration
+     * with its defaults.
+     * 
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param clazz the configuration class
+     * @return the configuration
+     * @throws Exception if the configuration could not be loaded
+     */
+    private IConfiguration loadConfiguration(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws Exception {
+        final String key = RequestCoalescer.key(id, variation);
+        final IConfiguration c = cache.getFresh(key);
+
+        if (c != null) {
+            return c;
+        }
+
+        // skip the query for configurations known to not exist
+        final String json = negativeCache.contains(key) ? null : queryConfigurationAsJson(id, variation);
+
+        if (json != null) {
+            try (ISpan span = tracer.startSpan(BACKEND + ".json.map")) {
+                final IConfiguration loaded = mapper.readValue(json, clazz);
+                snapshot.put(key, json);
+
+                return loaded;
             }
         }
 
-        return (T) c;
+        return tryAndLoadProperties(id, variation, clazz);
     }
 
 
     @Override
-    public String getConfigurationAsJson(final String id, String variation) throws ConfigurationServiceException {
+    public String getConfigurationAsJson(final String id, final String variation) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_GET_JSON);
+
         try {
-            if (variation == null) {
-                variation = "";
+            final String v = variation == null ? "" : variation;
+            final String key = RequestCoalescer.key(id, v);
+            final IConfiguration c = cache.getFresh(key);
+
+            if (c != null) {
+                try (ISpan span = tracer.startSpan(BACKEND + ".json.map")) {
+                    return mapper.writeValueAsString(c);
+                }
             }
 
-            if (System.currentTimeMillis() - currentTime > CACHE_REFRESH_INTERVAL) {
-                currentTime = System.currentTimeMillis();
-                cache.clear();
+            if (negativeCache.contains(key)) {
+                return null;
             }
 
-            final IConfiguration c = cache.get(id + "_" + variation);
+            try {
+                return jsonLoader.execute(key, () -> {
+                    final long generation = negativeCache.getGeneration(key);
+                    final String json = queryConfigurationAsJson(id, v);
+
+                    if (json == null) {
+                        negativeCache.put(key, generation);
+                        snapshot.remove(key);
+                    } else {
+                        snapshot.put(key, json);
+                    }
 
-            if (c == null) {
-                final SolrQuery query = new SolrQuery();
-                query.setQuery(ID + ":\"" + id + "\" AND " + VARIATION + ":\"" + variation + "\"");
+                    return json;
+                });
+            } catch (final Exception e) {
+                final IConfiguration stale = cache.getUsable(key);
 
-                final QueryResponse response = solrServer.query(query);
-                final SolrDocumentList list = response.getResults();
+                if (stale != null) {
+                    cache.staleServedOnError();
+                    return mapper.writeValueAsString(stale);
+                }
 
-                if (list.size() > 0) {
-                    final SolrDocument doc = list.get(0);
+                final String restored = snapshot.get(key);
 
-                    return (String) doc.getFieldValue("configuration");
+                if (restored != null) {
+                    metrics.increment(BACKEND, IConfigurationMetrics.EVENT_SNAPSHOT_RESTORED);
+                    return restored;
                 }
-            } else {
-                return mapper.writeValueAsString(c);
-            }
 
-            return null;
+                throw e;
+            }
         } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_GET);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration \"" + id + "\"!", e);
+        } finally {
+            op.close();
+        }
+    }
+
+
+    /**
+     * The configuration is stored as one field, so the fields are projected in memory from the
+     * cached configuration or the configuration read from solr.
+     */
+    @Override
+    public String getConfigurationAsJson(final String id, final String variation, final List<String> fields) throws ConfigurationServiceException {
+        if (fields == null || fields.isEmpty()) {
+            return getConfigurationAsJson(id, variation);
+        }
+
+        final String v = variation == null ? "" : variation;
+        final IConfiguration c = cache.getFresh(RequestCoalescer.key(id, v));
+
+        try {
+            if (c != null) {
+                // project the cached configuration without serializing it
+                try (ISpan span = tracer.startSpan(BACKEND + ".json.map")) {
+                    return JsonProjection.project(mapper.<JsonNode> valueToTree(c), fields).toString();
+                }
+            }
+
+            final String json = getConfigurationAsJson(id, v);
+
+            return json == null ? null : JsonProjection.project(json, fields);
+        } catch (final IOException | IllegalArgumentException e) {
             throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading configuration \"" + id + "\"!", e);
         }
     }
 
 
+    /**
+     * Creates the query for the configuration. With routing the query for a configuration of a
+     * namespace is only sent to the shard of the namespace, see {@link ConfigurationNamespace}.
+     * 
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @return the {@link SolrQuery}
+     */
+    private SolrQuery createQuery(final String id, final String variation) {
+        final SolrQuery query = new SolrQuery();
+        query.setQuery(ID + ":\"" + id + "\" AND " + VARIATION + ":\"" + variation + "\"");
+
+        final String namespace = ConfigurationNamespace.getNamespace(id);
+
+        if (routing && !namespace.isEmpty()) {
+            query.set(ROUTE, namespace + ConfigurationNamespace.SEPARATOR);
+        }
+
+        return query;
+    }
+
+
+    /**
+     * Queries solr for the stored configuration.
+     * 
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @return the configuration as JSON or null if not found
+     * @throws SolrServerException if the query failed
+     */
+    private String queryConfigurationAsJson(final String id, final String variation) throws SolrServerException {
+        final String key = RequestCoalescer.key(id, variation);
+        final RecentWrite recent = getRecentWrite(key);
+
+        // the change cannot be committed yet
+        if (recent != null && System.currentTimeMillis() < recent.committedAt) {
+            return recent.json;
+        }
+
+        final SolrQuery query = createQuery(id, variation);
+
+        final QueryResponse response = queryHedged(query);
+        final SolrDocumentList list = response.getResults();
+        final String json = list.size() > 0 ? (String) list.get(0).getFieldValue(CONFIGURATION) : null;
+
+        if (recent != null) {
+            // the change is kept until solr returns it, even if the commit took longer
+            if (!Objects.equals(json, recent.json)) {
+                return recent.json;
+            }
+
+            recentWrites.remove(key, recent);
+        }
+
+        return json;
+    }
+
+
     @Override
     public void saveConfiguration(final IConfiguration configuration) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_SAVE);
+
         try {
             if (configuration.getVariation() == null) {
                 configuration.setVariation("");
@@ -168,25 +645,31 @@ public class ConfigurationServiceSolr implements IConfigurationService {
 
             final String json = mapper.writeValueAsString(configuration);
 
-            solrServer.deleteByQuery(ID + ":\"" + configuration.getId() + "\" AND " + VARIATION + ":\"" + configuration.getVariation() + "\"");
-
-            final SolrInputDocument doc = new SolrInputDocument();
-            doc.addField(ID, configuration.getId());
-            doc.addField(VARIATION, configuration.getVariation());
-            doc.addField(CONFIGURATION, json);
+            if (!versioning) {
+                deleteByQuery(ID + ":\"" + configuration.getId() + "\" AND " + VARIATION + ":\"" + configuration.getVariation() + "\"");
+            }
 
-            solrServer.add(doc);
-            solrServer.commit();
+            add(createDocument(configuration.getId(), configuration.getVariation(), json));
+            commit();
 
-            cache.put(configuration.getId() + "_" + configuration.getVariation(), configuration);
+            final String key = RequestCoalescer.key(configuration.getId(), configuration.getVariation());
+            cache.put(key, configuration);
+            negativeCache.invalidate(key);
+            snapshot.put(key, json);
+            written(key, json);
         } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_SAVE);
             throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration \"" + configuration.getId() + "\"!", e);
+        } finally {
+            op.close();
         }
     }
 
 
     @Override
     public void saveConfigurationAsJson(final String configurationJson) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_SAVE_JSON);
+
         try {
             final JsonNode node = mapper.readTree(configurationJson);
             final String id = node.get(ID).textValue();
@@ -197,70 +680,916 @@ public class ConfigurationServiceSolr implements IConfigurationService {
                 ((ObjectNode) node).put(VARIATION, "");
             }
 
-            solrServer.deleteByQuery(ID + ":\"" + id + "\" AND " + VARIATION + ":\"" + variation + "\"");
-
-            final SolrInputDocument doc = new SolrInputDocument();
-            doc.addField(ID, id);
-            doc.addField(VARIATION, variation);
-            doc.addField(CONFIGURATION, node.toString());
+            if (!versioning) {
+                deleteByQuery(ID + ":\"" + id + "\" AND " + VARIATION + ":\"" + variation + "\"");
+            }
 
-            solrServer.add(doc);
-            solrServer.commit();
+            add(createDocument(id, variation, node.toString()));
+            commit();
 
-            cache.remove(id + "_" + variation);
+            final String key = RequestCoalescer.key(id, variation);
+            cache.remove(key);
+            negativeCache.invalidate(key);
+            snapshot.put(key, node.toString());
+            written(key, node.toString());
         } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_SAVE);
             throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration \"" + configurationJson + "\"!", e);
+        } finally {
+            op.close();
         }
     }
 
 
+    /**
+     * Adds all configurations and commits them once.
+     */
     @Override
-    public void removeConfiguration(final String id, String variation) throws ConfigurationServiceException {
+    public void saveConfigurationsAsJson(final Collection<String> configurations) throws ConfigurationServiceException {
+        if (configurations.isEmpty()) {
+            return;
+        }
+
+        final Operation op = start(IConfigurationMetrics.OPERATION_SAVE_ALL_JSON);
+
         try {
-            if (variation == null) {
-                variation = "";
+            // last write of a configuration wins
+            final Map<String, ObjectNode> nodes = new LinkedHashMap<>();
+
+            for (final String configurationJson : configurations) {
+                final ObjectNode node = (ObjectNode) mapper.readTree(configurationJson);
+
+                if (node.get(VARIATION) == null || node.get(VARIATION).textValue() == null) {
+                    node.put(VARIATION, "");
+                }
+
+                nodes.put(RequestCoalescer.key(node.get(ID).textValue(), node.get(VARIATION).textValue()), node);
+            }
+
+            final List<SolrInputDocument> docs = new ArrayList<>();
+            final StringBuilder query = new StringBuilder();
+
+            for (final ObjectNode node : nodes.values()) {
+                final String id = node.get(ID).textValue();
+                final String variation = node.get(VARIATION).textValue();
+
+                if (query.length() > 0) {
+                    query.append(" OR ");
+                }
+
+                query.append("(" + ID + ":\"" + id + "\" AND " + VARIATION + ":\"" + variation + "\")");
+                docs.add(createDocument(id, variation, node.toString()));
+            }
+
+            if (!versioning) {
+                deleteByQuery(query.toString());
             }
 
-            solrServer.deleteByQuery(ID + ":\"" + id + "\" AND " + VARIATION + ":\"" + variation + "\"");
-            solrServer.commit();
+            add(docs);
+            commit();
 
-            cache.remove(id + "_" + variation);
+            for (final Map.Entry<String, ObjectNode> entry : nodes.entrySet()) {
+                cache.remove(entry.getKey());
+                negativeCache.invalidate(entry.getKey());
+                snapshot.put(entry.getKey(), entry.getValue().toString());
+                written(entry.getKey(), entry.getValue().toString());
+            }
         } catch (final Exception e) {
-            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error removing configuration \"" + id + "\"!", e);
+            op.failed(ErrorCode.ERROR_SAVE);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving " + configurations.size() + " configurations!", e);
+        } finally {
+            op.close();
+        }
+    }
 
+
+    /**
+     * Creates the document for the configuration. With versioning the document also contains the
+     * unique key, so it replaces the stored document without deleting it first.
+     * 
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param json the configuration as JSON
+     * @return the {@link SolrInputDocument}
+     */
+    private SolrInputDocument createDocument(final String id, final String variation, final String json) {
+        final SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(ID, id);
+        doc.addField(VARIATION, variation);
+        doc.addField(CONFIGURATION, json);
+
+        if (versioning) {
+            doc.addField(KEY, RequestCoalescer.key(id, variation));
         }
+
+        return doc;
     }
 
 
-    @SuppressWarnings("unchecked")
-    protected <T> T tryAndLoadProperties(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+    @Override
+    public long getConfigurationVersion(final String id, final String variation) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_GET_VERSION);
+
+        try {
+            return queryVersion(id, variation == null ? "" : variation);
+        } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_GET);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error reading version of configuration \"" + id + "\"!", e);
+        } finally {
+            op.close();
+        }
+    }
+
+
+    /**
+     * Queries solr for the <code>_version_</code> of the stored configuration.
+     * 
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @return the version or 0 if not found
+     * @throws SolrServerException if the query failed
+     */
+    private long queryVersion(final String id, final String variation) throws SolrServerException {
+        final RecentWrite recent = getRecentWrite(RequestCoalescer.key(id, variation));
+
+        // the removal might not be committed yet
+        if (recent != null && recent.json == null) {
+            return 0L;
+        }
+
+        final SolrQuery query = createQuery(id, variation);
+        query.setFields(VERSION);
+
+        final SolrDocumentList list = query(query).getResults();
+
+        if (list.size() > 0) {
+            final long version = ((Number) list.get(0).getFieldValue(VERSION)).longValue();
+
+            // solr versions increase, so a newer uncommitted save has a higher version
+            return recent != null ? Math.max(version, recent.version) : version;
+        }
+
+        if (recent != null) {
+            return recent.version;
+        }
+
+        return 0L;
+    }
+
+
+    @Override
+    public long saveConfiguration(final IConfiguration configuration, final long expectedVersion) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_SAVE);
+
         try {
-            final IConfiguration t = clazz.newInstance();
-            t.setId(id);
-            t.setVariation(variation);
+            if (configuration.getVariation() == null) {
+                configuration.setVariation("");
+            }
 
-            t.resetToDefault();
+            final String json = mapper.writeValueAsString(configuration);
+            final long version = saveVersioned(configuration.getId(), configuration.getVariation(), json, expectedVersion);
 
-            saveConfiguration(t);
+            final String key = RequestCoalescer.key(configuration.getId(), configuration.getVariation());
+            cache.put(key, configuration);
+            negativeCache.invalidate(key);
+            snapshot.put(key, json);
+            written(key, json, version);
 
-            return (T) t;
+            return version;
+        } catch (final ConfigurationVersionConflictException e) {
+            op.failed(ErrorCode.ERROR_VERSION_CONFLICT);
+            throw e;
         } catch (final Exception e) {
-            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error loading default configuration for " + clazz.getSimpleName(), e);
+            op.failed(ErrorCode.ERROR_SAVE);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration \"" + configuration.getId() + "\"!", e);
+        } finally {
+            op.close();
         }
     }
 
 
     @Override
-    protected void finalize() throws Throwable {
-        solrServer.shutdown();
-        super.finalize();
+    public long saveConfigurationAsJson(final String configurationJson, final long expectedVersion) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_SAVE_JSON);
+
+        try {
+            final JsonNode node = mapper.readTree(configurationJson);
+            final String id = node.get(ID).textValue();
+            String variation = node.get(VARIATION).textValue();
+
+            if (variation == null) {
+                variation = "";
+                ((ObjectNode) node).put(VARIATION, "");
+            }
+
+            final long version = saveVersioned(id, variation, node.toString(), expectedVersion);
+
+            final String key = RequestCoalescer.key(id, variation);
+            cache.remove(key);
+            negativeCache.invalidate(key);
+            snapshot.put(key, node.toString());
+            written(key, node.toString(), version);
+
+            return version;
+        } catch (final ConfigurationVersionConflictException e) {
+            op.failed(ErrorCode.ERROR_VERSION_CONFLICT);
+            throw e;
+        } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_SAVE);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error saving configuration \"" + configurationJson + "\"!", e);
+        } finally {
+            op.close();
+        }
+    }
+
+
+    /**
+     * Saves the configuration using the optimistic concurrency of solr, i.e. the document is only
+     * added if its <code>_version_</code> matches. This requires <code>solr.versioning</code> and
+     * the field <code>key</code> as uniqueKey in the schema, which holds the unambiguous
+     * {@link RequestCoalescer#key(String, String)} of the configuration.
+     * 
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param json the configuration as JSON
+     * @param expectedVersion the expected version or 0 if the configuration must not exist yet
+     * @return the new version
+     * @throws ConfigurationVersionConflictException if the stored version is not the expected
+     *         version
+     * @throws Exception if saving failed
+     */
+    private long saveVersioned(final String id, final String variation, final String json, final long expectedVersion) throws Exception {
+        if (!versioning) {
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Saving with a version requires solr.versioning!");
+        }
+
+        final SolrInputDocument doc = createDocument(id, variation, json);
+        // a negative version tells solr that the document must not exist
+        doc.addField(VERSION, expectedVersion == 0L ? -1L : expectedVersion);
+
+        final long version;
+
+        try {
+            version = addVersioned(doc);
+        } catch (final SolrException e) {
+            if (e.code() == CONFLICT) {
+                conflicted(RequestCoalescer.key(id, variation));
+                throw new ConfigurationVersionConflictException(id, expectedVersion);
+            }
+
+            throw e;
+        }
+
+        if (version != 0L) {
+            commit();
+            return version;
+        }
+
+        // the response of the update did not contain the version, so it must be visible to be
+        // queried
+        commit(commitStrategy == CommitStrategy.COMMIT_WITHIN ? CommitStrategy.SOFT : commitStrategy);
+
+        return queryVersion(id, variation);
+    }
+
+
+    /**
+     * Adds the document with <code>versions=true</code>, so solr returns the
+     * <code>_version_</code> it assigned to the document in the update response.
+     * 
+     * @param doc the document
+     * @return the new version or 0 if the response does not contain it, e.g. if the client merged
+     *         the responses of several shards
+     * @throws SolrServerException if the update failed
+     * @throws IOException if the update failed
+     */
+    private long addVersioned(final SolrInputDocument doc) throws SolrServerException, IOException {
+        final Operation op = start("add");
+
+        try {
+            final UpdateRequest request = new UpdateRequest();
+            request.add(doc);
+            request.setParam("versions", "true");
+
+            if (commitStrategy == CommitStrategy.COMMIT_WITHIN) {
+                request.setCommitWithin(commitWithin);
+            }
+
+            final NamedList<Object> response = request.process(solrServer).getResponse();
+            final Object adds = response == null ? null : response.get("adds");
+
+            if (adds instanceof NamedList) {
+                final Object version = ((NamedList<?>) adds).get(String.valueOf(doc.getFieldValue(KEY)));
+
+                if (version instanceof Number) {
+                    return ((Number) version).longValue();
+                }
+            }
+
+            return 0L;
+        } catch (final SolrServerException | IOException | RuntimeException e) {
+            op.failed(e);
+            throw e;
+        } finally {
+            op.close();
+        }
+    }
+
+
+    /**
+     * The configuration is stored as one field, so the patch is applied to the stored
+     * configuration in memory and the whole configuration is written back. With
+     * <code>solr.versioning</code> it is only written back if the configuration has not been
+     * changed concurrently, otherwise the patch is applied again. Without versioning concurrent
+     * changes between reading and writing the configuration are overwritten.
+     */
+    @Override
+    public void patchConfigurationAsJson(final String id, final String variation, final String patch) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_PATCH);
+
+        try {
+            final String v = variation == null ? "" : variation;
+
+            if (versioning) {
+                patchVersioned(id, v, patch);
+            } else {
+                saveConfigurationAsJson(JsonPatches.apply(queryConfigurationAsJson(id, v), patch, id, v));
+            }
+        } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_SAVE);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Error patching configuration \"" + id + "\"!", e);
+        } finally {
+            op.close();
+        }
+    }
+
+
+    /**
+     * Applies the patch to the stored configuration and saves it with the version it was read
+     * with. The configuration and its version are read in one query from solr, so the patch is
+     * never applied to an older configuration than the version it is saved with. On a version
+     * conflict the patch is applied again after a back off, up to {@link #MAX_PATCH_ATTEMPTS}
+     * times.
+     * 
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param patch the merge patch or JSON Patch
+     * @throws Exception if the configuration could not be patched
+     */
+    private void patchVersioned(final String id, final String variation, final String patch) throws Exception {
+        final String key = RequestCoalescer.key(id, variation);
+
+        for (int attempt = 1;; attempt++) {
+            final SolrQuery query = createQuery(id, variation);
+            query.setFields(CONFIGURATION, VERSION);
+
+            final SolrDocumentList list = query(query).getResults();
+            String json = list.size() > 0 ? (String) list.get(0).getFieldValue(CONFIGURATION) : null;
+            long version = list.size() > 0 ? ((Number) list.get(0).getFieldValue(VERSION)).longValue() : 0L;
+            final RecentWrite recent = getRecentWrite(key);
+
+            // the own change might not be committed yet
+            if (recent != null && (recent.json == null || recent.version > version)) {
+                json = recent.json;
+                version = recent.json == null ? 0L : recent.version;
+            }
+
+            final String patched = JsonPatches.apply(json, patch, id, variation);
+
+            try {
+                final long saved = saveVersioned(id, variation, patched, version);
+
+                cache.remove(key);
+                negativeCache.invalidate(key);
+                snapshot.put(key, patched);
+                written(key, patched, saved);
+                return;
+            } catch (final ConfigurationVersionConflictException e) {
+                if (attempt >= MAX_PATCH_ATTEMPTS) {
+                    throw e;
+                }
+            }
+
+            try {
+                Thread.sleep(10L * attempt);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConfigurationServiceException(ErrorCode.ERROR_SAVE, "Interrupted while waiting to patch configuration \"" + id + "\"!", e);
+            }
+        }
+    }
+
+
+    @Override
+    public void removeConfiguration(final String id, String variation) throws ConfigurationServiceException {
+        final Operation op = start(IConfigurationMetrics.OPERATION_REMOVE);
+
+        try {
+            if (variation == null) {
+                variation = "";
+            }
+
+            deleteByQuery(ID + ":\"" + id + "\" AND " + VARIATION + ":\"" + variation + "\"");
+            commit();
+
+            cache.remove(RequestCoalescer.key(id, variation));
+            snapshot.remove(RequestCoalescer.key(id, variation));
+            written(RequestCoalescer.key(id, variation), null);
+        } catch (final Exception e) {
+            op.failed(ErrorCode.ERROR_GET);
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error removing configuration \"" + id + "\"!", e);
+        } finally {
+            op.close();
+        }
+    }
+
+
+    /**
+     * Creates the configuration with its defaults and stores it using the
+     * {@link DefaultConfigurationProvider}.
+     * 
+     * @param id the unique identifier
+     * @param variation the variation option
+     * @param clazz the configuration class
+     * @return the configuration or the configuration initialized with its defaults
+     */
+    protected <T> T tryAndLoadProperties(final String id, final String variation, final Class<? extends IConfiguration> clazz) throws ConfigurationServiceException {
+        try (ISpan span = tracer.startSpan(BACKEND + ".defaults.load")) {
+            final T t = defaults.load(id, variation, clazz);
+            metrics.increment(BACKEND, IConfigurationMetrics.EVENT_DEFAULTS_LOADED);
+
+            return t;
+        } catch (final Exception e) {
+            metrics.increment(BACKEND, "defaults.failed");
+            throw new ConfigurationServiceException(ErrorCode.ERROR_GET, "Error loading default configuration for " + clazz.getSimpleName(), e);
+        }
+    }
+
+
+    private QueryResponse query(final SolrQuery query) throws SolrServerException {
+        final Operation op = start("query");
+
+        try {
+            return solrServer.query(query);
+        } catch (final SolrServerException | RuntimeException e) {
+            op.failed(e);
+            throw e;
+        } finally {
+            op.close();
+        }
+    }
+
+
+    /**
+     * Sends the query and hedges it if enabled, i.e. sends it again if it is slow. The first query
+     * and the hedge are pinned to different replicas, i.e. base URLs of the load balancing client
+     * or live replicas of the collection in solr cloud, which are chosen round robin. The other
+     * replicas are only tried if these fail.
+     * 
+     * @param query the query
+     * @return the response which arrived first
+     * @throws SolrServerException if the query failed
+     */
+    private QueryResponse queryHedged(final SolrQuery query) throws SolrServerException {
+        if (hedging == null) {
+            return query(query);
+        }
+
+        final List<String> replicas = getReplicaUrls();
+
+        if (replicas.size() < 2) {
+            return query(query);
+        }
+
+        final int first = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+
+        try {
+            return hedging.execute(() -> query(query, rotate(replicas, first)), () -> query(query, rotate(replicas, first + 1)));
+        } catch (final SolrServerException | RuntimeException e) {
+            throw e;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SolrServerException("Interrupted while querying configuration!", e);
+        } catch (final Exception e) {
+            throw new SolrServerException(e);
+        }
+    }
+
+
+    /**
+     * Sends the query to the replicas in the specified order, i.e. the next replica is only tried
+     * if the query failed on the previous one.
+     * 
+     * @param query the query
+     * @param replicas the base URLs of the replicas
+     * @return the response
+     * @throws SolrServerException if the query failed on all replicas
+     */
+    private QueryResponse query(final SolrQuery query, final List<String> replicas) throws SolrServerException {
+        final Operation op = start("query");
+
+        try {
+            final LBHttpSolrServer server = solrServer instanceof CloudSolrServer ? ((CloudSolrServer) solrServer).getLbServer() : (LBHttpSolrServer) solrServer;
+
+            return new QueryResponse(server.request(new LBHttpSolrServer.Req(new QueryRequest(query), replicas)).getResponse(), solrServer);
+        } catch (final SolrServerException | RuntimeException e) {
+            op.failed(e);
+            throw e;
+        } catch (final IOException e) {
+            op.failed(e);
+            throw new SolrServerException(e);
+        } finally {
+            op.close();
+        }
+    }
+
+
+    /**
+     * Gets the base URLs of the replicas the queries can be sent to, i.e. the base URLs of the load
+     * balancing client or the live replicas of the collection in solr cloud.
+     * 
+     * @return the base URLs
+     */
+    private List<String> getReplicaUrls() {
+        if (!(solrServer instanceof CloudSolrServer)) {
+            return baseUrls;
+        }
+
+        final CloudSolrServer server = (CloudSolrServer) solrServer;
+        server.connect();
+
+        final ClusterState state = server.getZkStateReader().getClusterState();
+        final Collection<Slice> slices = state.getActiveSlices(server.getDefaultCollection());
+        final List<String> urls = new ArrayList<>();
+
+        if (slices != null) {
+            for (final Slice slice : slices) {
+                for (final Replica replica : slice.getReplicas()) {
+                    if (state.liveNodesContain(replica.getNodeName())) {
+                        urls.add(ZkCoreNodeProps.getCoreUrl(replica));
+                    }
+                }
+            }
+        }
+
+        return urls;
+    }
+
+
+    /**
+     * Rotates the replicas, so the query starts with the replica at the specified index.
+     * 
+     * @param replicas the base URLs of the replicas
+     * @param first the index of the first replica
+     * @return the rotated base URLs
+     */
+    private static List<String> rotate(final List<String> replicas, final int first) {
+        final List<String> rotated = new ArrayList<>(replicas.size());
+
+        for (int i = 0; i < replicas.size(); i++) {
+            rotated.add(replicas.get((first + i) % replicas.size()));
+        }
+
+        return rotated;
+    }
+
+
+    private UpdateResponse deleteByQuery(final String query) throws SolrServerException, IOException {
+        final Operation op = start("delete");
+
+        try {
+            if (commitStrategy == CommitStrategy.COMMIT_WITHIN) {
+                return solrServer.deleteByQuery(query, commitWithin);
+            }
+
+            return solrServer.deleteByQuery(query);
+        } catch (final SolrServerException | IOException | RuntimeException e) {
+            op.failed(e);
+            throw e;
+        } finally {
+            op.close();
+        }
+    }
+
+
+    private UpdateResponse add(final SolrInputDocument doc) throws SolrServerException, IOException {
+        final Operation op = start("add");
+
+        try {
+            if (commitStrategy == CommitStrategy.COMMIT_WITHIN) {
+                return solrServer.add(doc, commitWithin);
+            }
+
+            return solrServer.add(doc);
+        } catch (final SolrServerException | IOException | RuntimeException e) {
+            op.failed(e);
+            throw e;
+        } finally {
+            op.close();
+        }
+    }
+
+
+    private UpdateResponse add(final Collection<SolrInputDocument> docs) throws SolrServerException, IOException {
+        final Operation op = start("add");
+
+        try {
+            if (commitStrategy == CommitStrategy.COMMIT_WITHIN) {
+                return solrServer.add(docs, commitWithin);
+            }
+
+            return solrServer.add(docs);
+        } catch (final SolrServerException | IOException | RuntimeException e) {
+            op.failed(e);
+            throw e;
+        } finally {
+            op.close();
+        }
+    }
+
+
+    private UpdateResponse commit() throws SolrServerException, IOException {
+        return commit(commitStrategy);
+    }
+
+
+    /**
+     * Commits the changes with the specified strategy. With {@link CommitStrategy#COMMIT_WITHIN}
+     * the changes have already been sent with the time solr commits them in, so nothing is done.
+     * 
+     * @param strategy the {@link CommitStrategy}
+     * @return the {@link UpdateResponse} or null if nothing was committed
+     * @throws SolrServerException if the commit failed
+     * @throws IOException if the commit failed
+     */
+    private UpdateResponse commit(final CommitStrategy strategy) throws SolrServerException, IOException {
+        if (strategy == CommitStrategy.COMMIT_WITHIN) {
+            return null;
+        }
+
+        final Operation op = start(strategy == CommitStrategy.SOFT ? "softCommit" : "commit");
+
+        try {
+            if (strategy == CommitStrategy.SOFT) {
+                return solrServer.commit(true, true, true);
+            }
+
+            return solrServer.commit();
+        } catch (final SolrServerException | IOException | RuntimeException e) {
+            op.failed(e);
+            throw e;
+        } finally {
+            op.close();
+        }
+    }
+
+
+    /**
+     * Drops the copies of a configuration which has been changed by someone else, e.g. defaults
+     * which were cached while they were stored in the background and conflicted with a
+     * configuration stored by another node.
+     * 
+     * @param key the configuration key
+     */
+    private void conflicted(final String key) {
+        cache.remove(key);
+        negativeCache.invalidate(key);
+        snapshot.remove(key);
+        recentWrites.remove(key);
+    }
+
+
+    /**
+     * Remembers a change which is not committed yet, so this node reads its own writes until solr
+     * returns it. If solr does not return it within {@link #MAX_UNCONFIRMED} ms, e.g. because
+     * another node has overwritten it, it is discarded.
+     * 
+     * @param key the configuration key
+     * @param json the configuration as JSON or null if it was removed
+     */
+    private void written(final String key, final String json) {
+        written(key, json, 0L);
+    }
+
+
+    /**
+     * Remembers a change which is not committed yet together with the version solr assigned to it.
+     * 
+     * @param key the configuration key
+     * @param json the configuration as JSON or null if it was removed
+     * @param version the version of the change or 0 if unknown
+     */
+    private void written(final String key, final String json, final long version) {
+        if (commitStrategy != CommitStrategy.COMMIT_WITHIN) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+
+        recentWrites.values().removeIf(recent -> recent.expiresAt <= now);
+        recentWrites.put(key, new RecentWrite(json, version, now + commitWithin, now + Math.max(MAX_UNCONFIRMED, 2L * commitWithin)));
+    }
+
+
+    private RecentWrite getRecentWrite(final String key) {
+        if (recentWrites.isEmpty()) {
+            return null;
+        }
+
+        final RecentWrite recent = recentWrites.get(key);
+
+        if (recent == null || recent.expiresAt <= System.currentTimeMillis()) {
+            return null;
+        }
+
+        return recent;
+    }
+
+
+    @Override
+    @PreDestroy
+    public void close() {
+        if (preloader != null) {
+            preloader.close();
+        }
+
+        defaults.close();
+        cache.close();
+        snapshot.close();
+
+        if (hedging != null) {
+            hedging.close();
+        }
+
+        if (solrServer != null) {
+            solrServer.shutdown();
+            solrServer = null;
+        }
+
+        if (httpClient != null) {
+            httpClient.getConnectionManager().shutdown();
+            httpClient = null;
+        }
+    }
+
+
+    @Override
+    protected void finalize() throws Throwable {
+        close();
+        super.finalize();
+    }
+
+
+    /**
+     * Gets the cache of configurations known to not exist.
+     * 
+     * @return the {@link NegativeCache}
+     */
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+
+    /**
+     * Gets the cache of the configurations.
+     * 
+     * @return the {@link ConfigurationCache}
+     */
+    public ConfigurationCache<IConfiguration> getCache() {
+        return cache;
+    }
+
+
+    /**
+     * @param cache the cache to set
+     */
+    protected void setCache(final ConfigurationCache<IConfiguration> cache) {
+        this.cache = cache;
+    }
+
+
+    /**
+     * Gets the local snapshot of the configurations used to serve configurations if solr is not
+     * available.
+     * 
+     * @return the {@link ConfigurationSnapshot}
+     */
+    public ConfigurationSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+
+    /**
+     * @param snapshot the snapshot to set
+     */
+    protected void setSnapshot(final ConfigurationSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+
+    /**
+     * @return the metrics the operations are recorded to
+     */
+    public IConfigurationMetrics getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Sets the metrics the operations are recorded to and registers the gauges.
+     * 
+     * @param metrics the metrics to set
+     */
+    public void setMetrics(final IConfigurationMetrics metrics) {
+        this.metrics = metrics;
+        registerMetrics();
+    }
+
+
+    /**
+     * Gets the provider creating configurations with their defaults.
+     * 
+     * @return the {@link DefaultConfigurationProvider}
+     */
+    public DefaultConfigurationProvider getDefaults() {
+        return defaults;
+    }
+
+
+    /**
+     * Gets the preloader of the configurations which are loaded at startup.
+     * 
+     * @return the {@link ConfigurationPreloader} or null if not initialized
+     */
+    public ConfigurationPreloader getPreloader() {
+        return preloader;
+    }
+
+
+    /**
+     * @return the tracer the phases of the operations are traced with
+     */
+    public IConfigurationTracer getTracer() {
+        return tracer;
+    }
+
+
+    /**
+     * @param tracer the tracer to set
+     */
+    public void setTracer(final IConfigurationTracer tracer) {
+        this.tracer = tracer;
+    }
+
+
+    /**
+     * @return true if the documents contain the unique key and can be saved with a version
+     */
+    public boolean isVersioning() {
+        return versioning;
+    }
+
+
+    /**
+     * @param versioning true if the schema has the uniqueKey <code>key</code>
+     */
+    protected void setVersioning(final boolean versioning) {
+        this.versioning = versioning;
+    }
+
+
+    /**
+     * @return the strategy changes are committed with
+     */
+    public CommitStrategy getCommitStrategy() {
+        return commitStrategy;
+    }
+
+
+    /**
+     * @return the time in ms within which solr commits a change with
+     *         {@link CommitStrategy#COMMIT_WITHIN}
+     */
+    public int getCommitWithin() {
+        return commitWithin;
+    }
+
+
+    /**
+     * @param commitStrategy the strategy changes are committed with
+     * @param commitWithin the time in ms within which solr commits a change with
+     *        {@link CommitStrategy#COMMIT_WITHIN}
+     */
+    protected void setCommitStrategy(final CommitStrategy commitStrategy, final int commitWithin) {
+        this.commitStrategy = commitStrategy;
+        this.commitWithin = commitWithin;
     }
 
 
     /**
      * @return the solrServer
      */
-    protected HttpSolrServer getSolrServer() {
+    protected SolrServer getSolrServer() {
         return solrServer;
     }
 
@@ -268,7 +1597,7 @@ public class ConfigurationServiceSolr implements IConfigurationService {
     /**
      * @param solrServer the solrServer to set
      */
-    protected void setSolrServer(final HttpSolrServer solrServer) {
+    protected void setSolrServer(final SolrServer solrServer) {
         this.solrServer = solrServer;
     }
 }
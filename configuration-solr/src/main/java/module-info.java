@@ -13,6 +13,7 @@ module configuration.solr {
     requires com.fasterxml.jackson.databind;
     requires configuration.api;
     requires exception;
+    requires httpclient;
     requires java.annotation;
     requires jakarta.inject;
     requires solr.solrj;
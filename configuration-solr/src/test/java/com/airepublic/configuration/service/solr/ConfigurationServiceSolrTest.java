@@ -14,21 +14,46 @@
 package com.airepublic.configuration.service.solr;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PropertyResourceBundle;
+import java.util.ResourceBundle;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.CloudSolrServer;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.impl.LBHttpSolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import com.airepublic.configuration.api.ConfigurationCache;
+import com.airepublic.configuration.api.IConfiguration;
 import com.airepublic.configuration.service.solr.TestConfiguration;
 
 /**
@@ -147,4 +172,251 @@ public class ConfigurationServiceSolrTest {
 		
 		Assert.assertEquals("Hello world B", config.getTest());
 	}
+	
+	@Test
+	public void createSolrServerTest() throws Exception {
+		ConfigurationServiceSolr service = new ConfigurationServiceSolr();
+		ResourceBundle props = new PropertyResourceBundle(new StringReader("solr.base.url.configuration=http://localhost:8983/solr/configuration\nsolr.pool.maxConnections=16"));
+		SolrServer server = service.createSolrServer(props);
+		
+		Assert.assertTrue(server instanceof HttpSolrServer);
+		Assert.assertEquals("http://localhost:8983/solr/configuration", ((HttpSolrServer) server).getBaseURL());
+		service.setSolrServer(server);
+		service.close();
+		
+		service = new ConfigurationServiceSolr();
+		props = new PropertyResourceBundle(new StringReader("solr.base.url.configuration=http://host1:8983/solr/configuration, http://host2:8983/solr/configuration"));
+		server = service.createSolrServer(props);
+		
+		Assert.assertTrue(server instanceof LBHttpSolrServer);
+		service.setSolrServer(server);
+		service.close();
+		
+		service = new ConfigurationServiceSolr();
+		props = new PropertyResourceBundle(new StringReader("solr.client=cloud\nsolr.zk.host=localhost:2181\nsolr.collection.configuration=configuration"));
+		server = service.createSolrServer(props);
+		
+		Assert.assertTrue(server instanceof CloudSolrServer);
+		service.setSolrServer(server);
+		service.close();
+	}
+	
+	@Test
+	public void concurrentMissesAreCoalescedTest() throws Exception {
+		final AtomicInteger queries = new AtomicInteger();
+		final AtomicInteger writes = new AtomicInteger();
+		final QueryResponse response = mock(QueryResponse.class);
+		when(response.getResults()).thenReturn(new SolrDocumentList());
+		when(mockServer.query(any(SolrQuery.class))).then(new Answer<QueryResponse>() {
+			@Override
+			public QueryResponse answer(InvocationOnMock invocation) throws Throwable {
+				queries.incrementAndGet();
+				Thread.sleep(300);
+				return response;
+			}
+		});
+		when(mockServer.add(any(SolrInputDocument.class))).then(new Answer<SolrInputDocument>() {
+			@Override
+			public SolrInputDocument answer(InvocationOnMock invocation) throws Throwable {
+				writes.incrementAndGet();
+				return null;
+			}
+		});
+		
+		final int threads = 10;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<TestConfiguration>> results = new ArrayList<>();
+		
+		for (int i = 0; i < threads; i++) {
+			results.add(executor.submit(() -> {
+				start.await();
+				return service.<TestConfiguration> getConfiguration("testConfiguration", "A", TestConfiguration.class);
+			}));
+		}
+		
+		start.countDown();
+		
+		for (Future<TestConfiguration> result : results) {
+			Assert.assertEquals("Hello world A", result.get().getTest());
+		}
+		
+		executor.shutdown();
+		
+		Assert.assertEquals(1, queries.get());
+		Assert.assertEquals(1, writes.get());
+	}
+	
+	@Test
+	public void negativeCachingTest() throws Exception {
+		final AtomicInteger queries = new AtomicInteger();
+		final QueryResponse response = mock(QueryResponse.class);
+		when(response.getResults()).thenReturn(new SolrDocumentList());
+		when(mockServer.query(any(SolrQuery.class))).then(new Answer<QueryResponse>() {
+			@Override
+			public QueryResponse answer(InvocationOnMock invocation) throws Throwable {
+				queries.incrementAndGet();
+				return response;
+			}
+		});
+		
+		for (int i = 0; i < 100; i++) {
+			Assert.assertNull(service.getConfigurationAsJson("unknownConfiguration", null));
+		}
+		
+		Assert.assertEquals(1, queries.get());
+		Assert.assertEquals(99, service.getNegativeCache().getHits());
+		
+		service.saveConfigurationAsJson("{\"id\":\"unknownConfiguration\",\"variation\":null,\"test\":\"hello\"}");
+		
+		Assert.assertEquals(1, service.getNegativeCache().getInvalidations());
+		service.getConfigurationAsJson("unknownConfiguration", null);
+		Assert.assertEquals(2, queries.get());
+	}
+	
+	@Test
+	public void staleWhileRevalidateTest() throws Exception {
+		service.setCache(new ConfigurationCache<IConfiguration>(0, 60000, true));
+		QueryResponse first = createResponse("first");
+		QueryResponse second = createResponse("second");
+		when(mockServer.query(any(SolrQuery.class))).thenReturn(first, second);
+		
+		TestConfiguration chk = service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		Assert.assertEquals("first", chk.getTest());
+		
+		// the stale value is served while it is reloaded in the background
+		chk = service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		Assert.assertEquals("first", chk.getTest());
+		Assert.assertEquals(1, service.getCache().getStaleServed());
+		
+		for (int i = 0; i < 50 && "first".equals(chk.getTest()); i++) {
+			Thread.sleep(20);
+			chk = service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		}
+		
+		Assert.assertEquals("second", chk.getTest());
+	}
+	
+	@Test
+	public void staleIfErrorTest() throws Exception {
+		service.setCache(new ConfigurationCache<IConfiguration>(0, 60000, false));
+		QueryResponse response = createResponse("helloAgain");
+		when(mockServer.query(any(SolrQuery.class))).thenReturn(response).thenThrow(new SolrServerException("Solr is down"));
+		
+		TestConfiguration chk = service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		Assert.assertEquals("helloAgain", chk.getTest());
+		
+		chk = service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		Assert.assertEquals("helloAgain", chk.getTest());
+		Assert.assertEquals(1, service.getCache().getStaleOnError());
+		
+		// solr errors must not overwrite the configuration with its defaults
+		verify(mockServer, never()).add(any(SolrInputDocument.class));
+	}
+	
+	@Test
+	public void commitWithinTest() throws Exception {
+		service.setCommitStrategy(ConfigurationServiceSolr.CommitStrategy.COMMIT_WITHIN, 1000);
+		QueryResponse response = mock(QueryResponse.class);
+		when(response.getResults()).thenReturn(new SolrDocumentList());
+		when(mockServer.query(any(SolrQuery.class))).thenReturn(response);
+		
+		service.saveConfigurationAsJson("{\"id\":\"testConfiguration\",\"variation\":\"\",\"test\":\"hello\"}");
+		verify(mockServer).add(any(SolrInputDocument.class), eq(1000));
+		verify(mockServer, never()).commit();
+		
+		// the uncommitted change is read from memory
+		TestConfiguration chk = service.getConfiguration("testConfiguration", null, TestConfiguration.class);
+		Assert.assertEquals("hello", chk.getTest());
+		Assert.assertEquals("{\"id\":\"testConfiguration\",\"variation\":\"\",\"test\":\"hello\"}", service.getConfigurationAsJson("testConfiguration", null));
+		verify(mockServer, never()).query(any(SolrQuery.class));
+	}
+	
+	@Test
+	public void commitWithinConfirmedTest() throws Exception {
+		service.setCommitStrategy(ConfigurationServiceSolr.CommitStrategy.COMMIT_WITHIN, 0);
+		QueryResponse empty = mock(QueryResponse.class);
+		when(empty.getResults()).thenReturn(new SolrDocumentList());
+		when(mockServer.query(any(SolrQuery.class))).thenReturn(empty, createResponse("hello"), createResponse("other"));
+		
+		service.saveConfigurationAsJson("{\"id\":\"testConfiguration\",\"variation\":\"\",\"test\":\"hello\"}");
+		
+		// the commit takes longer than the commit window, so the change is still read from memory
+		Assert.assertEquals("{\"id\":\"testConfiguration\",\"variation\":\"\",\"test\":\"hello\"}", service.getConfigurationAsJson("testConfiguration", null));
+		
+		// solr returns the change, so it is not read from memory anymore
+		Assert.assertEquals("{\"id\":\"testConfiguration\",\"variation\":\"\",\"test\":\"hello\"}", service.getConfigurationAsJson("testConfiguration", null));
+		Assert.assertEquals("{\"id\":\"testConfiguration\",\"variation\":\"\",\"test\":\"other\"}", service.getConfigurationAsJson("testConfiguration", null));
+	}
+	
+	@Test
+	public void commitWithinVersionedTest() throws Exception {
+		service.setVersioning(true);
+		service.setCommitStrategy(ConfigurationServiceSolr.CommitStrategy.COMMIT_WITHIN, 1000);
+		NamedList<Object> adds = new NamedList<>();
+		adds.add("testConfiguration_", 42L);
+		NamedList<Object> updated = new NamedList<>();
+		updated.add("adds", adds);
+		when(mockServer.request(any(SolrRequest.class))).thenReturn(updated);
+		QueryResponse response = mock(QueryResponse.class);
+		when(response.getResults()).thenReturn(new SolrDocumentList());
+		when(mockServer.query(any(SolrQuery.class))).thenReturn(response);
+		
+		Assert.assertEquals(42L, service.saveConfigurationAsJson("{\"id\":\"testConfiguration\",\"variation\":\"\",\"test\":\"hello\"}", 0L));
+		verify(mockServer, never()).commit();
+		
+		// the uncommitted versioned save is read from memory
+		Assert.assertEquals("{\"id\":\"testConfiguration\",\"variation\":\"\",\"test\":\"hello\"}", service.getConfigurationAsJson("testConfiguration", null));
+		Assert.assertEquals(42L, service.getConfigurationVersion("testConfiguration", null));
+	}
+	
+	@Test
+	public void patchVersionedTest() throws Exception {
+		service.setVersioning(true);
+		final List<String> saved = new ArrayList<>();
+		final NamedList<Object> adds = new NamedList<>();
+		adds.add("testConfiguration_", 43L);
+		final NamedList<Object> updated = new NamedList<>();
+		updated.add("adds", adds);
+		when(mockServer.request(any(SolrRequest.class))).then(new Answer<NamedList<Object>>() {
+			@Override
+			public NamedList<Object> answer(InvocationOnMock invocation) throws Throwable {
+				SolrInputDocument doc = ((UpdateRequest)invocation.getArguments()[0]).getDocuments().get(0);
+				saved.add((String)doc.getFieldValue("configuration"));
+				
+				// another node changed the configuration after the first read
+				if (saved.size() == 1) {
+					Assert.assertEquals(41L, doc.getFieldValue("_version_"));
+					throw new SolrException(SolrException.ErrorCode.CONFLICT, "version conflict");
+				}
+				
+				Assert.assertEquals(42L, doc.getFieldValue("_version_"));
+				return updated;
+			}
+		});
+		QueryResponse first = createResponse("hello");
+		first.getResults().get(0).addField("_version_", 41L);
+		QueryResponse second = createResponse("other");
+		second.getResults().get(0).addField("_version_", 42L);
+		when(mockServer.query(any(SolrQuery.class))).thenReturn(first).thenReturn(second);
+		
+		service.patchConfigurationAsJson("testConfiguration", null, "{\"patched\":true}");
+		
+		// the patch is applied again to the concurrently changed configuration
+		Assert.assertEquals(2, saved.size());
+		Assert.assertEquals("{\"id\":\"testConfiguration\",\"variation\":\"\",\"test\":\"other\",\"patched\":true}", saved.get(1));
+		verify(mockServer, times(2)).query(any(SolrQuery.class));
+	}
+	
+	private QueryResponse createResponse(String test) {
+		SolrDocument doc = new SolrDocument();
+		doc.addField("id", "testConfiguration");
+		doc.addField("variation", "");
+		doc.addField("configuration", "{\"id\":\"testConfiguration\",\"variation\":\"\",\"test\":\"" + test + "\"}");
+		SolrDocumentList docList = new SolrDocumentList();
+		docList.add(doc);
+		QueryResponse response = mock(QueryResponse.class);
+		when(response.getResults()).thenReturn(docList);
+		return response;
+	}
 }